@@ -0,0 +1,59 @@
+package org.dsmk.api;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the kernel configuration, the merged configuration files and system
+ * properties. The values are parsed once, when the snapshot is made, so reading them neither locks nor
+ * parses. The typed getters trim the values and throw a NumberFormatException when a value is not of
+ * the type asked for.
+ */
+public interface Config {
+
+	/**
+	 * @return the version of the configuration, increasing with every reload
+	 */
+	public long version();
+
+	public boolean contains(String key);
+
+	/**
+	 * @param key
+	 * @return the value as configured or null if the key is missing
+	 */
+	public String getString(String key);
+
+	public String getString(String key, String defaultValue);
+
+	public int getInt(String key, int defaultValue);
+
+	public long getLong(String key, long defaultValue);
+
+	/**
+	 * @param key
+	 * @param defaultValue
+	 * @return true if the value is true ignoring case, as Boolean.parseBoolean, or the default if the
+	 *         key is missing
+	 */
+	public boolean getBoolean(String key, boolean defaultValue);
+
+	/**
+	 * @param key
+	 * @return the comma separated values, trimmed, empty if the key is missing or blank
+	 */
+	public List<String> getList(String key);
+
+	/**
+	 * @return the keys in order
+	 */
+	public Set<String> keys();
+
+	/**
+	 * The keys under a prefix, such as the engine and ringbuffer.size of dsmk.subsys.event for the
+	 * keys dsmk.subsys.event.engine and dsmk.subsys.event.ringbuffer.size
+	 * @param prefix
+	 * @return
+	 */
+	public Config scope(String prefix);
+}
@@ -0,0 +1,21 @@
+package org.dsmk.api;
+
+/**
+ * Holds the current {@link Config}. A reload replaces the snapshot as a whole, so a reader sees either
+ * the configuration before the reload or the one after it, never a mix of both.
+ */
+public interface ConfigServer extends Server {
+
+	/**
+	 * @return the current snapshot, which never changes, to be asked for again to see later reloads
+	 */
+	public Config current();
+
+	/**
+	 * A view of the keys under a prefix, typically the name of a subsystem, which always reads the
+	 * current snapshot
+	 * @param prefix
+	 * @return
+	 */
+	public Config scope(String prefix);
+}
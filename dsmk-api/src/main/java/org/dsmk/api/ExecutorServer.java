@@ -0,0 +1,83 @@
+package org.dsmk.api;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Hands out the executors of the subsystems so that the kernel knows every thread pool and keeps their
+ * threads within one budget. Executors are named; asking again for a name returns the same executor,
+ * which lets subsystems share pools. The executors belong to the ExecutorServer, which drains and
+ * shuts them down when the kernel stops, callers must not shut them down themselves.
+ */
+public interface ExecutorServer extends Server {
+
+	/**
+	 * What an executor is doing, at the time it is asked
+	 */
+	public interface ExecutorStats {
+
+		public String getName();
+
+		/**
+		 * @return fixed, work-stealing, scheduled or blocking
+		 */
+		public String getKind();
+
+		/**
+		 * @return the number of platform threads the executor may use, 0 for virtual threads
+		 */
+		public int getThreads();
+
+		public int getActive();
+
+		public long getQueued();
+
+		public long getCompleted();
+
+		public long getRejected();
+	}
+
+	/**
+	 * A pool of a fixed number of threads
+	 * @param name
+	 * @param threads
+	 * @param queueCapacity the number of tasks which may wait for a thread, further tasks are rejected
+	 * @return
+	 */
+	public ExecutorService fixed(String name, int threads, int queueCapacity);
+
+	/**
+	 * A work-stealing pool, for tasks forking subtasks
+	 * @param name
+	 * @param parallelism at most the number of cores
+	 * @return
+	 */
+	public ExecutorService workStealing(String name, int parallelism);
+
+	/**
+	 * @param name
+	 * @param threads
+	 * @return
+	 */
+	public ScheduledExecutorService scheduled(String name, int threads);
+
+	/**
+	 * An executor for tasks spending their time blocked, such as on I/O. On JDKs with virtual threads
+	 * every task runs in its own virtual thread, otherwise in a pool of platform threads.
+	 * @param name
+	 * @param maxConcurrency the number of tasks running at once, the others wait for their turn
+	 * @return
+	 */
+	public ExecutorService blocking(String name, int maxConcurrency);
+
+	/**
+	 * @return true if the blocking executors run on virtual threads
+	 */
+	public boolean isVirtualThreadsSupported();
+
+	/**
+	 * @return the executors in the order they were created
+	 */
+	public List<ExecutorStats> stats();
+}
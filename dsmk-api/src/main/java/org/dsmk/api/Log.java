@@ -1,13 +1,131 @@
 package org.dsmk.api;
 
+/**
+ * Logging facade handed to the subsystems by the LogServer. Besides the varargs methods there are
+ * fixed arity and primitive overloads which, together with the level checks, let hot code log without
+ * allocating an argument array or boxing when the level is disabled. Only the varargs methods have to
+ * be implemented, the overloads and the level checks defaulting to them.
+ */
 public interface Log {
 
+	public default boolean isDebugEnabled() {
+		return true;
+	}
+
+	public default boolean isInfoEnabled() {
+		return true;
+	}
+
+	public default boolean isWarnEnabled() {
+		return true;
+	}
+
+	public default boolean isErrorEnabled() {
+		return true;
+	}
+
 	public void debug(String msg, Object... args);
 
+	public default void debug(String msg) {
+		debug(msg, new Object[0]);
+	}
+
+	public default void debug(String msg, Object arg) {
+		debug(msg, new Object[] { arg });
+	}
+
+	public default void debug(String msg, Object arg1, Object arg2) {
+		debug(msg, new Object[] { arg1, arg2 });
+	}
+
+	public default void debug(String msg, long arg) {
+		debug(msg, new Object[] { arg });
+	}
+
+	public default void debug(String msg, long arg1, long arg2) {
+		debug(msg, new Object[] { arg1, arg2 });
+	}
+
+	public default void debug(String msg, double arg) {
+		debug(msg, new Object[] { arg });
+	}
+
 	public void info(String msg, Object... args);
 
+	public default void info(String msg) {
+		info(msg, new Object[0]);
+	}
+
+	public default void info(String msg, Object arg) {
+		info(msg, new Object[] { arg });
+	}
+
+	public default void info(String msg, Object arg1, Object arg2) {
+		info(msg, new Object[] { arg1, arg2 });
+	}
+
+	public default void info(String msg, long arg) {
+		info(msg, new Object[] { arg });
+	}
+
+	public default void info(String msg, long arg1, long arg2) {
+		info(msg, new Object[] { arg1, arg2 });
+	}
+
+	public default void info(String msg, double arg) {
+		info(msg, new Object[] { arg });
+	}
+
 	public void warn(String msg, Object... args);
 
+	public default void warn(String msg) {
+		warn(msg, new Object[0]);
+	}
+
+	public default void warn(String msg, Object arg) {
+		warn(msg, new Object[] { arg });
+	}
+
+	public default void warn(String msg, Object arg1, Object arg2) {
+		warn(msg, new Object[] { arg1, arg2 });
+	}
+
+	public default void warn(String msg, long arg) {
+		warn(msg, new Object[] { arg });
+	}
+
+	public default void warn(String msg, long arg1, long arg2) {
+		warn(msg, new Object[] { arg1, arg2 });
+	}
+
+	public default void warn(String msg, double arg) {
+		warn(msg, new Object[] { arg });
+	}
+
 	public void error(String msg, Object... args);
 
+	public default void error(String msg) {
+		error(msg, new Object[0]);
+	}
+
+	public default void error(String msg, Object arg) {
+		error(msg, new Object[] { arg });
+	}
+
+	public default void error(String msg, Object arg1, Object arg2) {
+		error(msg, new Object[] { arg1, arg2 });
+	}
+
+	public default void error(String msg, long arg) {
+		error(msg, new Object[] { arg });
+	}
+
+	public default void error(String msg, long arg1, long arg2) {
+		error(msg, new Object[] { arg1, arg2 });
+	}
+
+	public default void error(String msg, double arg) {
+		error(msg, new Object[] { arg });
+	}
+
 }
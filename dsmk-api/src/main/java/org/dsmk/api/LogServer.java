@@ -3,5 +3,29 @@ package org.dsmk.api;
 public interface LogServer extends Server {
 
 	public Log getLog(Subsystem sys);
-	
+
+	/**
+	 * Changes at runtime the level of the Logs of a name and of the names it prefixes, such as
+	 * dsmk.subsys for every subsystem under it, a longer prefix set keeping its own level
+	 * 
+	 * @param name
+	 *            a subsystem name or prefix, the empty name for every Log
+	 * @param level
+	 *            debug, info, warn, error or off, null to go back to the configured level
+	 * @throws UnsupportedOperationException
+	 *             if the LogServer keeps the configured levels, as by default
+	 */
+	public default void setLevel(String name, String level) {
+		throw new UnsupportedOperationException(getClass().getName() + " does not change levels at runtime");
+	}
+
+	/**
+	 * @param name
+	 * @return the level the Logs of the name log at, null if the LogServer does not tell, as by
+	 *         default
+	 */
+	public default String getLevel(String name) {
+		return null;
+	}
+
 }
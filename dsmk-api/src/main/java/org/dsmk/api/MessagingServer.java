@@ -0,0 +1,108 @@
+package org.dsmk.api;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request/response messaging between subsystems. A subsystem binds a {@link Handler} to an address,
+ * others send it requests and get the response as a CompletableFuture, each request being matched
+ * with its response by a correlation id and failed with a TimeoutException when its timeout elapses.
+ * <p>
+ * Payloads are direct ByteBuffers taken from the pool of the server with {@link #allocate(int)} and
+ * handed over, not copied: a buffer belongs to its sender until it is sent, then to the receiver. The
+ * server releases a request's payload once its handler failed, or along with the response, which the
+ * receiver releases with {@link Message#release()} when done reading it.
+ */
+public interface MessagingServer extends Server {
+
+	/**
+	 * A request or a response, its payload readable from its position to its limit
+	 */
+	public interface Message {
+
+		/**
+		 * @return the id of the request, shared by its response
+		 */
+		public long getCorrelationId();
+
+		public String getAddress();
+
+		public ByteBuffer getPayload();
+
+		/**
+		 * Gives the payload back to the pool, neither the message nor its payload may be used
+		 * afterwards. Releasing again does nothing.
+		 */
+		public void release();
+	}
+
+	/**
+	 * Handles the requests sent to an address, on the threads of the server
+	 */
+	@FunctionalInterface
+	public interface Handler {
+
+		/**
+		 * @param request
+		 *            valid until the returned stage completes
+		 * @return the payload of the response, allocated from the server or the request's own payload
+		 *         rewritten, or a view of it
+		 */
+		public CompletionStage<ByteBuffer> handle(Message request);
+	}
+
+	/**
+	 * Returned by {@link MessagingServer#bind(String, Handler)}, to be maintained to unbind
+	 */
+	public interface Binding {
+
+		public String getAddress();
+
+		public boolean isBound();
+
+		/**
+		 * Stops handling the requests of the address, the requests being handled still complete
+		 */
+		public void unbind();
+	}
+
+	/**
+	 * @param capacity
+	 * @return a cleared direct buffer of at least the capacity, from the pool when it has one
+	 */
+	public ByteBuffer allocate(int capacity);
+
+	/**
+	 * @param address
+	 * @param handler
+	 * @return
+	 * @throws IllegalStateException
+	 *             if a handler is bound to the address already
+	 */
+	public Binding bind(String address, Handler handler);
+
+	/**
+	 * Sends a request with the default timeout of the server
+	 *
+	 * @param address
+	 * @param payload
+	 *            read from its position to its limit, handed over to the server
+	 * @return
+	 */
+	public CompletableFuture<Message> request(String address, ByteBuffer payload);
+
+	/**
+	 * Sends a request
+	 *
+	 * @param address
+	 * @param payload
+	 *            read from its position to its limit, handed over to the server
+	 * @param timeout
+	 * @param unit
+	 * @return the response, failed with a TimeoutException after the timeout or an
+	 *         IllegalStateException when no handler is bound to the address
+	 */
+	public CompletableFuture<Message> request(String address, ByteBuffer payload, long timeout, TimeUnit unit);
+}
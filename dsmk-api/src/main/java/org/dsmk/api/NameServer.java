@@ -1,6 +1,9 @@
 package org.dsmk.api;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import javax.naming.NamingException;
 
 public interface NameServer extends Server {
@@ -13,6 +16,42 @@ public interface NameServer extends Server {
 		public void unRegister()throws NamingException;
 	}
 	
+	/**
+	 * A name registered or unregistered
+	 */
+	public interface NameEvent{
+		
+		public enum Kind { REGISTERED, UNREGISTERED }
+		
+		public Kind getKind();
+		public String getName();
+		public Object getInstance();
+		
+		/**
+		 * @return the version of the registry the change made, increasing with every change
+		 */
+		public long getVersion();
+	}
+	
+	public interface NameListener{
+		
+		/**
+		 * Called on the thread of the NameServer delivering the events, one event at a time
+		 * @param event
+		 */
+		public void changed(NameEvent event);
+	}
+	
+	/**
+	 * Returned by {@link NameServer#watch(String, NameListener, boolean)}, to be maintained to stop watching
+	 */
+	public interface NameWatch{
+		
+		public String getPattern();
+		public boolean isActive();
+		public void cancel();
+	}
+	
 	/**
 	 * Lookup a name and get the mapped Object
 	 * @param name
@@ -47,6 +86,44 @@ public interface NameServer extends Server {
 	public <T> Iterator<T> lookupAll(String name,Class<T> typ) throws NamingException;
 	
 	
+	/**
+	 * Lookup the first instance, registered under any name, which is of the given type.
+	 * Instances are indexed under all their superclasses and interfaces when registered.
+	 * By default the instance registered under the name of the type
+	 * @param typ
+	 * @return
+	 * @throws NamingException if no instance of the type is registered
+	 */
+	public default <T> T lookup1(Class<T> typ) throws NamingException {
+		if (typ == null) {
+			throw new NamingException("Lookup Type cannot be null!");
+		}
+		return lookup1(typ.getName(), typ);
+	}
+	
+	
+	/**
+	 * Lookup all the instances, registered under any name, which are of the given type.
+	 * By default the instances registered under the name of the type
+	 * @param typ
+	 * @return an immutable list, empty if no instance of the type is registered
+	 */
+	public default <T> List<T> lookupAll(Class<T> typ) {
+		if (typ == null) {
+			throw new IllegalArgumentException("Lookup Type cannot be null!");
+		}
+		List<T> instances = new ArrayList<>();
+		try {
+			for (Iterator<T> it = lookupAll(typ.getName(), typ); it.hasNext();) {
+				instances.add(it.next());
+			}
+		} catch (NamingException e) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(instances);
+	}
+	
+	
 	/**
 	 * Registers the given instance to a given name and returns a NameRegistration instance
 	 * Note: This instance needs to be maintained to unregister cleanly from the NameServer
@@ -64,5 +141,97 @@ public interface NameServer extends Server {
 	 * @return
 	 */
 	public boolean isRegistered(String name,Object instance);
+	
+	
+	/**
+	 * Lists the registered names matching a pattern, ordered segment by segment. Names are read as
+	 * segments separated by dots: in the pattern * stands for any one segment and a final ** for one
+	 * or more segments, so dsmk.subsys.* lists dsmk.subsys.event but not dsmk.subsys.event.journal
+	 * while dsmk.subsys.** lists both. The cost depends on the pattern and the matches, not on the
+	 * number of names registered. By default only a pattern without wildcards is supported, as a
+	 * lookup of the name.
+	 * @param pattern
+	 * @return an immutable list, empty if no name matches
+	 * @throws UnsupportedOperationException if the NameServer does not list the names of a pattern
+	 */
+	public default List<String> listNames(String pattern) {
+		if (pattern == null) {
+			throw new IllegalArgumentException("Name pattern cannot be null!");
+		}
+		if (pattern.contains("*")) {
+			throw new UnsupportedOperationException(getClass().getName() + " does not list the names matching " + pattern);
+		}
+		try {
+			lookup1(pattern);
+		} catch (NamingException e) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList(pattern);
+	}
+	
+	
+	/**
+	 * Iterates, ordered segment by segment, over the registrations of the name and of every name
+	 * under it, such as dsmk.subsys.event and dsmk.subsys.event.journal for dsmk.subsys.event. The
+	 * registrations are the ones of the time of the call. By default only the registrations of the
+	 * name itself, as looked up.
+	 * @param name
+	 * @return
+	 */
+	public default Iterator<NameRegistration> subtree(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("Name cannot be null!");
+		}
+		List<NameRegistration> registrations = new ArrayList<>();
+		try {
+			for (Iterator<Object> it = lookupAll(name); it.hasNext();) {
+				Object instance = it.next();
+				registrations.add(new NameRegistration() {
+
+					@Override
+					public String getRegistrationName() {
+						return name;
+					}
+
+					@Override
+					public Object getRegiseredInstance() {
+						return instance;
+					}
+
+					@Override
+					public boolean isRegistered() {
+						return NameServer.this.isRegistered(name, instance);
+					}
+
+					@Override
+					public void unRegister() throws NamingException {
+						throw new NamingException("Only the registrant of " + name + " can unregister it");
+					}
+				});
+			}
+		} catch (NamingException e) {
+			return Collections.<NameRegistration>emptyList().iterator();
+		}
+		return Collections.unmodifiableList(registrations).iterator();
+	}
+	
+	
+	/**
+	 * Watches the names matching a pattern, as in {@link #listNames(String)}. The listener first
+	 * receives a REGISTERED event for every instance already registered under those names, then every
+	 * change in the order the changes were made. An event the listener throws on is delivered again,
+	 * after a growing delay, until the listener takes it or the watch is cancelled; the later events of
+	 * the watch wait for it, those of the other watches do not. With coalesce, the changes made to a name while the listener is busy are
+	 * delivered as the last of them only, which suits listeners caching what is registered and looking
+	 * it up again on change.
+	 * @param pattern
+	 * @param listener
+	 * @param coalesce
+	 * @return the watch, to be cancelled once done
+	 * @throws UnsupportedOperationException if the NameServer does not deliver changes, as by default
+	 */
+	public default NameWatch watch(String pattern, NameListener listener, boolean coalesce) {
+		throw new UnsupportedOperationException(getClass().getName() + " does not deliver name changes");
+	}
 
 }
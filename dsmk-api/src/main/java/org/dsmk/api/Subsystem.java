@@ -5,15 +5,27 @@ import java.util.UUID;
 
 public interface Subsystem {
 
+	/**
+	 * Attribute key for the names (String[]) a subsystem registers in the NameServer when started
+	 */
+	public static final String PROVIDES = "PROVIDES";
+
+	/**
+	 * Attribute key for the names (String[]) which must be registered in the NameServer before the
+	 * subsystem is configured. Subsystems publishing neither PROVIDES nor REQUIRES are started after
+	 * every subsystem listed before them in the same group.
+	 */
+	public static final String REQUIRES = "REQUIRES";
+
 	public String name();
-	
+
 	public UUID id();
-	
+
 	public Map<String,Object> attributes();
-	
+
 	public Result configure(Map<String,Object> config);
-	
+
 	public Result start();
-	
+
 	public Result stop();
 }
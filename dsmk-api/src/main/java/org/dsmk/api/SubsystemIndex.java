@@ -0,0 +1,21 @@
+package org.dsmk.api;
+
+import java.util.Set;
+
+/**
+ * Creates subsystems by class name without reflection. Implementations are generated at build time by
+ * {@link SubsystemIndexProcessor} and found by the kernel through the ServiceLoader.
+ */
+public interface SubsystemIndex {
+
+	/**
+	 * @return the class names of the subsystems this index creates
+	 */
+	public Set<String> classNames();
+
+	/**
+	 * @param className
+	 * @return a new instance of the subsystem or null if the class is not in this index
+	 */
+	public Subsystem create(String className);
+}
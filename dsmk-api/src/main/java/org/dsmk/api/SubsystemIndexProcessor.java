@@ -0,0 +1,165 @@
+package org.dsmk.api;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor writing a {@link SubsystemIndex} for every public, concrete {@link Subsystem}
+ * with a public no-argument constructor in the sources being compiled, kernels excepted, and the ServiceLoader entry for
+ * it. The index is named by the dsmk.subsystem.index option, by default GeneratedSubsystemIndex in the
+ * package all the subsystems share. Enable it on a module with
+ * 
+ * <pre>
+ * &lt;annotationProcessors&gt;
+ *   &lt;annotationProcessor&gt;org.dsmk.api.SubsystemIndexProcessor&lt;/annotationProcessor&gt;
+ * &lt;/annotationProcessors&gt;
+ * </pre>
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions(SubsystemIndexProcessor.INDEX_OPTION)
+public class SubsystemIndexProcessor extends AbstractProcessor {
+
+	static final String INDEX_OPTION = "dsmk.subsystem.index";
+
+	private static final String DEFAULT_INDEX_NAME = "GeneratedSubsystemIndex";
+
+	private boolean generated;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		if (generated || roundEnv.processingOver()) {
+			return false;
+		}
+
+		TypeMirror subsystemType = processingEnv.getElementUtils().getTypeElement(Subsystem.class.getName()).asType();
+		TypeMirror kernelType = processingEnv.getElementUtils().getTypeElement(Kernel.class.getName()).asType();
+		Set<String> subsystems = new TreeSet<>();
+		for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+			collect(type, subsystemType, kernelType, subsystems);
+		}
+		if (subsystems.isEmpty()) {
+			return false;
+		}
+
+		generated = true;
+		String indexName = processingEnv.getOptions().get(INDEX_OPTION);
+		if (indexName == null || indexName.trim().isEmpty()) {
+			indexName = commonPackage(subsystems) + DEFAULT_INDEX_NAME;
+		}
+		try {
+			write(indexName.trim(), subsystems);
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Unable to write subsystem index " + indexName + " - " + e.getMessage());
+		}
+		return false;
+	}
+
+	private void collect(TypeElement type, TypeMirror subsystemType, TypeMirror kernelType, Set<String> subsystems) {
+		for (TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+			if (member.getModifiers().contains(Modifier.STATIC)) {
+				collect(member, subsystemType, kernelType, subsystems);
+			}
+		}
+		if (type.getKind() != ElementKind.CLASS || !type.getModifiers().contains(Modifier.PUBLIC)
+				|| type.getModifiers().contains(Modifier.ABSTRACT)
+				|| (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC))
+				|| !processingEnv.getTypeUtils().isAssignable(type.asType(), subsystemType)
+				|| processingEnv.getTypeUtils().isAssignable(type.asType(), kernelType)) {
+			return;
+		}
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC)) {
+				subsystems.add(processingEnv.getElementUtils().getBinaryName(type).toString());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the package shared by all the classes followed by a dot, or an empty string
+	 */
+	private static String commonPackage(Set<String> classNames) {
+		String common = null;
+		for (String className : classNames) {
+			String pkg = className.substring(0, Math.max(0, className.lastIndexOf('.')));
+			if (common == null) {
+				common = pkg;
+			}
+			while (!common.isEmpty() && !(pkg.equals(common) || pkg.startsWith(common + "."))) {
+				common = common.substring(0, Math.max(0, common.lastIndexOf('.')));
+			}
+		}
+		return common == null || common.isEmpty() ? "" : common + ".";
+	}
+
+	private void write(String indexName, Set<String> subsystems) throws IOException {
+		int dot = indexName.lastIndexOf('.');
+		String pkg = dot < 0 ? null : indexName.substring(0, dot);
+		String simpleName = indexName.substring(dot + 1);
+
+		List<Element> origins = new ArrayList<>();
+		for (String subsystem : subsystems) {
+			origins.add(processingEnv.getElementUtils().getTypeElement(subsystem.replace('$', '.')));
+		}
+
+		try (Writer out = processingEnv.getFiler().createSourceFile(indexName, origins.toArray(new Element[origins.size()]))
+				.openWriter()) {
+			if (pkg != null) {
+				out.write("package " + pkg + ";\n\n");
+			}
+			out.write("/**\n * Generated by " + SubsystemIndexProcessor.class.getName() + ", do not edit\n */\n");
+			out.write("public final class " + simpleName + " implements " + SubsystemIndex.class.getName() + " {\n\n");
+			out.write("\tprivate static final java.util.Set<String> CLASS_NAMES = java.util.Collections.unmodifiableSet(\n");
+			out.write("\t\t\tnew java.util.LinkedHashSet<String>(java.util.Arrays.asList(");
+			String separator = "";
+			for (String subsystem : subsystems) {
+				out.write(separator + "\n\t\t\t\t\t\"" + subsystem + "\"");
+				separator = ",";
+			}
+			out.write(")));\n\n");
+			out.write("\t@Override\n\tpublic java.util.Set<String> classNames() {\n\t\treturn CLASS_NAMES;\n\t}\n\n");
+			out.write("\t@Override\n\tpublic " + Subsystem.class.getName() + " create(String className) {\n");
+			out.write("\t\tswitch (className) {\n");
+			for (String subsystem : subsystems) {
+				out.write("\t\tcase \"" + subsystem + "\":\n");
+				out.write("\t\t\treturn new " + subsystem.replace('$', '.') + "();\n");
+			}
+			out.write("\t\tdefault:\n\t\t\treturn null;\n\t\t}\n\t}\n}\n");
+		}
+
+		FileObject services = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+				"META-INF/services/" + SubsystemIndex.class.getName(), origins.toArray(new Element[origins.size()]));
+		try (Writer out = services.openWriter()) {
+			out.write(indexName + "\n");
+		}
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+				"Indexed " + subsystems.size() + " subsystem(s) in " + indexName);
+	}
+}
@@ -0,0 +1,94 @@
+package org.dsmk.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LogTest extends TestCase {
+
+	/**
+	 * Implements the varargs methods only, recording every call
+	 */
+	static final class VarargsLog implements Log {
+
+		final List<String> logged = new ArrayList<>();
+
+		private void log(String level, String msg, Object... args) {
+			logged.add(level + " " + msg + " " + Arrays.toString(args));
+		}
+
+		@Override
+		public void debug(String msg, Object... args) {
+			log("debug", msg, args);
+		}
+
+		@Override
+		public void info(String msg, Object... args) {
+			log("info", msg, args);
+		}
+
+		@Override
+		public void warn(String msg, Object... args) {
+			log("warn", msg, args);
+		}
+
+		@Override
+		public void error(String msg, Object... args) {
+			log("error", msg, args);
+		}
+	}
+
+	/**
+	 * Every overload of a Log implementing only the varargs methods reaches them, with its arguments
+	 */
+	public void testOverloadsDefaultToVarargs() {
+		VarargsLog log = new VarargsLog();
+		Object object = "o";
+
+		log.debug("m");
+		log.debug("m", object);
+		log.debug("m", object, object);
+		log.debug("m", 1L);
+		log.debug("m", 1L, 2L);
+		log.debug("m", 1.5);
+		log.info("m");
+		log.info("m", object);
+		log.info("m", object, object);
+		log.info("m", 1L);
+		log.info("m", 1L, 2L);
+		log.info("m", 1.5);
+		log.warn("m");
+		log.warn("m", object);
+		log.warn("m", object, object);
+		log.warn("m", 1L);
+		log.warn("m", 1L, 2L);
+		log.warn("m", 1.5);
+		log.error("m");
+		log.error("m", object);
+		log.error("m", object, object);
+		log.error("m", 1L);
+		log.error("m", 1L, 2L);
+		log.error("m", 1.5);
+
+		List<String> expected = new ArrayList<>();
+		for (String level : new String[] { "debug", "info", "warn", "error" }) {
+			expected.add(level + " m []");
+			expected.add(level + " m [o]");
+			expected.add(level + " m [o, o]");
+			expected.add(level + " m [1]");
+			expected.add(level + " m [1, 2]");
+			expected.add(level + " m [1.5]");
+		}
+		assertEquals(expected, log.logged);
+	}
+
+	public void testLevelsDefaultToEnabled() {
+		Log log = new VarargsLog();
+		assertTrue(log.isDebugEnabled());
+		assertTrue(log.isInfoEnabled());
+		assertTrue(log.isWarnEnabled());
+		assertTrue(log.isErrorEnabled());
+	}
+}
@@ -0,0 +1,25 @@
+package org.dsmk.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks, writing the results as JSON to jmh-result.json unless another result
+ * format or file is given on the command line. Takes the same options as org.openjdk.jmh.Main
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		List<String> arguments = new ArrayList<>(Arrays.asList(args));
+		if (!arguments.contains("-rf")) {
+			arguments.add("-rf");
+			arguments.add("json");
+		}
+		if (!arguments.contains("-rff")) {
+			arguments.add("-rff");
+			arguments.add("jmh-result.json");
+		}
+		org.openjdk.jmh.Main.main(arguments.toArray(new String[arguments.size()]));
+	}
+}
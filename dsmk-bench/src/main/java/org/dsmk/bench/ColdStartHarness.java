@@ -0,0 +1,84 @@
+package org.dsmk.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the cold start of the kernel packaged by mvn package -Pappcds, as the wall time of whole
+ * kernel processes started with and without the AppCDS archive, alternating so that both see the
+ * same machine state. JMH cannot measure this as a forked benchmark JVM has already loaded its own
+ * classes.
+ * 
+ * <pre>
+ * java -cp dsmk-bench/target/benchmarks.jar org.dsmk.bench.ColdStartHarness \
+ *     dsmk-kernel/target/dsmk-kernel-&lt;version&gt;.jar [dsmk-kernel/target/dsmk-kernel.jsa] [runs]
+ * </pre>
+ */
+public class ColdStartHarness {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: ColdStartHarness <kernel jar> [<archive>] [<runs>]");
+			System.exit(1);
+		}
+		File jar = new File(args[0]);
+		File archive = new File(args.length > 1 ? args[1] : new File(jar.getParentFile(), "dsmk-kernel.jsa").getPath());
+		int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		if (!jar.isFile() || !archive.isFile()) {
+			System.err.println("Missing " + (jar.isFile() ? archive : jar) + ", build it with mvn -B package -Pappcds -pl dsmk-kernel -am");
+			System.exit(1);
+		}
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> plain = Arrays.asList(java, "-Xshare:auto", "-jar", jar.getPath());
+		List<String> cds = Arrays.asList(java, "-Xshare:auto", "-Xlog:cds=off", "-XX:SharedArchiveFile=" + archive.getPath(),
+				"-jar", jar.getPath());
+
+		File output = File.createTempFile("dsmk-cold-start", ".log");
+		try {
+			// one unmeasured run of each to warm the file system cache
+			run(plain, output);
+			run(cds, output);
+
+			long[] plainMillis = new long[runs];
+			long[] cdsMillis = new long[runs];
+			for (int i = 0; i < runs; i++) {
+				plainMillis[i] = run(plain, output);
+				cdsMillis[i] = run(cds, output);
+			}
+
+			print("default CDS", plainMillis);
+			print("kernel AppCDS", cdsMillis);
+			System.out.println(String.format("median speedup %.2fx", (double) median(plainMillis) / median(cdsMillis)));
+		} finally {
+			output.delete();
+		}
+	}
+
+	private static long run(List<String> command, File output) throws Exception {
+		long startNanos = System.nanoTime();
+		Process process = new ProcessBuilder(new ArrayList<>(command)).redirectErrorStream(true)
+				.redirectOutput(ProcessBuilder.Redirect.appendTo(output)).start();
+		int exit = process.waitFor();
+		long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000L;
+		if (exit != 0) {
+			throw new IllegalStateException(command + " exited with " + exit);
+		}
+		return elapsedMillis;
+	}
+
+	private static long median(long[] millis) {
+		long[] sorted = millis.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private static void print(String mode, long[] millis) {
+		long[] sorted = millis.clone();
+		Arrays.sort(sorted);
+		System.out.println(String.format("%-14s runs=%d min=%dms median=%dms max=%dms", mode, sorted.length, sorted[0],
+				median(sorted), sorted[sorted.length - 1]));
+	}
+}
@@ -0,0 +1,171 @@
+package org.dsmk.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dsmk.api.NameServer;
+import org.dsmk.api.Result;
+import org.dsmk.kernel.subsys.event.EventBatch;
+import org.dsmk.kernel.subsys.event.EventSubsystem;
+import org.dsmk.kernel.subsys.event.ForwardingEventBus;
+import org.dsmk.kernel.subsys.event.SubscribeBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+/**
+ * Publishing through the bus EventSubsystem registers, for each of its engines. publish measures the
+ * publisher side throughput, publishAndAwaitDispatch the latency until the subscriber received the
+ * event. publishBurst and publishBurstBatched post the same burst of ticks, one by one and as a batch
+ * the subscriber receives at once.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBusBenchmark {
+
+	public static final class Ping {
+		long sequence;
+	}
+
+	public static final class Tick {
+		final long value;
+
+		Tick(long value) {
+			this.value = value;
+		}
+	}
+
+	public static final class Subscriber {
+
+		final LongAdder events = new LongAdder();
+		final LongAdder ticks = new LongAdder();
+		volatile long lastSequence;
+
+		@Subscribe
+		@AllowConcurrentEvents
+		public void onEvent(Long event) {
+			events.increment();
+		}
+
+		@Subscribe
+		@AllowConcurrentEvents
+		public void onPing(Ping ping) {
+			lastSequence = ping.sequence;
+		}
+
+		@SubscribeBatch
+		@AllowConcurrentEvents
+		public void onTicks(EventBatch<Tick> batch) {
+			ticks.add(batch.size());
+		}
+	}
+
+	private static final int BURST = 100;
+
+	@Param({ "guava", "compiled", "ringbuffer" })
+	public String engine;
+
+	private EventSubsystem eventSubsystem;
+
+	private EventBus eventBus;
+
+	private final Subscriber subscriber = new Subscriber();
+
+	private final Long event = 42L;
+
+	private final Ping ping = new Ping();
+
+	private final List<Tick> burst = new ArrayList<>(BURST);
+
+	@Setup
+	public void setup() throws Exception {
+		NameServer nameServer = Fixtures.nameServer();
+		Properties configuration = new Properties();
+		configuration.setProperty("dsmk.subsys.event.engine", engine);
+
+		Map<String, Object> config = new HashMap<>();
+		config.put(NameServer.class.getName(), nameServer);
+		config.put("config-properties", configuration);
+
+		eventSubsystem = new EventSubsystem();
+		check(eventSubsystem.configure(config));
+		check(eventSubsystem.start());
+
+		eventBus = nameServer.lookup1(EventBus.class);
+		eventBus.register(subscriber);
+		for (int i = 0; i < BURST; i++) {
+			burst.add(new Tick(i));
+		}
+	}
+
+	private static void check(Result result) {
+		if (result.isNotOK()) {
+			throw new IllegalStateException(result.getCode() + " " + result.getMsg());
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		eventSubsystem.stop();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void publish() {
+		eventBus.post(event);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public long publishAndAwaitDispatch() {
+		// only one ping is ever in flight, so it can be reused
+		long sequence = ping.sequence + 1;
+		ping.sequence = sequence;
+		eventBus.post(ping);
+		while (subscriber.lastSequence != sequence) {
+			Thread.yield();
+		}
+		return sequence;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@OperationsPerInvocation(BURST)
+	public void publishBurst() {
+		for (Tick tick : burst) {
+			eventBus.post(tick);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@OperationsPerInvocation(BURST)
+	public void publishBurstBatched() {
+		((ForwardingEventBus) eventBus).postAll(burst);
+	}
+}
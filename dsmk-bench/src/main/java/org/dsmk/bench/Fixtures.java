@@ -0,0 +1,72 @@
+package org.dsmk.bench;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.LogServer;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.Result;
+import org.dsmk.api.Subsystem;
+import org.dsmk.kernel.DefaultLogServer;
+import org.dsmk.kernel.DefaultNameServer;
+
+/**
+ * Kernel pieces shared by the benchmarks
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @return a NameServer with a LogServer registered, which is what the subsystems expect when configured
+	 * @throws NamingException
+	 */
+	static NameServer nameServer() throws NamingException {
+		NameServer nameServer = new DefaultNameServer();
+		nameServer.register(LogServer.class.getName(), new DefaultLogServer());
+		return nameServer;
+	}
+
+	/**
+	 * A subsystem which only has a name, to get logs from the LogServer
+	 */
+	static Subsystem subsystem(String name) {
+		UUID id = UUID.randomUUID();
+		return new Subsystem() {
+
+			@Override
+			public String name() {
+				return name;
+			}
+
+			@Override
+			public UUID id() {
+				return id;
+			}
+
+			@Override
+			public Map<String, Object> attributes() {
+				return Collections.emptyMap();
+			}
+
+			@Override
+			public Result configure(Map<String, Object> config) {
+				return Result.OK;
+			}
+
+			@Override
+			public Result start() {
+				return Result.OK;
+			}
+
+			@Override
+			public Result stop() {
+				return Result.OK;
+			}
+		};
+	}
+}
@@ -0,0 +1,52 @@
+package org.dsmk.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dsmk.api.Result;
+import org.dsmk.kernel.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full kernel start and stop with the subsystems configured in dsmk-conf.properties. The cold cycle is
+ * the first one in a fresh JVM, class loading included, the warm cycle repeats it in a JVM where
+ * everything is loaded and compiled.
+ */
+public class KernelLifecycleBenchmark {
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 0)
+	@Measurement(iterations = 1)
+	@Fork(10)
+	public Result coldStartStop() throws Exception {
+		return startStop();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	@Fork(1)
+	public Result warmStartStop() throws Exception {
+		return startStop();
+	}
+
+	private static Result startStop() throws Exception {
+		Main kernel = new Main();
+		kernel.configure(Main.createKernelConfiguration(new String[0]));
+		Result result = kernel.start();
+		if (result.isNotOK()) {
+			throw new IllegalStateException(result.getCode() + " " + result.getMsg());
+		}
+		kernel.stop();
+		return result;
+	}
+}
@@ -0,0 +1,132 @@
+package org.dsmk.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.dsmk.api.Log;
+import org.dsmk.kernel.BinaryLogServer;
+import org.dsmk.kernel.DefaultLogServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a Log call when the level is disabled and when it is enabled, the levels being set through
+ * the LogServer. The enabled log writes to a Null appender (see log4j2-bench.xml) so that only the
+ * logging path itself is measured. The binary
+ * log writes the same calls into the segments of a {@link BinaryLogServer}. Run with -prof gc to see
+ * the allocation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-bench.xml")
+public class LogBenchmark {
+
+	private Log disabled;
+
+	private Log enabled;
+
+	private Path binaryDirectory;
+
+	private BinaryLogServer binaryLogServer;
+
+	private Log binary;
+
+	private long count = 42L;
+
+	private String name = "dsmk.bench";
+
+	@Setup
+	public void setup() throws IOException {
+		DefaultLogServer logServer = new DefaultLogServer();
+		logServer.setLevel("", "error");
+		logServer.setLevel("dsmk.bench.enabled", "debug");
+		disabled = logServer.getLog(Fixtures.subsystem("dsmk.bench.disabled"));
+		enabled = logServer.getLog(Fixtures.subsystem("dsmk.bench.enabled"));
+		binaryDirectory = Files.createTempDirectory("dsmk-bench-log");
+		binaryLogServer = new BinaryLogServer(binaryDirectory, 64 << 20, 1, "debug");
+		binary = binaryLogServer.getLog(Fixtures.subsystem("dsmk.bench.binary"));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		binaryLogServer.close();
+		for (Path segment : BinaryLogServer.segmentFiles(binaryDirectory)) {
+			Files.delete(segment);
+		}
+		Files.delete(binaryDirectory);
+	}
+
+	@Benchmark
+	public void disabledNoArgs() {
+		disabled.debug("Nothing to see");
+	}
+
+	@Benchmark
+	public void disabledObject() {
+		disabled.debug("Subsystem {}", name);
+	}
+
+	@Benchmark
+	public void disabledLong() {
+		disabled.debug("Count {}", count);
+	}
+
+	@Benchmark
+	public void disabledVarargs() {
+		disabled.debug("Subsystem {} count {} of {}", name, count, count);
+	}
+
+	@Benchmark
+	public void enabledNoArgs() {
+		enabled.debug("Nothing to see");
+	}
+
+	@Benchmark
+	public void enabledObject() {
+		enabled.debug("Subsystem {}", name);
+	}
+
+	@Benchmark
+	public void enabledLong() {
+		enabled.debug("Count {}", count);
+	}
+
+	@Benchmark
+	public void enabledVarargs() {
+		enabled.debug("Subsystem {} count {} of {}", name, count, count);
+	}
+
+	@Benchmark
+	public void binaryNoArgs() {
+		binary.debug("Nothing to see");
+	}
+
+	@Benchmark
+	public void binaryObject() {
+		binary.debug("Subsystem {}", name);
+	}
+
+	@Benchmark
+	public void binaryLong() {
+		binary.debug("Count {}", count);
+	}
+
+	@Benchmark
+	public void binaryVarargs() {
+		binary.debug("Subsystem {} count {} of {}", name, count, count);
+	}
+}
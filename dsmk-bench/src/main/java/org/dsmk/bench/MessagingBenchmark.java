@@ -0,0 +1,113 @@
+package org.dsmk.bench;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.dsmk.api.MessagingServer;
+import org.dsmk.api.MessagingServer.Message;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.Result;
+import org.dsmk.api.Subsystem;
+import org.dsmk.kernel.subsys.executor.ExecutorSubsystem;
+import org.dsmk.kernel.subsys.messaging.MessagingSubsystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip of a request through the MessagingServer, until the requester has its response.
+ * requestResponse hands the pooled payload over and back, requestResponseCopied copies it into a heap
+ * array and the response out of one, as serializing the payload would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagingBenchmark {
+
+	@Param({ "64", "65536" })
+	public int payloadBytes;
+
+	private ExecutorSubsystem executorSubsystem;
+
+	private MessagingSubsystem messagingSubsystem;
+
+	private MessagingServer messagingServer;
+
+	@Setup
+	public void setup() throws Exception {
+		NameServer nameServer = Fixtures.nameServer();
+		Map<String, Object> config = new HashMap<>();
+		config.put(NameServer.class.getName(), nameServer);
+		config.put("config-properties", new Properties());
+
+		executorSubsystem = new ExecutorSubsystem();
+		start(executorSubsystem, config);
+		messagingSubsystem = new MessagingSubsystem();
+		start(messagingSubsystem, config);
+
+		messagingServer = nameServer.lookup1(MessagingServer.class);
+		messagingServer.bind("bench.echo", request -> CompletableFuture.completedFuture(request.getPayload()));
+		messagingServer.bind("bench.copy", request -> {
+			ByteBuffer payload = request.getPayload();
+			byte[] copy = new byte[payload.remaining()];
+			payload.get(copy);
+			ByteBuffer response = messagingServer.allocate(copy.length);
+			response.put(copy).flip();
+			return CompletableFuture.completedFuture(response);
+		});
+	}
+
+	private static void start(Subsystem subsystem, Map<String, Object> config) {
+		check(subsystem.configure(config));
+		check(subsystem.start());
+	}
+
+	private static void check(Result result) {
+		if (result.isNotOK()) {
+			throw new IllegalStateException(result.getCode() + " " + result.getMsg());
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		messagingSubsystem.stop();
+		executorSubsystem.stop();
+	}
+
+	@Benchmark
+	public int requestResponse() {
+		ByteBuffer payload = messagingServer.allocate(payloadBytes);
+		payload.position(payloadBytes).flip();
+		Message response = messagingServer.request("bench.echo", payload).join();
+		int size = response.getPayload().remaining();
+		response.release();
+		return size;
+	}
+
+	@Benchmark
+	public int requestResponseCopied() {
+		ByteBuffer payload = messagingServer.allocate(payloadBytes);
+		payload.position(payloadBytes).flip();
+		Message response = messagingServer.request("bench.copy", payload).join();
+		byte[] copy = new byte[response.getPayload().remaining()];
+		response.getPayload().get(copy);
+		response.release();
+		return copy.length;
+	}
+}
@@ -0,0 +1,150 @@
+package org.dsmk.bench;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.LogServer;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.NameServer.NameRegistration;
+import org.dsmk.api.Server;
+import org.dsmk.kernel.DefaultLogServer;
+import org.dsmk.kernel.DefaultNameServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * DefaultNameServer lookups and registrations. Single threaded unless stated otherwise, run with -t to
+ * change the thread count of the single threaded ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameServerBenchmark {
+
+	@Param({ "16", "1024" })
+	public int names;
+
+	private NameServer nameServer;
+
+	private String name;
+
+	private Object instance;
+
+	@Setup
+	public void setup() throws NamingException {
+		nameServer = new DefaultNameServer();
+		instance = new DefaultLogServer();
+		for (int i = 0; i < names; i++) {
+			nameServer.register("dsmk.bench.name." + i, new Object());
+		}
+		name = "dsmk.bench.name." + (names / 2);
+		nameServer.register(LogServer.class.getName(), instance);
+	}
+
+	@Benchmark
+	public Object lookup1() throws NamingException {
+		return nameServer.lookup1(name);
+	}
+
+	@Benchmark
+	public LogServer lookup1Typed() throws NamingException {
+		return nameServer.lookup1(LogServer.class.getName(), LogServer.class);
+	}
+
+	@Benchmark
+	public LogServer lookup1ByType() throws NamingException {
+		return nameServer.lookup1(LogServer.class);
+	}
+
+	@Benchmark
+	public void lookupAll(Blackhole blackhole) throws NamingException {
+		Iterator<Object> instances = nameServer.lookupAll(name);
+		while (instances.hasNext()) {
+			blackhole.consume(instances.next());
+		}
+	}
+
+	@Benchmark
+	public void lookupAllTyped(Blackhole blackhole) throws NamingException {
+		Iterator<LogServer> instances = nameServer.lookupAll(LogServer.class.getName(), LogServer.class);
+		while (instances.hasNext()) {
+			blackhole.consume(instances.next());
+		}
+	}
+
+	@Benchmark
+	public List<Server> lookupAllByType() {
+		return nameServer.lookupAll(Server.class);
+	}
+
+	@Benchmark
+	public List<String> listNamesByPrefix() {
+		return nameServer.listNames("org.dsmk.api.*");
+	}
+
+	@Benchmark
+	public void subtree(Blackhole blackhole) {
+		Iterator<NameRegistration> registrations = nameServer.subtree("org.dsmk");
+		while (registrations.hasNext()) {
+			blackhole.consume(registrations.next());
+		}
+	}
+
+	@Benchmark
+	public boolean isRegistered() {
+		return nameServer.isRegistered(LogServer.class.getName(), instance);
+	}
+
+	@Benchmark
+	public void registerUnregister() throws NamingException {
+		NameRegistration registration = nameServer.register("dsmk.bench.transient", instance);
+		registration.unRegister();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Object lookup1AllThreads() throws NamingException {
+		return nameServer.lookup1(name);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public void registerUnregisterAllThreads() throws NamingException {
+		NameRegistration registration = nameServer.register("dsmk.bench.transient", instance);
+		registration.unRegister();
+	}
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(3)
+	public Object readMostlyLookup1() throws NamingException {
+		return nameServer.lookup1(name);
+	}
+
+	@Benchmark
+	@Group("readMostly")
+	@GroupThreads(1)
+	public void readMostlyRegisterUnregister() throws NamingException {
+		NameRegistration registration = nameServer.register("dsmk.bench.transient", instance);
+		registration.unRegister();
+	}
+}
@@ -0,0 +1,349 @@
+package org.dsmk.kernel;
+
+import org.dsmk.api.Log;
+import org.dsmk.kernel.BinaryLogServer.Segment;
+import org.dsmk.kernel.LogLevels.Level;
+
+import static org.dsmk.kernel.BinaryLogServer.MAX_ARGUMENTS;
+import static org.dsmk.kernel.BinaryLogServer.commit;
+import static org.dsmk.kernel.BinaryLogServer.put;
+import static org.dsmk.kernel.BinaryLogServer.recorded;
+import static org.dsmk.kernel.BinaryLogServer.sizeOf;
+import static org.dsmk.kernel.LogLevels.DEBUG;
+import static org.dsmk.kernel.LogLevels.ERROR;
+import static org.dsmk.kernel.LogLevels.INFO;
+import static org.dsmk.kernel.LogLevels.WARN;
+
+/**
+ * Log of a {@link BinaryLogServer}. Every method checks the level before touching its arguments, and
+ * the fixed arity and primitive ones record them without boxing or building an array.
+ */
+final class BinaryLog implements Log {
+
+	private final BinaryLogServer server;
+	private final int loggerId;
+	private final Level level;
+
+	BinaryLog(BinaryLogServer server, int loggerId, Level level) {
+		this.server = server;
+		this.loggerId = loggerId;
+		this.level = level;
+	}
+
+	@Override
+	public boolean isDebugEnabled() {
+		return level.threshold <= DEBUG;
+	}
+
+	@Override
+	public boolean isInfoEnabled() {
+		return level.threshold <= INFO;
+	}
+
+	@Override
+	public boolean isWarnEnabled() {
+		return level.threshold <= WARN;
+	}
+
+	@Override
+	public boolean isErrorEnabled() {
+		return level.threshold <= ERROR;
+	}
+
+	@Override
+	public void debug(String msg, Object... args) {
+		if (level.threshold <= DEBUG) {
+			log(DEBUG, msg, args);
+		}
+	}
+
+	@Override
+	public void debug(String msg) {
+		if (level.threshold <= DEBUG) {
+			log(DEBUG, msg);
+		}
+	}
+
+	@Override
+	public void debug(String msg, Object arg) {
+		if (level.threshold <= DEBUG) {
+			log(DEBUG, msg, arg);
+		}
+	}
+
+	@Override
+	public void debug(String msg, Object arg1, Object arg2) {
+		if (level.threshold <= DEBUG) {
+			log(DEBUG, msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void debug(String msg, long arg) {
+		if (level.threshold <= DEBUG) {
+			log(DEBUG, msg, arg);
+		}
+	}
+
+	@Override
+	public void debug(String msg, long arg1, long arg2) {
+		if (level.threshold <= DEBUG) {
+			log(DEBUG, msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void debug(String msg, double arg) {
+		if (level.threshold <= DEBUG) {
+			log(DEBUG, msg, arg);
+		}
+	}
+
+	@Override
+	public void info(String msg, Object... args) {
+		if (level.threshold <= INFO) {
+			log(INFO, msg, args);
+		}
+	}
+
+	@Override
+	public void info(String msg) {
+		if (level.threshold <= INFO) {
+			log(INFO, msg);
+		}
+	}
+
+	@Override
+	public void info(String msg, Object arg) {
+		if (level.threshold <= INFO) {
+			log(INFO, msg, arg);
+		}
+	}
+
+	@Override
+	public void info(String msg, Object arg1, Object arg2) {
+		if (level.threshold <= INFO) {
+			log(INFO, msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void info(String msg, long arg) {
+		if (level.threshold <= INFO) {
+			log(INFO, msg, arg);
+		}
+	}
+
+	@Override
+	public void info(String msg, long arg1, long arg2) {
+		if (level.threshold <= INFO) {
+			log(INFO, msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void info(String msg, double arg) {
+		if (level.threshold <= INFO) {
+			log(INFO, msg, arg);
+		}
+	}
+
+	@Override
+	public void warn(String msg, Object... args) {
+		if (level.threshold <= WARN) {
+			log(WARN, msg, args);
+		}
+	}
+
+	@Override
+	public void warn(String msg) {
+		if (level.threshold <= WARN) {
+			log(WARN, msg);
+		}
+	}
+
+	@Override
+	public void warn(String msg, Object arg) {
+		if (level.threshold <= WARN) {
+			log(WARN, msg, arg);
+		}
+	}
+
+	@Override
+	public void warn(String msg, Object arg1, Object arg2) {
+		if (level.threshold <= WARN) {
+			log(WARN, msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void warn(String msg, long arg) {
+		if (level.threshold <= WARN) {
+			log(WARN, msg, arg);
+		}
+	}
+
+	@Override
+	public void warn(String msg, long arg1, long arg2) {
+		if (level.threshold <= WARN) {
+			log(WARN, msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void warn(String msg, double arg) {
+		if (level.threshold <= WARN) {
+			log(WARN, msg, arg);
+		}
+	}
+
+	@Override
+	public void error(String msg, Object... args) {
+		if (level.threshold <= ERROR) {
+			log(ERROR, msg, args);
+		}
+	}
+
+	@Override
+	public void error(String msg) {
+		if (level.threshold <= ERROR) {
+			log(ERROR, msg);
+		}
+	}
+
+	@Override
+	public void error(String msg, Object arg) {
+		if (level.threshold <= ERROR) {
+			log(ERROR, msg, arg);
+		}
+	}
+
+	@Override
+	public void error(String msg, Object arg1, Object arg2) {
+		if (level.threshold <= ERROR) {
+			log(ERROR, msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void error(String msg, long arg) {
+		if (level.threshold <= ERROR) {
+			log(ERROR, msg, arg);
+		}
+	}
+
+	@Override
+	public void error(String msg, long arg1, long arg2) {
+		if (level.threshold <= ERROR) {
+			log(ERROR, msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void error(String msg, double arg) {
+		if (level.threshold <= ERROR) {
+			log(ERROR, msg, arg);
+		}
+	}
+
+	private void log(int level, String format) {
+		int formatId = server.internedId(format);
+		Segment segment;
+		int at;
+		while ((at = server.claim(segment = server.current(), level, loggerId, formatId, format, 0, 0)) < 0) {
+			if (!server.roll(segment)) {
+				return;
+			}
+		}
+		commit(segment, at, at);
+	}
+
+	private void log(int level, String format, Object arg) {
+		Object recorded = recorded(arg);
+		int formatId = server.internedId(format);
+		Segment segment;
+		int at;
+		while ((at = server.claim(segment = server.current(), level, loggerId, formatId, format, 1, sizeOf(recorded))) < 0) {
+			if (!server.roll(segment)) {
+				return;
+			}
+		}
+		commit(segment, at, put(segment.buffer, at, recorded));
+	}
+
+	private void log(int level, String format, Object arg1, Object arg2) {
+		Object recorded1 = recorded(arg1);
+		Object recorded2 = recorded(arg2);
+		int formatId = server.internedId(format);
+		Segment segment;
+		int at;
+		while ((at = server.claim(segment = server.current(), level, loggerId, formatId, format, 2, sizeOf(recorded1) + sizeOf(recorded2))) < 0) {
+			if (!server.roll(segment)) {
+				return;
+			}
+		}
+		commit(segment, at, put(segment.buffer, put(segment.buffer, at, recorded1), recorded2));
+	}
+
+	private void log(int level, String format, long arg) {
+		int formatId = server.internedId(format);
+		Segment segment;
+		int at;
+		while ((at = server.claim(segment = server.current(), level, loggerId, formatId, format, 1, 9)) < 0) {
+			if (!server.roll(segment)) {
+				return;
+			}
+		}
+		commit(segment, at, put(segment.buffer, at, arg));
+	}
+
+	private void log(int level, String format, long arg1, long arg2) {
+		int formatId = server.internedId(format);
+		Segment segment;
+		int at;
+		while ((at = server.claim(segment = server.current(), level, loggerId, formatId, format, 2, 18)) < 0) {
+			if (!server.roll(segment)) {
+				return;
+			}
+		}
+		commit(segment, at, put(segment.buffer, put(segment.buffer, at, arg1), arg2));
+	}
+
+	private void log(int level, String format, double arg) {
+		int formatId = server.internedId(format);
+		Segment segment;
+		int at;
+		while ((at = server.claim(segment = server.current(), level, loggerId, formatId, format, 1, 9)) < 0) {
+			if (!server.roll(segment)) {
+				return;
+			}
+		}
+		commit(segment, at, put(segment.buffer, at, arg));
+	}
+
+	/**
+	 * Beyond {@link BinaryLogServer#MAX_ARGUMENTS} the arguments are left out
+	 */
+	private void log(int level, String format, Object[] args) {
+		int count = args == null ? 0 : Math.min(args.length, MAX_ARGUMENTS);
+		Object[] recorded = new Object[count];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			recorded[i] = recorded(args[i]);
+			size += sizeOf(recorded[i]);
+		}
+		int formatId = server.internedId(format);
+		Segment segment;
+		int at;
+		while ((at = server.claim(segment = server.current(), level, loggerId, formatId, format, count, size)) < 0) {
+			if (!server.roll(segment)) {
+				return;
+			}
+		}
+		int end = at;
+		for (Object arg : recorded) {
+			end = put(segment.buffer, end, arg);
+		}
+		commit(segment, at, end);
+	}
+}
@@ -0,0 +1,190 @@
+package org.dsmk.kernel;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.dsmk.kernel.BinaryLogServer.BOOLEAN;
+import static org.dsmk.kernel.BinaryLogServer.DEFINITION;
+import static org.dsmk.kernel.BinaryLogServer.DOUBLE;
+import static org.dsmk.kernel.BinaryLogServer.EVENT;
+import static org.dsmk.kernel.BinaryLogServer.INLINE;
+import static org.dsmk.kernel.BinaryLogServer.LEVELS;
+import static org.dsmk.kernel.BinaryLogServer.LONG;
+import static org.dsmk.kernel.BinaryLogServer.MAGIC;
+import static org.dsmk.kernel.BinaryLogServer.NULL;
+import static org.dsmk.kernel.BinaryLogServer.SEGMENT_HEADER_BYTES;
+import static org.dsmk.kernel.BinaryLogServer.STRING;
+
+/**
+ * Renders the segments of a {@link BinaryLogServer} as text, a line per message as the console
+ * appender would print it:
+ *
+ * <pre>
+ * java -cp dsmk-kernel.jar:... org.dsmk.kernel.BinaryLogDecoder log [more directories or segments]
+ * </pre>
+ *
+ * The segments of a directory are read oldest first. A segment ends at its first record not committed,
+ * the one a process was writing when it died included.
+ */
+public class BinaryLogDecoder {
+
+	private final Map<Integer, String> names = new HashMap<>();
+
+	private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	private final Date time = new Date();
+
+	private final StringBuilder line = new StringBuilder();
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: BinaryLogDecoder <log directory or segment>...");
+			System.exit(1);
+		}
+		BinaryLogDecoder decoder = new BinaryLogDecoder();
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		for (String arg : args) {
+			Path path = Paths.get(arg);
+			List<Path> segments = Files.isDirectory(path) ? BinaryLogServer.segmentFiles(path) : Collections.singletonList(path);
+			for (Path segment : segments) {
+				decoder.decode(segment, out);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the messages of the segment, the definitions of the earlier segments being known still
+	 *
+	 * @return the number of messages
+	 */
+	public long decode(Path segment, Writer out) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.capacity() < SEGMENT_HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+			throw new IOException(segment + " is not a binary log segment");
+		}
+
+		// the definitions first, a record may be committed before the definition its thread relies on
+		List<Integer> events = new ArrayList<>();
+		int position = SEGMENT_HEADER_BYTES;
+		while (position + 8 <= buffer.capacity()) {
+			int length = buffer.getInt(position);
+			if (length < 8 || position + length > buffer.capacity()) {
+				break;
+			}
+			byte type = buffer.get(position + 4);
+			if (type == DEFINITION) {
+				names.put(buffer.getInt(position + 8), chars(buffer, position + 12));
+			} else if (type == EVENT) {
+				events.add(position);
+			} else {
+				break;
+			}
+			position += length;
+		}
+
+		for (int event : events) {
+			render(buffer, event);
+			out.write(line.toString());
+		}
+		return events.size();
+	}
+
+	private void render(MappedByteBuffer buffer, int position) {
+		int level = buffer.get(position + 5);
+		int argumentCount = buffer.get(position + 6) & 0xff;
+		String logger = name(buffer.getInt(position + 8));
+		int formatId = buffer.getInt(position + 12);
+		int threadId = buffer.getInt(position + 16);
+		time.setTime(buffer.getLong(position + 20));
+
+		List<String> args = new ArrayList<>(argumentCount);
+		int at = position + BinaryLogServer.EVENT_HEADER_BYTES;
+		for (int i = 0; i < argumentCount; i++) {
+			byte tag = buffer.get(at);
+			switch (tag) {
+			case LONG:
+				args.add(String.valueOf(buffer.getLong(at + 1)));
+				at += 9;
+				break;
+			case DOUBLE:
+				args.add(String.valueOf(buffer.getDouble(at + 1)));
+				at += 9;
+				break;
+			case BOOLEAN:
+				args.add(String.valueOf(buffer.get(at + 1) != 0));
+				at += 2;
+				break;
+			case STRING:
+				String chars = chars(buffer, at + 1);
+				args.add(chars);
+				at += 5 + 2 * chars.length();
+				break;
+			case NULL:
+			default:
+				args.add("null");
+				at += 1;
+			}
+		}
+		// the names not interned follow the arguments
+		String format;
+		if (formatId == INLINE) {
+			format = chars(buffer, at);
+			at += 4 + 2 * format.length();
+		} else {
+			format = name(formatId);
+		}
+		String thread = threadId == INLINE ? chars(buffer, at) : name(threadId);
+
+		line.setLength(0);
+		line.append(timeFormat.format(time)).append(" [").append(thread).append("] ");
+		String levelName = level >= 0 && level < LEVELS.length ? LEVELS[level] : String.valueOf(level);
+		line.append(levelName);
+		for (int i = levelName.length(); i < 5; i++) {
+			line.append(' ');
+		}
+		line.append(' ').append(logger).append(" - ");
+		// the {} of the format are replaced by the arguments in turn, as by SLF4J
+		int from = 0;
+		int index = 0;
+		int anchor;
+		while (index < args.size() && (anchor = format.indexOf("{}", from)) >= 0) {
+			line.append(format, from, anchor).append(args.get(index++));
+			from = anchor + 2;
+		}
+		line.append(format, from, format.length()).append(System.lineSeparator());
+	}
+
+	private String name(int id) {
+		String name = names.get(id);
+		return name != null ? name : "#" + id;
+	}
+
+	private static String chars(MappedByteBuffer buffer, int at) {
+		int length = buffer.getInt(at);
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = buffer.getChar(at + 4 + 2 * i);
+		}
+		return new String(chars);
+	}
+}
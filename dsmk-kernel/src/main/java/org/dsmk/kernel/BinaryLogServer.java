@@ -0,0 +1,496 @@
+package org.dsmk.kernel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.dsmk.api.Config;
+import org.dsmk.api.Log;
+import org.dsmk.api.LogServer;
+import org.dsmk.api.Subsystem;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * LogServer recording every message in binary into memory mapped segment files instead of formatting
+ * it. A record holds the level, the time, the ids of the logger, the format and the thread, and the
+ * arguments: numbers, booleans and strings as they are, other objects as their toString.
+ * The format strings, logger and thread names are written once per segment as definitions, so that
+ * logging neither formats nor copies them. Threads claim the bytes of their record in the segment
+ * with an atomic add and write it in place, the length last. {@link BinaryLogDecoder} renders the
+ * segments as text.
+ * <p>
+ * At most {@link #MAX_INTERNED} format strings and thread names are given ids, so that formats built
+ * per message do not grow the table for good; the others are written after the arguments of every
+ * record of theirs, their id being {@link #INLINE}.
+ * <p>
+ * The segments are files named dsmk-&lt;sequence&gt;.blog of the directory; when a segment is full the
+ * next one is begun and the oldest are deleted beyond the retention.
+ */
+public class BinaryLogServer implements LogServer, Closeable {
+
+	static final int MAGIC = 0x64736d6c;
+	static final int VERSION = 2;
+	static final int SEGMENT_HEADER_BYTES = 32;
+
+	static final byte EVENT = 1;
+	static final byte DEFINITION = 2;
+
+	/**
+	 * length, type, level, argument count, padding, logger id, format id, thread id and time
+	 */
+	static final int EVENT_HEADER_BYTES = 4 + 4 + 4 + 4 + 4 + 8;
+	/**
+	 * length, type, padding, id and number of characters
+	 */
+	static final int DEFINITION_HEADER_BYTES = 4 + 4 + 4 + 4;
+
+	static final byte NULL = 0;
+	static final byte LONG = 1;
+	static final byte DOUBLE = 2;
+	static final byte STRING = 3;
+	static final byte BOOLEAN = 4;
+
+	/**
+	 * names of the levels recorded, those of {@link LogLevels}
+	 */
+	static final String[] LEVELS = { "DEBUG", "INFO", "WARN", "ERROR" };
+
+	static final String FILE_PREFIX = "dsmk-";
+	static final String FILE_SUFFIX = ".blog";
+
+	/**
+	 * longer strings are truncated, so that a record always fits in a segment
+	 */
+	static final int MAX_STRING_CHARS = 4096;
+	static final int MAX_ARGUMENTS = 64;
+	private static final int MIN_SEGMENT_BYTES = 1 << 20;
+
+	/**
+	 * the ids a segment knows the definitions of, above it every record repeats its definitions
+	 */
+	private static final int DEFINED_IDS = 1 << 16;
+
+	/**
+	 * the format strings and thread names given an id at most
+	 */
+	static final int MAX_INTERNED = DEFINED_IDS;
+
+	/**
+	 * the id of a format or thread name written into the record itself
+	 */
+	static final int INLINE = -1;
+
+	static final class Segment {
+
+		private final Path path;
+		final MappedByteBuffer buffer;
+		private final int capacity;
+		private final AtomicLong position = new AtomicLong(SEGMENT_HEADER_BYTES);
+		private final AtomicLongArray defined = new AtomicLongArray(DEFINED_IDS / 64);
+
+		private Segment(Path path, MappedByteBuffer buffer) {
+			this.path = path;
+			this.buffer = buffer;
+			this.capacity = buffer.capacity();
+		}
+
+		/**
+		 * @return the position of the bytes claimed, -1 if the segment has not that many left
+		 */
+		private int claim(int size) {
+			long start = position.getAndAdd(size);
+			return start + size <= capacity ? (int) start : -1;
+		}
+
+		/**
+		 * @return true if the definition of the id has its bytes claimed in this segment
+		 */
+		private boolean isDefined(int id) {
+			return id < DEFINED_IDS && (defined.get(id >>> 6) & 1L << (id & 63)) != 0;
+		}
+
+		/**
+		 * Records that the definition of the id has its bytes claimed, once they are
+		 */
+		private void defined(int id) {
+			if (id >= DEFINED_IDS) {
+				return;
+			}
+			int index = id >>> 6;
+			long bit = 1L << (id & 63);
+			long bits;
+			do {
+				bits = defined.get(index);
+			} while ((bits & bit) == 0 && !defined.compareAndSet(index, bits, bits | bit));
+		}
+
+		@Override
+		public String toString() {
+			return path.toString();
+		}
+	}
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final int retentionSegments;
+	private final LogLevels levels;
+
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private final List<String> names = Collections.synchronizedList(new ArrayList<>());
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	private final ConcurrentHashMap<String, Log> logs = new ConcurrentHashMap<>();
+
+	private final ThreadLocal<int[]> threadIds = new ThreadLocal<>();
+
+	/**
+	 * oldest first, the last one being the current segment, guarded by this
+	 */
+	private final Deque<Path> segments = new ArrayDeque<>();
+	private long nextSequence;
+	private volatile Segment current;
+
+	/**
+	 * @param directory
+	 *            created if missing, the segments of earlier runs are kept and counted in the retention
+	 * @param segmentBytes
+	 *            size of a segment, at least 1 MB
+	 * @param retentionSegments
+	 *            number of segments kept, 0 for no limit
+	 * @param level
+	 *            the lowest level recorded until levels are set, debug, info, warn, error or off
+	 * @throws IOException
+	 *             if the first segment cannot be created
+	 */
+	public BinaryLogServer(Path directory, int segmentBytes, int retentionSegments, String level) throws IOException {
+		this(directory, segmentBytes, retentionSegments, new LogLevels(level));
+	}
+
+	BinaryLogServer(Path directory, int segmentBytes, int retentionSegments, LogLevels levels) throws IOException {
+		checkArgument(segmentBytes >= MIN_SEGMENT_BYTES, "Binary log segment size %s is below %s", segmentBytes, MIN_SEGMENT_BYTES);
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.retentionSegments = retentionSegments;
+		this.levels = levels;
+
+		Files.createDirectories(directory);
+		for (Path file : segmentFiles(directory)) {
+			segments.add(file);
+			nextSequence = sequenceOf(file) + 1;
+		}
+		synchronized (this) {
+			current = begin();
+		}
+	}
+
+	/**
+	 * Creates the server from the keys under dsmk.kernel.log.binary: dir, segment.bytes and
+	 * retention.segments
+	 */
+	static BinaryLogServer of(Config settings, LogLevels levels) throws IOException {
+		return new BinaryLogServer(Paths.get(settings.getString("dir", "log").trim()),
+				settings.getInt("segment.bytes", 64 << 20), settings.getInt("retention.segments", 0), levels);
+	}
+
+	/**
+	 * @return the segment files of the directory, oldest first
+	 */
+	public static List<Path> segmentFiles(Path directory) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		files.sort((a, b) -> Long.compare(sequenceOf(a), sequenceOf(b)));
+		return files;
+	}
+
+	private static long sequenceOf(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+	}
+
+	/**
+	 * Creates the next segment and deletes the oldest beyond the retention, holding the lock
+	 */
+	private Segment begin() throws IOException {
+		Path path = directory.resolve(String.format("%s%020d%s", FILE_PREFIX, nextSequence, FILE_SUFFIX));
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		}
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putLong(8, nextSequence);
+		buffer.putLong(16, System.currentTimeMillis());
+		nextSequence++;
+
+		segments.add(path);
+		while (retentionSegments > 0 && segments.size() > retentionSegments) {
+			Files.deleteIfExists(segments.removeFirst());
+		}
+		return new Segment(path, buffer);
+	}
+
+	/**
+	 * Begins the next segment unless another thread did since the full one was read
+	 *
+	 * @return false if no segment could be begun
+	 */
+	synchronized boolean roll(Segment full) {
+		if (current != full) {
+			return true;
+		}
+		try {
+			current = begin();
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace(System.err);
+			return false;
+		}
+	}
+
+	@Override
+	public Log getLog(Subsystem sys) {
+		Log log = logs.get(sys.name());
+		if (log == null) {
+			log = logs.computeIfAbsent(sys.name(), name -> new BinaryLog(this, id(name), levels.level(name)));
+		}
+		return log;
+	}
+
+	@Override
+	public void setLevel(String name, String level) {
+		levels.set(name, level);
+	}
+
+	@Override
+	public String getLevel(String name) {
+		return levels.get(name);
+	}
+
+	int id(String name) {
+		return id(name, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the id of the format string or thread name, {@link #INLINE} once the table is full
+	 */
+	int internedId(String name) {
+		return id(name, MAX_INTERNED);
+	}
+
+	private int id(String name, int limit) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			synchronized (names) {
+				id = ids.get(name);
+				if (id == null) {
+					if (names.size() >= limit) {
+						return INLINE;
+					}
+					id = nextId.getAndIncrement();
+					names.add(name);
+					ids.put(name, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	int threadId() {
+		int[] id = threadIds.get();
+		if (id == null) {
+			id = new int[] { internedId(Thread.currentThread().getName()) };
+			threadIds.set(id);
+		}
+		return id[0];
+	}
+
+	/**
+	 * @return the argument as it is recorded, objects other than strings, numbers and booleans being
+	 *         turned into strings once, before their size is taken
+	 */
+	static Object recorded(Object arg) {
+		if (arg == null || arg instanceof String || arg instanceof Number || arg instanceof Boolean) {
+			return arg;
+		}
+		return String.valueOf(arg);
+	}
+
+	// sizes of the recorded arguments
+
+	static int sizeOf(Object arg) {
+		if (arg instanceof Number) {
+			return 9;
+		} else if (arg instanceof Boolean) {
+			return 2;
+		} else if (arg == null) {
+			return 1;
+		}
+		return 5 + 2 * Math.min(((String) arg).length(), MAX_STRING_CHARS);
+	}
+
+	// arguments, written at a position and returning the next one
+
+	static int put(MappedByteBuffer buffer, int at, long arg) {
+		buffer.put(at, LONG);
+		buffer.putLong(at + 1, arg);
+		return at + 9;
+	}
+
+	static int put(MappedByteBuffer buffer, int at, double arg) {
+		buffer.put(at, DOUBLE);
+		buffer.putDouble(at + 1, arg);
+		return at + 9;
+	}
+
+	static int put(MappedByteBuffer buffer, int at, Object arg) {
+		if (arg instanceof Double || arg instanceof Float) {
+			return put(buffer, at, ((Number) arg).doubleValue());
+		} else if (arg instanceof Number) {
+			return put(buffer, at, ((Number) arg).longValue());
+		} else if (arg instanceof Boolean) {
+			buffer.put(at, BOOLEAN);
+			buffer.put(at + 1, (byte) ((Boolean) arg ? 1 : 0));
+			return at + 2;
+		} else if (arg == null) {
+			buffer.put(at, NULL);
+			return at + 1;
+		}
+		buffer.put(at, STRING);
+		return putChars(buffer, at + 1, (String) arg);
+	}
+
+	private static int sizeOfChars(String chars) {
+		return 4 + 2 * Math.min(chars.length(), MAX_STRING_CHARS);
+	}
+
+	private static int putChars(MappedByteBuffer buffer, int at, String chars) {
+		int length = Math.min(chars.length(), MAX_STRING_CHARS);
+		buffer.putInt(at, length);
+		at += 4;
+		for (int i = 0; i < length; i++, at += 2) {
+			buffer.putChar(at, chars.charAt(i));
+		}
+		return at;
+	}
+
+	Segment current() {
+		return current;
+	}
+
+	/**
+	 * Claims the bytes of an event record in the segment, after the definitions of its ids, and writes
+	 * its header but its length, and the names not interned after the arguments
+	 *
+	 * @param formatId
+	 *            the id of the format or {@link #INLINE}
+	 * @param size
+	 *            the bytes of the arguments
+	 * @return the position of the arguments, -1 if the segment is full
+	 */
+	int claim(Segment segment, int level, int loggerId, int formatId, String format, int argumentCount, int size) {
+		int threadId = threadId();
+		String thread = threadId == INLINE ? Thread.currentThread().getName() : null;
+		int inlined = (formatId == INLINE ? sizeOfChars(format) : 0) + (thread != null ? sizeOfChars(thread) : 0);
+		int position;
+		if (!define(segment, loggerId) || formatId != INLINE && !define(segment, formatId)
+				|| threadId != INLINE && !define(segment, threadId)
+				|| (position = segment.claim(EVENT_HEADER_BYTES + size + inlined)) < 0) {
+			return -1;
+		}
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.put(position + 4, EVENT);
+		buffer.put(position + 5, (byte) level);
+		buffer.put(position + 6, (byte) argumentCount);
+		buffer.putInt(position + 8, loggerId);
+		buffer.putInt(position + 12, formatId);
+		buffer.putInt(position + 16, threadId);
+		buffer.putLong(position + 20, System.currentTimeMillis());
+		int end = position + EVENT_HEADER_BYTES + size;
+		if (formatId == INLINE) {
+			end = putChars(buffer, end, format);
+		}
+		if (thread != null) {
+			putChars(buffer, end, thread);
+		}
+		return position + EVENT_HEADER_BYTES;
+	}
+
+	/**
+	 * Commits the record of the arguments from start to end, its length being written last
+	 */
+	static void commit(Segment segment, int start, int end) {
+		int position = start - EVENT_HEADER_BYTES;
+		MappedByteBuffer buffer = segment.buffer;
+		// the names not interned follow the arguments
+		if (buffer.getInt(position + 12) == INLINE) {
+			end += 4 + 2 * buffer.getInt(end);
+		}
+		if (buffer.getInt(position + 16) == INLINE) {
+			end += 4 + 2 * buffer.getInt(end);
+		}
+		buffer.putInt(position, end - position);
+	}
+
+	/**
+	 * Writes the definition of the id into the segment unless it is there already. The id is marked
+	 * defined only once the bytes of its definition are claimed, so that no record relies on a
+	 * definition the full segment had no room for; threads defining the same id at once may each write
+	 * it, which the decoder takes as the same definition.
+	 *
+	 * @return false if the segment is full
+	 */
+	private boolean define(Segment segment, int id) {
+		if (segment.isDefined(id)) {
+			return true;
+		}
+		String name = names.get(id);
+		int length = Math.min(name.length(), MAX_STRING_CHARS);
+		int size = DEFINITION_HEADER_BYTES + 2 * length;
+		int position = segment.claim(size);
+		if (position < 0) {
+			return false;
+		}
+		segment.defined(id);
+		MappedByteBuffer buffer = segment.buffer;
+		buffer.put(position + 4, DEFINITION);
+		buffer.putInt(position + 8, id);
+		putChars(buffer, position + 12, name);
+		buffer.putInt(position, size);
+		return true;
+	}
+
+	/**
+	 * Forces the current segment to disk. Messages logged afterwards still reach the file, through the
+	 * page cache only.
+	 */
+	@Override
+	public void close() {
+		current.buffer.force();
+	}
+
+	@Override
+	public String toString() {
+		return "BinaryLogServer{" + directory + ", segment=" + current + "}";
+	}
+}
@@ -0,0 +1,182 @@
+package org.dsmk.kernel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.dsmk.api.Config;
+
+/**
+ * The {@link Config} frozen from a Properties. Keys are held both hashed, for the reads, and sorted,
+ * for the scopes. Neither map is modified once the snapshot is made, so they are read without locking.
+ */
+public final class ConfigSnapshot implements Config {
+
+	/**
+	 * A value and what it parses to
+	 */
+	private static final class Value {
+
+		final String raw;
+		final String trimmed;
+		final boolean isNumber;
+		final long number;
+		final boolean bool;
+
+		/**
+		 * parsed on first use, racing threads compute the same list
+		 */
+		private volatile List<String> list;
+
+		Value(String raw) {
+			this.raw = raw;
+			this.trimmed = raw.trim();
+			long parsed = 0;
+			boolean numeric;
+			try {
+				parsed = Long.parseLong(trimmed);
+				numeric = true;
+			} catch (NumberFormatException e) {
+				numeric = false;
+			}
+			this.isNumber = numeric;
+			this.number = parsed;
+			this.bool = Boolean.parseBoolean(trimmed);
+		}
+
+		List<String> list() {
+			List<String> values = list;
+			if (values == null) {
+				values = new ArrayList<>();
+				for (String value : trimmed.split(",")) {
+					if (!value.trim().isEmpty()) {
+						values.add(value.trim());
+					}
+				}
+				values = Collections.unmodifiableList(values);
+				list = values;
+			}
+			return values;
+		}
+	}
+
+	private final long version;
+	private final Map<String, Value> values;
+	private final NavigableMap<String, Value> sorted;
+
+	private ConfigSnapshot(long version, NavigableMap<String, Value> sorted) {
+		this.version = version;
+		this.sorted = sorted;
+		this.values = new HashMap<>(sorted);
+	}
+
+	/**
+	 * @param properties
+	 *            read once, later changes to it are not seen
+	 * @param version
+	 * @return
+	 */
+	public static ConfigSnapshot of(Properties properties, long version) {
+		NavigableMap<String, Value> sorted = new TreeMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			sorted.put(key, new Value(properties.getProperty(key)));
+		}
+		return new ConfigSnapshot(version, sorted);
+	}
+
+	@Override
+	public long version() {
+		return version;
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public String getString(String key) {
+		Value value = values.get(key);
+		return value == null ? null : value.raw;
+	}
+
+	@Override
+	public String getString(String key, String defaultValue) {
+		Value value = values.get(key);
+		return value == null ? defaultValue : value.raw;
+	}
+
+	@Override
+	public int getInt(String key, int defaultValue) {
+		Value value = values.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (!value.isNumber || value.number != (int) value.number) {
+			throw new NumberFormatException(String.format("%s=%s is not an int", key, value.raw));
+		}
+		return (int) value.number;
+	}
+
+	@Override
+	public long getLong(String key, long defaultValue) {
+		Value value = values.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (!value.isNumber) {
+			throw new NumberFormatException(String.format("%s=%s is not a long", key, value.raw));
+		}
+		return value.number;
+	}
+
+	@Override
+	public boolean getBoolean(String key, boolean defaultValue) {
+		Value value = values.get(key);
+		return value == null ? defaultValue : value.bool;
+	}
+
+	@Override
+	public List<String> getList(String key) {
+		Value value = values.get(key);
+		return value == null ? Collections.<String>emptyList() : value.list();
+	}
+
+	@Override
+	public Set<String> keys() {
+		return Collections.unmodifiableSet(sorted.keySet());
+	}
+
+	@Override
+	public ConfigSnapshot scope(String prefix) {
+		String from = prefix + ".";
+		// '/' follows '.', so the range holds exactly the keys starting with the prefix and a dot
+		NavigableMap<String, Value> scoped = new TreeMap<>();
+		for (Map.Entry<String, Value> entry : sorted.subMap(from, true, prefix + "/", false).entrySet()) {
+			scoped.put(entry.getKey().substring(from.length()), entry.getValue());
+		}
+		return new ConfigSnapshot(version, scoped);
+	}
+
+	/**
+	 * @return the configuration as Properties, for the code still reading those
+	 */
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		for (Map.Entry<String, Value> entry : sorted.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().raw);
+		}
+		return properties;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigSnapshot [version=" + version + ", keys=" + values.size() + "]";
+	}
+}
@@ -0,0 +1,99 @@
+package org.dsmk.kernel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.dsmk.api.Log;
+
+/**
+ * Watches a configuration file and runs the reload once it stopped changing for the quiet period, so
+ * that an editor writing the file in several steps triggers a single reload. The file is watched
+ * through its directory, which also catches editors replacing the file instead of writing it.
+ */
+final class ConfigWatcher implements Closeable {
+
+	private final Path file;
+	private final long quietMillis;
+	private final Runnable reload;
+	private final Log log;
+	private final WatchService watchService;
+	private final Thread thread;
+
+	ConfigWatcher(Path file, long quietMillis, Runnable reload, Log log) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.quietMillis = quietMillis;
+		this.reload = reload;
+		this.log = log;
+		this.watchService = this.file.getFileSystem().newWatchService();
+		this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		this.thread = new Thread(this::watch, "dsmk-config-watcher");
+		this.thread.setDaemon(true);
+	}
+
+	void start() {
+		thread.start();
+		log.info("Watching {} for configuration changes", file);
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				if (!changed(watchService.take())) {
+					continue;
+				}
+				// wait for the writes to settle, the other files of the directory aside
+				long quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+				long deadline = System.nanoTime() + quietNanos;
+				long remaining;
+				while ((remaining = deadline - System.nanoTime()) > 0) {
+					WatchKey key = watchService.poll(remaining, TimeUnit.NANOSECONDS);
+					if (key != null && changed(key)) {
+						deadline = System.nanoTime() + quietNanos;
+					}
+				}
+				try {
+					reload.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace(System.err);
+					log.error("Reloading {} failed with error {}", file, e.getMessage());
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	/**
+	 * @return true if one of the events of the key is about the file
+	 */
+	private boolean changed(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+		}
+		key.reset();
+		return changed;
+	}
+
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			e.printStackTrace(System.err);
+		}
+		thread.interrupt();
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigWatcher [" + file + "]";
+	}
+}
@@ -0,0 +1,126 @@
+package org.dsmk.kernel;
+
+import java.util.List;
+import java.util.Set;
+
+import org.dsmk.api.Config;
+import org.dsmk.api.ConfigServer;
+
+/**
+ * ConfigServer publishing the snapshots of the kernel through a volatile reference, replaced whole on
+ * reload
+ */
+public class DefaultConfigServer implements ConfigServer {
+
+	/**
+	 * Scoped view which scopes the current snapshot again after every reload, once
+	 */
+	private final class ScopedView implements Config {
+
+		private final String prefix;
+
+		/**
+		 * the snapshot scoped and its scope, racing readers scoping the same snapshot alike
+		 */
+		private volatile ConfigSnapshot[] cache = new ConfigSnapshot[2];
+
+		ScopedView(String prefix) {
+			this.prefix = prefix;
+		}
+
+		private ConfigSnapshot scoped() {
+			ConfigSnapshot current = snapshot;
+			ConfigSnapshot[] cached = cache;
+			if (cached[0] != current) {
+				cached = new ConfigSnapshot[] { current, current.scope(prefix) };
+				cache = cached;
+			}
+			return cached[1];
+		}
+
+		@Override
+		public long version() {
+			return snapshot.version();
+		}
+
+		@Override
+		public boolean contains(String key) {
+			return scoped().contains(key);
+		}
+
+		@Override
+		public String getString(String key) {
+			return scoped().getString(key);
+		}
+
+		@Override
+		public String getString(String key, String defaultValue) {
+			return scoped().getString(key, defaultValue);
+		}
+
+		@Override
+		public int getInt(String key, int defaultValue) {
+			return scoped().getInt(key, defaultValue);
+		}
+
+		@Override
+		public long getLong(String key, long defaultValue) {
+			return scoped().getLong(key, defaultValue);
+		}
+
+		@Override
+		public boolean getBoolean(String key, boolean defaultValue) {
+			return scoped().getBoolean(key, defaultValue);
+		}
+
+		@Override
+		public List<String> getList(String key) {
+			return scoped().getList(key);
+		}
+
+		@Override
+		public Set<String> keys() {
+			return scoped().keys();
+		}
+
+		@Override
+		public Config scope(String prefix) {
+			return scoped().scope(prefix);
+		}
+
+		@Override
+		public String toString() {
+			return "ScopedView [" + prefix + ", " + snapshot + "]";
+		}
+	}
+
+	private volatile ConfigSnapshot snapshot;
+
+	public DefaultConfigServer(ConfigSnapshot snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	@Override
+	public ConfigSnapshot current() {
+		return snapshot;
+	}
+
+	@Override
+	public Config scope(String prefix) {
+		return new ScopedView(prefix);
+	}
+
+	/**
+	 * Publishes the snapshot of a reloaded configuration
+	 *
+	 * @param updated
+	 */
+	void swap(ConfigSnapshot updated) {
+		snapshot = updated;
+	}
+
+	@Override
+	public String toString() {
+		return "DefaultConfigServer [" + snapshot + "]";
+	}
+}
@@ -0,0 +1,247 @@
+package org.dsmk.kernel;
+
+import org.dsmk.api.Log;
+import org.dsmk.kernel.LogLevels.Level;
+import org.slf4j.Logger;
+
+import static org.dsmk.kernel.LogLevels.DEBUG;
+import static org.dsmk.kernel.LogLevels.ERROR;
+import static org.dsmk.kernel.LogLevels.INFO;
+import static org.dsmk.kernel.LogLevels.WARN;
+
+/**
+ * Log over an SLF4J logger. Every method checks the level before touching its arguments so that a
+ * disabled level neither boxes nor builds an argument array. The level is the one {@link LogLevels}
+ * manages, the backend only filtering what the kernel logs.
+ */
+final class DefaultLog implements Log {
+
+	private final Logger logger;
+	private final Level level;
+
+	DefaultLog(Logger logger, Level level) {
+		this.logger = logger;
+		this.level = level;
+	}
+
+	@Override
+	public boolean isDebugEnabled() {
+		return level.threshold <= DEBUG;
+	}
+
+	@Override
+	public boolean isInfoEnabled() {
+		return level.threshold <= INFO;
+	}
+
+	@Override
+	public boolean isWarnEnabled() {
+		return level.threshold <= WARN;
+	}
+
+	@Override
+	public boolean isErrorEnabled() {
+		return level.threshold <= ERROR;
+	}
+
+	@Override
+	public void debug(String msg, Object... args) {
+		if (level.threshold <= DEBUG) {
+			logger.debug(msg, args);
+		}
+	}
+
+	@Override
+	public void debug(String msg) {
+		if (level.threshold <= DEBUG) {
+			logger.debug(msg);
+		}
+	}
+
+	@Override
+	public void debug(String msg, Object arg) {
+		if (level.threshold <= DEBUG) {
+			logger.debug(msg, arg);
+		}
+	}
+
+	@Override
+	public void debug(String msg, Object arg1, Object arg2) {
+		if (level.threshold <= DEBUG) {
+			logger.debug(msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void debug(String msg, long arg) {
+		if (level.threshold <= DEBUG) {
+			logger.debug(msg, arg);
+		}
+	}
+
+	@Override
+	public void debug(String msg, long arg1, long arg2) {
+		if (level.threshold <= DEBUG) {
+			logger.debug(msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void debug(String msg, double arg) {
+		if (level.threshold <= DEBUG) {
+			logger.debug(msg, arg);
+		}
+	}
+
+	@Override
+	public void info(String msg, Object... args) {
+		if (level.threshold <= INFO) {
+			logger.info(msg, args);
+		}
+	}
+
+	@Override
+	public void info(String msg) {
+		if (level.threshold <= INFO) {
+			logger.info(msg);
+		}
+	}
+
+	@Override
+	public void info(String msg, Object arg) {
+		if (level.threshold <= INFO) {
+			logger.info(msg, arg);
+		}
+	}
+
+	@Override
+	public void info(String msg, Object arg1, Object arg2) {
+		if (level.threshold <= INFO) {
+			logger.info(msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void info(String msg, long arg) {
+		if (level.threshold <= INFO) {
+			logger.info(msg, arg);
+		}
+	}
+
+	@Override
+	public void info(String msg, long arg1, long arg2) {
+		if (level.threshold <= INFO) {
+			logger.info(msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void info(String msg, double arg) {
+		if (level.threshold <= INFO) {
+			logger.info(msg, arg);
+		}
+	}
+
+	@Override
+	public void warn(String msg, Object... args) {
+		if (level.threshold <= WARN) {
+			logger.warn(msg, args);
+		}
+	}
+
+	@Override
+	public void warn(String msg) {
+		if (level.threshold <= WARN) {
+			logger.warn(msg);
+		}
+	}
+
+	@Override
+	public void warn(String msg, Object arg) {
+		if (level.threshold <= WARN) {
+			logger.warn(msg, arg);
+		}
+	}
+
+	@Override
+	public void warn(String msg, Object arg1, Object arg2) {
+		if (level.threshold <= WARN) {
+			logger.warn(msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void warn(String msg, long arg) {
+		if (level.threshold <= WARN) {
+			logger.warn(msg, arg);
+		}
+	}
+
+	@Override
+	public void warn(String msg, long arg1, long arg2) {
+		if (level.threshold <= WARN) {
+			logger.warn(msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void warn(String msg, double arg) {
+		if (level.threshold <= WARN) {
+			logger.warn(msg, arg);
+		}
+	}
+
+	@Override
+	public void error(String msg, Object... args) {
+		if (level.threshold <= ERROR) {
+			logger.error(msg, args);
+		}
+	}
+
+	@Override
+	public void error(String msg) {
+		if (level.threshold <= ERROR) {
+			logger.error(msg);
+		}
+	}
+
+	@Override
+	public void error(String msg, Object arg) {
+		if (level.threshold <= ERROR) {
+			logger.error(msg, arg);
+		}
+	}
+
+	@Override
+	public void error(String msg, Object arg1, Object arg2) {
+		if (level.threshold <= ERROR) {
+			logger.error(msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void error(String msg, long arg) {
+		if (level.threshold <= ERROR) {
+			logger.error(msg, arg);
+		}
+	}
+
+	@Override
+	public void error(String msg, long arg1, long arg2) {
+		if (level.threshold <= ERROR) {
+			logger.error(msg, arg1, arg2);
+		}
+	}
+
+	@Override
+	public void error(String msg, double arg) {
+		if (level.threshold <= ERROR) {
+			logger.error(msg, arg);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "DefaultLog [" + logger.getName() + "]";
+	}
+}
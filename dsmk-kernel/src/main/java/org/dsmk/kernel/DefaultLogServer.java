@@ -0,0 +1,58 @@
+package org.dsmk.kernel;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dsmk.api.Log;
+import org.dsmk.api.LogServer;
+import org.dsmk.api.Subsystem;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LogServer over SLF4J handing out one Log per subsystem name, created on the first request and
+ * cached afterwards. The levels are checked by the Logs against {@link LogLevels} before the backend
+ * is called.
+ */
+public class DefaultLogServer implements LogServer {
+
+	private final ConcurrentHashMap<String, Log> logs = new ConcurrentHashMap<>();
+
+	private final LogLevels levels;
+
+	/**
+	 * Creates the server with every level at debug, the backend configuration deciding what is logged
+	 * until levels are set
+	 */
+	public DefaultLogServer() {
+		this(new LogLevels("debug"));
+	}
+
+	DefaultLogServer(LogLevels levels) {
+		this.levels = levels;
+	}
+
+	public Log getLog(Subsystem sys) {
+
+		Log log = logs.get(sys.name());
+		if (log == null) {
+			log = logs.computeIfAbsent(sys.name(), name -> new DefaultLog(LoggerFactory.getLogger(name), levels.level(name)));
+		}
+		return log;
+
+	}
+
+	@Override
+	public void setLevel(String name, String level) {
+		levels.set(name, level);
+	}
+
+	@Override
+	public String getLevel(String name) {
+		return levels.get(name);
+	}
+
+	@Override
+	public String toString() {
+		return "DefaultLogServer";
+	}
+
+}
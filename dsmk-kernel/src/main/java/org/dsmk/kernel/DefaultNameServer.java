@@ -0,0 +1,712 @@
+package org.dsmk.kernel;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.Log;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.NameServer.NameEvent.Kind;
+
+import org.slf4j.LoggerFactory;
+
+import com.github.krukow.clj_ds.PersistentMap;
+import com.github.krukow.clj_ds.PersistentSortedMap;
+import com.github.krukow.clj_ds.Persistents;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * NameServer keeping its registry as an immutable snapshot behind a single atomic reference. Lookups
+ * read the current snapshot without locking or allocating, registrations copy the affected entries and
+ * publish a new snapshot with a compare-and-set. Besides the names, every registered instance is
+ * indexed under all of its superclasses and interfaces so that lookups by type are a single read, and
+ * every name in a trie of its dot separated segments, ordered, for {@link #listNames(String)} and
+ * {@link #subtree(String)}. Every snapshot has a version, one more than the previous one, by which the
+ * {@link NameWatcher} orders the changes it delivers to the watches.
+ * <p>
+ * A name bound to a {@link LazySubsystem.Placeholder} activates the lazy subsystem on its first lookup
+ * and resolves to the instances the subsystem registered under the name.
+ * <p>
+ * Closing stops the delivery of the changes to the watches, the registry itself staying readable.
+ */
+public class DefaultNameServer implements NameServer, Closeable {
+
+	/**
+	 * The instances registered under a name, never modified once published
+	 */
+	private static final class Binding {
+
+		final Object[] instances;
+		final List<Object> view;
+		final boolean placeholders;
+
+		Binding(Object[] instances) {
+			this.instances = instances;
+			this.view = Collections.unmodifiableList(Arrays.asList(instances));
+			boolean found = false;
+			for (Object instance : instances) {
+				found |= instance instanceof LazySubsystem.Placeholder;
+			}
+			this.placeholders = found;
+		}
+
+		/**
+		 * @return the binding without the placeholders or null if nothing is left
+		 */
+		Binding withoutPlaceholders() {
+			if (!placeholders) {
+				return this;
+			}
+			List<Object> remaining = new ArrayList<>(instances.length);
+			for (Object instance : instances) {
+				if (!(instance instanceof LazySubsystem.Placeholder)) {
+					remaining.add(instance);
+				}
+			}
+			return remaining.isEmpty() ? null : new Binding(remaining.toArray());
+		}
+
+		Binding plus(Object instance) {
+			Object[] updated = Arrays.copyOf(instances, instances.length + 1);
+			updated[instances.length] = instance;
+			return new Binding(updated);
+		}
+
+		int indexOf(Object instance) {
+			for (int i = 0; i < instances.length; i++) {
+				if (instances[i].equals(instance)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the binding without the instance at the index or null if nothing is left
+		 */
+		Binding minus(int index) {
+			if (instances.length == 1) {
+				return null;
+			}
+			return new Binding(remove(instances, index));
+		}
+	}
+
+	/**
+	 * The instances of a type, each counted once per name it is registered under
+	 */
+	private static final class TypeBinding {
+
+		final Object[] instances;
+		final int[] registrations;
+		final List<Object> view;
+
+		TypeBinding(Object[] instances, int[] registrations) {
+			this.instances = instances;
+			this.registrations = registrations;
+			this.view = Collections.unmodifiableList(Arrays.asList(instances));
+		}
+
+		int indexOf(Object instance) {
+			for (int i = 0; i < instances.length; i++) {
+				if (instances[i] == instance) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		TypeBinding plus(Object instance) {
+			int i = indexOf(instance);
+			if (i >= 0) {
+				int[] updated = registrations.clone();
+				updated[i]++;
+				return new TypeBinding(instances, updated);
+			}
+			Object[] updatedInstances = Arrays.copyOf(instances, instances.length + 1);
+			updatedInstances[instances.length] = instance;
+			int[] updated = Arrays.copyOf(registrations, registrations.length + 1);
+			updated[registrations.length] = 1;
+			return new TypeBinding(updatedInstances, updated);
+		}
+
+		/**
+		 * @return the type binding with one registration less of the instance or null if nothing is left
+		 */
+		TypeBinding minus(Object instance) {
+			int i = indexOf(instance);
+			if (i < 0) {
+				return this;
+			}
+			if (registrations[i] > 1) {
+				int[] updated = registrations.clone();
+				updated[i]--;
+				return new TypeBinding(instances, updated);
+			}
+			if (instances.length == 1) {
+				return null;
+			}
+			int[] updated = new int[registrations.length - 1];
+			System.arraycopy(registrations, 0, updated, 0, i);
+			System.arraycopy(registrations, i + 1, updated, i, registrations.length - i - 1);
+			return new TypeBinding(remove(instances, i), updated);
+		}
+	}
+
+	/**
+	 * A node of the trie of the names, one per segment, never modified once published. Nodes without
+	 * name or children are removed.
+	 */
+	private static final class NameNode {
+
+		static final NameNode ROOT = new NameNode(Persistents.<String, NameNode>treeMap(), null);
+
+		final PersistentSortedMap<String, NameNode> children;
+
+		/**
+		 * the name ending at this node, null if no name does
+		 */
+		final String name;
+
+		NameNode(PersistentSortedMap<String, NameNode> children, String name) {
+			this.children = children;
+			this.name = name;
+		}
+
+		NameNode plus(String[] segments, int depth, String name) {
+			if (depth == segments.length) {
+				return new NameNode(children, name);
+			}
+			NameNode child = children.get(segments[depth]);
+			if (child == null) {
+				child = new NameNode(ROOT.children, null);
+			}
+			return new NameNode(children.plus(segments[depth], child.plus(segments, depth + 1, name)), this.name);
+		}
+
+		/**
+		 * @return the node without the name or null if nothing is left
+		 */
+		NameNode minus(String[] segments, int depth) {
+			if (depth == segments.length) {
+				return children.isEmpty() ? null : new NameNode(children, null);
+			}
+			NameNode child = children.get(segments[depth]);
+			if (child == null) {
+				return this;
+			}
+			NameNode remaining = child.minus(segments, depth + 1);
+			PersistentSortedMap<String, NameNode> updated = remaining == null ? children.minus(segments[depth])
+					: children.plus(segments[depth], remaining);
+			return updated.isEmpty() && this.name == null ? null : new NameNode(updated, this.name);
+		}
+
+		/**
+		 * @return the node of the name, null if there is none
+		 */
+		NameNode find(String[] segments) {
+			NameNode node = this;
+			for (int i = 0; i < segments.length && node != null; i++) {
+				node = node.children.get(segments[i]);
+			}
+			return node;
+		}
+
+		void collect(String[] pattern, int depth, List<String> matches) {
+			if (depth == pattern.length) {
+				if (name != null) {
+					matches.add(name);
+				}
+				return;
+			}
+			String segment = pattern[depth];
+			if ("**".equals(segment)) {
+				for (NameNode child : children.values()) {
+					child.collectAll(matches);
+				}
+			} else if ("*".equals(segment)) {
+				for (NameNode child : children.values()) {
+					child.collect(pattern, depth + 1, matches);
+				}
+			} else {
+				NameNode child = children.get(segment);
+				if (child != null) {
+					child.collect(pattern, depth + 1, matches);
+				}
+			}
+		}
+
+		void collectAll(List<String> matches) {
+			if (name != null) {
+				matches.add(name);
+			}
+			for (NameNode child : children.values()) {
+				child.collectAll(matches);
+			}
+		}
+	}
+
+	/**
+	 * An immutable state of the registry
+	 */
+	private static final class Snapshot {
+
+		final PersistentMap<String, Binding> names;
+		final PersistentMap<Class<?>, TypeBinding> types;
+		final NameNode tree;
+		final long version;
+
+		Snapshot(PersistentMap<String, Binding> names, PersistentMap<Class<?>, TypeBinding> types, NameNode tree, long version) {
+			this.names = names;
+			this.types = types;
+			this.tree = tree;
+			this.version = version;
+		}
+
+		Snapshot plus(String name, Object instance) {
+			Binding binding = names.get(name);
+			PersistentMap<Class<?>, TypeBinding> updatedTypes = types;
+			for (Class<?> typ : TYPES.get(instance.getClass())) {
+				TypeBinding typeBinding = updatedTypes.get(typ);
+				updatedTypes = updatedTypes.plus(typ,
+						typeBinding == null ? new TypeBinding(new Object[] { instance }, new int[] { 1 }) : typeBinding.plus(instance));
+			}
+			return new Snapshot(names.plus(name, binding == null ? new Binding(new Object[] { instance }) : binding.plus(instance)),
+					updatedTypes, binding == null ? tree.plus(segments(name), 0, name) : tree, version + 1);
+		}
+
+		Snapshot minus(String name, Binding binding, int index) {
+			Object instance = binding.instances[index];
+			Binding remaining = binding.minus(index);
+			PersistentMap<Class<?>, TypeBinding> updatedTypes = types;
+			for (Class<?> typ : TYPES.get(instance.getClass())) {
+				TypeBinding typeBinding = updatedTypes.get(typ);
+				if (typeBinding != null) {
+					TypeBinding remainingTypes = typeBinding.minus(instance);
+					updatedTypes = remainingTypes == null ? updatedTypes.minus(typ) : updatedTypes.plus(typ, remainingTypes);
+				}
+			}
+			NameNode updatedTree = tree;
+			if (remaining == null) {
+				updatedTree = tree.minus(segments(name), 0);
+				if (updatedTree == null) {
+					updatedTree = NameNode.ROOT;
+				}
+			}
+			return new Snapshot(remaining == null ? names.minus(name) : names.plus(name, remaining), updatedTypes, updatedTree,
+					version + 1);
+		}
+	}
+
+	/**
+	 * All the superclasses and interfaces of a class, itself included and Object excluded
+	 */
+	private static final ClassValue<Class<?>[]> TYPES = new ClassValue<Class<?>[]>() {
+
+		@Override
+		protected Class<?>[] computeValue(Class<?> clz) {
+			Set<Class<?>> types = new LinkedHashSet<>();
+			for (Class<?> c = clz; c != null && c != Object.class; c = c.getSuperclass()) {
+				types.add(c);
+				addInterfaces(c, types);
+			}
+			return types.toArray(new Class<?>[types.size()]);
+		}
+
+		private void addInterfaces(Class<?> clz, Set<Class<?>> types) {
+			for (Class<?> i : clz.getInterfaces()) {
+				if (types.add(i)) {
+					addInterfaces(i, types);
+				}
+			}
+		}
+	};
+
+	/**
+	 * @return the dot separated segments of a name
+	 */
+	static String[] segments(String name) {
+		int count = 1;
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) == '.') {
+				count++;
+			}
+		}
+		String[] segments = new String[count];
+		int start = 0;
+		for (int i = 0; i < count - 1; i++) {
+			int end = name.indexOf('.', start);
+			segments[i] = name.substring(start, end);
+			start = end + 1;
+		}
+		segments[count - 1] = name.substring(start);
+		return segments;
+	}
+
+	private static Object[] remove(Object[] instances, int index) {
+		Object[] updated = new Object[instances.length - 1];
+		System.arraycopy(instances, 0, updated, 0, index);
+		System.arraycopy(instances, index + 1, updated, index, instances.length - index - 1);
+		return updated;
+	}
+
+	private final AtomicReference<Snapshot> registry = new AtomicReference<>(
+			new Snapshot(Persistents.<String, Binding>hashMap(), Persistents.<Class<?>, TypeBinding>hashMap(), NameNode.ROOT, 0));
+
+	private final NameWatcher watcher;
+
+	/**
+	 * Logs the failures of the watches at warn to the logger of the class
+	 */
+	public DefaultNameServer() {
+		this(new DefaultLog(LoggerFactory.getLogger(DefaultNameServer.class), new LogLevels("warn").level("")));
+	}
+
+	/**
+	 * @param log
+	 *            where the failures of the watches are reported
+	 */
+	public DefaultNameServer(Log log) {
+		this.watcher = new NameWatcher(log);
+	}
+
+	@Override
+	public void close() {
+		watcher.close();
+	}
+
+	private class DefaultNameRegistration implements NameRegistration {
+
+		private String name;
+		private Object instance;
+
+		DefaultNameRegistration(String name, Object instance) {
+			this.name = name;
+			this.instance = instance;
+		}
+
+		@Override
+		public String getRegistrationName() {
+			return name;
+		}
+
+		@Override
+		public Object getRegiseredInstance() {
+			return instance;
+		}
+
+		@Override
+		public boolean isRegistered() {
+			return DefaultNameServer.this.isRegistered(name, instance);
+		}
+
+		@Override
+		public void unRegister() throws NamingException {
+			DefaultNameServer.this.unRegister(name, instance);
+		}
+
+		@Override
+		public String toString() {
+			return "DefaultNameRegistration [name=" + name + ", instance=" + instance + "]";
+		}
+
+	}
+
+	private Binding binding(String name) throws NamingException {
+		try {
+			checkArgument(name != null, "Lookup name cannot be null!");
+			checkArgument(!isBlank(name), "Lookup name cannot be empty!");
+		} catch (Exception e) {
+			throw new NamingException(e.getMessage());
+		}
+
+		Binding binding = registry.get().names.get(name);
+
+		if (binding != null && binding.placeholders) {
+			binding = activate(name, binding);
+		}
+
+		if (binding == null) {
+			throw new NamingException(String.format("Name %s not found", name));
+		}
+
+		return binding;
+	}
+
+	/**
+	 * Activates the lazy subsystems behind the placeholders of a binding
+	 *
+	 * @return the binding as registered once they are started, without placeholders
+	 */
+	private Binding activate(String name, Binding binding) throws NamingException {
+		for (Object instance : binding.instances) {
+			if (instance instanceof LazySubsystem.Placeholder) {
+				((LazySubsystem.Placeholder) instance).activate();
+			}
+		}
+		// a subsystem looking up its own names while starting still finds its placeholders
+		binding = registry.get().names.get(name);
+		return binding == null ? null : binding.withoutPlaceholders();
+	}
+
+	/**
+	 * Activates the lazy subsystems registered under the name of the type, if any
+	 */
+	private void activate(Class<?> typ) throws NamingException {
+		Binding binding = registry.get().names.get(typ.getName());
+		if (binding != null && binding.placeholders) {
+			activate(typ.getName(), binding);
+		}
+	}
+
+	private static boolean isBlank(String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (!Character.isWhitespace(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public Object lookup1(String name) throws NamingException {
+		return binding(name).instances[0]; // get the first one in the list
+	}
+
+	@Override
+	public Iterator<Object> lookupAll(String name) throws NamingException {
+		return binding(name).view.iterator();
+	}
+
+	@Override
+	public <T> T lookup1(String name, Class<T> typ) throws NamingException {
+		if (typ == null) {
+			throw new NamingException("Lookup Type cannot be null!");
+		}
+
+		Object inst = lookup1(name);
+		if (!typ.isInstance(inst)) {
+			throw new NamingException(
+					String.format("Looked up instance %s-%s is not of type expected %s", inst, inst.getClass(), typ));
+		}
+		return typ.cast(inst);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> Iterator<T> lookupAll(String name, Class<T> typ) throws NamingException {
+		if (typ == null) {
+			throw new NamingException("Lookup Type cannot be null!");
+		}
+
+		Binding binding = binding(name);
+
+		for (Object inst : binding.instances) {
+			if (!typ.isInstance(inst)) {
+				throw new NamingException(String.format("One of Looked up instances %s-%s is not of type expected %s",
+						inst, inst.getClass(), typ));
+			}
+		}
+
+		return (Iterator<T>) binding.view.iterator();
+	}
+
+	@Override
+	public <T> T lookup1(Class<T> typ) throws NamingException {
+		if (typ == null) {
+			throw new NamingException("Lookup Type cannot be null!");
+		}
+
+		TypeBinding binding = registry.get().types.get(typ);
+
+		if (binding == null) {
+			activate(typ);
+			binding = registry.get().types.get(typ);
+		}
+
+		if (binding == null) {
+			throw new NamingException(String.format("No instance of type %s registered", typ.getName()));
+		}
+
+		return typ.cast(binding.instances[0]);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> List<T> lookupAll(Class<T> typ) {
+		checkArgument(typ != null, "Lookup Type cannot be null!");
+
+		try {
+			activate(typ);
+		} catch (NamingException e) {
+			// the instances which are there are still returned
+		}
+
+		TypeBinding binding = registry.get().types.get(typ);
+
+		return binding == null ? Collections.<T>emptyList() : (List<T>) binding.view;
+	}
+
+	@Override
+	public NameRegistration register(String name, Object instance) throws NamingException {
+		try {
+			checkArgument(name != null, "Registered name cannot be null!");
+			checkArgument(!isBlank(name), "Registered name cannot be empty!");
+			checkArgument(instance != null, "Registered instance cannot be null!");
+		} catch (Exception e) {
+			throw new NamingException(e.getMessage());
+		}
+
+		Snapshot current;
+		Snapshot updated;
+		do {
+			current = registry.get();
+			updated = current.plus(name, instance);
+		} while (!registry.compareAndSet(current, updated));
+
+		if (watcher.isNotifying()) {
+			watcher.changed(Kind.REGISTERED, name, instance, updated.version);
+		}
+
+		return new DefaultNameRegistration(name, instance);
+	}
+
+	public void unRegister(String name, Object instance) throws NamingException {
+		try {
+			checkArgument(name != null, "Name to be unregistered cannot be null!");
+			checkArgument(!isBlank(name), "Name to be unregistered cannot be empty!");
+			checkArgument(instance != null, "Instance to be unregistered cannot be null!");
+		} catch (Exception e) {
+			throw new NamingException(e.getMessage());
+		}
+
+		Snapshot current;
+		Snapshot updated;
+		do {
+			current = registry.get();
+			Binding binding = current.names.get(name);
+			if (binding == null) {
+				throw new NamingException(String.format("Name %s not found", name));
+			}
+			int index = binding.indexOf(instance);
+			if (index < 0) {
+				throw new NamingException(String.format(
+						"Instance %s for Name %s does not seem to be registered. \n Please check the name or instance it is registered under",
+						instance, name));
+			}
+			updated = current.minus(name, binding, index);
+		} while (!registry.compareAndSet(current, updated));
+
+		if (watcher.isNotifying()) {
+			watcher.changed(Kind.UNREGISTERED, name, instance, updated.version);
+		}
+	}
+
+	@Override
+	public boolean isRegistered(String name, Object instance) {
+		if (name == null) {
+			return false;
+		}
+		Binding binding = registry.get().names.get(name);
+		if (binding != null) {
+			for (Object inst : binding.instances) {
+				if (inst == instance) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lists the names matching the pattern without activating the lazy subsystems registered under them
+	 */
+	@Override
+	public List<String> listNames(String pattern) {
+		checkArgument(pattern != null, "Name pattern cannot be null!");
+
+		String[] segments = segments(pattern);
+		for (int i = 0; i < segments.length - 1; i++) {
+			checkArgument(!"**".equals(segments[i]), "** can only end a name pattern, got %s", pattern);
+		}
+
+		List<String> matches = new ArrayList<>();
+		registry.get().tree.collect(segments, 0, matches);
+		return Collections.unmodifiableList(matches);
+	}
+
+	/**
+	 * Iterates over the registered instances without activating the lazy subsystems, their
+	 * placeholders are left out
+	 */
+	@Override
+	public Iterator<NameRegistration> subtree(String name) {
+		checkArgument(name != null, "Name cannot be null!");
+
+		Snapshot snapshot = registry.get();
+		NameNode node = snapshot.tree.find(segments(name));
+		if (node == null) {
+			return Collections.<NameRegistration>emptyList().iterator();
+		}
+
+		List<String> names = new ArrayList<>();
+		node.collectAll(names);
+		List<NameRegistration> registrations = new ArrayList<>(names.size());
+		for (String each : names) {
+			for (Object instance : snapshot.names.get(each).instances) {
+				if (!(instance instanceof LazySubsystem.Placeholder)) {
+					registrations.add(new DefaultNameRegistration(each, instance));
+				}
+			}
+		}
+		return Collections.unmodifiableList(registrations).iterator();
+	}
+
+	/**
+	 * Watches without activating the lazy subsystems, the changes of their placeholders are left out
+	 */
+	@Override
+	public NameWatch watch(String pattern, NameListener listener, boolean coalesce) {
+		checkArgument(listener != null, "Listener cannot be null!");
+		// validates the pattern
+		listNames(pattern);
+
+		return watcher.watch(pattern, listener, coalesce, new NameWatcher.InitialState() {
+
+			private Snapshot snapshot;
+
+			@Override
+			public long version() {
+				snapshot = registry.get();
+				return snapshot.version;
+			}
+
+			@Override
+			public void fill(NameWatcher.Watch watch, long version) {
+				List<String> names = new ArrayList<>();
+				snapshot.tree.collect(segments(pattern), 0, names);
+				for (String name : names) {
+					for (Object instance : snapshot.names.get(name).instances) {
+						if (!(instance instanceof LazySubsystem.Placeholder)) {
+							watch.add(new NameWatcher.Event(Kind.REGISTERED, name, instance, version));
+						}
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		return "DefaultNameServer";
+	}
+}
@@ -0,0 +1,311 @@
+package org.dsmk.kernel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.Log;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.NameServer.NameRegistration;
+import org.dsmk.api.Result;
+import org.dsmk.api.Subsystem;
+
+/**
+ * A subsystem configured with lazy=true. Instead of being configured and started with the others it
+ * registers a {@link Placeholder} under every name it provides, and the {@link DefaultNameServer}
+ * activates it the first time one of those names is looked up. Concurrent first lookups wait for the
+ * same activation, a failed activation is reported to every later lookup.
+ * <p>
+ * The activation runs without holding the monitor, the other lookups waiting for its completion, so
+ * that two subsystems activated by different threads may look each other up. When they wait for
+ * each other's activation, the lookup closing the cycle fails instead of waiting.
+ */
+final class LazySubsystem {
+
+	static final String ERR_SUBSYS_LAZY = "dsmk.kernel.err.subsys.lazy.0001";
+
+	/**
+	 * Registered in the NameServer in place of the instances the subsystem provides once started
+	 */
+	final class Placeholder {
+
+		void activate() throws NamingException {
+			LazySubsystem.this.activate();
+		}
+
+		@Override
+		public String toString() {
+			return "Placeholder [" + LazySubsystem.this + "]";
+		}
+	}
+
+	private enum State {
+		DORMANT, ACTIVE, FAILED
+	}
+
+	/**
+	 * the lazy subsystem every thread waiting for an activation waits for
+	 */
+	private static final Map<Thread, LazySubsystem> AWAITED = new ConcurrentHashMap<>();
+
+	private final String group;
+	private final String slot;
+	private final String className;
+	private final String[] provides;
+	private final Placeholder placeholder = new Placeholder();
+	private final List<NameRegistration> registrations = new ArrayList<>();
+
+	private volatile Subsystem subsystem;
+	private Map<String, Object> initMap;
+	private LifecycleReport report;
+	private Log log;
+
+	private volatile State state = State.DORMANT;
+	private volatile long activatedNanos;
+	private volatile String failure;
+	private volatile Thread activator;
+	private final CompletableFuture<Void> activation = new CompletableFuture<>();
+
+	/**
+	 * @param group
+	 * @param slot
+	 *            the configuration prefix of the subsystem, such as dsmk.ext.subsystem.2
+	 * @param className
+	 * @param provides
+	 *            the names to activate the subsystem on
+	 * @param subsystem
+	 *            the instance if it already had to be created to read its PROVIDES, otherwise null
+	 */
+	LazySubsystem(String group, String slot, String className, String[] provides, Subsystem subsystem) {
+		this.group = group;
+		this.slot = slot;
+		this.className = className;
+		this.provides = provides;
+		this.subsystem = subsystem;
+	}
+
+	String[] provides() {
+		return provides;
+	}
+
+	String group() {
+		return group;
+	}
+
+	String slot() {
+		return slot;
+	}
+
+	String className() {
+		return className;
+	}
+
+	/**
+	 * @return the names required by the subsystem, none if it was not instantiated yet
+	 */
+	synchronized String[] requires() {
+		return subsystem == null ? new String[0] : SubsystemGraph.names(subsystem, Subsystem.REQUIRES);
+	}
+
+	/**
+	 * @return the name of the subsystem or null if it was not instantiated yet
+	 */
+	synchronized String name() {
+		return subsystem == null ? null : subsystem.name();
+	}
+
+	/**
+	 * Registers the placeholders so that the subsystem is activated on first lookup
+	 */
+	synchronized void register(NameServer nameServer, Map<String, Object> initMap, LifecycleReport report, Log log)
+			throws NamingException {
+		this.initMap = initMap;
+		this.report = report;
+		this.log = log;
+		for (String name : provides) {
+			registrations.add(nameServer.register(name, placeholder));
+		}
+	}
+
+	/**
+	 * Instantiates, configures and starts the subsystem unless already done. A lookup made by the
+	 * subsystem itself while starting returns without waiting.
+	 *
+	 * @throws NamingException
+	 *             if the subsystem failed to activate, now or on an earlier lookup, or if the activation
+	 *             waits for the one making this lookup
+	 */
+	void activate() throws NamingException {
+		if (state == State.ACTIVE) {
+			return;
+		}
+		Thread current = Thread.currentThread();
+		boolean activating = false;
+		synchronized (this) {
+			if (state == State.FAILED) {
+				throw new NamingException(failure);
+			}
+			if (state == State.ACTIVE || activator == current) {
+				return;
+			}
+			if (activator == null) {
+				activator = current;
+				activating = true;
+			}
+		}
+		if (activating) {
+			try {
+				run();
+			} finally {
+				activator = null;
+				activation.complete(null);
+			}
+		} else {
+			await(current);
+		}
+		if (state == State.FAILED) {
+			throw new NamingException(failure);
+		}
+	}
+
+	private void run() {
+		Result result = start();
+		if (result == null || result.isNotOK()) {
+			failure = "Lazy subsystem " + this + " failed to start with result " + (result == null ? null : result.getCode());
+			state = State.FAILED;
+			return;
+		}
+		synchronized (this) {
+			unregisterPlaceholders();
+		}
+		activatedNanos = System.nanoTime();
+		state = State.ACTIVE;
+		log.info("Activated lazy subsystem {} on first lookup", this);
+	}
+
+	/**
+	 * Waits for the activation run by another thread, unless that thread waits, directly or through
+	 * other activations, for the one the current thread runs. Threads start waiting one at a time, so
+	 * that of two threads waiting for each other only the later one sees the cycle and fails.
+	 */
+	private void await(Thread current) throws NamingException {
+		try {
+			synchronized (AWAITED) {
+				StringBuilder cycle = new StringBuilder().append(this);
+				LazySubsystem awaited = this;
+				for (int hops = AWAITED.size(); hops >= 0; hops--) {
+					Thread owner = awaited.activator;
+					if (owner == current) {
+						throw new NamingException("Lazy subsystems " + cycle + " wait for each other to activate");
+					}
+					if (owner == null || (awaited = AWAITED.get(owner)) == null) {
+						break;
+					}
+					cycle.append(" -> ").append(awaited);
+				}
+				AWAITED.put(current, this);
+			}
+			activation.join();
+		} finally {
+			AWAITED.remove(current);
+		}
+	}
+
+	private Result start() {
+		LifecycleReport.Phase phase;
+		if (subsystem == null) {
+			phase = report.begin("kernel.load-subsystem", className, group);
+			try {
+				subsystem = Main.newSubsystem(className);
+				phase.end(Result.OK);
+			} catch (Exception e) {
+				phase.end(null);
+				e.printStackTrace(System.err);
+				return null;
+			}
+		}
+
+		Result result = null;
+		phase = report.begin("configure", subsystem.name(), group);
+		try {
+			result = subsystem.configure(initMap);
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			phase.end(result);
+		}
+		if (result == null || result.isNotOK()) {
+			return result;
+		}
+
+		result = null;
+		phase = report.begin("start", subsystem.name(), group);
+		try {
+			result = subsystem.start();
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			phase.end(result);
+		}
+		return result;
+	}
+
+	private void unregisterPlaceholders() {
+		for (NameRegistration registration : registrations) {
+			try {
+				if (registration.isRegistered()) {
+					registration.unRegister();
+				}
+			} catch (NamingException e) {
+				e.printStackTrace(System.err);
+			}
+		}
+		registrations.clear();
+	}
+
+	boolean isActive() {
+		return state == State.ACTIVE;
+	}
+
+	long activatedNanos() {
+		return activatedNanos;
+	}
+
+	/**
+	 * Stops the subsystem if it was activated, once an activation under way is done, otherwise just
+	 * withdraws the placeholders
+	 */
+	Result stop() {
+		Thread owner = activator;
+		if (owner != null && owner != Thread.currentThread()) {
+			activation.join();
+		}
+		return stopActivated();
+	}
+
+	private synchronized Result stopActivated() {
+		if (state != State.ACTIVE) {
+			unregisterPlaceholders();
+			return Result.OK;
+		}
+		Result result = null;
+		LifecycleReport.Phase phase = report.begin("stop", subsystem.name(), group);
+		try {
+			result = subsystem.stop();
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			phase.end(result);
+		}
+		return result == null ? Result.NOT_OK : result;
+	}
+
+	@Override
+	public String toString() {
+		return group + ":" + (subsystem == null ? className : subsystem.name());
+	}
+}
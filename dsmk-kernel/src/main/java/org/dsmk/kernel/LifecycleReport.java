@@ -0,0 +1,250 @@
+package org.dsmk.kernel;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.dsmk.api.Result;
+
+/**
+ * Wall and CPU time of the kernel phases and of every subsystem configure, start and stop. The
+ * kernel registers its report in the NameServer under this class name; {@link #toJson()} renders
+ * it. Measurements may be recorded from any thread.
+ */
+public class LifecycleReport {
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+
+	/**
+	 * Status of a phase which was given up on as it did not end in time
+	 */
+	public static final String TIMED_OUT = "TIMED_OUT";
+
+	/**
+	 * One measured phase. Subsystem and group are null for kernel phases
+	 */
+	public static final class Phase {
+
+		private final String name;
+		private final String subsystem;
+		private final String group;
+		private final String thread;
+		private final long startNanos;
+		private final long startCpuNanos;
+		private volatile long wallNanos = -1;
+		private volatile long cpuNanos = -1;
+		private volatile String status;
+
+		private Phase(String name, String subsystem, String group) {
+			this.name = name;
+			this.subsystem = subsystem;
+			this.group = group;
+			this.thread = Thread.currentThread().getName();
+			this.startCpuNanos = cpuTime();
+			this.startNanos = System.nanoTime();
+		}
+
+		/**
+		 * Ends the phase
+		 *
+		 * @param result
+		 *            the outcome of the phase, null if it ended with an exception
+		 */
+		public void end(Result result) {
+			endAs(result == null ? "FAILED" : result.getStatus().name());
+		}
+
+		/**
+		 * Ends the phase with the given status, such as {@link LifecycleReport#TIMED_OUT}. Only the
+		 * first end of a phase counts, the CPU time is only measured when ended on the thread which
+		 * began it.
+		 *
+		 * @param status
+		 */
+		public synchronized void endAs(String status) {
+			if (this.status != null) {
+				return;
+			}
+			wallNanos = System.nanoTime() - startNanos;
+			cpuNanos = startCpuNanos < 0 || !thread.equals(Thread.currentThread().getName()) ? -1
+					: cpuTime() - startCpuNanos;
+			this.status = status;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getSubsystem() {
+			return subsystem;
+		}
+
+		public String getGroup() {
+			return group;
+		}
+
+		public String getThread() {
+			return thread;
+		}
+
+		public long getWallNanos() {
+			return wallNanos;
+		}
+
+		public long getCpuNanos() {
+			return cpuNanos;
+		}
+
+		public String getStatus() {
+			return status;
+		}
+
+		@Override
+		public String toString() {
+			return (subsystem == null ? name : group + ":" + subsystem + "." + name) + "(" + wallNanos / 1_000 + "us)";
+		}
+	}
+
+	private final long createdAtMillis = System.currentTimeMillis();
+
+	private final ConcurrentLinkedQueue<Phase> phases = new ConcurrentLinkedQueue<>();
+
+	private volatile List<String> criticalPath = Collections.emptyList();
+
+	private volatile long bootNanos = -1;
+
+	private static long cpuTime() {
+		return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1;
+	}
+
+	/**
+	 * Begins a kernel phase
+	 *
+	 * @param name
+	 * @return
+	 */
+	public Phase begin(String name) {
+		return begin(name, null, null);
+	}
+
+	/**
+	 * Begins a phase of a subsystem, such as configure, start or stop
+	 *
+	 * @param name
+	 * @param subsystem
+	 * @param group
+	 * @return
+	 */
+	public Phase begin(String name, String subsystem, String group) {
+		Phase phase = new Phase(name, subsystem, group);
+		phases.add(phase);
+		return phase;
+	}
+
+	void setCriticalPath(List<String> criticalPath, long bootNanos) {
+		this.criticalPath = Collections.unmodifiableList(new ArrayList<>(criticalPath));
+		this.bootNanos = bootNanos;
+	}
+
+	public List<Phase> getPhases() {
+		return Collections.unmodifiableList(new ArrayList<>(phases));
+	}
+
+	public List<String> getCriticalPath() {
+		return criticalPath;
+	}
+
+	/**
+	 * @param name
+	 *            the phase name, such as start
+	 * @return the ended subsystem phase of that name which took the longest or null
+	 */
+	public Phase slowest(String name) {
+		Phase slowest = null;
+		for (Phase phase : phases) {
+			if (phase.subsystem != null && phase.name.equals(name) && phase.status != null
+					&& (slowest == null || phase.wallNanos > slowest.wallNanos)) {
+				slowest = phase;
+			}
+		}
+		return slowest;
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder(256 + phases.size() * 160);
+		json.append("{\"createdAtMillis\":").append(createdAtMillis);
+		json.append(",\"subsystemsBootNanos\":").append(bootNanos);
+		json.append(",\"criticalPath\":[");
+		String separator = "";
+		for (String node : criticalPath) {
+			json.append(separator);
+			appendString(json, node);
+			separator = ",";
+		}
+		json.append("],\"phases\":[");
+		separator = "";
+		for (Phase phase : phases) {
+			json.append(separator).append("{\"name\":");
+			appendString(json, phase.name);
+			json.append(",\"subsystem\":");
+			appendString(json, phase.subsystem);
+			json.append(",\"group\":");
+			appendString(json, phase.group);
+			json.append(",\"thread\":");
+			appendString(json, phase.thread);
+			json.append(",\"wallNanos\":").append(phase.wallNanos);
+			json.append(",\"cpuNanos\":").append(phase.cpuNanos);
+			json.append(",\"status\":");
+			appendString(json, phase.status);
+			json.append('}');
+			separator = ",";
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	private static void appendString(StringBuilder json, String value) {
+		if (value == null) {
+			json.append("null");
+			return;
+		}
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				json.append("\\\"");
+				break;
+			case '\\':
+				json.append("\\\\");
+				break;
+			case '\n':
+				json.append("\\n");
+				break;
+			case '\r':
+				json.append("\\r");
+				break;
+			case '\t':
+				json.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					json.append(String.format("\\u%04x", (int) c));
+				} else {
+					json.append(c);
+				}
+			}
+		}
+		json.append('"');
+	}
+
+	@Override
+	public String toString() {
+		return "LifecycleReport [phases=" + phases.size() + ", criticalPath=" + criticalPath + "]";
+	}
+}
@@ -0,0 +1,167 @@
+package org.dsmk.kernel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dsmk.api.Config;
+
+/**
+ * The levels of the Logs of a LogServer, managed by the kernel rather than by the logging backend.
+ * A Log logs at the level set for the longest dot separated prefix of its name, the empty name being
+ * the root. The levels come from dsmk.kernel.log.level for the root and from
+ * dsmk.kernel.log.level.&lt;name&gt; for a name, and can be set at runtime on top of those.
+ * <p>
+ * Every Log reads its {@link Level} on each call, a single volatile int read and compare, so a
+ * disabled level costs no call into the backend. Changing a level, rare, recomputes the Levels of every
+ * name known.
+ */
+final class LogLevels {
+
+	static final int DEBUG = 0;
+	static final int INFO = 1;
+	static final int WARN = 2;
+	static final int ERROR = 3;
+	static final int OFF = 4;
+	private static final String[] NAMES = { "debug", "info", "warn", "error", "off" };
+
+	/**
+	 * The level a Log logs at, shared by the Logs of a name
+	 */
+	static final class Level {
+
+		/**
+		 * the lowest level logged, OFF when nothing is
+		 */
+		volatile int threshold;
+
+		private Level(int threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		public String toString() {
+			return NAMES[threshold];
+		}
+	}
+
+	/**
+	 * levels of the configuration, guarded by this
+	 */
+	private Map<String, Integer> configured;
+
+	/**
+	 * levels set at runtime, guarded by this
+	 */
+	private final Map<String, Integer> overrides = new HashMap<>();
+
+	private final ConcurrentHashMap<String, Level> levels = new ConcurrentHashMap<>();
+
+	/**
+	 * @param root
+	 *            the level of the names no other level is configured for
+	 */
+	LogLevels(String root) {
+		configured = new HashMap<>();
+		configured.put("", of(root));
+	}
+
+	/**
+	 * Creates the levels from dsmk.kernel.log.level, error by default, and dsmk.kernel.log.level.*
+	 */
+	static LogLevels of(Config settings) {
+		LogLevels levels = new LogLevels("error");
+		levels.configure(settings);
+		return levels;
+	}
+
+	/**
+	 * @return the level of the name, debug, info, warn, error or off in any case
+	 */
+	static int of(String name) {
+		for (int i = 0; i < NAMES.length; i++) {
+			if (NAMES[i].equalsIgnoreCase(name.trim())) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown log level " + name);
+	}
+
+	/**
+	 * @return the Level of the Logs of the name
+	 */
+	Level level(String name) {
+		Level level = levels.get(name);
+		if (level == null) {
+			synchronized (this) {
+				level = levels.computeIfAbsent(name, n -> new Level(resolve(n)));
+			}
+		}
+		return level;
+	}
+
+	/**
+	 * @return the level the Logs of the name log at
+	 */
+	synchronized String get(String name) {
+		return NAMES[resolve(name)];
+	}
+
+	/**
+	 * Sets the level of the name and of the names it prefixes, those with a longer prefix set excepted
+	 *
+	 * @param level
+	 *            null to go back to the configured level
+	 */
+	synchronized void set(String name, String level) {
+		if (level == null) {
+			overrides.remove(name);
+		} else {
+			overrides.put(name, of(level));
+		}
+		refresh();
+	}
+
+	/**
+	 * Replaces the configured levels by those of the configuration, the levels set at runtime staying
+	 */
+	synchronized void configure(Config settings) {
+		Map<String, Integer> updated = new HashMap<>();
+		updated.put("", of(settings.getString("dsmk.kernel.log.level", NAMES[configured.get("")])));
+		Config named = settings.scope("dsmk.kernel.log.level");
+		for (String name : named.keys()) {
+			updated.put(name, of(named.getString(name)));
+		}
+		configured = updated;
+		refresh();
+	}
+
+	private void refresh() {
+		for (Map.Entry<String, Level> entry : levels.entrySet()) {
+			entry.getValue().threshold = resolve(entry.getKey());
+		}
+	}
+
+	/**
+	 * @return the level of the longest prefix of the name set, at runtime first
+	 */
+	private int resolve(String name) {
+		for (String prefix = name;; prefix = prefix.substring(0, Math.max(prefix.lastIndexOf('.'), 0))) {
+			Integer level = overrides.get(prefix);
+			if (level == null) {
+				level = configured.get(prefix);
+			}
+			if (level != null) {
+				return level;
+			}
+			if (prefix.isEmpty()) {
+				return configured.get("");
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LogLevels{configured=" + configured + ", overrides=" + overrides + "}";
+	}
+}
@@ -1,22 +1,41 @@
 package org.dsmk.kernel;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.ResourceBundle;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.NamingException;
 
+import org.dsmk.api.Config;
+import org.dsmk.api.ConfigServer;
 import org.dsmk.api.Kernel;
 import org.dsmk.api.Log;
 import org.dsmk.api.LogServer;
@@ -25,13 +44,11 @@ import org.dsmk.api.NameServer.NameRegistration;
 import org.dsmk.api.Result;
 import org.dsmk.api.Result.Status;
 import org.dsmk.api.Subsystem;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.dsmk.api.SubsystemIndex;
 
 import com.github.krukow.clj_ds.PersistentMap;
 import com.github.krukow.clj_lang.PersistentHashMap;
-import com.github.krukow.clj_lang.PersistentList;
-import static com.google.common.base.Preconditions.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class Main implements Kernel {
 
@@ -39,9 +56,10 @@ public class Main implements Kernel {
 	
 	private static UUID kernelUUID = UUID.fromString("f9af9c66-14f4-4935-b70e-944c9540ffbc");
 	private static String NAME = "dsmk.kernel";
+	private static final String CONFIG_FILE = "dsmk.kernel.config.file";
 	private static final Map<String, Object> persistentMap;
 	static {
-		Map<String, Object> tempMap = new HashMap();
+		Map<String, Object> tempMap = new HashMap<>();
 		tempMap.put("UUID", kernelUUID);
 		tempMap.put("NAME", NAME);
 		persistentMap = PersistentHashMap.create(tempMap);
@@ -56,6 +74,7 @@ public class Main implements Kernel {
 		static final String ERR_KERNEL_OK = "dsmk.kernel.err.ok";
 		static final String MSG_KERNEL_STOP_OK = "dsmk.kernel.msg.stop.ok";
 		static final String MSG_KERNEL_SUCCESSFUL = "dsmk.kernel.msg.successful";
+		static final String ERR_KERNEL_FAILED_ON_RELOAD = "dsmk.kernel.err.reload.0001";
 		public static final String WARN_KERNEL_NOT_OK = "dsmk.kernel.warn.notok";
 		public static final String WARN_KERNEL_NO_SUBSYS_CONFIGURED = "dsmk.kernel.warn.subsys.none";
 		public static final String ERR_KERNEL_FAILED_ON_NAMING_SERVER_INIT = "dsmk.kernel.err.nameserver.init.0001";
@@ -68,6 +87,12 @@ public class Main implements Kernel {
 	};
 
 	private LogServer logServer;
+
+	/**
+	 * the levels of the LogServer the kernel created, reconfigured on reload, null for a LogServer
+	 * given in the configuration
+	 */
+	private LogLevels logLevels;
 	private NameServer nameServer;
 
 	private NameRegistration logServerRegistration;
@@ -76,8 +101,15 @@ public class Main implements Kernel {
 
 	private ResourceBundle messages;
 
+	/**
+	 * the configuration as loaded, still registered for the subsystems reading Properties
+	 */
 	private Properties configuration;
 
+	private DefaultConfigServer configServer;
+
+	private NameRegistration configServerRegistration;
+
 	private List<Subsystem> preSubsystems;
 	private List<Subsystem> extSubsystems;
 	private List<Subsystem> postSubsystems;
@@ -104,13 +136,32 @@ public class Main implements Kernel {
 
 	private NameRegistration argumentsRegistration;
 
+	private NameRegistration reportRegistration;
+
+	private LifecycleReport report;
+
+	private SubsystemGraph subsystemGraph;
+
+	private List<LazySubsystem> lazySubsystems;
+
+	private Map<Subsystem, String> slots;
+
+	private ConfigWatcher configWatcher;
+
+	/**
+	 * held while reloading the configuration or stopping
+	 */
+	private final Object lifecycleLock = new Object();
+
+	private boolean stopped;
+
 	public String name() {
 		return NAME;
 	}
 
 	protected String message(String string, String code) {
-		// TODO Auto-generated method stub
-		return null;
+		ResourceBundle bundle = messages();
+		return string + " - " + (code != null && bundle.containsKey(code) ? bundle.getString(code) : code);
 	}
 
 	public UUID id() {
@@ -148,26 +199,66 @@ public class Main implements Kernel {
 			Runtime.getRuntime().addShutdownHook(kernel.shutdownHook);
 
 			kernel.start();
-		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | IOException e) {
+		} catch (ReflectiveOperationException | IOException e) {
 			e.printStackTrace(System.err);
 			System.err.println("Panic : Kernel startup failed...");
 		}
 
 	}
 
-	private static Map<String, Object> createKernelConfiguration(String[] args)
-			throws ClassNotFoundException, InstantiationException, IllegalAccessException, IOException {
+	/**
+	 * Creates the configuration {@link #configure(Map)} expects from dsmk-conf.properties and the system
+	 * properties, instantiating the configured subsystems
+	 * 
+	 * @param args
+	 * @return
+	 */
+	public static Map<String, Object> createKernelConfiguration(String[] args)
+			throws ReflectiveOperationException, IOException {
 
+		LifecycleReport report = new LifecycleReport();
+		LifecycleReport.Phase phase = report.begin("kernel.config-load");
 		Properties props = getConfigProperties();
+		ConfigSnapshot snapshot = ConfigSnapshot.of(props, 1);
+		phase.end(Result.OK);
 		Map<String, Object> config = new HashMap<>();
-		config.put("pre-subsystems", getPreSubsystems(props));
-		config.put("ext-subsystems", getExtSubsystems(props));
-		config.put("post-subsystems", getPostSubsystems(props));
+		List<LazySubsystem> lazySubsystems = new ArrayList<>();
+		Map<Subsystem, String> slots = new IdentityHashMap<>();
+		config.put("pre-subsystems", getPreSubsystems(snapshot, report, lazySubsystems, slots));
+		config.put("ext-subsystems", getExtSubsystems(snapshot, report, lazySubsystems, slots));
+		config.put("post-subsystems", getPostSubsystems(snapshot, report, lazySubsystems, slots));
+		config.put("lazy-subsystems", lazySubsystems);
+		config.put("subsystem-slots", slots);
 		config.put("config-properties", props);
+		config.put("config-snapshot", snapshot);
 		config.put("startup-arguments", args);
+		config.put("lifecycle-report", report);
 		return config;
 	}
 
+	/**
+	 * Creates the LogServer selected by dsmk.kernel.log.server, text through SLF4J (the default) or
+	 * binary into the segments of dsmk.kernel.log.binary.dir, see {@link BinaryLogServer}. Its levels
+	 * are those of dsmk.kernel.log.level, see {@link LogLevels}
+	 * 
+	 * @param settings
+	 * @return
+	 * @throws IOException
+	 *             if the binary log cannot be created
+	 */
+	private LogServer createLogServer(Config settings) throws IOException {
+		String kind = settings.getString("dsmk.kernel.log.server", "text").trim();
+		logLevels = LogLevels.of(settings);
+		switch (kind) {
+		case "text":
+			return new DefaultLogServer(logLevels);
+		case "binary":
+			return BinaryLogServer.of(settings.scope("dsmk.kernel.log.binary"), logLevels);
+		default:
+			throw new IllegalArgumentException("Unknown log server dsmk.kernel.log.server=" + kind);
+		}
+	}
+
 	private static Properties getConfigProperties() throws IOException {
 		Properties systemProperties = System.getProperties();
 		Properties finalConfigProperties = new Properties();
@@ -176,6 +267,14 @@ public class Main implements Kernel {
 			finalConfigProperties.load(inStream);
 		}
 
+		// an external file, which is also the one watched for changes, overrides the packaged one
+		String configFile = System.getProperty(CONFIG_FILE, finalConfigProperties.getProperty(CONFIG_FILE));
+		if (configFile != null && !configFile.trim().isEmpty()) {
+			try (InputStream fileStream = Files.newInputStream(Paths.get(configFile.trim()))) {
+				finalConfigProperties.load(fileStream);
+			}
+		}
+
 		// merge both the properties. the System properties passed from outside
 		// overrides the one loaded from the file
 		finalConfigProperties.putAll(systemProperties);
@@ -183,18 +282,20 @@ public class Main implements Kernel {
 		return finalConfigProperties;
 	}
 
-	private static List<Subsystem> getPostSubsystems(Properties props)
-			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+	private static List<Subsystem> getPostSubsystems(Config props, LifecycleReport report, List<LazySubsystem> lazySubsystems,
+			Map<Subsystem, String> slots)
+			throws ReflectiveOperationException {
 		/*
 		 * ArrayList<Subsystem> list = new ArrayList(); list.add(new FinalSubsystem());
 		 * return list;
 		 */
 
-		return loadSubsystem("dsmk.post.subsystem", props);
+		return loadSubsystem("dsmk.post.subsystem", props, report, lazySubsystems, slots);
 	}
 
-	private static List<Subsystem> getExtSubsystems(Properties props)
-			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
+	private static List<Subsystem> getExtSubsystems(Config props, LifecycleReport report, List<LazySubsystem> lazySubsystems,
+			Map<Subsystem, String> slots)
+			throws ReflectiveOperationException {
 		/*
 		 * String extSubsystemString = System.getProperty("dsmk.ext.subsystem");
 		 * ArrayList<Subsystem> extSubsystems = new ArrayList<>(); if
@@ -209,12 +310,13 @@ public class Main implements Kernel {
 		 * return extSubsystems;
 		 */
 
-		return loadSubsystem("dsmk.ext.subsystem", props);
+		return loadSubsystem("dsmk.ext.subsystem", props, report, lazySubsystems, slots);
 	}
 
-	private static List<Subsystem> getPreSubsystems(Properties props)
-			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
-		return loadSubsystem("dsmk.pre.subsystem", props);
+	private static List<Subsystem> getPreSubsystems(Config props, LifecycleReport report, List<LazySubsystem> lazySubsystems,
+			Map<Subsystem, String> slots)
+			throws ReflectiveOperationException {
+		return loadSubsystem("dsmk.pre.subsystem", props, report, lazySubsystems, slots);
 	}
 
 	/**
@@ -228,33 +330,113 @@ public class Main implements Kernel {
 	 * are ignored by printing a warning else if the property is not found returns
 	 * an error "groupname.count" is undefined
 	 * 
+	 * A subsystem with <groupname>.<number>.lazy=true is not returned but added to the lazy subsystems,
+	 * to be started on the first lookup of one of its names. The names are taken from
+	 * <groupname>.<number>.provides (comma separated) without loading the class, or else from the
+	 * PROVIDES attribute of an instance.
+	 * 
 	 * @param groupname
 	 * @param props
+	 * @param report
+	 *            receives the time taken to load and instantiate every subsystem
+	 * @param lazySubsystems
+	 *            receives the lazy subsystems
+	 * @param slots
+	 *            receives the configuration prefix of every subsystem returned, such as
+	 *            dsmk.ext.subsystem.2
 	 * @return
-	 * @throws ClassNotFoundException
-	 * @throws IllegalAccessException
-	 * @throws InstantiationException
+	 * @throws ReflectiveOperationException
 	 */
-	private static List<Subsystem> loadSubsystem(String groupname, Properties props)
-			throws ClassNotFoundException, InstantiationException, IllegalAccessException {
-		String countProperty = String.format("%s.count", groupname);
-		String classPropertyPattern = "%s.%d.class";
-		int count = Integer.parseInt(props.getProperty(countProperty, "0"));
+	private static List<Subsystem> loadSubsystem(String groupname, Config props, LifecycleReport report,
+			List<LazySubsystem> lazySubsystems, Map<Subsystem, String> slots)
+			throws ReflectiveOperationException {
+		String countProperty = groupname + ".count";
+		int count = props.getInt(countProperty, 0);
 		ArrayList<Subsystem> subsystemList = new ArrayList();
 		for (int i = 0; i < count; i++) {
-			String clzProperty = String.format(classPropertyPattern, groupname, i);
-			String clzName = props.getProperty(clzProperty);
+			String subsysProperty = groupname + "." + i;
+			String clzProperty = subsysProperty + ".class";
+			String clzName = props.getString(clzProperty);
 			if(clzName != null) {
-				Class clz = Main.class.getClassLoader().loadClass(clzName);
-				Subsystem subsys = (Subsystem) clz.newInstance();
+				boolean lazy = props.getBoolean(subsysProperty + ".lazy", false);
+				List<String> provides = props.getList(subsysProperty + ".provides");
+				if (lazy && !provides.isEmpty()) {
+					lazySubsystems.add(new LazySubsystem(group(groupname), subsysProperty, clzName, provides.toArray(new String[0]), null));
+					continue;
+				}
+				LifecycleReport.Phase phase = report.begin("kernel.load-subsystem", clzName, groupname);
+				Subsystem subsys = null;
+				try {
+					subsys = newSubsystem(clzName);
+				} finally {
+					phase.end(subsys == null ? null : Result.OK);
+				}
+				String[] provided = SubsystemGraph.names(subsys, Subsystem.PROVIDES);
+				if (lazy && provided.length > 0) {
+					lazySubsystems.add(new LazySubsystem(group(groupname), subsysProperty, clzName, provided, subsys));
+					continue;
+				}
+				if (lazy) {
+					System.err.println("WARN: Subsystem " + clzName + " provides no names to be looked up by, starting it eagerly");
+				}
 				subsystemList.add(subsys);
+				slots.put(subsys, subsysProperty);
 			}else {
-				System.err.println(String.format("WARN: Unable to find entry for property %s, however %s=%d", clzProperty,countProperty,count));
+				System.err.println("WARN: Unable to find entry for property " + clzProperty + ", however " + countProperty + "=" + count);
 			}
 		}
 		return subsystemList;
 	}
 
+	/**
+	 * Creates a subsystem through the generated {@link SubsystemIndex} which knows its class, falling
+	 * back to reflection for the classes no index was generated for
+	 * 
+	 * @param clzName
+	 * @return
+	 * @throws ReflectiveOperationException
+	 *             if the class cannot be loaded or has no public no-arg constructor, or if the
+	 *             constructor throws
+	 */
+	static Subsystem newSubsystem(String clzName)
+			throws ReflectiveOperationException {
+		SubsystemIndex index = SubsystemIndexes.BY_CLASS_NAME.get(clzName);
+		if (index != null) {
+			Subsystem subsys = index.create(clzName);
+			if (subsys != null) {
+				return subsys;
+			}
+		}
+		return (Subsystem) Main.class.getClassLoader().loadClass(clzName).getDeclaredConstructor().newInstance();
+	}
+
+	/**
+	 * The subsystem indexes on the class path by the class names they create, loaded on first use
+	 */
+	private static final class SubsystemIndexes {
+
+		static final Map<String, SubsystemIndex> BY_CLASS_NAME = load();
+
+		private static Map<String, SubsystemIndex> load() {
+			Map<String, SubsystemIndex> indexes = new HashMap<>();
+			for (SubsystemIndex index : ServiceLoader.load(SubsystemIndex.class, Main.class.getClassLoader())) {
+				for (String className : index.classNames()) {
+					indexes.putIfAbsent(className, index);
+				}
+			}
+			return indexes;
+		}
+	}
+
+	/**
+	 * @param groupname
+	 *            such as dsmk.pre.subsystem
+	 * @return the group, such as pre
+	 */
+	private static String group(String groupname) {
+		return groupname.substring(groupname.indexOf('.') + 1, groupname.lastIndexOf('.'));
+	}
+
 	public Result start() {
 
 		/**
@@ -278,23 +460,30 @@ public class Main implements Kernel {
 		 * kernel is assumed to be successfully started 13. Finally register all the
 		 * above mentioned subsystems in the Nameserver
 		 */
+		LifecycleReport.Phase phase = report.begin("kernel.log-init");
 		try {
 			kernelLog = logServer.getLog(this);
+			phase.end(Result.OK);
 		} catch (Exception e) {
+			phase.end(null);
 			e.printStackTrace(System.err);
 			return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, MsgCodes.ERR_KERNEL_FAILED_ON_LOG_SERVER_INIT);
 		}
 
+		phase = report.begin("kernel.nameserver-start");
 		try {
 			startNamingServer();
-
+			phase.end(Result.OK);
 		} catch (Exception e) {
+			phase.end(null);
 			e.printStackTrace(System.err);
 			return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK,
 					MsgCodes.ERR_KERNEL_FAILED_ON_NAMING_SERVER_INIT);
 		}
 
+		phase = report.begin("kernel.register-names");
 		Result registrationResult = registerNames();
+		phase.end(registrationResult);
 
 		if (registrationResult.isNotOK()) {
 			kernelLog.debug("Kernel startup failed!...");
@@ -305,54 +494,171 @@ public class Main implements Kernel {
 
 		PersistentMap<String, Object> initMap = createInitMap();
 
-		kernelLog.debug("About to initialize and start pre-subsystems");
+		Result lazyResult = registerLazySubsystems(lazySubsystems, initMap);
 
-		Result results = initializeAndStartSubsystems(preSubsystems, initMap);
+		if (lazyResult.isNotOK()) {
+			kernelLog.debug("Kernel startup failed!...");
+			return lazyResult;
+		}
+
+		kernelLog.debug("About to initialize and start pre, ext & post subsystems");
+
+		Result results = initializeAndStartSubsystems(initMap);
 
 		if (results.isNotOK()) {
 			kernelLog.debug("kernel startup failed!...");
 			return results;
 		}
 
-		kernelLog.debug("About to initialize and start ext-subsystems");
+		writeLifecycleReport();
 
-		results = initializeAndStartSubsystems(extSubsystems, initMap);
+		startConfigWatcher();
 
-		if (results.isNotOK()) {
-			kernelLog.debug("kernel startup failed!...");
-			return results;
+		kernelLog.debug("kernel started successfully!...");
+		return new Result(Status.OK, MsgCodes.ERR_KERNEL_OK, MsgCodes.MSG_KERNEL_SUCCESSFUL);
+
+	}
+
+	/**
+	 * Builds the dependency graph of all the subsystems and configures & starts them on a bounded pool,
+	 * each one as soon as the subsystems it depends on are started.
+	 * 
+	 * @param initMap
+	 * @return
+	 */
+	private Result initializeAndStartSubsystems(PersistentMap<String, Object> initMap) {
+
+		Map<String, List<Subsystem>> groups = new LinkedHashMap<>();
+		groups.put("pre", preSubsystems);
+		groups.put("ext", extSubsystems);
+		groups.put("post", postSubsystems);
+
+		SubsystemGraph graph;
+		try {
+			graph = SubsystemGraph.build(groups, nameServer, lazyNames(lazySubsystems));
+		} catch (IllegalStateException e) {
+			kernelLog.error("Unable to resolve subsystem dependencies - {}", e.getMessage());
+			return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, SubsystemGraph.ERR_SUBSYS_DEPENDENCY);
 		}
 
-		kernelLog.debug("About to initialize and start post-subsystems");
+		subsystemGraph = graph;
 
-		results = initializeAndStartSubsystems(postSubsystems, initMap);
+		int threads = startupThreads();
+		kernelLog.debug("Starting {} subsystems with {} thread(s)", graph.nodes().size(), threads);
 
-		if (results.isNotOK()) {
-			kernelLog.debug("kernel startup failed!...");
-			return results;
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("dsmk-boot-%d").setDaemon(true).build());
+		long startNanos = System.nanoTime();
+		Result result;
+		try {
+			result = graph.start(initMap, executor, report, kernelLog);
+		} finally {
+			executor.shutdown();
 		}
 
-		kernelLog.debug("kernel started successfully!...");
-		return new Result(Status.OK, MsgCodes.ERR_KERNEL_OK, MsgCodes.MSG_KERNEL_SUCCESSFUL);
+		logCriticalPath(graph.criticalPath(), System.nanoTime() - startNanos);
 
+		LifecycleReport.Phase slowest = report.slowest("start");
+		if (slowest != null) {
+			kernelLog.info("Slowest subsystem start {}", slowest);
+		}
+		return result;
 	}
 
-	private Result initializeAndStartSubsystems(List<Subsystem> subsystems, PersistentMap<String, Object> initMap) {
+	/**
+	 * Registers the placeholders of the lazy subsystems, which start on the first lookup of one of
+	 * their names
+	 * 
+	 * @param lazySubsystems
+	 * @param initMap
+	 * @return
+	 */
+	private Result registerLazySubsystems(List<LazySubsystem> lazySubsystems, PersistentMap<String, Object> initMap) {
+		for (LazySubsystem lazy : lazySubsystems) {
+			try {
+				lazy.register(nameServer, initMap, report, kernelLog);
+				kernelLog.debug("Lazy subsystem {} to be started on lookup of {}", lazy, Arrays.toString(lazy.provides()));
+			} catch (NamingException e) {
+				e.printStackTrace(System.err);
+				kernelLog.error("Registering lazy subsystem {} failed with error {}", lazy, e.getMessage());
+				return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, LazySubsystem.ERR_SUBSYS_LAZY);
+			}
+		}
+		return Result.OK;
+	}
 
-		Result initResults = initializeSubsystems(subsystems, initMap);
+	private static Set<String> lazyNames(List<LazySubsystem> lazySubsystems) {
+		Set<String> names = new HashSet<>();
+		for (LazySubsystem lazy : lazySubsystems) {
+			names.addAll(Arrays.asList(lazy.provides()));
+		}
+		return names;
+	}
 
-		if (initResults.isNotOK()) {
-			kernelLog.debug("kernel startup failed!...");
-			return initResults;
+	/**
+	 * Stops the lazy subsystems which were activated, the last activated first, ahead of the others
+	 * as they were started after the subsystems they looked up
+	 * 
+	 * @return
+	 */
+	private Result stopLazySubsystems() {
+		List<LazySubsystem> active = new ArrayList<>();
+		for (LazySubsystem lazy : lazySubsystems) {
+			if (lazy.isActive()) {
+				active.add(lazy);
+			} else {
+				lazy.stop();
+			}
 		}
+		active.sort((a, b) -> Long.compare(b.activatedNanos(), a.activatedNanos()));
 
-		Result startResults = startSubsystems(subsystems);
+		Result result = Result.OK;
+		for (LazySubsystem lazy : active) {
+			Result stopResult = lazy.stop();
+			if (stopResult.isNotOK()) {
+				kernelLog.error("Stopping lazy subsystem {} failed with result {}", lazy, stopResult.getCode());
+				result = new Result(Status.NOT_OK, SubsystemGraph.ERR_SUBSYS_STOP, lazy.toString());
+			}
+		}
+		return result;
+	}
 
-		if (startResults.isNotOK()) {
-			kernelLog.debug("kernel startup failed!...");
+	private int startupThreads() {
+		if (!config().getBoolean("dsmk.kernel.startup.parallel", true)) {
+			return 1;
 		}
+		int threads = config().getInt("dsmk.kernel.startup.threads", Runtime.getRuntime().availableProcessors());
+		return Math.max(1, threads);
+	}
 
-		return startResults;
+	private void logCriticalPath(List<SubsystemGraph.Node> path, long elapsedNanos) {
+		StringBuilder builder = new StringBuilder();
+		List<String> nodes = new ArrayList<>();
+		for (SubsystemGraph.Node node : path) {
+			if (builder.length() > 0) {
+				builder.append(" -> ");
+			}
+			builder.append(node).append('(').append(node.elapsedMillis()).append("ms)");
+			nodes.add(node.toString());
+		}
+		report.setCriticalPath(nodes, elapsedNanos);
+		kernelLog.info("Subsystems started in {}ms, critical path {}", elapsedNanos / 1_000_000L, builder);
+	}
+
+	/**
+	 * Writes the lifecycle report as JSON to the file named by dsmk.kernel.report.file, if any
+	 */
+	private void writeLifecycleReport() {
+		String reportFile = config().getString("dsmk.kernel.report.file");
+		if (reportFile == null || reportFile.trim().isEmpty()) {
+			return;
+		}
+		try {
+			Files.write(Paths.get(reportFile.trim()), report.toJson().getBytes(StandardCharsets.UTF_8));
+			kernelLog.info("Lifecycle report written to {}", reportFile);
+		} catch (IOException e) {
+			kernelLog.warn("Unable to write the lifecycle report to {} - {}", reportFile, e.getMessage());
+		}
 	}
 
 	private Result registerNames() {
@@ -368,9 +674,17 @@ public class Main implements Kernel {
 			
 			kernelLog.debug("Kernel configuration Registration completed : NameRegistration {}", configPropertiesRegistration);
 			
+			configServerRegistration = nameServer.register(ConfigServer.class.getName(), configServer);
+			
+			kernelLog.debug("Config server Registration completed : NameRegistration {}", configServerRegistration);
+			
 			argumentsRegistration = nameServer.register("startup-arguments", arguments);
 			
 			kernelLog.debug("Arguments Registration completed : NameRegistration {}", argumentsRegistration);
+			
+			reportRegistration = nameServer.register(LifecycleReport.class.getName(), report);
+			
+			kernelLog.debug("Lifecycle report Registration completed : NameRegistration {}", reportRegistration);
 
 		} catch (NamingException e) {
 
@@ -387,7 +701,7 @@ public class Main implements Kernel {
 	private void startNamingServer() {
 		kernelLog.debug("Starting Name Server...");
 
-		nameServer = new DefaultNameServer();
+		nameServer = new DefaultNameServer(kernelLog);
 
 		kernelLog.debug("Name server started...");
 	}
@@ -410,44 +724,27 @@ public class Main implements Kernel {
 		});
 	}
 
-	private Result startSubsystems(List<Subsystem> subsystems) {
-
-		for (Subsystem subsys : subsystems) {
-			Result result = subsys.start();
-			if (result.isNotOK()) {
-				kernelLog.debug("Start failed for Subsystem {}-{}", subsys.name(), subsys.id());
-				return result;
-			}
-		}
-
-		return Result.OK;
-	}
-
-	private Result initializeSubsystems(List<Subsystem> subsystems, PersistentMap<String, Object> initMap) {
-
-		// PersistentMap<String, Object> initMap = createInitMap();
-
-		for (Subsystem subsys : subsystems) {
-			Result result = subsys.configure(initMap);
-			if (result.isNotOK()) {
-				kernelLog.debug("Configuration failed for Subsystem {}-{}", subsys.name(), subsys.id());
-				return result;
-			}
-		}
-
-		return Result.OK;
-	}
-
 	private PersistentMap<String, Object> createInitMap() {
-		Map serverMap = new HashMap();
+		Map<String, Object> serverMap = new HashMap<>();
 		serverMap.put(NameServer.class.getName(), this.nameServer);
 		//send the complete configuration properties which the kernel has 
 		serverMap.put("config-properties",configuration);
+		serverMap.put("config-server", configServer);
 
 		return PersistentHashMap.create(serverMap);
 
 	}
 
+	/**
+	 * @return the kernel messages, loaded on first use
+	 */
+	private ResourceBundle messages() {
+		if (messages == null) {
+			loadMessages();
+		}
+		return messages;
+	}
+
 	private void loadMessages() {
 		kernelLog.debug("loading {} for locale {}", kernelResourceBundleName, Locale.getDefault().ENGLISH);
 
@@ -456,355 +753,561 @@ public class Main implements Kernel {
 		kernelLog.debug("loading {} for locale {} completed!", kernelResourceBundleName, Locale.getDefault().ENGLISH);
 	}
 
-	public Result stop() {
-
+	/**
+	 * Watches the configuration file when dsmk.kernel.config.watch is true: the file named by
+	 * dsmk.kernel.config.file or else dsmk-conf.properties when loaded from a directory
+	 */
+	private void startConfigWatcher() {
+		if (!config().getBoolean("dsmk.kernel.config.watch", false)) {
+			return;
+		}
+		Path file = configFile();
+		if (file == null) {
+			kernelLog.warn("dsmk.kernel.config.watch is set but there is no configuration file to watch, set {}", CONFIG_FILE);
+			return;
+		}
 		try {
-
-			kernelLog.debug("About to stop post-subsystems in reverse order...");
-			Result stopResult = stopSubsystems(postSubsystems);
-
-			if (stopResult.isNotOK()) {
-				kernelLog.error("Stopping post-subsystems failed with result {}", stopResult);
-			}
-
-			kernelLog.debug("About to stop ext-subsystems in reverse order...");
-			stopResult = stopSubsystems(extSubsystems);
-
-			if (stopResult.isNotOK()) {
-				kernelLog.error("Stopping ext-subsystems failed with result {}", stopResult);
-			}
-
-			kernelLog.debug("About to stop pre-subsystems in reverse order...");
-			stopResult = stopSubsystems(preSubsystems);
-
-			if (stopResult.isNotOK()) {
-				kernelLog.error("Stopping pre-subsystems failed with result {}", stopResult);
-			}
-
-		} catch (Exception e) {
+			configWatcher = new ConfigWatcher(file, config().getLong("dsmk.kernel.config.watch.quiet.ms", 500),
+					this::reloadConfiguration, kernelLog);
+			configWatcher.start();
+		} catch (IOException e) {
 			e.printStackTrace(System.err);
-			kernelLog.error("Stopping subsystems failed with error {}", e.getMessage());
-		}
-
-		Result unregisterResult = unregisterNames();
-
-		if (unregisterResult.isNotOK()) {
-			kernelLog.info("Failures during unregistering for kernel servers...");
-		} else {
-			kernelLog.info("Unregistered Kernel servers.Halting system.Good bye!");
+			kernelLog.error("Unable to watch {} for changes - {}", file, e.getMessage());
 		}
-
-		return new Result(Status.OK, MsgCodes.MSG_KERNEL_STOP_OK, MsgCodes.MSG_KERNEL_SUCCESSFUL);
 	}
 
-	private Result stopSubsystems(List<Subsystem> subsystemObjList2) {
-		kernelLog.info("Stopping subsystems in reverse order...");
-
-		Result result = null;
+	/**
+	 * @return the current configuration snapshot
+	 */
+	private Config config() {
+		return configServer.current();
+	}
 
-		for (int i = subsystemObjList2.size() - 1; i > -1; i--) {
-			Subsystem subsys = subsystemObjList2.get(i);
+	private Path configFile() {
+		String configFile = config().getString(CONFIG_FILE);
+		if (configFile != null && !configFile.trim().isEmpty()) {
+			return Paths.get(configFile.trim());
+		}
+		URL resource = Main.class.getResource("/dsmk-conf.properties");
+		if (resource != null && "file".equals(resource.getProtocol())) {
 			try {
-				result = subsys.stop();
-			} catch (Exception e) {
+				return Paths.get(resource.toURI());
+			} catch (URISyntaxException e) {
 				e.printStackTrace(System.err);
-				kernelLog.info("Failed to stop subsystem {}-{}", subsys.name(), subsys.id());
 			}
 		}
-
-		kernelLog.info("Stopped subsystems in reverse order..");
-		return Result.OK;
+		return null;
 	}
 
-	private Result unregisterNames() {
-
-		kernelLog.debug("Unregistering kernel registered names from NameServer...");
-
+	/**
+	 * Applies the configuration as it is now to the running kernel, restarting only the subsystems
+	 * whose settings changed
+	 * 
+	 * @return
+	 */
+	public Result reloadConfiguration() {
+		Properties updated;
 		try {
-			logServerRegistration.unRegister();
-			kernelLog.debug("Unregistered log server..");
-
-			configPropertiesRegistration.unRegister();
-			kernelLog.debug("Unregistered config properties..");
-			argumentsRegistration.unRegister();
-			kernelLog.debug("Unregistered arguments..");
-		} catch (NamingException e) {
-			kernelLog.debug("Unregistered kernel registered names failed with error - {}", e.getMessage());
+			updated = getConfigProperties();
+		} catch (IOException e) {
 			e.printStackTrace(System.err);
-			return Result.NOT_OK;
+			kernelLog.error("Reading the configuration failed with error {}, keeping the running one", e.getMessage());
+			return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, MsgCodes.ERR_KERNEL_FAILED_ON_RELOAD);
 		}
-		return Result.OK;
-	}
 
-	@Override
-	public Result configure(Map<String, Object> config) {
-		try {
-			preSubsystems = (List<Subsystem>) config.getOrDefault("pre-subsystems", new ArrayList<Subsystem>());
-			extSubsystems = (List<Subsystem>) config.getOrDefault("ext-subsystems", new ArrayList<Subsystem>());
-			postSubsystems = (List<Subsystem>) config.getOrDefault("post-subsystems", new ArrayList<Subsystem>());
-			logServer = (LogServer) config.getOrDefault("log-server", new DefaultLogServer());
-			messages = (ResourceBundle) config.getOrDefault("messages",
-					ResourceBundle.getBundle("dsmkmessages", Locale.ENGLISH));
-			configuration = (Properties) config.getOrDefault("config-properties", Main.getConfigProperties());
-			arguments = (String[])config.getOrDefault("startup-arguments", new String[] {});
-		} catch (Exception e) {
-			e.printStackTrace(System.err);
-			return new Result(Status.NOT_OK, "kernel.configure.notok", "kernel.configure.err.00001");
+		synchronized (lifecycleLock) {
+			if (stopped) {
+				return Result.NOT_OK;
+			}
+			LifecycleReport.Phase phase = report.begin("kernel.config-reload");
+			Result result = reload(updated);
+			phase.end(result);
+			return result;
 		}
-		return Result.OK;
 	}
 
-	private class DefaultLog implements Log {
-
-		private Logger logger;
-
-		DefaultLog(Logger logger) {
-			this.logger = logger;
+	/**
+	 * The subsystems are loaded from the updated configuration and compared with the running ones. A
+	 * running subsystem is kept when one of the same class is configured with the same settings, the
+	 * entries of its dsmk.&lt;group&gt;.subsystem.N slot and the properties under its name (such as
+	 * dsmk.subsys.event.*). The new ones are configured first, while the running ones still serve, the
+	 * reload being given up if one fails; those requiring a name still to come are configured later.
+	 * Every other running subsystem is then stopped, in reverse dependency order, and the new ones are
+	 * started as fresh instances through the dependency graph. A kept subsystem which
+	 * requires a name provided by a stopped one is restarted too, so that it does not hold on to the
+	 * stopped instance.
+	 * 
+	 * @param updatedProperties
+	 * @return
+	 */
+	private Result reload(Properties updatedProperties) {
+		ConfigSnapshot current = configServer.current();
+		ConfigSnapshot updated = ConfigSnapshot.of(updatedProperties, current.version() + 1);
+		if (logLevels != null) {
+			try {
+				logLevels.configure(updated);
+			} catch (IllegalArgumentException e) {
+				kernelLog.error("Keeping the log levels, {}", e.getMessage());
+			}
+		}
+		List<LazySubsystem> loadedLazies = new ArrayList<>();
+		Map<Subsystem, String> loadedSlots = new IdentityHashMap<>();
+		Map<String, List<Subsystem>> groups = new LinkedHashMap<>();
+		try {
+			groups.put("pre", loadSubsystem("dsmk.pre.subsystem", updated, report, loadedLazies, loadedSlots));
+			groups.put("ext", loadSubsystem("dsmk.ext.subsystem", updated, report, loadedLazies, loadedSlots));
+			groups.put("post", loadSubsystem("dsmk.post.subsystem", updated, report, loadedLazies, loadedSlots));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			e.printStackTrace(System.err);
+			kernelLog.error("Loading the reloaded subsystems failed with error {}, keeping the running ones", e.getMessage());
+			return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, MsgCodes.ERR_KERNEL_FAILED_ON_RELOAD);
 		}
 
-		public void debug(String msg, Object... args) {
-			if (logger.isDebugEnabled()) {
-				logger.debug(msg, args);
+		Map<String, List<Subsystem>> running = new LinkedHashMap<>();
+		running.put("pre", preSubsystems);
+		running.put("ext", extSubsystems);
+		running.put("post", postSubsystems);
+
+		Set<Subsystem> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Map.Entry<String, List<Subsystem>> group : groups.entrySet()) {
+			List<Subsystem> candidates = new ArrayList<>(running.get(group.getKey()));
+			List<Subsystem> subsystems = group.getValue();
+			for (int i = 0; i < subsystems.size(); i++) {
+				Subsystem loaded = subsystems.get(i);
+				Subsystem same = findUnchanged(loaded, loadedSlots.get(loaded), updated, candidates);
+				if (same != null) {
+					candidates.remove(same);
+					kept.add(same);
+					subsystems.set(i, same);
+					loadedSlots.put(same, loadedSlots.remove(loaded));
+				}
 			}
-
 		}
 
-		public void info(String msg, Object... args) {
-			if (logger.isInfoEnabled()) {
-				logger.info(msg, args);
+		Set<LazySubsystem> keptLazies = Collections.newSetFromMap(new IdentityHashMap<>());
+		List<LazySubsystem> lazyCandidates = new ArrayList<>(lazySubsystems);
+		for (int i = 0; i < loadedLazies.size(); i++) {
+			LazySubsystem loaded = loadedLazies.get(i);
+			for (LazySubsystem candidate : lazyCandidates) {
+				if (candidate.className().equals(loaded.className()) && settings(current, candidate.slot(), candidate.name())
+						.equals(settings(updated, loaded.slot(), candidate.name()))) {
+					lazyCandidates.remove(candidate);
+					keptLazies.add(candidate);
+					loadedLazies.set(i, candidate);
+					break;
+				}
 			}
 		}
 
-		public void warn(String msg, Object... args) {
-			if (logger.isWarnEnabled()) {
-				logger.warn(msg, args);
+		// the names which disappear with the stopped subsystems, and the kept subsystems requiring them
+		Set<String> withdrawn = new HashSet<>();
+		for (List<Subsystem> subsystems : running.values()) {
+			for (Subsystem subsys : subsystems) {
+				if (!kept.contains(subsys)) {
+					withdrawn.addAll(Arrays.asList(SubsystemGraph.names(subsys, Subsystem.PROVIDES)));
+				}
 			}
 		}
-
-		public void error(String msg, Object... args) {
-			if (logger.isErrorEnabled()) {
-				logger.error(msg, args);
+		for (LazySubsystem lazy : lazySubsystems) {
+			if (!keptLazies.contains(lazy)) {
+				withdrawn.addAll(Arrays.asList(lazy.provides()));
 			}
-
 		}
-
-	}
-
-	private class DefaultLogServer implements LogServer {
-
-		public Log getLog(Subsystem sys) {
-
-			return new DefaultLog(LoggerFactory.getLogger(sys.name()));
-
+		try {
+			boolean restarted;
+			do {
+				restarted = false;
+				for (List<Subsystem> subsystems : groups.values()) {
+					for (int i = 0; i < subsystems.size(); i++) {
+						Subsystem subsys = subsystems.get(i);
+						if (kept.contains(subsys) && requiresAny(SubsystemGraph.names(subsys, Subsystem.REQUIRES), withdrawn)) {
+							Subsystem fresh = newSubsystem(subsys.getClass().getName());
+							kept.remove(subsys);
+							subsystems.set(i, fresh);
+							loadedSlots.put(fresh, loadedSlots.remove(subsys));
+							withdrawn.addAll(Arrays.asList(SubsystemGraph.names(subsys, Subsystem.PROVIDES)));
+							restarted = true;
+						}
+					}
+				}
+				for (int i = 0; i < loadedLazies.size(); i++) {
+					LazySubsystem lazy = loadedLazies.get(i);
+					if (keptLazies.contains(lazy) && requiresAny(lazy.requires(), withdrawn)) {
+						keptLazies.remove(lazy);
+						loadedLazies.set(i, new LazySubsystem(lazy.group(), lazy.slot(), lazy.className(), lazy.provides(), null));
+						withdrawn.addAll(Arrays.asList(lazy.provides()));
+						restarted = true;
+					}
+				}
+			} while (restarted);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			e.printStackTrace(System.err);
+			kernelLog.error("Instantiating a subsystem to restart failed with error {}, keeping the running ones", e.getMessage());
+			return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, MsgCodes.ERR_KERNEL_FAILED_ON_RELOAD);
 		}
 
-		@Override
-		public String toString() {
-			return "Main.DefaultLogServer";
+		SubsystemGraph graph;
+		try {
+			graph = SubsystemGraph.build(groups, nameServer, lazyNames(loadedLazies));
+		} catch (IllegalStateException e) {
+			kernelLog.error("Unable to resolve the reloaded subsystem dependencies - {}, keeping the running ones", e.getMessage());
+			return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, SubsystemGraph.ERR_SUBSYS_DEPENDENCY);
 		}
 
-	}
-
-	private class DefaultNameServer implements NameServer {
-
-		private ConcurrentHashMap<String, ConcurrentLinkedQueue<Object>> registry = new ConcurrentHashMap<>();
-
-		private class DefaultNameRegistration implements NameRegistration {
+		logKernelSettingChanges(updated);
 
-			private String name;
-			private Object instance;
-			private DefaultNameServer server;
-
-			DefaultNameRegistration(String name, Object instance, DefaultNameServer srv) {
-				this.name = name;
-				this.instance = instance;
-				this.server = srv;
+		// the names the subsystems about to start provide, not there before they do
+		Set<String> pending = new HashSet<>(withdrawn);
+		for (SubsystemGraph.Node node : graph.nodes()) {
+			if (!kept.contains(node.subsystem)) {
+				pending.addAll(Arrays.asList(SubsystemGraph.names(node.subsystem, Subsystem.PROVIDES)));
 			}
-
-			@Override
-			public String getRegistrationName() {
-				return name;
+		}
+		for (LazySubsystem lazy : loadedLazies) {
+			if (!keptLazies.contains(lazy)) {
+				pending.addAll(Arrays.asList(lazy.provides()));
 			}
+		}
 
-			@Override
-			public Object getRegiseredInstance() {
-				return instance;
+		// the replacements are configured with the updated configuration while the running subsystems
+		// still serve, so that a replacement failing to configure leaves them running; those requiring
+		// a name still to come are configured once it is there
+		Properties previousProperties = configuration;
+		configuration = updatedProperties;
+		configServer.swap(updated);
+		PersistentMap<String, Object> initMap = createInitMap();
+		Set<Subsystem> configured = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (SubsystemGraph.Node node : graph.nodes()) {
+			if (kept.contains(node.subsystem) || requiresAny(SubsystemGraph.names(node.subsystem, Subsystem.REQUIRES), pending)) {
+				continue;
 			}
-
-			@Override
-			public boolean isRegistered() {
-				return server.isRegistered(name, instance);
+			Result configureResult = configureSubsystem(node.subsystem, node.group, initMap);
+			if (configureResult.isNotOK()) {
+				kernelLog.error("Subsystem {} failed to configure for the configuration change with result {}, keeping the running ones",
+						node, configureResult.getCode());
+				configuration = previousProperties;
+				configServer.swap(current);
+				return new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, MsgCodes.ERR_KERNEL_FAILED_ON_RELOAD);
 			}
+			configured.add(node.subsystem);
+		}
 
-			@Override
-			public void unRegister() throws NamingException {
-				server.unRegister(name, instance);
+		int stopping = 0;
+		for (LazySubsystem lazy : lazySubsystems) {
+			if (!keptLazies.contains(lazy)) {
+				kernelLog.info("Stopping lazy subsystem {} for the configuration change", lazy);
+				lazy.stop();
 			}
-
-			@Override
-			public String toString() {
-				return "DefaultNameRegistration [name=" + name + ", instance=" + instance + "]";
+		}
+		List<SubsystemGraph.Node> nodes = subsystemGraph.nodes();
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			SubsystemGraph.Node node = nodes.get(i);
+			if (!kept.contains(node.subsystem)) {
+				kernelLog.info("Stopping subsystem {} for the configuration change", node);
+				stopSubsystem(node.subsystem, node.group);
+				stopping++;
 			}
-
 		}
 
-		@Override
-		public Object lookup1(String name) throws NamingException {
+		try {
+			configPropertiesRegistration.unRegister();
+			configPropertiesRegistration = nameServer.register("dsmk-conf.properties", updatedProperties);
+		} catch (NamingException e) {
+			e.printStackTrace(System.err);
+		}
+		preSubsystems = groups.get("pre");
+		extSubsystems = groups.get("ext");
+		postSubsystems = groups.get("post");
+		lazySubsystems = loadedLazies;
+		slots = loadedSlots;
+		subsystemGraph = graph;
+
+		List<LazySubsystem> newLazies = new ArrayList<>();
+		for (LazySubsystem lazy : loadedLazies) {
+			if (!keptLazies.contains(lazy)) {
+				newLazies.add(lazy);
+			}
+		}
+		Result result = registerLazySubsystems(newLazies, initMap);
 
-			return lookupAll(name).next(); // get the first one in the list
+		int starting = graph.nodes().size() - kept.size();
+		kernelLog.info("Starting {} subsystem(s) for the configuration change", starting);
+		ExecutorService executor = Executors.newFixedThreadPool(startupThreads(),
+				new ThreadFactoryBuilder().setNameFormat("dsmk-reload-%d").setDaemon(true).build());
+		try {
+			Result startResult = graph.start(initMap, executor, report, kernelLog, kept, configured);
+			if (startResult.isNotOK()) {
+				kernelLog.error("Starting the subsystems after the configuration change failed with result {}", startResult.getCode());
+				result = new Result(Status.NOT_OK, MsgCodes.ERR_KERNEL_NOT_OK, MsgCodes.ERR_KERNEL_FAILED_ON_RELOAD);
+			}
+		} finally {
+			executor.shutdown();
 		}
 
-		@Override
-		public Iterator<Object> lookupAll(String name) throws NamingException {
-			try {
-				checkArgument(name != null, "Lookup name cannot be null!");
-				checkArgument(!name.trim().isEmpty(), "Lookup name cannot be empty!");
+		kernelLog.info("Configuration reloaded, stopped {} and started {} subsystem(s), {} kept running", stopping, starting,
+				kept.size());
+		return result;
+	}
 
-				if (!registry.containsKey(name)) {
-					throw new NamingException(String.format("Name {} not found", name));
-				}
+	/**
+	 * @return the candidate of the same class as the loaded subsystem with the same settings or null
+	 */
+	private Subsystem findUnchanged(Subsystem loaded, String loadedSlot, Config updated, List<Subsystem> candidates) {
+		for (Subsystem candidate : candidates) {
+			if (candidate.getClass() == loaded.getClass() && settings(config(), slots.get(candidate), candidate.name())
+					.equals(settings(updated, loadedSlot, candidate.name()))) {
+				return candidate;
+			}
+		}
+		return null;
+	}
 
-				Queue nameList = (Queue) registry.get(name);
+	/**
+	 * The settings of a subsystem are the entries of its slot, without the slot itself so that moving
+	 * a subsystem to another slot is no change, and the properties under its name
+	 * 
+	 * @param props
+	 * @param slot
+	 *            such as dsmk.ext.subsystem.2
+	 * @param name
+	 *            the subsystem name, null if not known
+	 * @return
+	 */
+	private static Map<String, String> settings(Config config, String slot, String name) {
+		Map<String, String> settings = new TreeMap<>();
+		Config slotConfig = config.scope(slot);
+		for (String key : slotConfig.keys()) {
+			settings.put("." + key, slotConfig.getString(key));
+		}
+		if (name != null) {
+			Config nameConfig = config.scope(name);
+			for (String key : nameConfig.keys()) {
+				settings.put(name + "." + key, nameConfig.getString(key));
+			}
+		}
+		return settings;
+	}
 
-				if (nameList.isEmpty()) {
-					throw new NamingException(String.format("No registration found for Name {} ", name));
-				}
+	private static boolean requiresAny(String[] required, Set<String> names) {
+		for (String name : required) {
+			if (names.contains(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
 
-				return nameList.iterator();
-			} catch (Exception e) {
-				throw new NamingException(e.getMessage());
+	private void logKernelSettingChanges(Config updated) {
+		Set<String> keys = new HashSet<>(config().scope(NAME).keys());
+		keys.addAll(updated.scope(NAME).keys());
+		for (String key : keys) {
+			if (!Objects.equals(config().getString(NAME + "." + key), updated.getString(NAME + "." + key))) {
+				kernelLog.warn("Kernel setting {}.{} changed, it takes effect on the next start", NAME, key);
 			}
 		}
+	}
 
-		@Override
-		public <T> T lookup1(String name, Class<T> typ) throws NamingException {
-			try {
-				checkArgument(typ != null, "Lookup Type cannot be null!");
-				Object inst = lookup1(name);
-				if (typ.isAssignableFrom(inst.getClass())) {
-					return (T) inst;
-				} else {
-					throw new NamingException(String.format("Looked up instance %s-%s is not of type expected %s", inst,
-							inst.getClass(), typ));
-				}
+	private Result configureSubsystem(Subsystem subsys, String group, Map<String, Object> initMap) {
+		Result result = null;
+		LifecycleReport.Phase phase = report.begin("configure", subsys.name(), group);
+		try {
+			result = subsys.configure(initMap);
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+		} finally {
+			phase.end(result);
+		}
+		return result == null ? Result.NOT_OK : result;
+	}
 
-			} catch (Exception e) {
-				throw new NamingException(e.getMessage());
-			}
+	private Result stopSubsystem(Subsystem subsys, String group) {
+		Result result = null;
+		LifecycleReport.Phase phase = report.begin("stop", subsys.name(), group);
+		try {
+			result = subsys.stop();
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+			kernelLog.info("Failed to stop subsystem {}-{}", subsys.name(), subsys.id());
+		} finally {
+			phase.end(result);
 		}
+		return result == null ? Result.NOT_OK : result;
+	}
 
-		@Override
-		public <T> Iterator<T> lookupAll(String name, Class<T> typ) throws NamingException {
-			try {
-				checkArgument(typ != null, "Lookup Type cannot be null!");
-			} catch (Exception e) {
-				throw new NamingException(e.getMessage());
+	public Result stop() {
+		synchronized (lifecycleLock) {
+			stopped = true;
+			if (configWatcher != null) {
+				configWatcher.close();
 			}
+			return stopKernel();
+		}
+	}
 
-			Iterator<Object> instances = lookupAll(name);
+	private Result stopKernel() {
 
-			com.github.krukow.clj_ds.PersistentList<T> finalList = null;
+		Result stopResult = Result.OK;
 
-			while (instances.hasNext()) {
-				Object inst = instances.next();
-				if (!typ.isAssignableFrom(inst.getClass())) {
-					throw new NamingException(String.format(
-							"One of Looked up instances %s-%s is not of type expected %s", inst, inst.getClass(), typ));
-				}
+		try {
+			stopResult = stopLazySubsystems();
 
-				if (finalList == null) {
-					finalList = (PersistentList<T>) PersistentList.create((T) inst);
-				} else {
-					finalList = finalList.plus((T) inst);
+			if (subsystemGraph != null) {
+				Result graphResult = stopSubsystems(subsystemGraph);
+				if (graphResult.isNotOK()) {
+					stopResult = graphResult;
 				}
+			} else {
+				// started without a dependency graph, stop group by group in reverse order
+				kernelLog.debug("About to stop post-subsystems in reverse order...");
+				stopSubsystems(postSubsystems, "post");
+
+				kernelLog.debug("About to stop ext-subsystems in reverse order...");
+				stopSubsystems(extSubsystems, "ext");
 
+				kernelLog.debug("About to stop pre-subsystems in reverse order...");
+				stopSubsystems(preSubsystems, "pre");
 			}
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+			kernelLog.error("Stopping subsystems failed with error {}", e.getMessage());
+		}
 
-			return finalList.iterator();
+		Result unregisterResult = unregisterNames();
 
+		if (unregisterResult.isNotOK()) {
+			kernelLog.info("Failures during unregistering for kernel servers...");
+		} else {
+			kernelLog.info("Unregistered Kernel servers.Halting system.Good bye!");
 		}
 
-		@Override
-		public NameRegistration register(String name, Object instance) throws NamingException {
+		if (nameServer instanceof Closeable) {
 			try {
-				checkArgument(name != null, "Registered name cannot be null!");
-				checkArgument(!name.trim().isEmpty(), "Registered name cannot be empty!");
-				checkArgument(instance != null, "Registered instance cannot be null!");
-
-				ConcurrentLinkedQueue<Object> instList = null;
+				((Closeable) nameServer).close();
+			} catch (IOException e) {
+				e.printStackTrace(System.err);
+			}
+		}
 
-				if (registry.containsKey(name)) {
-					instList = (ConcurrentLinkedQueue) registry.get(name);
-				} else {
-					instList = new ConcurrentLinkedQueue();
-				}
+		if (logServer instanceof Closeable) {
+			try {
+				((Closeable) logServer).close();
+			} catch (IOException e) {
+				e.printStackTrace(System.err);
+			}
+		}
 
-				if (instList != null) {
-					instList.add(instance);
-				}
+		if (stopResult.isNotOK()) {
+			return stopResult;
+		}
+		return new Result(Status.OK, MsgCodes.MSG_KERNEL_STOP_OK, MsgCodes.MSG_KERNEL_SUCCESSFUL);
+	}
 
-				// add this back to the registry
-				registry.put(name, instList);
+	/**
+	 * Stops the subsystems in reverse dependency order, in parallel unless
+	 * dsmk.kernel.shutdown.parallel is false. A subsystem is given up on after
+	 * dsmk.kernel.shutdown.subsystem.timeout.ms and the whole shutdown after
+	 * dsmk.kernel.shutdown.timeout.ms, so that one stuck subsystem cannot hold the process.
+	 * 
+	 * @param graph
+	 * @return NOT_OK if any subsystem failed, timed out or was abandoned
+	 */
+	private Result stopSubsystems(SubsystemGraph graph) {
+		int threads = shutdownThreads();
+		long subsystemTimeoutMillis = config().getLong("dsmk.kernel.shutdown.subsystem.timeout.ms", 10000);
+		long timeoutMillis = config().getLong("dsmk.kernel.shutdown.timeout.ms", 30000);
+		kernelLog.info("Stopping {} subsystems with {} thread(s) within {}ms", graph.nodes().size(), threads, timeoutMillis);
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				new ThreadFactoryBuilder().setNameFormat("dsmk-shutdown-%d").setDaemon(true).build());
+		long startNanos = System.nanoTime();
+		SubsystemGraph.ShutdownOutcome outcome;
+		try {
+			outcome = graph.stop(executor, subsystemTimeoutMillis, startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), report,
+					kernelLog);
+		} finally {
+			executor.shutdownNow();
+		}
 
-				NameRegistration registration = new DefaultNameRegistration(name, instance, this);
+		if (outcome.isClean()) {
+			kernelLog.info("Stopped subsystems in {}ms", (System.nanoTime() - startNanos) / 1_000_000L);
+			return Result.OK;
+		}
+		kernelLog.error("Stopped subsystems in {}ms with failures, {}", (System.nanoTime() - startNanos) / 1_000_000L, outcome);
+		return new Result(Status.NOT_OK, SubsystemGraph.ERR_SUBSYS_STOP, outcome.toString());
+	}
 
-				return registration;
-			} catch (Exception e) {
-				throw new NamingException(e.getMessage());
-			}
+	private int shutdownThreads() {
+		if (!config().getBoolean("dsmk.kernel.shutdown.parallel", true)) {
+			return 1;
 		}
+		int threads = config().getInt("dsmk.kernel.shutdown.threads", Runtime.getRuntime().availableProcessors());
+		return Math.max(1, threads);
+	}
 
-		public void unRegister(String name, Object instance) throws NamingException {
-			try {
-				checkArgument(name != null, "Name to be unregistered cannot be null!");
-				checkArgument(!name.trim().isEmpty(), "Name to be unregistered cannot be empty!");
-				checkArgument(instance != null, "Instance to be unregistered cannot be null!");
+	private Result stopSubsystems(List<Subsystem> subsystemObjList2, String group) {
+		kernelLog.info("Stopping subsystems in reverse order...");
 
-				ConcurrentLinkedQueue instList = null;
+		for (int i = subsystemObjList2.size() - 1; i > -1; i--) {
+			stopSubsystem(subsystemObjList2.get(i), group);
+		}
 
-				if (registry.containsKey(name)) {
-					instList = (ConcurrentLinkedQueue) registry.get(name);
-				} else {
-					throw new NamingException(String.format("Name % not found", name));
-				}
+		kernelLog.info("Stopped subsystems in reverse order..");
+		return Result.OK;
+	}
 
-				if (instList != null) {
-					if (instList.contains(instance)) {
-						instList.remove(instance);
-					} else {
-						throw new NamingException(String.format(
-								"Instance %s for Name % does not seem to be registered. \n Please check the name or instance it is registered under",
-								name));
-					}
-				} else {
-					throw new NamingException(String.format("No instance registered with Name %s", name));
-				}
+	private Result unregisterNames() {
+
+		kernelLog.debug("Unregistering kernel registered names from NameServer...");
 
-				// add this back to the registry
-				registry.put(name, instList);
+		try {
+			logServerRegistration.unRegister();
+			kernelLog.debug("Unregistered log server..");
 
-			} catch (Exception e) {
-				throw new NamingException(e.getMessage());
-			}
+			configPropertiesRegistration.unRegister();
+			kernelLog.debug("Unregistered config properties..");
+			configServerRegistration.unRegister();
+			kernelLog.debug("Unregistered config server..");
+			argumentsRegistration.unRegister();
+			kernelLog.debug("Unregistered arguments..");
+			reportRegistration.unRegister();
+			kernelLog.debug("Unregistered lifecycle report..");
+		} catch (NamingException e) {
+			kernelLog.debug("Unregistered kernel registered names failed with error - {}", e.getMessage());
+			e.printStackTrace(System.err);
+			return Result.NOT_OK;
 		}
+		return Result.OK;
+	}
 
-		@Override
-		public boolean isRegistered(String name, Object instance) {
-			boolean retVal = false;
-			try {
-				Iterator<Object> instances = lookupAll(name);
-				while(instances.hasNext()) {
-					Object inst = instances.next();
-					if(inst == instance) {
-						retVal = true;
-					}
-				}
-			} catch (NamingException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	@Override
+	public Result configure(Map<String, Object> config) {
+		try {
+			// the defaults are only created when missing, the messages only when first needed
+			preSubsystems = (List<Subsystem>) config.getOrDefault("pre-subsystems", Collections.emptyList());
+			extSubsystems = (List<Subsystem>) config.getOrDefault("ext-subsystems", Collections.emptyList());
+			postSubsystems = (List<Subsystem>) config.getOrDefault("post-subsystems", Collections.emptyList());
+			messages = (ResourceBundle) config.get("messages");
+			configuration = (Properties) config.get("config-properties");
+			if (configuration == null) {
+				configuration = Main.getConfigProperties();
 			}
-			return retVal;
+			Object snapshot = config.get("config-snapshot");
+			configServer = new DefaultConfigServer(
+					snapshot instanceof ConfigSnapshot ? (ConfigSnapshot) snapshot : ConfigSnapshot.of(configuration, 1));
+			logServer = (LogServer) config.get("log-server");
+			if (logServer == null) {
+				logServer = createLogServer(configServer.current());
+			}
+			arguments = (String[])config.getOrDefault("startup-arguments", new String[] {});
+			lazySubsystems = (List<LazySubsystem>) config.getOrDefault("lazy-subsystems", Collections.emptyList());
+			slots = (Map<Subsystem, String>) config.getOrDefault("subsystem-slots", Collections.emptyMap());
+			Object lifecycleReport = config.get("lifecycle-report");
+			report = lifecycleReport instanceof LifecycleReport ? (LifecycleReport) lifecycleReport : new LifecycleReport();
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+			return new Result(Status.NOT_OK, "kernel.configure.notok", "kernel.configure.err.00001");
 		}
+		return Result.OK;
 	}
 
 }
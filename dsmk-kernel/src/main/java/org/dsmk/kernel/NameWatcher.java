@@ -0,0 +1,370 @@
+package org.dsmk.kernel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.dsmk.api.Log;
+import org.dsmk.api.NameServer.NameEvent;
+import org.dsmk.api.NameServer.NameListener;
+import org.dsmk.api.NameServer.NameWatch;
+
+/**
+ * Delivers the changes of a {@link DefaultNameServer} to its watches. Every change gets the version of
+ * the snapshot it published; the registering threads hand their changes over in any order and a single
+ * daemon thread, started with the first watch, delivers them strictly by version. Changes are routed
+ * to the queues of the matching watches before any is delivered, so that a coalescing watch whose
+ * listener fell behind only gets the last change of every name. The placeholders of the lazy
+ * subsystems are not reported.
+ * <p>
+ * An event whose listener throws stays at the head of its watch and is retried, the delay doubling
+ * from {@link #MIN_RETRY_MILLIS} to {@link #MAX_RETRY_MILLIS}, until delivered or the watch
+ * cancelled, the other watches being delivered meanwhile. A coalescing watch retries the latest
+ * change of the name instead once there is one.
+ */
+final class NameWatcher {
+
+	static final long MIN_RETRY_MILLIS = 10;
+	static final long MAX_RETRY_MILLIS = 5000;
+
+	static final class Event implements NameEvent {
+
+		private final Kind kind;
+		private final String name;
+		private final Object instance;
+		private final long version;
+
+		Event(Kind kind, String name, Object instance, long version) {
+			this.kind = kind;
+			this.name = name;
+			this.instance = instance;
+			this.version = version;
+		}
+
+		@Override
+		public Kind getKind() {
+			return kind;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Object getInstance() {
+			return instance;
+		}
+
+		@Override
+		public long getVersion() {
+			return version;
+		}
+
+		@Override
+		public String toString() {
+			return "NameEvent [" + kind + " " + name + "=" + instance + " @" + version + "]";
+		}
+	}
+
+	final class Watch implements NameWatch {
+
+		private final String pattern;
+		private final String[] segments;
+		private final NameListener listener;
+		private final boolean coalesce;
+
+		/**
+		 * the version of the registry the watch started from, the earlier changes are left out
+		 */
+		private final long fromVersion;
+
+		/**
+		 * guarded by this, keyed by name when coalescing
+		 */
+		private final ArrayDeque<Event> queue = new ArrayDeque<>();
+		private final Map<String, Event> latest = new LinkedHashMap<>();
+
+		private volatile boolean active = true;
+
+		/**
+		 * owned by the delivering thread, the event the listener threw on and when to retry it
+		 */
+		private Event failed;
+		private int failures;
+		private long retryNanos;
+
+		Watch(String pattern, NameListener listener, boolean coalesce, long fromVersion) {
+			this.pattern = pattern;
+			this.segments = DefaultNameServer.segments(pattern);
+			this.listener = listener;
+			this.coalesce = coalesce;
+			this.fromVersion = fromVersion;
+		}
+
+		boolean matches(String[] name) {
+			for (int i = 0; i < segments.length; i++) {
+				if ("**".equals(segments[i])) {
+					return name.length > i;
+				}
+				if (i == name.length || !("*".equals(segments[i]) || segments[i].equals(name[i]))) {
+					return false;
+				}
+			}
+			return name.length == segments.length;
+		}
+
+		synchronized void add(Event event) {
+			if (coalesce) {
+				// the name moves to the end, after the changes made since its previous one
+				latest.remove(event.name);
+				latest.put(event.name, event);
+			} else {
+				queue.add(event);
+			}
+		}
+
+		private synchronized Event poll() {
+			if (!coalesce) {
+				return queue.poll();
+			}
+			Iterator<Event> events = latest.values().iterator();
+			if (!events.hasNext()) {
+				return null;
+			}
+			Event event = events.next();
+			events.remove();
+			return event;
+		}
+
+		/**
+		 * Delivers the queued events until the listener throws
+		 */
+		void deliver() {
+			while (active) {
+				Event event = failed;
+				if (event != null) {
+					if (System.nanoTime() - retryNanos < 0) {
+						return;
+					}
+					if (coalesce && isSuperseded(event)) {
+						failed = null;
+						failures = 0;
+						continue;
+					}
+				} else if ((event = poll()) == null) {
+					return;
+				}
+				try {
+					listener.changed(event);
+				} catch (RuntimeException e) {
+					failed = event;
+					failures++;
+					long delay = Math.min(MAX_RETRY_MILLIS, MIN_RETRY_MILLIS << Math.min(failures - 1, 20));
+					retryNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+					if (failures == 1) {
+						log.warn("Delivering {} to {} failed with {}, retrying until delivered or cancelled", event, listener, e);
+					} else {
+						log.debug("Delivering {} to {} failed again with {}, attempt {}", event, listener, e, failures);
+					}
+					return;
+				}
+				if (failed != null) {
+					log.info("Delivered {} to {} after {} attempts", event, listener, failures + 1);
+					failed = null;
+					failures = 0;
+				}
+			}
+		}
+
+		private synchronized boolean isSuperseded(Event event) {
+			return latest.containsKey(event.name);
+		}
+
+		/**
+		 * @return the nanos until the event the listener threw on is retried, Long.MAX_VALUE if none is
+		 */
+		long retryDelay(long now) {
+			return active && failed != null ? Math.max(0, retryNanos - now) : Long.MAX_VALUE;
+		}
+
+		@Override
+		public String getPattern() {
+			return pattern;
+		}
+
+		@Override
+		public boolean isActive() {
+			return active;
+		}
+
+		@Override
+		public void cancel() {
+			active = false;
+			watches.remove(this);
+			synchronized (this) {
+				queue.clear();
+				latest.clear();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "NameWatch [" + pattern + (coalesce ? ", coalescing" : "") + ", " + listener + "]";
+		}
+	}
+
+	private final Log log;
+
+	private final List<Watch> watches = new CopyOnWriteArrayList<>();
+
+	/**
+	 * changes handed over and not yet routed, by version
+	 */
+	private final Map<Long, Event> handedOver = new ConcurrentHashMap<>();
+
+	/**
+	 * set with the first watch, from then on every change is handed over
+	 */
+	private volatile boolean notifying;
+
+	private Thread thread;
+
+	private volatile boolean closed;
+
+	private long nextVersion;
+
+	NameWatcher(Log log) {
+		this.log = log;
+	}
+
+	boolean isNotifying() {
+		return notifying;
+	}
+
+	/**
+	 * Hands a change over, once its snapshot is published
+	 */
+	void changed(NameEvent.Kind kind, String name, Object instance, long version) {
+		if (closed) {
+			return;
+		}
+		handedOver.put(version, new Event(kind, name, instance, version));
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Adds a watch starting from the state of the registry, read once notifying so that every later
+	 * change is handed over
+	 *
+	 * @param registry
+	 *            reads the current version and fills the initial events of the watch
+	 */
+	synchronized Watch watch(String pattern, NameListener listener, boolean coalesce, InitialState registry) {
+		if (closed) {
+			throw new IllegalStateException("The NameServer is closed");
+		}
+		if (!notifying) {
+			notifying = true;
+			long version = registry.version();
+			nextVersion = version + 1;
+			thread = new Thread(this::dispatch, "dsmk-name-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		long version = registry.version();
+		Watch watch = new Watch(pattern, listener, coalesce, version);
+		registry.fill(watch, version);
+		watches.add(watch);
+		LockSupport.unpark(thread);
+		return watch;
+	}
+
+	/**
+	 * The registry as seen by a new watch
+	 */
+	interface InitialState {
+
+		long version();
+
+		/**
+		 * Adds to the watch a REGISTERED event for every matching instance as of the version
+		 */
+		void fill(Watch watch, long version);
+	}
+
+	private void dispatch() {
+		List<Event> routed = new ArrayList<>();
+		while (!closed) {
+			Event event;
+			while ((event = handedOver.remove(nextVersion)) != null) {
+				routed.add(event);
+				nextVersion++;
+			}
+			if (!routed.isEmpty()) {
+				for (Event each : routed) {
+					if (each.instance instanceof LazySubsystem.Placeholder) {
+						continue;
+					}
+					String[] name = DefaultNameServer.segments(each.name);
+					for (Watch watch : watches) {
+						if (each.version > watch.fromVersion && watch.matches(name)) {
+							watch.add(each);
+						}
+					}
+				}
+				routed.clear();
+			}
+			long now = System.nanoTime();
+			long delay = Long.MAX_VALUE;
+			for (Watch watch : watches) {
+				watch.deliver();
+				delay = Math.min(delay, watch.retryDelay(now));
+			}
+			if (!handedOver.containsKey(nextVersion) && !closed) {
+				// changes handed over while the first watch was being added are already in its state
+				handedOver.keySet().removeIf(version -> version < nextVersion);
+				if (delay == Long.MAX_VALUE) {
+					LockSupport.park(this);
+				} else if (delay > 0) {
+					LockSupport.parkNanos(this, delay);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops delivering, the changes not delivered yet being dropped, and waits for the thread
+	 * delivering them to end
+	 */
+	void close() {
+		Thread current;
+		synchronized (this) {
+			closed = true;
+			current = thread;
+		}
+		if (current != null) {
+			LockSupport.unpark(current);
+			if (current != Thread.currentThread()) {
+				try {
+					current.join(TimeUnit.SECONDS.toMillis(5));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		handedOver.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "NameWatcher [watches=" + watches.size() + ", nextVersion=" + nextVersion + "]";
+	}
+}
@@ -0,0 +1,496 @@
+package org.dsmk.kernel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.Log;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.Result;
+import org.dsmk.api.Result.Status;
+import org.dsmk.api.Subsystem;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Dependency graph of the pre, ext and post subsystems. Every subsystem of a group depends on all
+ * the subsystems of the groups before it, on the providers of the names it REQUIRES and, when it
+ * declares neither PROVIDES nor REQUIRES, on all the subsystems listed before it in its own group.
+ * Independent subsystems are configured and started, and later stopped, in parallel on the given
+ * executor.
+ */
+final class SubsystemGraph {
+
+	static final String ERR_SUBSYS_DEPENDENCY = "dsmk.kernel.err.subsys.dependency.0001";
+	static final String ERR_SUBSYS_START = "dsmk.kernel.err.subsys.start.0001";
+	static final String ERR_SUBSYS_CANCELLED = "dsmk.kernel.err.subsys.cancelled.0001";
+	static final String ERR_SUBSYS_STOP = "dsmk.kernel.err.subsys.stop.0001";
+
+	static final class Node {
+
+		final Subsystem subsystem;
+		final String group;
+		final int groupIndex;
+		final List<Node> dependencies = new ArrayList<>();
+
+		volatile long startNanos;
+		volatile long endNanos;
+
+		Node(Subsystem subsystem, String group, int groupIndex) {
+			this.subsystem = subsystem;
+			this.group = group;
+			this.groupIndex = groupIndex;
+		}
+
+		long elapsedMillis() {
+			return (endNanos - startNanos) / 1_000_000L;
+		}
+
+		@Override
+		public String toString() {
+			return group + ":" + subsystem.name();
+		}
+	}
+
+	private static final class SubsystemFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		SubsystemFailure(Node node) {
+			super(node.toString(), null, false, false);
+		}
+	}
+
+	private final List<Node> nodes;
+
+	private SubsystemGraph(List<Node> nodes) {
+		this.nodes = nodes;
+	}
+
+	List<Node> nodes() {
+		return Collections.unmodifiableList(nodes);
+	}
+
+	/**
+	 * Builds the graph for the given groups which are expected in startup order. Names required but
+	 * not provided by any subsystem must already be registered in the NameServer.
+	 *
+	 * @param groups
+	 *            group name to subsystems, in startup order
+	 * @param nameServer
+	 * @param onDemand
+	 *            names provided by lazy subsystems, which satisfy a requirement without a dependency
+	 *            as they are activated by the lookup
+	 * @return
+	 * @throws IllegalStateException
+	 *             if a requirement cannot be satisfied or the dependencies form a cycle
+	 */
+	static SubsystemGraph build(Map<String, List<Subsystem>> groups, NameServer nameServer, Set<String> onDemand) {
+
+		List<Node> all = new ArrayList<>();
+		Map<String, List<Node>> providers = new HashMap<>();
+		Map<String, Integer> providerGroupIndex = new HashMap<>();
+		List<Node> previousGroups = new ArrayList<>();
+		int groupIndex = 0;
+
+		for (Map.Entry<String, List<Subsystem>> group : groups.entrySet()) {
+			List<Node> groupNodes = new ArrayList<>();
+			for (Subsystem subsys : group.getValue()) {
+				Node node = new Node(subsys, group.getKey(), groupIndex);
+				node.dependencies.addAll(previousGroups);
+				if (!declaresDependencies(subsys)) {
+					node.dependencies.addAll(groupNodes);
+				}
+				for (String name : names(subsys, Subsystem.PROVIDES)) {
+					providers.computeIfAbsent(name, n -> new ArrayList<>()).add(node);
+					providerGroupIndex.putIfAbsent(name, groupIndex);
+				}
+				groupNodes.add(node);
+			}
+			all.addAll(groupNodes);
+			previousGroups.addAll(groupNodes);
+			groupIndex++;
+		}
+
+		for (Node node : all) {
+			for (String name : names(node.subsystem, Subsystem.REQUIRES)) {
+				List<Node> providedBy = providers.get(name);
+				if (providedBy == null) {
+					if (!onDemand.contains(name) && !isRegistered(nameServer, name)) {
+						throw new IllegalStateException(String.format("%s requires %s which is neither provided by a subsystem nor registered", node, name));
+					}
+					continue;
+				}
+				if (providerGroupIndex.get(name) > node.groupIndex) {
+					throw new IllegalStateException(String.format("%s requires %s which is provided by a later group", node, name));
+				}
+				for (Node provider : providedBy) {
+					if (provider != node && !node.dependencies.contains(provider)) {
+						node.dependencies.add(provider);
+					}
+				}
+			}
+		}
+
+		return new SubsystemGraph(sort(all));
+	}
+
+	private static boolean isRegistered(NameServer nameServer, String name) {
+		try {
+			return nameServer.lookup1(name) != null;
+		} catch (NamingException e) {
+			return false;
+		}
+	}
+
+	static boolean declaresDependencies(Subsystem subsys) {
+		Map<String, Object> attributes = subsys.attributes();
+		return attributes != null && (attributes.containsKey(Subsystem.PROVIDES) || attributes.containsKey(Subsystem.REQUIRES));
+	}
+
+	static String[] names(Subsystem subsys, String attribute) {
+		Map<String, Object> attributes = subsys.attributes();
+		Object value = attributes == null ? null : attributes.get(attribute);
+		if (value == null) {
+			return new String[0];
+		}
+		checkState(value instanceof String[], "Attribute %s of %s must be a String[]", attribute, subsys.name());
+		return (String[]) value;
+	}
+
+	/**
+	 * Orders the nodes so that dependencies always come before their dependents, keeping the
+	 * configured order wherever the dependencies allow it.
+	 */
+	private static List<Node> sort(List<Node> all) {
+		Map<Node, Integer> state = new HashMap<>();
+		List<Node> sorted = new ArrayList<>(all.size());
+		for (Node node : all) {
+			visit(node, state, new ArrayList<>(), sorted);
+		}
+		return sorted;
+	}
+
+	private static void visit(Node node, Map<Node, Integer> state, List<Node> path, List<Node> sorted) {
+		Integer s = state.get(node);
+		if (s != null && s == 2) {
+			return;
+		}
+		path.add(node);
+		if (s != null && s == 1) {
+			throw new IllegalStateException("Subsystem dependency cycle " + path);
+		}
+		state.put(node, 1);
+		for (Node dependency : node.dependencies) {
+			visit(dependency, state, path, sorted);
+		}
+		state.put(node, 2);
+		sorted.add(node);
+		path.remove(path.size() - 1);
+	}
+
+	/**
+	 * Configures and starts every subsystem as soon as all of its dependencies are started. The first
+	 * failure (a NOT_OK result or an exception) cancels all the subsystems which have not begun yet.
+	 *
+	 * @param initMap
+	 * @param executor
+	 * @param report
+	 *            receives the time taken by every configure and start
+	 * @param log
+	 * @return the first failure or Result.OK
+	 */
+	Result start(Map<String, Object> initMap, ExecutorService executor, LifecycleReport report, Log log) {
+		return start(initMap, executor, report, log, Collections.<Subsystem>emptySet(), Collections.<Subsystem>emptySet());
+	}
+
+	/**
+	 * Starts the subsystems of the graph but the running ones, as on a reload
+	 *
+	 * @param running
+	 *            the subsystems already started, which the others do not wait for
+	 * @param configured
+	 *            the subsystems already configured, which are only started
+	 * @return the first failure or Result.OK
+	 */
+	Result start(Map<String, Object> initMap, ExecutorService executor, LifecycleReport report, Log log, Set<Subsystem> running,
+			Set<Subsystem> configured) {
+
+		AtomicReference<Result> failure = new AtomicReference<>();
+		Map<Node, CompletableFuture<Void>> futures = new HashMap<>();
+
+		// nodes are sorted so that the dependencies always come first
+		for (Node node : nodes) {
+			if (running.contains(node.subsystem)) {
+				futures.put(node, CompletableFuture.completedFuture(null));
+				continue;
+			}
+			boolean configure = !configured.contains(node.subsystem);
+			CompletableFuture<Void> ready;
+			if (node.dependencies.isEmpty()) {
+				ready = CompletableFuture.completedFuture(null);
+			} else {
+				CompletableFuture<?>[] dependencies = new CompletableFuture<?>[node.dependencies.size()];
+				for (int i = 0; i < dependencies.length; i++) {
+					dependencies[i] = futures.get(node.dependencies.get(i));
+				}
+				ready = CompletableFuture.allOf(dependencies);
+			}
+			futures.put(node, ready.thenRunAsync(() -> configureAndStart(node, configure, initMap, failure, report, log), executor));
+		}
+
+		try {
+			CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).join();
+		} catch (CompletionException e) {
+			if (!(e.getCause() instanceof SubsystemFailure)) {
+				e.printStackTrace(System.err);
+			}
+			failure.compareAndSet(null, new Result(Status.NOT_OK, ERR_SUBSYS_START, ERR_SUBSYS_CANCELLED));
+		}
+
+		Result result = failure.get();
+		return result == null ? Result.OK : result;
+	}
+
+	private void configureAndStart(Node node, boolean configure, Map<String, Object> initMap, AtomicReference<Result> failure,
+			LifecycleReport report, Log log) {
+		if (failure.get() != null) {
+			log.debug("Skipping Subsystem {} as the startup has already failed", node);
+			throw new SubsystemFailure(node);
+		}
+
+		node.startNanos = System.nanoTime();
+		Result result = Result.OK;
+		try {
+			LifecycleReport.Phase phase;
+			if (configure) {
+				result = null;
+				phase = report.begin("configure", node.subsystem.name(), node.group);
+				try {
+					result = node.subsystem.configure(initMap);
+				} finally {
+					phase.end(result);
+				}
+			}
+			if (result.isNotOK()) {
+				log.debug("Configuration failed for Subsystem {}-{}", node.subsystem.name(), node.subsystem.id());
+			} else {
+				result = null;
+				phase = report.begin("start", node.subsystem.name(), node.group);
+				try {
+					result = node.subsystem.start();
+				} finally {
+					phase.end(result);
+				}
+				if (result.isNotOK()) {
+					log.debug("Start failed for Subsystem {}-{}", node.subsystem.name(), node.subsystem.id());
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace(System.err);
+			log.error("Subsystem {} failed to start with error {}", node, e.getMessage());
+			result = new Result(Status.NOT_OK, ERR_SUBSYS_START, e.getMessage());
+		} finally {
+			node.endNanos = System.nanoTime();
+		}
+
+		if (result.isNotOK()) {
+			failure.compareAndSet(null, result);
+			throw new SubsystemFailure(node);
+		}
+	}
+
+	/**
+	 * What happened to the subsystems during {@link SubsystemGraph#stop}
+	 */
+	static final class ShutdownOutcome {
+
+		final List<Node> failed = Collections.synchronizedList(new ArrayList<>());
+		final List<Node> timedOut = Collections.synchronizedList(new ArrayList<>());
+		final List<Node> abandoned = Collections.synchronizedList(new ArrayList<>());
+
+		boolean isClean() {
+			return failed.isEmpty() && timedOut.isEmpty() && abandoned.isEmpty();
+		}
+
+		@Override
+		public String toString() {
+			return "ShutdownOutcome [failed=" + failed + ", timedOut=" + timedOut + ", abandoned=" + abandoned + "]";
+		}
+	}
+
+	/**
+	 * Stops the subsystems in reverse dependency order, every subsystem as soon as all the subsystems
+	 * depending on it are stopped or given up on. A stop running longer than the subsystem timeout is
+	 * given up on, interrupted and its thread replaced in the pool, and once the deadline passes no
+	 * other stop is begun.
+	 *
+	 * @param executor
+	 *            runs the stops, grown by one thread for every stop which times out
+	 * @param subsystemTimeoutMillis
+	 * @param deadlineNanos
+	 *            in System.nanoTime() terms
+	 * @param report
+	 * @param log
+	 * @return
+	 */
+	ShutdownOutcome stop(ThreadPoolExecutor executor, long subsystemTimeoutMillis, long deadlineNanos, LifecycleReport report,
+			Log log) {
+
+		ShutdownOutcome outcome = new ShutdownOutcome();
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("dsmk-shutdown-timer").setDaemon(true).build());
+
+		Map<Node, List<Node>> dependents = new HashMap<>();
+		for (Node node : nodes) {
+			for (Node dependency : node.dependencies) {
+				dependents.computeIfAbsent(dependency, n -> new ArrayList<>()).add(node);
+			}
+		}
+
+		Map<Node, CompletableFuture<Void>> stopped = new HashMap<>();
+		// dependents come after their dependencies in nodes, so walk it backwards
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			Node node = nodes.get(i);
+			List<Node> waitFor = dependents.getOrDefault(node, Collections.emptyList());
+			CompletableFuture<?>[] ready = new CompletableFuture<?>[waitFor.size()];
+			for (int j = 0; j < ready.length; j++) {
+				ready[j] = stopped.get(waitFor.get(j));
+			}
+			CompletableFuture<Void> done = new CompletableFuture<>();
+			stopped.put(node, done);
+			CompletableFuture.allOf(ready).whenComplete(
+					(v, t) -> submitStop(node, done, executor, timer, subsystemTimeoutMillis, deadlineNanos, outcome, report, log));
+		}
+
+		try {
+			CompletableFuture.allOf(stopped.values().toArray(new CompletableFuture<?>[stopped.size()]))
+					.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			log.error("Kernel shutdown deadline passed");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace(System.err);
+		} finally {
+			timer.shutdownNow();
+		}
+
+		for (Node node : nodes) {
+			if (stopped.get(node).complete(null)) {
+				outcome.abandoned.add(node);
+			}
+		}
+		return outcome;
+	}
+
+	private void submitStop(Node node, CompletableFuture<Void> done, ThreadPoolExecutor executor, ScheduledExecutorService timer,
+			long subsystemTimeoutMillis, long deadlineNanos, ShutdownOutcome outcome, LifecycleReport report, Log log) {
+
+		if (System.nanoTime() - deadlineNanos >= 0) {
+			if (done.complete(null)) {
+				log.warn("Shutdown deadline passed, abandoning Subsystem {}", node);
+				outcome.abandoned.add(node);
+			}
+			return;
+		}
+
+		try {
+			executor.execute(() -> {
+				if (done.isDone()) {
+					return;
+				}
+				LifecycleReport.Phase phase = report.begin("stop", node.subsystem.name(), node.group);
+				long timeoutNanos = Math.min(TimeUnit.MILLISECONDS.toNanos(subsystemTimeoutMillis), deadlineNanos - System.nanoTime());
+				// the thread stopping the subsystem until it is done, the one who clears it interrupts or not
+				AtomicReference<Thread> stopper = new AtomicReference<>(Thread.currentThread());
+				ScheduledFuture<?> timeout = timer.schedule(() -> {
+					if (done.complete(null)) {
+						phase.endAs(LifecycleReport.TIMED_OUT);
+						log.error("Subsystem {} did not stop in time, giving up on it", node);
+						outcome.timedOut.add(node);
+						// the stuck thread is lost to the pool, make up for it
+						executor.setMaximumPoolSize(executor.getMaximumPoolSize() + 1);
+						executor.setCorePoolSize(executor.getCorePoolSize() + 1);
+						Thread stuck = stopper.getAndSet(null);
+						if (stuck != null) {
+							stuck.interrupt();
+						}
+					}
+				}, Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+
+				Result result = null;
+				try {
+					result = node.subsystem.stop();
+				} catch (Exception e) {
+					e.printStackTrace(System.err);
+					log.error("Failed to stop subsystem {} with error {}", node, e.getMessage());
+				} finally {
+					timeout.cancel(false);
+					if (stopper.getAndSet(null) == null) {
+						// the timeout took the thread and interrupts it, consume that before the next task
+						while (!Thread.interrupted()) {
+							Thread.yield();
+						}
+					}
+					if (done.complete(null)) {
+						phase.end(result);
+						if (result == null || result.isNotOK()) {
+							outcome.failed.add(node);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			if (done.complete(null)) {
+				outcome.abandoned.add(node);
+			}
+		}
+	}
+
+	/**
+	 * The chain of dependencies which finished last, i.e. the one that decided the total boot time.
+	 * Only meaningful after {@link #start(Map, ExecutorService, LifecycleReport, Log)}.
+	 *
+	 * @return
+	 */
+	List<Node> criticalPath() {
+		Node last = latest(nodes);
+		List<Node> path = new ArrayList<>();
+		while (last != null) {
+			path.add(0, last);
+			last = latest(last.dependencies);
+		}
+		return path;
+	}
+
+	private static Node latest(List<Node> candidates) {
+		Node latest = null;
+		for (Node node : candidates) {
+			if (node.endNanos != 0 && (latest == null || node.endNanos > latest.endNanos)) {
+				latest = node;
+			}
+		}
+		return latest;
+	}
+
+}
@@ -0,0 +1,474 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.dsmk.api.Log;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Layered right over the engine, dispatches batches of events: {@link #postAll(Iterable)} groups the
+ * events by class and the engine dispatches each group as a single {@link EventBatch} to the
+ * {@link SubscribeBatch} methods of its type, once per subscriber instead of once per event. The
+ * {@link Subscribe} methods still receive the events one by one, and so do the DeadEvent subscribers
+ * when nobody subscribes to them. The groups are dispatched in the order their class first appears in
+ * the batch. A single post reaches the SubscribeBatch methods as a batch of one.
+ * <p>
+ * The events of the types registered with {@link #conflate(Class, Function)} are conflated by key,
+ * only the latest event of a key being delivered. Without a window they are conflated within each
+ * batch posted. With a window, every event of those types is held and the latest ones are dispatched
+ * as one batch at the end of the window.
+ * <p>
+ * Until a SubscribeBatch method is registered, a type conflated or a window set, the bus passes the
+ * events straight on to the engine, as if it were not layered over it.
+ */
+public class BatchEventBus extends ForwardingEventBus {
+
+	/**
+	 * Subscribes a {@link SubscribeBatch} method with the engine, for the batches of its type
+	 */
+	public static final class BatchSubscriber {
+
+		private final Object target;
+		private final Method method;
+		private final Class<?> type;
+		private final CompiledEventBus.Invoker invoker;
+		private final boolean concurrent;
+
+		private BatchSubscriber(Object target, Method method, Class<?> type) {
+			this.target = target;
+			this.method = method;
+			this.type = type;
+			this.invoker = CompiledEventBus.compile(target, method);
+			this.concurrent = method.isAnnotationPresent(AllowConcurrentEvents.class);
+		}
+
+		@Subscribe
+		@AllowConcurrentEvents
+		public void onBatch(EventBatch<?> batch) throws Throwable {
+			if (!type.isAssignableFrom(batch.type())) {
+				return;
+			}
+			// a failure is reported by the engine as a failure of the subscriber
+			if (concurrent) {
+				invoker.invoke(batch);
+			} else {
+				synchronized (this) {
+					invoker.invoke(batch);
+				}
+			}
+		}
+
+		public Object getSubscriber() {
+			return target;
+		}
+
+		/**
+		 * @return the type of the events of the batches the method receives
+		 */
+		public Class<?> getType() {
+			return type;
+		}
+
+		@Override
+		public String toString() {
+			return "BatchSubscriber [" + target.getClass().getName() + "." + method.getName() + "(EventBatch<" + type.getName()
+					+ ">)]";
+		}
+	}
+
+	/**
+	 * How the events of a class are dispatched, computed on their first post
+	 */
+	private static final class Route {
+
+		final boolean individual;
+		final boolean batched;
+		final Function<Object, ?> key;
+
+		Route(boolean individual, boolean batched, Function<Object, ?> key) {
+			this.individual = individual;
+			this.batched = batched;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * per subscriber class, its {@link SubscribeBatch} methods
+	 */
+	private static final ClassValue<Method[]> BATCH_METHODS = new ClassValue<Method[]>() {
+
+		@Override
+		protected Method[] computeValue(Class<?> clz) {
+			List<Method> methods = new ArrayList<>();
+			for (Class<?> type : TypeToken.of(clz).getTypes().rawTypes()) {
+				for (Method method : type.getDeclaredMethods()) {
+					if (method.isAnnotationPresent(SubscribeBatch.class) && !method.isSynthetic()) {
+						checkArgument(method.getParameterCount() == 1 && method.getParameterTypes()[0] == EventBatch.class,
+								"Method %s has @SubscribeBatch but does not take a single EventBatch", method);
+						methods.add(method);
+					}
+				}
+			}
+			return methods.toArray(new Method[methods.size()]);
+		}
+	};
+
+	private static final class Registration {
+
+		final Class<?>[] eventTypes;
+		final List<BatchSubscriber> batchSubscribers;
+
+		Registration(Class<?>[] eventTypes, List<BatchSubscriber> batchSubscribers) {
+			this.eventTypes = eventTypes;
+			this.batchSubscribers = batchSubscribers;
+		}
+	}
+
+	private final long windowMillis;
+	private final Log log;
+
+	private final Map<Object, Registration> registrations = new IdentityHashMap<>();
+	private final Map<Class<?>, Function<Object, ?>> conflations = new LinkedHashMap<>();
+
+	/**
+	 * replaced, under the lock, whenever the subscribers or the conflations change
+	 */
+	private volatile Map<Class<?>, Route> routes = new ConcurrentHashMap<>();
+
+	/**
+	 * false while nothing is batched, conflated or held, the events then going straight to the engine
+	 */
+	private volatile boolean active;
+
+	/**
+	 * the BatchSubscribers registered with the engine
+	 */
+	private int batchSubscriberCount;
+
+	/**
+	 * the events held for the window, the latest by key, by class
+	 */
+	private Map<Class<?>, LinkedHashMap<Object, Object>> pending = new LinkedHashMap<>();
+	private final Object pendingLock = new Object();
+	private final ScheduledExecutorService flusher;
+
+	/**
+	 * @param identifier
+	 * @param delegate
+	 *            the engine
+	 * @param windowMillis
+	 *            the conflation window, 0 to only conflate within the batches posted
+	 * @param log
+	 */
+	public BatchEventBus(String identifier, EventBus delegate, long windowMillis, Log log) {
+		super(identifier, delegate);
+
+		checkArgument(windowMillis >= 0, "Conflation window must not be negative, got %s", windowMillis);
+
+		this.windowMillis = windowMillis;
+		this.log = log;
+		this.active = windowMillis > 0;
+		if (windowMillis > 0) {
+			flusher = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setNameFormat(identifier + "-conflation").setDaemon(true).build());
+			flusher.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+		} else {
+			flusher = null;
+		}
+	}
+
+	/**
+	 * Registers the {@link Subscribe} methods of the subscriber with the engine, and its
+	 * {@link SubscribeBatch} methods through a {@link BatchSubscriber} each
+	 */
+	@Override
+	public void register(Object object) {
+		Registration registration;
+		synchronized (this) {
+			if (registrations.containsKey(object)) {
+				return;
+			}
+			registration = new Registration(SubscriberQueueEventBus.eventTypes(object.getClass()), batchSubscribers(object));
+			registrations.put(object, registration);
+			routes = new ConcurrentHashMap<>();
+			batchSubscriberCount += registration.batchSubscribers.size();
+			active |= batchSubscriberCount > 0;
+		}
+		if (registration.eventTypes.length > 0) {
+			delegate.register(object);
+		}
+		for (BatchSubscriber batchSubscriber : registration.batchSubscribers) {
+			delegate.register(batchSubscriber);
+			log.debug("Registered {}", batchSubscriber);
+		}
+	}
+
+	@Override
+	public void unregister(Object object) {
+		Registration registration;
+		synchronized (this) {
+			registration = registrations.remove(object);
+			if (registration == null) {
+				throw new IllegalArgumentException("Missing event subscriber for an annotated method. Is " + object + " registered?");
+			}
+			routes = new ConcurrentHashMap<>();
+			batchSubscriberCount -= registration.batchSubscribers.size();
+			active = flusher != null || !conflations.isEmpty() || batchSubscriberCount > 0;
+		}
+		if (registration.eventTypes.length > 0) {
+			delegate.unregister(object);
+		}
+		for (BatchSubscriber batchSubscriber : registration.batchSubscribers) {
+			delegate.unregister(batchSubscriber);
+		}
+	}
+
+	private List<BatchSubscriber> batchSubscribers(Object object) {
+		Method[] methods = BATCH_METHODS.get(object.getClass());
+		if (methods.length == 0) {
+			return Collections.emptyList();
+		}
+		List<BatchSubscriber> batchSubscribers = new ArrayList<>(methods.length);
+		for (Method method : methods) {
+			batchSubscribers.add(new BatchSubscriber(object, method, batchType(method.getGenericParameterTypes()[0])));
+		}
+		return batchSubscribers;
+	}
+
+	/**
+	 * @return the type argument of EventBatch, its bound for a wildcard, Object if there is none
+	 */
+	private static Class<?> batchType(Type parameter) {
+		if (parameter instanceof ParameterizedType) {
+			Type argument = ((ParameterizedType) parameter).getActualTypeArguments()[0];
+			if (argument instanceof WildcardType) {
+				argument = ((WildcardType) argument).getUpperBounds()[0];
+			}
+			return TypeToken.of(argument).getRawType();
+		}
+		return Object.class;
+	}
+
+	/**
+	 * Conflates the events of the type, and of its subtypes, by the key, the latest event of a key
+	 * replacing the earlier ones not yet dispatched. A null key leaves the event alone.
+	 *
+	 * @param type
+	 * @param key
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized <E> void conflate(Class<E> type, Function<? super E, ?> key) {
+		conflations.put(type, (Function<Object, ?>) key);
+		routes = new ConcurrentHashMap<>();
+		active = true;
+	}
+
+	private Route route(Class<?> clazz) {
+		Map<Class<?>, Route> current = routes;
+		Route route = current.get(clazz);
+		return route != null ? route : computeRoute(clazz, current);
+	}
+
+	private synchronized Route computeRoute(Class<?> clazz, Map<Class<?>, Route> current) {
+		boolean individual = false;
+		boolean batched = false;
+		for (Registration registration : registrations.values()) {
+			for (Class<?> eventType : registration.eventTypes) {
+				individual |= eventType.isAssignableFrom(clazz);
+			}
+			for (BatchSubscriber batchSubscriber : registration.batchSubscribers) {
+				batched |= batchSubscriber.type.isAssignableFrom(clazz);
+			}
+		}
+		Function<Object, ?> key = null;
+		for (Map.Entry<Class<?>, Function<Object, ?>> conflation : conflations.entrySet()) {
+			if (conflation.getKey().isAssignableFrom(clazz)) {
+				key = conflation.getValue();
+				break;
+			}
+		}
+		Route route = new Route(individual, batched, key);
+		if (current == routes) {
+			// otherwise computed from what was replaced meanwhile
+			current.put(clazz, route);
+		}
+		return route;
+	}
+
+	@Override
+	public void post(Object event) {
+		if (!active) {
+			delegate.post(event);
+			return;
+		}
+		if (event instanceof EventBatch) {
+			postAll(((EventBatch<?>) event).events());
+			return;
+		}
+		Class<?> clazz = event.getClass();
+		Route route = route(clazz);
+		if (route.key != null && flusher != null) {
+			hold(clazz, route, Collections.singletonList(event));
+		} else if (route.batched) {
+			dispatch(clazz, route, Collections.singletonList(event));
+		} else {
+			delegate.post(event);
+		}
+	}
+
+	/**
+	 * Dispatches the events class by class, as a batch to the SubscribeBatch methods and one by one to
+	 * the Subscribe methods
+	 */
+	@Override
+	public void postAll(Iterable<?> events) {
+		if (!active) {
+			for (Object event : events) {
+				delegate.post(event);
+			}
+			return;
+		}
+		Map<Class<?>, List<Object>> groups = new LinkedHashMap<>();
+		for (Object event : events) {
+			List<Object> group = groups.get(event.getClass());
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.put(event.getClass(), group);
+			}
+			group.add(event);
+		}
+		for (Map.Entry<Class<?>, List<Object>> group : groups.entrySet()) {
+			Route route = route(group.getKey());
+			if (route.key == null) {
+				dispatch(group.getKey(), route, group.getValue());
+			} else if (flusher != null) {
+				hold(group.getKey(), route, group.getValue());
+			} else {
+				LinkedHashMap<Object, Object> latest = new LinkedHashMap<>();
+				conflate(latest, route, group.getValue());
+				dispatch(group.getKey(), route, new ArrayList<>(latest.values()));
+			}
+		}
+	}
+
+	/**
+	 * Puts the events in the map by key, the latest of a key last
+	 */
+	private static void conflate(LinkedHashMap<Object, Object> latest, Route route, List<Object> events) {
+		for (Object event : events) {
+			Object key = route.key.apply(event);
+			if (key == null) {
+				// never replaced
+				key = new Object();
+			}
+			latest.remove(key);
+			latest.put(key, event);
+		}
+	}
+
+	private void dispatch(Class<?> clazz, Route route, List<Object> events) {
+		if (route.batched) {
+			delegate.post(newBatch(clazz, Collections.unmodifiableList(events)));
+		}
+		if (route.individual || !route.batched) {
+			for (Object event : events) {
+				delegate.post(event);
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static EventBatch<?> newBatch(Class<?> clazz, List<Object> events) {
+		return new EventBatch(clazz, events);
+	}
+
+	private void hold(Class<?> clazz, Route route, List<Object> events) {
+		synchronized (pendingLock) {
+			LinkedHashMap<Object, Object> latest = pending.get(clazz);
+			if (latest == null) {
+				latest = new LinkedHashMap<>();
+				pending.put(clazz, latest);
+			}
+			conflate(latest, route, events);
+		}
+	}
+
+	/**
+	 * Dispatches the latest events held, at the end of every window
+	 */
+	private void flush() {
+		Map<Class<?>, LinkedHashMap<Object, Object>> flushed;
+		synchronized (pendingLock) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			flushed = pending;
+			pending = new LinkedHashMap<>();
+		}
+		for (Map.Entry<Class<?>, LinkedHashMap<Object, Object>> entry : flushed.entrySet()) {
+			try {
+				dispatch(entry.getKey(), route(entry.getKey()), new ArrayList<>(entry.getValue().values()));
+			} catch (RuntimeException e) {
+				log.error("Dispatching the conflated events of {} failed with error {}", entry.getKey().getName(), e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of events held until the end of the window
+	 */
+	public int pending() {
+		int count = 0;
+		synchronized (pendingLock) {
+			for (LinkedHashMap<Object, Object> latest : pending.values()) {
+				count += latest.size();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Dispatches the events held for the window, then shuts the engine down
+	 */
+	@Override
+	public void shutdown() {
+		if (flusher != null) {
+			flusher.shutdown();
+			try {
+				flusher.awaitTermination(windowMillis + 1000, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flush();
+		}
+		super.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return "BatchEventBus{" + identifier() + ", window=" + windowMillis + "ms" + (active ? "" : ", passing through") + " -> "
+				+ delegate + "}";
+	}
+}
@@ -0,0 +1,34 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Journals the events which are CharSequences, such as Strings, as their UTF-16 chars and replays them
+ * as Strings. Other events are not journaled.
+ */
+public class CharSequenceEventCodec implements EventCodec {
+
+	@Override
+	public boolean encode(Object event, ByteBuffer target) {
+		if (!(event instanceof CharSequence)) {
+			return false;
+		}
+		CharSequence chars = (CharSequence) event;
+		for (int i = 0; i < chars.length(); i++) {
+			target.putChar(chars.charAt(i));
+		}
+		return true;
+	}
+
+	@Override
+	public Object decode(ByteBuffer source) {
+		char[] chars = new char[source.remaining() / 2];
+		source.asCharBuffer().get(chars);
+		return new String(chars);
+	}
+
+	@Override
+	public String toString() {
+		return "CharSequenceEventCodec";
+	}
+}
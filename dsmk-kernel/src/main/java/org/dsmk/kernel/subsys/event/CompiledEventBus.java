@@ -0,0 +1,364 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dsmk.api.Log;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Synchronous EventBus dispatching to the same {@link Subscribe} methods as the Guava one, without
+ * reflection past registering. Each subscriber method is compiled once into an invoker, a class
+ * generated by the LambdaMetafactory calling it directly, or a MethodHandle bound to the subscriber
+ * when the method is not accessible from this class. The dispatch table maps every event class posted
+ * so far to the array of the subscribers accepting it, supertypes and interfaces included; it is
+ * immutable and replaced as a whole on register and unregister, so posting looks the class up once
+ * and walks the array.
+ * <p>
+ * As with Guava, methods without {@link AllowConcurrentEvents} are never called concurrently, events
+ * posted by a subscriber are dispatched once the event it received has been, events no subscriber
+ * accepts are posted again as DeadEvents and a subscriber failing does not keep the others from the
+ * event.
+ */
+public class CompiledEventBus extends EventBus {
+
+	/**
+	 * A compiled call to the subscriber method, with the subscriber bound
+	 */
+	interface Invoker {
+		void invoke(Object event) throws Throwable;
+	}
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private static final CompiledSubscriber[] NONE = new CompiledSubscriber[0];
+
+	/**
+	 * per subscriber class, its {@link Subscribe} methods, one per signature
+	 */
+	private static final ClassValue<Method[]> SUBSCRIBER_METHODS = new ClassValue<Method[]>() {
+
+		@Override
+		protected Method[] computeValue(Class<?> clz) {
+			Map<List<Object>, Method> methods = new LinkedHashMap<>();
+			for (Class<?> type : TypeToken.of(clz).getTypes().rawTypes()) {
+				for (Method method : type.getDeclaredMethods()) {
+					if (method.isAnnotationPresent(Subscribe.class) && !method.isSynthetic()) {
+						Class<?>[] parameterTypes = method.getParameterTypes();
+						checkArgument(parameterTypes.length == 1,
+								"Method %s has @Subscribe annotation but has %s parameters. Subscriber methods must have exactly 1 parameter.",
+								method, parameterTypes.length);
+						checkArgument(!parameterTypes[0].isPrimitive(),
+								"@Subscribe method %s's parameter is %s. Subscriber methods cannot accept primitives.", method,
+								parameterTypes[0].getName());
+						methods.putIfAbsent(Arrays.asList(method.getName(), Arrays.asList(parameterTypes)), method);
+					}
+				}
+			}
+			return methods.values().toArray(new Method[methods.size()]);
+		}
+	};
+
+	/**
+	 * per event class, the class, its superclasses and its interfaces
+	 */
+	private static final ClassValue<Class<?>[]> HIERARCHY = new ClassValue<Class<?>[]>() {
+
+		@Override
+		protected Class<?>[] computeValue(Class<?> clz) {
+			return TypeToken.of(clz).getTypes().rawTypes().toArray(new Class<?>[0]);
+		}
+	};
+
+	private static final class CompiledSubscriber {
+
+		private final Object target;
+		private final Method method;
+		private final Class<?> eventType;
+		private final Invoker invoker;
+		private final boolean concurrent;
+
+		private CompiledSubscriber(Object target, Method method) {
+			this.target = target;
+			this.method = method;
+			this.eventType = method.getParameterTypes()[0];
+			this.invoker = compile(target, method);
+			this.concurrent = method.isAnnotationPresent(AllowConcurrentEvents.class);
+		}
+
+		private void dispatch(Object event) throws Throwable {
+			if (concurrent) {
+				invoker.invoke(event);
+			} else {
+				synchronized (this) {
+					invoker.invoke(event);
+				}
+			}
+		}
+
+		private boolean sameAs(CompiledSubscriber other) {
+			return target == other.target && method.equals(other.method);
+		}
+
+		@Override
+		public String toString() {
+			return target + "#" + method.getName();
+		}
+	}
+
+	/**
+	 * The subscribers by the event type they declare and, resolved from them, by event class
+	 */
+	private static final class DispatchTable {
+
+		private final Map<Class<?>, CompiledSubscriber[]> byType;
+		private final ConcurrentHashMap<Class<?>, CompiledSubscriber[]> byEventClass = new ConcurrentHashMap<>();
+
+		private DispatchTable(Map<Class<?>, CompiledSubscriber[]> byType, DispatchTable previous) {
+			this.byType = Collections.unmodifiableMap(byType);
+			if (previous != null) {
+				// the event classes already posted stay resolved
+				for (Class<?> eventClass : previous.byEventClass.keySet()) {
+					byEventClass.put(eventClass, resolve(eventClass));
+				}
+			}
+		}
+
+		private CompiledSubscriber[] subscribers(Class<?> eventClass) {
+			CompiledSubscriber[] subscribers = byEventClass.get(eventClass);
+			if (subscribers == null) {
+				subscribers = resolve(eventClass);
+				byEventClass.putIfAbsent(eventClass, subscribers);
+			}
+			return subscribers;
+		}
+
+		private CompiledSubscriber[] resolve(Class<?> eventClass) {
+			List<CompiledSubscriber> subscribers = new ArrayList<>();
+			for (Class<?> type : HIERARCHY.get(eventClass)) {
+				CompiledSubscriber[] ofType = byType.get(type);
+				if (ofType != null) {
+					subscribers.addAll(Arrays.asList(ofType));
+				}
+			}
+			return subscribers.isEmpty() ? NONE : subscribers.toArray(new CompiledSubscriber[subscribers.size()]);
+		}
+	}
+
+	/**
+	 * The events a thread posted while dispatching
+	 */
+	private static final class PostQueue {
+		private final ArrayDeque<Object> events = new ArrayDeque<>();
+		private boolean dispatching;
+	}
+
+	private final Log log;
+
+	private final Object registrationLock = new Object();
+
+	private volatile DispatchTable table = new DispatchTable(new HashMap<>(), null);
+
+	private final ThreadLocal<PostQueue> postQueues = ThreadLocal.withInitial(PostQueue::new);
+
+	/**
+	 * @param identifier
+	 * @param log
+	 *            reports the failures of the subscribers
+	 */
+	public CompiledEventBus(String identifier, Log log) {
+		super(identifier);
+		this.log = log;
+	}
+
+	/**
+	 * Compiles the call to the method, through the LambdaMetafactory when this class can link to the
+	 * method and its event type, through a MethodHandle otherwise
+	 */
+	static Invoker compile(Object target, Method method) {
+		Class<?> declaringClass = method.getDeclaringClass();
+		Class<?> eventType = method.getParameterTypes()[0];
+		try {
+			if (Modifier.isPublic(method.getModifiers()) && isLinkable(declaringClass) && isLinkable(eventType)) {
+				MethodHandle handle = LOOKUP.unreflect(method);
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "invoke", MethodType.methodType(Invoker.class, declaringClass),
+						MethodType.methodType(void.class, Object.class), handle, MethodType.methodType(void.class, eventType));
+				return (Invoker) site.getTarget().invoke(target);
+			}
+		} catch (Throwable e) {
+			// falls back to a MethodHandle
+		}
+
+		try {
+			method.setAccessible(true);
+			MethodHandle handle = LOOKUP.unreflect(method).bindTo(target).asType(MethodType.methodType(void.class, Object.class));
+			return event -> {
+				handle.invokeExact(event);
+			};
+		} catch (IllegalAccessException | RuntimeException e) {
+			throw new IllegalArgumentException("Cannot compile a call to subscriber method " + method, e);
+		}
+	}
+
+	/**
+	 * @return true if the class is public, as the classes enclosing it, and resolved by name from the
+	 *         class loader of this class, which defines the generated invokers
+	 */
+	private static boolean isLinkable(Class<?> clz) {
+		while (clz.isArray()) {
+			clz = clz.getComponentType();
+		}
+		for (Class<?> c = clz; c != null; c = c.getEnclosingClass()) {
+			if (!Modifier.isPublic(c.getModifiers())) {
+				return false;
+			}
+		}
+		try {
+			return Class.forName(clz.getName(), false, CompiledEventBus.class.getClassLoader()) == clz;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Compiles the {@link Subscribe} methods of the object and adds them to the dispatch table, a
+	 * method already registered for the object being kept as is
+	 */
+	@Override
+	public void register(Object object) {
+		Method[] methods = SUBSCRIBER_METHODS.get(object.getClass());
+		if (methods.length == 0) {
+			return;
+		}
+		List<CompiledSubscriber> subscribers = new ArrayList<>(methods.length);
+		for (Method method : methods) {
+			subscribers.add(new CompiledSubscriber(object, method));
+		}
+
+		synchronized (registrationLock) {
+			Map<Class<?>, CompiledSubscriber[]> byType = new HashMap<>(table.byType);
+			for (CompiledSubscriber subscriber : subscribers) {
+				CompiledSubscriber[] ofType = byType.getOrDefault(subscriber.eventType, NONE);
+				if (indexOf(ofType, subscriber) < 0) {
+					ofType = Arrays.copyOf(ofType, ofType.length + 1);
+					ofType[ofType.length - 1] = subscriber;
+					byType.put(subscriber.eventType, ofType);
+				}
+			}
+			table = new DispatchTable(byType, table);
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the object is not registered
+	 */
+	@Override
+	public void unregister(Object object) {
+		Method[] methods = SUBSCRIBER_METHODS.get(object.getClass());
+		if (methods.length == 0) {
+			return;
+		}
+
+		synchronized (registrationLock) {
+			Map<Class<?>, CompiledSubscriber[]> byType = new HashMap<>(table.byType);
+			for (Method method : methods) {
+				Class<?> eventType = method.getParameterTypes()[0];
+				CompiledSubscriber[] ofType = byType.getOrDefault(eventType, NONE);
+				int index = -1;
+				for (int i = 0; i < ofType.length; i++) {
+					if (ofType[i].target == object && ofType[i].method.equals(method)) {
+						index = i;
+						break;
+					}
+				}
+				checkArgument(index >= 0, "missing event subscriber for an annotated method. Is %s registered?", object);
+				if (ofType.length == 1) {
+					byType.remove(eventType);
+				} else {
+					CompiledSubscriber[] remaining = new CompiledSubscriber[ofType.length - 1];
+					System.arraycopy(ofType, 0, remaining, 0, index);
+					System.arraycopy(ofType, index + 1, remaining, index, ofType.length - index - 1);
+					byType.put(eventType, remaining);
+				}
+			}
+			table = new DispatchTable(byType, table);
+		}
+	}
+
+	private static int indexOf(CompiledSubscriber[] subscribers, CompiledSubscriber subscriber) {
+		for (int i = 0; i < subscribers.length; i++) {
+			if (subscribers[i].sameAs(subscriber)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void post(Object event) {
+		PostQueue postQueue = postQueues.get();
+		if (postQueue.dispatching) {
+			postQueue.events.add(event);
+			return;
+		}
+		postQueue.dispatching = true;
+		try {
+			dispatch(event);
+			Object next;
+			while ((next = postQueue.events.poll()) != null) {
+				dispatch(next);
+			}
+		} finally {
+			postQueue.events.clear();
+			postQueue.dispatching = false;
+		}
+	}
+
+	private void dispatch(Object event) {
+		CompiledSubscriber[] subscribers = table.subscribers(event.getClass());
+		if (subscribers.length == 0) {
+			if (!(event instanceof DeadEvent)) {
+				dispatch(new DeadEvent(this, event));
+			}
+			return;
+		}
+		for (CompiledSubscriber subscriber : subscribers) {
+			try {
+				subscriber.dispatch(event);
+			} catch (Throwable e) {
+				log.error("Subscriber {} failed on event {} with error {}", subscriber, event, e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		int count = 0;
+		for (CompiledSubscriber[] subscribers : table.byType.values()) {
+			count += subscribers.length;
+		}
+		return "CompiledEventBus{" + identifier() + ", subscribers=" + count + "}";
+	}
+}
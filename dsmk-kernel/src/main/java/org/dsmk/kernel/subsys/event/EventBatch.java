@@ -0,0 +1,50 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Events of one type posted together, as received by the {@link SubscribeBatch} methods. The events
+ * are in the order they were posted, conflated ones being at the place of their latest update.
+ *
+ * @param <E>
+ *            the type of the events
+ */
+public final class EventBatch<E> implements Iterable<E> {
+
+	private final Class<? extends E> type;
+	private final List<E> events;
+
+	EventBatch(Class<? extends E> type, List<E> events) {
+		this.type = type;
+		this.events = events;
+	}
+
+	/**
+	 * @return the class of every event of the batch
+	 */
+	public Class<? extends E> type() {
+		return type;
+	}
+
+	/**
+	 * @return the events, an immutable list
+	 */
+	public List<E> events() {
+		return events;
+	}
+
+	public int size() {
+		return events.size();
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return events.iterator();
+	}
+
+	@Override
+	public String toString() {
+		return "EventBatch [" + type.getName() + " x " + events.size() + "]";
+	}
+}
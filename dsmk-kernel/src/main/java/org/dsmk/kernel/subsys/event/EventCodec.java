@@ -0,0 +1,39 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns events into the bytes of a {@link JournalEventBus} record and back. Encoding writes into a
+ * buffer the posting thread reuses, so an encoder which does not allocate keeps the whole write path
+ * allocation free. Encoders are called from any number of threads at once.
+ */
+public interface EventCodec {
+
+	/**
+	 * Writes the event at the position of the target, advancing it past the bytes written
+	 *
+	 * @param event
+	 * @param target
+	 * @return false if the event is not to be journaled, nothing having been written
+	 * @throws java.nio.BufferOverflowException
+	 *             if the event does not fit in the remaining bytes
+	 */
+	boolean encode(Object event, ByteBuffer target);
+
+	/**
+	 * @param source
+	 *            the bytes of one encoded event, from its position to its limit
+	 * @return the event
+	 */
+	Object decode(ByteBuffer source);
+
+	/**
+	 * Compaction only keeps the latest event of every key
+	 *
+	 * @param event
+	 * @return the key of the event or null if the event is always kept
+	 */
+	default Object key(Object event) {
+		return null;
+	}
+}
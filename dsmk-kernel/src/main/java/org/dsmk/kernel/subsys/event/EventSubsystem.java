@@ -1,12 +1,19 @@
 package org.dsmk.kernel.subsys.event;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.UUID;
 
 import javax.naming.NamingException;
 
+import org.dsmk.api.Config;
+import org.dsmk.api.ConfigServer;
 import org.dsmk.api.Log;
 import org.dsmk.api.LogServer;
 import org.dsmk.api.NameServer;
@@ -14,6 +21,7 @@ import org.dsmk.api.NameServer.NameRegistration;
 import org.dsmk.api.Result;
 import org.dsmk.api.Result.Status;
 import org.dsmk.api.Subsystem;
+import org.dsmk.kernel.ConfigSnapshot;
 
 import com.github.krukow.clj_lang.PersistentHashMap;
 import com.google.common.base.Preconditions;
@@ -26,16 +34,32 @@ public class EventSubsystem implements Subsystem {
 	
 	private static final Map<String, Object> persistentMap;
 	static {
-		Map<String, Object> tempMap = new HashMap();
+		Map<String, Object> tempMap = new HashMap<>();
 		tempMap.put("UUID", uuid);
 		tempMap.put("NAME", NAME);
+		tempMap.put(Subsystem.REQUIRES, new String[] { LogServer.class.getName() });
+		tempMap.put(Subsystem.PROVIDES, new String[] { EventBus.class.getName() });
 		persistentMap = PersistentHashMap.create(tempMap);
 	}
 	
+	static final String ENGINE_PROPERTY = "dsmk.subsys.event.engine";
+	static final String RING_SIZE_PROPERTY = "dsmk.subsys.event.ringbuffer.size";
+	static final String RING_CONSUMERS_PROPERTY = "dsmk.subsys.event.ringbuffer.consumers";
+	static final String RING_WAIT_PROPERTY = "dsmk.subsys.event.ringbuffer.wait";
+	static final String QUEUE_CAPACITY_PROPERTY = "dsmk.subsys.event.queue.capacity";
+	static final String QUEUE_OVERFLOW_PROPERTY = "dsmk.subsys.event.queue.overflow";
+	static final String CONFLATION_WINDOW_PROPERTY = "dsmk.subsys.event.conflation.window.ms";
+	static final String JOURNAL_PREFIX = "dsmk.subsys.event.journal";
+	static final String BRIDGE_PREFIX = "dsmk.subsys.event.bridge";
+	
 	private NameServer nameServer;
 	
 	private NameRegistration eventBusRegistration;
 	
+	private EventBus eventBus;
+	
+	private Config configuration = ConfigSnapshot.of(new Properties(), 0);
+	
 	private Log log;
 
 	private ResourceBundle messages;
@@ -69,7 +93,13 @@ public class EventSubsystem implements Subsystem {
 		
 		log.debug("Starting eventbus...");
 		
-		EventBus eventBus = new EventBus("eventbus");
+		try {
+			eventBus = createEventBus();
+		} catch (RuntimeException e) {
+			e.printStackTrace(System.err);
+			log.error("Failed to create eventbus due to {}",e.getMessage() );
+			return new Result(Status.NOT_OK,"dsmk.event.eventbus.notok","dsmk.event.eventbus.start.err");
+		}
 		
 		try {
 			eventBusRegistration = nameServer.register(EventBus.class.getName(), eventBus);
@@ -79,10 +109,145 @@ public class EventSubsystem implements Subsystem {
 			return new Result(Status.NOT_OK,"dsmk.event.eventbus.notok","dsmk.event.eventbus.start.err");
 		}
 		
-		log.debug("Started & Registered eventbus...");
+		log.debug("Started & Registered eventbus {}...", eventBus);
 		return	Result.OK;
 	}
 
+	/**
+	 * Creates the engine selected by dsmk.subsys.event.engine, either the plain synchronous Guava
+	 * EventBus (guava, the default), a CompiledEventBus dispatching synchronously through compiled
+	 * invokers (compiled), a RingBufferEventBus dispatching through the Guava one (ringbuffer) or a
+	 * SubscriberQueueEventBus giving every subscriber its own bounded queue (queued). The engine is
+	 * behind a BatchEventBus, conflating over dsmk.subsys.event.conflation.window.ms and passing the
+	 * events straight through until a SubscribeBatch method or a conflation needs it, then behind a
+	 * JournalEventBus when dsmk.subsys.event.journal.enabled is true and behind a SharedMemoryEventBus
+	 * when dsmk.subsys.event.bridge.enabled is true
+	 * 
+	 * @return
+	 */
+	private EventBus createEventBus() {
+		EventBus engineBus = createEngine();
+		try {
+			engineBus = new BatchEventBus("eventbus-batch", engineBus, configuration.getLong(CONFLATION_WINDOW_PROPERTY, 0), log);
+		} catch (RuntimeException e) {
+			shutdown(engineBus);
+			throw e;
+		}
+		EventBus journalBus;
+		try {
+			journalBus = createJournal(engineBus);
+		} catch (RuntimeException e) {
+			shutdown(engineBus);
+			throw e;
+		}
+		try {
+			return createBridge(journalBus);
+		} catch (RuntimeException e) {
+			shutdown(journalBus);
+			throw e;
+		}
+	}
+
+	private EventBus createJournal(EventBus engineBus) {
+		Config journal = configuration.scope(JOURNAL_PREFIX);
+		if (!journal.getBoolean("enabled", false)) {
+			return engineBus;
+		}
+		try {
+			return new JournalEventBus("eventbus-journal", engineBus, Paths.get(journal.getString("dir", "journal").trim()),
+					journal.getInt("segment.bytes", 67108864), createCodec(journal, JOURNAL_PREFIX), journal.getInt("fsync.events", 0),
+					journal.getLong("fsync.interval.ms", 1000), journal.getInt("retention.segments", 0),
+					journal.getLong("retention.ms", 0), journal.getBoolean("compaction", false), log);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to open the event journal - " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Bridges the bus with the other kernels of the host through the queue files of
+	 * dsmk.subsys.event.bridge.out and .in, forwarding the events of the classes listed in .types
+	 */
+	private EventBus createBridge(EventBus bus) {
+		Config bridge = configuration.scope(BRIDGE_PREFIX);
+		if (!bridge.getBoolean("enabled", false)) {
+			return bus;
+		}
+		List<Class<?>> types = new ArrayList<>();
+		for (String className : bridge.getList("types")) {
+			try {
+				types.add(Class.forName(className));
+			} catch (ClassNotFoundException e) {
+				throw new IllegalArgumentException(String.format("Unknown event type %s.types=%s", BRIDGE_PREFIX, className), e);
+			}
+		}
+		String outbound = bridge.getString("out", "").trim();
+		String inbound = bridge.getString("in", "").trim();
+		SharedMemoryEventBus bridgeBus;
+		try {
+			bridgeBus = new SharedMemoryEventBus("eventbus-bridge", bus, outbound.isEmpty() ? null : Paths.get(outbound),
+					inbound.isEmpty() ? null : Paths.get(inbound), bridge.getInt("capacity", 16777216), types,
+					createCodec(bridge, BRIDGE_PREFIX), bridge.getInt("max.event.bytes", 65536),
+					OverflowPolicy.of(bridge.getString("overflow", "block")), WaitStrategy.of(bridge.getString("wait", "yield")),
+					bridge.getLong("stall.ms", 10000), log);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to map the event bridge queues - " + e.getMessage(), e);
+		}
+		try {
+			bridgeBus.start();
+		} catch (IOException e) {
+			bridgeBus.shutdown();
+			throw new IllegalStateException("Unable to consume the event bridge queue - " + e.getMessage(), e);
+		}
+		return bridgeBus;
+	}
+
+	private static void shutdown(EventBus bus) {
+		if (bus instanceof ForwardingEventBus) {
+			((ForwardingEventBus) bus).shutdown();
+		}
+	}
+
+	private EventCodec createCodec(Config settings, String prefix) {
+		String className = settings.getString("codec", CharSequenceEventCodec.class.getName()).trim();
+		try {
+			return (EventCodec) Class.forName(className).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalArgumentException(String.format("Invalid event codec %s.codec=%s", prefix, className), e);
+		}
+	}
+
+	private EventBus createEngine() {
+		EventBus guavaBus = new EventBus("eventbus");
+		String engine = configuration.getString(ENGINE_PROPERTY, "guava").trim();
+		switch (engine) {
+		case "guava":
+			return guavaBus;
+		case "compiled":
+			return new CompiledEventBus("eventbus-compiled", log);
+		case "ringbuffer":
+			RingBufferEventBus ringBus = new RingBufferEventBus("eventbus-ring", guavaBus,
+					configuration.getInt(RING_SIZE_PROPERTY, 1024), configuration.getInt(RING_CONSUMERS_PROPERTY, 1),
+					WaitStrategy.of(configuration.getString(RING_WAIT_PROPERTY, "block")), log);
+			ringBus.start();
+			return ringBus;
+		case "queued":
+			Map<String, Integer> capacities = new HashMap<>();
+			Map<String, OverflowPolicy> policies = new HashMap<>();
+			Config capacityOverrides = configuration.scope(QUEUE_CAPACITY_PROPERTY);
+			for (String className : capacityOverrides.keys()) {
+				capacities.put(className, capacityOverrides.getInt(className, 0));
+			}
+			Config policyOverrides = configuration.scope(QUEUE_OVERFLOW_PROPERTY);
+			for (String className : policyOverrides.keys()) {
+				policies.put(className, OverflowPolicy.of(policyOverrides.getString(className)));
+			}
+			return new SubscriberQueueEventBus("eventbus-queued", guavaBus, configuration.getInt(QUEUE_CAPACITY_PROPERTY, 1024),
+					OverflowPolicy.of(configuration.getString(QUEUE_OVERFLOW_PROPERTY, "block")), capacities, policies, log);
+		default:
+			throw new IllegalArgumentException(String.format("Unknown event engine %s=%s", ENGINE_PROPERTY, engine));
+		}
+	}
+
 	@Override
 	public Result stop() {
 		log.debug("Stopping eventbus..");
@@ -98,6 +263,8 @@ public class EventSubsystem implements Subsystem {
 			return new Result(Status.NOT_OK,"dsmk.event.eventbus.notok","dsmk.event.eventbus.stop.err");
 		}
 		
+		shutdown(eventBus);
+		
 		return Result.OK;
 	}
 
@@ -107,8 +274,14 @@ public class EventSubsystem implements Subsystem {
 		
 		Preconditions.checkArgument(nameServer != null, "A valid instance of %s is required for configuring EventSubsystem %s",NameServer.class.getName(),name());
 		
+		if (config.get("config-server") instanceof ConfigServer) {
+			configuration = ((ConfigServer) config.get("config-server")).current();
+		} else if (config.get("config-properties") instanceof Properties) {
+			configuration = ConfigSnapshot.of((Properties) config.get("config-properties"), 0);
+		}
+		
 		try {
-			LogServer logServer = nameServer.lookup1(LogServer.class.getName(),LogServer.class);
+			LogServer logServer = nameServer.lookup1(LogServer.class);
 			log = logServer.getLog(this);
 		} catch (NamingException e) {
 			e.printStackTrace(System.err);
@@ -0,0 +1,95 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.util.function.Function;
+
+import com.google.common.eventbus.EventBus;
+
+/**
+ * Base for the event engines layered over another EventBus. Subscribers are registered with the
+ * delegate which does the dispatching, the engine decides how and when events reach it.
+ */
+public abstract class ForwardingEventBus extends EventBus {
+
+	protected final EventBus delegate;
+
+	protected ForwardingEventBus(String identifier, EventBus delegate) {
+		super(identifier);
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void register(Object object) {
+		delegate.register(object);
+	}
+
+	@Override
+	public void unregister(Object object) {
+		delegate.unregister(object);
+	}
+
+	@Override
+	public void post(Object event) {
+		delegate.post(event);
+	}
+
+	/**
+	 * Posts a batch of events, each engine passing it on as a batch to the next one down to the
+	 * {@link BatchEventBus}. Over a plain EventBus the events are posted one by one.
+	 *
+	 * @param events
+	 */
+	public void postAll(Iterable<?> events) {
+		if (delegate instanceof ForwardingEventBus) {
+			((ForwardingEventBus) delegate).postAll(events);
+		} else {
+			for (Object event : events) {
+				delegate.post(event);
+			}
+		}
+	}
+
+	/**
+	 * Conflates the events of a type by key, see {@link BatchEventBus#conflate(Class, Function)}
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if no {@link BatchEventBus} is layered under this engine
+	 */
+	public <E> void conflate(Class<E> type, Function<? super E, ?> key) {
+		if (!(delegate instanceof ForwardingEventBus)) {
+			throw new UnsupportedOperationException("No engine of " + this + " conflates events");
+		}
+		((ForwardingEventBus) delegate).conflate(type, key);
+	}
+
+	/**
+	 * Finds an engine of the layers, such as the {@link JournalEventBus} to replay from under a
+	 * {@link SharedMemoryEventBus}
+	 *
+	 * @param type
+	 * @return this engine or the first one layered under it of the type, null if none is
+	 */
+	public <T extends EventBus> T unwrap(Class<T> type) {
+		if (type.isInstance(this)) {
+			return type.cast(this);
+		}
+		if (delegate instanceof ForwardingEventBus) {
+			return ((ForwardingEventBus) delegate).unwrap(type);
+		}
+		return type.isInstance(delegate) ? type.cast(delegate) : null;
+	}
+
+	/**
+	 * Releases the resources held by the engine, the delegate is shut down as well if it is a
+	 * ForwardingEventBus
+	 */
+	public void shutdown() {
+		if (delegate instanceof ForwardingEventBus) {
+			((ForwardingEventBus) delegate).shutdown();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "{" + identifier() + " -> " + delegate + "}";
+	}
+}
@@ -0,0 +1,691 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.dsmk.api.Log;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * EventBus writing every posted event to an append-only journal before passing it on to the delegate,
+ * so that events can be replayed after a restart. Layered under other engines, such as the event
+ * bridge, it is found with {@link ForwardingEventBus#unwrap(Class)} on the registered EventBus. The
+ * journal is a directory of segments, files named after the offset of their first event and memory
+ * mapped whole, each record being
+ * <p>
+ * <code>int size | int crc32 of the payload | long offset | payload written by the EventCodec</code>
+ * <p>
+ * Appending takes no lock: the event is encoded into a buffer of the posting thread, which then
+ * claims the bytes and the offset of its record together with a compare-and-set on the active
+ * segment, copies the record there and stores its size last, so that the readers, which read the size
+ * first, never see a record partly written. Nothing is allocated per event. The segments are forced
+ * to disk every fsyncEvents events and every fsyncIntervalMillis, otherwise when the operating system
+ * writes them back. A record cut short by a crash fails its checksum and ends the journal when it is
+ * reopened.
+ * <p>
+ * When a segment is full a new one is begun, the oldest segments are deleted beyond the retention and,
+ * with compaction, the full segments are rewritten in the background keeping only the latest event of
+ * every key (see {@link EventCodec#key(Object)}). Offsets are never reused, so a compacted journal
+ * has gaps.
+ */
+public class JournalEventBus extends ForwardingEventBus {
+
+	static final int HEADER_BYTES = 16;
+
+	static final String SEGMENT_SUFFIX = ".journal";
+
+	private static final String COMPACTING_SUFFIX = ".compacting";
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+	/**
+	 * set in the claim state of a segment no record is appended to any more
+	 */
+	private static final long SEALED = 1L << 63;
+
+	/**
+	 * One journal file
+	 */
+	static final class Segment {
+
+		final Path path;
+		final long baseOffset;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		final long address;
+
+		/**
+		 * the number of records claimed in the high half and the bytes in the low one, appended to by a
+		 * compare-and-set
+		 */
+		final AtomicLong claimed = new AtomicLong();
+
+		Segment(Path path, long baseOffset, FileChannel channel, MappedByteBuffer buffer) {
+			this.path = path;
+			this.baseOffset = baseOffset;
+			this.channel = channel;
+			this.buffer = buffer;
+			this.address = UnsafeMemory.address(buffer);
+		}
+
+		/**
+		 * @return the end of the bytes claimed, records being committed up to there or on their way
+		 */
+		int end() {
+			return (int) claimed.get();
+		}
+
+		/**
+		 * @return the offset of the next record appended
+		 */
+		long nextOffset() {
+			return baseOffset + ((claimed.get() & ~SEALED) >>> 32);
+		}
+
+		/**
+		 * @return the position of the bytes claimed and, in the high half, the index of the record from
+		 *         the base offset, -1 if the segment is full or sealed
+		 */
+		long claim(int size) {
+			long state;
+			long next;
+			do {
+				state = claimed.get();
+				int end = (int) state;
+				if (state < 0 || end + (long) size > buffer.capacity()) {
+					return -1;
+				}
+				next = (state & ~0xffffffffL) + (1L << 32) + end + size;
+			} while (!claimed.compareAndSet(state, next));
+			return state;
+		}
+
+		/**
+		 * Stops the appends
+		 */
+		void seal() {
+			long state;
+			do {
+				state = claimed.get();
+			} while (state >= 0 && !claimed.compareAndSet(state, state | SEALED));
+		}
+
+		/**
+		 * Stores the size of a record after its bytes, committing it
+		 */
+		void commit(int position, int size) {
+			UnsafeMemory.putOrderedInt(address + position, BIG_ENDIAN ? size : Integer.reverseBytes(size));
+		}
+
+		/**
+		 * @return the size of the record at the position, 0 if not committed yet
+		 */
+		int size(int position) {
+			int size = UnsafeMemory.getIntVolatile(address + position);
+			return BIG_ENDIAN ? size : Integer.reverseBytes(size);
+		}
+
+		void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace(System.err);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return path.getFileName().toString();
+		}
+	}
+
+	private final Path directory;
+	private final int segmentBytes;
+	private final EventCodec codec;
+	private final int fsyncEvents;
+	private final int retentionSegments;
+	private final long retentionMillis;
+	private final boolean compaction;
+	private final Log log;
+
+	/**
+	 * The buffer a thread encodes its events into, grown as needed, and its view of the active segment
+	 */
+	private static final class Writer {
+
+		final CRC32 crc = new CRC32();
+		ByteBuffer scratch;
+		Segment segment;
+		ByteBuffer view;
+
+		Writer(int segmentBytes) {
+			this.scratch = ByteBuffer.allocate(Math.min(4096, segmentBytes - HEADER_BYTES));
+		}
+
+		ByteBuffer view(Segment active) {
+			if (segment != active) {
+				segment = active;
+				view = active.buffer.duplicate();
+			}
+			return view;
+		}
+	}
+
+	private final ThreadLocal<Writer> writers;
+
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * oldest first, the last one is the active segment, guarded by this
+	 */
+	private final List<Segment> segments = new ArrayList<>();
+
+	private volatile Segment active;
+	private final AtomicInteger unsynced = new AtomicInteger();
+	private volatile boolean closed;
+
+	private final ScheduledExecutorService maintenance;
+
+	/**
+	 * @param identifier
+	 * @param delegate
+	 *            the bus the events are passed on to, after being journaled
+	 * @param directory
+	 *            created if missing, the existing segments are recovered
+	 * @param segmentBytes
+	 *            size of a segment, the largest event must fit in one
+	 * @param codec
+	 * @param fsyncEvents
+	 *            number of events after which the active segment is forced to disk, 0 for never
+	 * @param fsyncIntervalMillis
+	 *            interval at which the active segment is forced to disk, 0 for never
+	 * @param retentionSegments
+	 *            number of segments kept, 0 for no limit
+	 * @param retentionMillis
+	 *            age after which a full segment is deleted, 0 for no limit
+	 * @param compaction
+	 *            whether full segments are compacted
+	 * @param log
+	 * @throws IOException
+	 *             if the journal cannot be opened
+	 */
+	public JournalEventBus(String identifier, EventBus delegate, Path directory, int segmentBytes, EventCodec codec, int fsyncEvents,
+			long fsyncIntervalMillis, int retentionSegments, long retentionMillis, boolean compaction, Log log) throws IOException {
+		super(identifier, delegate);
+
+		checkArgument(segmentBytes > HEADER_BYTES, "Journal segment size %s is too small", segmentBytes);
+		checkArgument(fsyncEvents >= 0 && fsyncIntervalMillis >= 0, "Journal fsync settings cannot be negative");
+
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		this.codec = codec;
+		this.fsyncEvents = fsyncEvents;
+		this.retentionSegments = retentionSegments;
+		this.retentionMillis = retentionMillis;
+		this.compaction = compaction;
+		this.log = log;
+		this.writers = ThreadLocal.withInitial(() -> new Writer(segmentBytes));
+
+		Files.createDirectories(directory);
+		recover();
+
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat(identifier + "-maintenance").setDaemon(true).build());
+		if (fsyncIntervalMillis > 0) {
+			maintenance.scheduleWithFixedDelay(this::sync, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void recover() throws IOException {
+		// left by a compaction cut short, the segment it was made from is still there
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX + COMPACTING_SUFFIX)) {
+			for (Path file : stream) {
+				Files.deleteIfExists(file);
+				log.info("Deleted the unfinished event journal compaction {}", file);
+			}
+		}
+
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		files.sort((a, b) -> Long.compare(baseOffset(a), baseOffset(b)));
+
+		for (int i = 0; i < files.size(); i++) {
+			boolean last = i == files.size() - 1;
+			Path file = files.get(i);
+			Segment segment = open(file, baseOffset(file), last ? Math.max(segmentBytes, (int) Files.size(file)) : (int) Files.size(file));
+			int end = scan(segment);
+			if (last) {
+				// the records of the active segment have every offset from its base on
+				long records = 0;
+				for (int position = 0; position < end; position += segment.size(position)) {
+					records++;
+				}
+				segment.claimed.set(records << 32 | end);
+				active = segment;
+			} else {
+				segment.claimed.set(SEALED | end);
+			}
+			segments.add(segment);
+		}
+
+		if (active == null) {
+			active = open(segmentPath(0), 0, segmentBytes);
+			segments.add(active);
+		}
+		log.info("Opened event journal {} with {} segment(s), next offset {}", directory, segments.size(), active.nextOffset());
+	}
+
+	/**
+	 * Finds the end of the valid records of a segment
+	 *
+	 * @return the end of the last valid record
+	 */
+	private int scan(Segment segment) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		int position = 0;
+		while (position + HEADER_BYTES <= buffer.capacity()) {
+			int size = buffer.getInt(position);
+			if (size < HEADER_BYTES || position + size > buffer.capacity()) {
+				break;
+			}
+			buffer.limit(position + size).position(position + HEADER_BYTES);
+			crc.reset();
+			crc.update(buffer);
+			buffer.limit(buffer.capacity());
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				log.warn("Event journal {} ends with a damaged record at byte {}, it is discarded", segment, position);
+				break;
+			}
+			position += size;
+		}
+		return position;
+	}
+
+	private static long baseOffset(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private Path segmentPath(long baseOffset) {
+		return directory.resolve(String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+	}
+
+	private static Segment open(Path file, long baseOffset, int size) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			return new Segment(file, baseOffset, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void post(Object event) {
+		append(event);
+		delegate.post(event);
+	}
+
+	/**
+	 * Journals the events one by one, then passes the batch on
+	 */
+	@Override
+	public void postAll(Iterable<?> events) {
+		for (Object event : events) {
+			append(event);
+		}
+		super.postAll(events);
+	}
+
+	private void append(Object event) {
+		if (closed) {
+			return;
+		}
+		Writer writer = writers.get();
+		ByteBuffer scratch = encode(event, writer);
+		if (scratch == null) {
+			return;
+		}
+		int size = HEADER_BYTES + scratch.remaining();
+		writer.crc.reset();
+		writer.crc.update(scratch);
+		scratch.flip();
+
+		Segment segment;
+		long claim;
+		while ((claim = (segment = active).claim(size)) < 0) {
+			if (segment.end() == 0) {
+				log.warn("Event {} does not fit in an event journal segment of {} bytes, it is not journaled", event, segmentBytes);
+				return;
+			}
+			if (!roll(segment)) {
+				return;
+			}
+		}
+		int start = (int) claim;
+		ByteBuffer view = writer.view(segment);
+		view.limit(start + size).position(start + HEADER_BYTES);
+		view.put(scratch);
+		view.putInt(start + 4, (int) writer.crc.getValue());
+		view.putLong(start + 8, segment.baseOffset + (claim >>> 32));
+		// the size goes last, it is what makes the record visible
+		segment.commit(start, size);
+
+		int pending = unsynced.incrementAndGet();
+		if (fsyncEvents > 0 && pending >= fsyncEvents && unsynced.compareAndSet(pending, 0)) {
+			segment.buffer.force();
+		}
+	}
+
+	/**
+	 * Encodes the event into the buffer of the thread, growing it up to the payload a segment holds
+	 *
+	 * @return the payload from position to limit, null if the event is not to be journaled or too large
+	 */
+	private ByteBuffer encode(Object event, Writer writer) {
+		while (true) {
+			ByteBuffer scratch = writer.scratch;
+			scratch.clear();
+			try {
+				if (!codec.encode(event, scratch)) {
+					return null;
+				}
+				scratch.flip();
+				return scratch;
+			} catch (BufferOverflowException e) {
+				int capacity = segmentBytes - HEADER_BYTES;
+				if (scratch.capacity() >= capacity) {
+					log.warn("Event {} does not fit in an event journal segment of {} bytes, it is not journaled", event, segmentBytes);
+					return null;
+				}
+				writer.scratch = ByteBuffer.allocate((int) Math.min(capacity, 2L * scratch.capacity()));
+			}
+		}
+	}
+
+	/**
+	 * Seals the full segment and begins the next one, unless another thread did already
+	 *
+	 * @return false if no segment could be begun
+	 */
+	private synchronized boolean roll(Segment full) {
+		if (active != full) {
+			return true;
+		}
+		if (closed) {
+			return false;
+		}
+		full.seal();
+		full.buffer.force();
+		unsynced.set(0);
+		long nextOffset = full.nextOffset();
+		try {
+			active = open(segmentPath(nextOffset), nextOffset, segmentBytes);
+		} catch (IOException e) {
+			e.printStackTrace(System.err);
+			log.error("Unable to begin a new event journal segment - {}", e.getMessage());
+			return false;
+		}
+		segments.add(active);
+
+		applyRetention();
+
+		if (compaction && segments.size() > 1) {
+			maintenance.execute(this::compact);
+		}
+		return true;
+	}
+
+	private void applyRetention() {
+		long expiredBefore = retentionMillis > 0 ? System.currentTimeMillis() - retentionMillis : Long.MIN_VALUE;
+		while (segments.size() > 1) {
+			Segment oldest = segments.get(0);
+			if (!(retentionSegments > 0 && segments.size() > retentionSegments) && !expired(oldest, expiredBefore)) {
+				break;
+			}
+			segments.remove(0);
+			oldest.close();
+			try {
+				Files.deleteIfExists(oldest.path);
+				log.debug("Deleted event journal segment {}", oldest);
+			} catch (IOException e) {
+				e.printStackTrace(System.err);
+			}
+		}
+	}
+
+	private static boolean expired(Segment segment, long expiredBefore) {
+		try {
+			return Files.getLastModifiedTime(segment.path).toMillis() < expiredBefore;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Rewrites the full segments keeping, for every key, only the latest event. Runs on the
+	 * maintenance thread while events are appended to the active segment; a full segment whose last
+	 * records are still being written is left for the next compaction.
+	 */
+	private void compact() {
+		List<Segment> full;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			full = new ArrayList<>(segments.subList(0, segments.size() - 1));
+		}
+
+		Map<Object, Long> latest = new HashMap<>();
+		for (Segment segment : full) {
+			int end = segment.end();
+			if (forEachRecord(segment, end, (offset, payload) -> {
+				Object key = codec.key(codec.decode(payload));
+				if (key != null) {
+					latest.put(key, offset);
+				}
+			}) < end) {
+				return;
+			}
+		}
+		if (latest.isEmpty()) {
+			return;
+		}
+
+		for (Segment segment : full) {
+			try {
+				compact(segment, latest);
+			} catch (IOException e) {
+				e.printStackTrace(System.err);
+				log.error("Compacting event journal segment {} failed with error {}", segment, e.getMessage());
+			}
+		}
+	}
+
+	private void compact(Segment segment, Map<Object, Long> latest) throws IOException {
+		ByteBuffer source = segment.buffer.duplicate();
+		List<int[]> kept = new ArrayList<>();
+		int keptBytes = 0;
+		int end = segment.end();
+		int position = 0;
+		while (position < end) {
+			int size = source.getInt(position);
+			long offset = source.getLong(position + 8);
+			source.limit(position + size).position(position + HEADER_BYTES);
+			Object key = codec.key(codec.decode(source.slice()));
+			source.limit(source.capacity());
+			if (key == null || latest.get(key) == offset) {
+				kept.add(new int[] { position, size });
+				keptBytes += size;
+			}
+			position += size;
+		}
+		if (keptBytes == end) {
+			return;
+		}
+
+		Path compacted = segment.path.resolveSibling(segment.path.getFileName() + COMPACTING_SUFFIX);
+		try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			for (int[] record : kept) {
+				source.limit(record[0] + record[1]).position(record[0]);
+				while (source.hasRemaining()) {
+					channel.write(source);
+				}
+				source.limit(source.capacity());
+			}
+			channel.force(true);
+		}
+
+		synchronized (this) {
+			int index = segments.indexOf(segment);
+			if (closed || index < 0) {
+				Files.deleteIfExists(compacted);
+				return;
+			}
+			Files.move(compacted, segment.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Segment replacement = open(segment.path, segment.baseOffset, keptBytes);
+			replacement.claimed.set(SEALED | keptBytes);
+			segments.set(index, replacement);
+			segment.close();
+		}
+		log.debug("Compacted event journal segment {} from {} to {} bytes", segment, end, keptBytes);
+	}
+
+	interface RecordConsumer {
+
+		void accept(long offset, ByteBuffer payload);
+	}
+
+	/**
+	 * Passes the records on up to the end or the first record not committed yet
+	 *
+	 * @return the end of the last record passed on
+	 */
+	private static int forEachRecord(Segment segment, int end, RecordConsumer consumer) {
+		ByteBuffer buffer = segment.buffer.duplicate();
+		int position = 0;
+		while (position < end) {
+			int size = segment.size(position);
+			if (size < HEADER_BYTES) {
+				break;
+			}
+			buffer.limit(position + size).position(position + HEADER_BYTES);
+			consumer.accept(buffer.getLong(position + 8), buffer.slice());
+			buffer.limit(buffer.capacity());
+			position += size;
+		}
+		return position;
+	}
+
+	/**
+	 * Posts the journaled events from the given offset on to the subscribers, oldest first, without
+	 * journaling them again. Events posted while replaying are not replayed. Subscribers usually
+	 * replay after registering, from the offset following the last event they processed.
+	 *
+	 * @param fromOffset
+	 *            0 for the whole journal
+	 * @return the number of events replayed
+	 */
+	public long replay(long fromOffset) {
+		List<Segment> snapshot;
+		Segment last;
+		int lastEnd;
+		synchronized (this) {
+			snapshot = new ArrayList<>(segments);
+			last = active;
+			lastEnd = active.end();
+		}
+
+		long[] replayed = new long[1];
+		for (int i = 0; i < snapshot.size(); i++) {
+			if (i + 1 < snapshot.size() && snapshot.get(i + 1).baseOffset <= fromOffset) {
+				continue;
+			}
+			Segment segment = snapshot.get(i);
+			forEachRecord(segment, segment == last ? lastEnd : segment.end(), (offset, payload) -> {
+				if (offset >= fromOffset) {
+					delegate.post(codec.decode(payload));
+					replayed[0]++;
+				}
+			});
+		}
+		log.info("Replayed {} event(s) from offset {} of the event journal", replayed[0], fromOffset);
+		return replayed[0];
+	}
+
+	/**
+	 * @return the offset the next event posted is journaled at
+	 */
+	public long nextOffset() {
+		return active.nextOffset();
+	}
+
+	private synchronized void sync() {
+		if (!closed && unsynced.getAndSet(0) > 0) {
+			active.buffer.force();
+		}
+	}
+
+	/**
+	 * Lets a compaction under way finish, then forces the journal to disk and closes it and shuts down
+	 * the delegate
+	 */
+	@Override
+	public void shutdown() {
+		maintenance.shutdown();
+		try {
+			if (!maintenance.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+				log.warn("Event journal compaction did not finish in {}s, it is abandoned", SHUTDOWN_TIMEOUT_SECONDS);
+				maintenance.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			maintenance.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (!closed) {
+				closed = true;
+				active.buffer.force();
+				for (Segment segment : segments) {
+					segment.close();
+				}
+			}
+		}
+		super.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return "JournalEventBus{" + identifier() + ", " + directory + ", codec=" + codec + " -> " + delegate + "}";
+	}
+}
@@ -0,0 +1,33 @@
+package org.dsmk.kernel.subsys.event;
+
+/**
+ * What a {@link SubscriberQueueEventBus} does with an event when the queue of a subscriber is full.
+ * BLOCK makes the publisher wait for room, DROP_OLDEST discards the event waiting the longest,
+ * DROP_NEWEST discards the posted event and FAIL rejects it with an IllegalStateException thrown to
+ * the publisher.
+ */
+public enum OverflowPolicy {
+
+	BLOCK, DROP_OLDEST, DROP_NEWEST, FAIL;
+
+	/**
+	 * @param name
+	 *            block, drop-oldest, drop-newest or fail
+	 * @return
+	 */
+	public static OverflowPolicy of(String name) {
+		switch (name.trim().toLowerCase()) {
+		case "block":
+			return BLOCK;
+		case "drop-oldest":
+			return DROP_OLDEST;
+		case "drop-newest":
+			return DROP_NEWEST;
+		case "fail":
+			return FAIL;
+		default:
+			throw new IllegalArgumentException(
+					String.format("Unknown overflow policy %s, expected block, drop-oldest, drop-newest or fail", name));
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.dsmk.api.Log;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Asynchronous EventBus backed by a preallocated ring buffer. Publishers claim a sequence, store the
+ * event in its slot and mark the slot published, so posting never allocates and never runs a
+ * subscriber. A pool of consumer threads takes the published sequences in turn and dispatches them
+ * through the delegate. The publisher only waits when the ring is full.
+ * <p>
+ * With a single consumer events are dispatched in the order they were posted. With more, consecutive
+ * events are dispatched concurrently by different consumers: a Guava subscriber may then receive them
+ * out of the order they were posted in, and receives them concurrently if marked
+ * AllowConcurrentEvents.
+ * <p>
+ * Shutting down closes the cursor in the same atomic operation which claims sequences, so that every
+ * event is either claimed before, and dispatched by the consumers before they stop, or after, and
+ * dispatched on the caller.
+ */
+public class RingBufferEventBus extends ForwardingEventBus {
+
+	/**
+	 * added to the cursor on shutdown, the sequences claimed from then on being at least CLOSED
+	 */
+	private static final long CLOSED = 1L << 62;
+
+	private final Object[] entries;
+	private final int mask;
+
+	/**
+	 * per slot, the sequence last published into it
+	 */
+	private final AtomicLongArray published;
+
+	/**
+	 * the last sequence claimed by a publisher
+	 */
+	private final AtomicLong cursor = new AtomicLong(-1);
+
+	/**
+	 * the last sequence claimed before shutdown, the last one the consumers dispatch
+	 */
+	private volatile long lastSequence = Long.MAX_VALUE;
+
+	/**
+	 * the last sequence claimed by a consumer
+	 */
+	private final AtomicLong workSequence = new AtomicLong(-1);
+
+	/**
+	 * per consumer, the sequence below which it has nothing left to dispatch
+	 */
+	private final AtomicLong[] consumerSequences;
+
+	private final AtomicLong gatingSequenceCache = new AtomicLong(-1);
+
+	private final WaitStrategy waitStrategy;
+
+	private final Thread[] consumers;
+
+	private final Log log;
+
+	private volatile boolean running;
+
+	private final WaitStrategy.Barrier barrier = new WaitStrategy.Barrier() {
+
+		@Override
+		public boolean isPublished(long sequence) {
+			return published.get((int) sequence & mask) == sequence;
+		}
+
+		@Override
+		public boolean isAlerted() {
+			return !running;
+		}
+	};
+
+	/**
+	 * @param identifier
+	 * @param delegate
+	 *            the bus dispatching to the subscribers
+	 * @param size
+	 *            number of slots, a power of two
+	 * @param consumerCount
+	 * @param waitStrategy
+	 * @param log
+	 */
+	public RingBufferEventBus(String identifier, EventBus delegate, int size, int consumerCount, WaitStrategy waitStrategy,
+			Log log) {
+		super(identifier, delegate);
+
+		checkArgument(size > 0 && Integer.bitCount(size) == 1, "Ring buffer size %s must be a power of 2", size);
+		checkArgument(consumerCount > 0, "At least one consumer is required, got %s", consumerCount);
+
+		this.entries = new Object[size];
+		this.mask = size - 1;
+		this.published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			published.set(i, -1);
+		}
+		this.waitStrategy = waitStrategy;
+		this.log = log;
+
+		this.consumerSequences = new AtomicLong[consumerCount];
+		this.consumers = new Thread[consumerCount];
+		ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(identifier + "-consumer-%d").setDaemon(true)
+				.build();
+		for (int i = 0; i < consumerCount; i++) {
+			AtomicLong sequence = new AtomicLong(-1);
+			consumerSequences[i] = sequence;
+			consumers[i] = threadFactory.newThread(() -> consume(sequence));
+		}
+	}
+
+	public void start() {
+		running = true;
+		for (Thread consumer : consumers) {
+			consumer.start();
+		}
+	}
+
+	/**
+	 * Stops the consumers once every event posted so far is dispatched
+	 */
+	@Override
+	public void shutdown() {
+		long claimed;
+		do {
+			claimed = cursor.get();
+		} while (claimed < CLOSED && !cursor.compareAndSet(claimed, claimed + CLOSED));
+		if (claimed < CLOSED) {
+			lastSequence = claimed;
+		}
+		running = false;
+		waitStrategy.signalAllWhenBlocking();
+		for (Thread consumer : consumers) {
+			try {
+				consumer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		super.shutdown();
+	}
+
+	@Override
+	public void post(Object event) {
+		if (!running) {
+			// not started or already stopped, dispatch on the caller so that nothing is lost
+			delegate.post(event);
+			return;
+		}
+
+		long sequence = cursor.incrementAndGet();
+		if (sequence >= CLOSED) {
+			// shut down since the check, the consumers stop short of this sequence
+			delegate.post(event);
+			return;
+		}
+		long wrapPoint = sequence - entries.length;
+
+		if (wrapPoint > gatingSequenceCache.get()) {
+			long gatingSequence;
+			while (wrapPoint > (gatingSequence = minimumConsumerSequence())) {
+				LockSupport.parkNanos(1L);
+			}
+			gatingSequenceCache.set(gatingSequence);
+		}
+
+		int index = (int) sequence & mask;
+		entries[index] = event;
+		published.lazySet(index, sequence);
+		waitStrategy.signalAllWhenBlocking();
+	}
+
+	private long minimumConsumerSequence() {
+		long minimum = Long.MAX_VALUE;
+		for (AtomicLong sequence : consumerSequences) {
+			minimum = Math.min(minimum, sequence.get());
+		}
+		return minimum;
+	}
+
+	private void consume(AtomicLong sequence) {
+		while (true) {
+			long next = workSequence.incrementAndGet();
+			sequence.lazySet(next - 1);
+
+			if (!waitStrategy.waitFor(next, barrier)) {
+				// halted, drain what was claimed by publishers before giving up
+				if (next > lastSequence) {
+					break;
+				}
+				while (!barrier.isPublished(next)) {
+					Thread.yield();
+				}
+			}
+
+			int index = (int) next & mask;
+			Object event = entries[index];
+			entries[index] = null;
+			try {
+				delegate.post(event);
+			} catch (RuntimeException e) {
+				log.error("Dispatching event {} failed with error {}", event, e.getMessage());
+			}
+		}
+		sequence.set(Long.MAX_VALUE);
+	}
+
+	public int size() {
+		return entries.length;
+	}
+
+	/**
+	 * @return the number of events posted but not yet taken by a consumer
+	 */
+	public long backlog() {
+		return Math.max(0, Math.min(cursor.get(), lastSequence) - workSequence.get());
+	}
+
+	@Override
+	public String toString() {
+		return "RingBufferEventBus{" + identifier() + ", size=" + entries.length + ", consumers=" + consumers.length
+				+ ", wait=" + waitStrategy + " -> " + delegate + "}";
+	}
+}
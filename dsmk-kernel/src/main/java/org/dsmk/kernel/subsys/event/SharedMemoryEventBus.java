@@ -0,0 +1,282 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.dsmk.api.Log;
+
+import com.google.common.eventbus.EventBus;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bridges the EventBus of this kernel with the ones of the other kernels of the host through
+ * {@link SharedMemoryQueue} files. Events of the forwarded types are encoded by the codec into the
+ * outbound queue, read by the kernel consuming it, besides being dispatched here. A consumer thread
+ * decodes the events of the inbound queue, which any number of kernels may write to, and dispatches
+ * them here only, so that an event never travels back. Posting encodes into a buffer of the thread
+ * and copies it to the queue, without allocating or making a system call.
+ * <p>
+ * When the outbound queue is full the post waits (BLOCK), drops the event (DROP_NEWEST) or throws an
+ * IllegalStateException (FAIL).
+ */
+public class SharedMemoryEventBus extends ForwardingEventBus {
+
+	private final SharedMemoryQueue outbound;
+	private final SharedMemoryQueue inbound;
+	private final EventCodec codec;
+	private final OverflowPolicy overflowPolicy;
+	private final WaitStrategy waitStrategy;
+	private final long stallMillis;
+	private final Log log;
+	private final Thread consumer;
+
+	private final ClassValue<Boolean> forwarded;
+	private final ThreadLocal<ByteBuffer> encodeBuffer;
+
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder received = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile boolean running;
+
+	private final WaitStrategy.Barrier barrier = new WaitStrategy.Barrier() {
+
+		@Override
+		public boolean isPublished(long sequence) {
+			return inbound.hasNext();
+		}
+
+		@Override
+		public boolean isAlerted() {
+			return !running;
+		}
+	};
+
+	/**
+	 * @param identifier
+	 * @param delegate
+	 *            the bus dispatching to the subscribers of this kernel
+	 * @param outbound
+	 *            the file of the queue the forwarded events are written to, null to forward none
+	 * @param inbound
+	 *            the file of the queue this kernel consumes, null to receive none
+	 * @param capacity
+	 *            bytes of the queues this kernel creates, a power of 2
+	 * @param types
+	 *            the events forwarded are the instances of these types
+	 * @param codec
+	 *            encodes the forwarded events and decodes the received ones, the same in every kernel
+	 * @param maxEventBytes
+	 *            the largest encoded event forwarded, larger ones being dropped
+	 * @param overflowPolicy
+	 *            BLOCK, DROP_NEWEST or FAIL
+	 * @param waitStrategy
+	 *            how the consumer waits for the next event, signals cannot cross processes so BLOCK
+	 *            polls every millisecond
+	 * @param stallMillis
+	 *            how long an event of the inbound queue may stay claimed but uncommitted, by a kernel
+	 *            which died writing it, before it is skipped
+	 * @param log
+	 * @throws IOException
+	 *             if a queue cannot be mapped
+	 */
+	public SharedMemoryEventBus(String identifier, EventBus delegate, Path outbound, Path inbound, int capacity,
+			List<Class<?>> types, EventCodec codec, int maxEventBytes, OverflowPolicy overflowPolicy, WaitStrategy waitStrategy,
+			long stallMillis, Log log) throws IOException {
+		super(identifier, delegate);
+
+		checkArgument(overflowPolicy != OverflowPolicy.DROP_OLDEST, "A shared memory queue cannot drop its oldest events");
+
+		this.outbound = outbound == null ? null : new SharedMemoryQueue(outbound, capacity);
+		if (this.outbound != null && maxEventBytes > this.outbound.maxPayload()) {
+			this.outbound.close();
+			throw new IllegalArgumentException(String.format("Events of %s bytes do not fit in %s", maxEventBytes, this.outbound));
+		}
+		try {
+			this.inbound = inbound == null ? null : new SharedMemoryQueue(inbound, capacity);
+		} catch (IOException | RuntimeException e) {
+			if (this.outbound != null) {
+				this.outbound.close();
+			}
+			throw e;
+		}
+		this.codec = codec;
+		this.overflowPolicy = overflowPolicy;
+		this.waitStrategy = waitStrategy;
+		this.stallMillis = stallMillis;
+		this.log = log;
+		this.forwarded = new ClassValue<Boolean>() {
+
+			@Override
+			protected Boolean computeValue(Class<?> clz) {
+				for (Class<?> typ : types) {
+					if (typ.isAssignableFrom(clz)) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+		this.encodeBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(maxEventBytes));
+		this.consumer = new Thread(this::consume, identifier + "-consumer");
+		this.consumer.setDaemon(true);
+	}
+
+	/**
+	 * Starts consuming the inbound queue
+	 *
+	 * @throws IOException
+	 *             if another kernel consumes it
+	 */
+	public void start() throws IOException {
+		running = true;
+		if (inbound != null) {
+			inbound.consume(stallMillis);
+			consumer.start();
+		}
+	}
+
+	@Override
+	public void post(Object event) {
+		if (outbound != null && running && forwarded.get(event.getClass())) {
+			forward(event);
+		}
+		delegate.post(event);
+	}
+
+	/**
+	 * Forwards the events of the forwarded types one by one, then passes the batch on
+	 */
+	@Override
+	public void postAll(Iterable<?> events) {
+		if (outbound != null && running) {
+			for (Object event : events) {
+				if (forwarded.get(event.getClass())) {
+					forward(event);
+				}
+			}
+		}
+		super.postAll(events);
+	}
+
+	private void forward(Object event) {
+		ByteBuffer buffer = encodeBuffer.get();
+		buffer.clear();
+		try {
+			if (!codec.encode(event, buffer)) {
+				return;
+			}
+		} catch (BufferOverflowException e) {
+			dropped.increment();
+			log.warn("Event {} is larger than the {} bytes forwarded, dropped", event, buffer.capacity());
+			return;
+		}
+
+		while (!outbound.offer(buffer.array(), buffer.position())) {
+			switch (overflowPolicy) {
+			case DROP_NEWEST:
+				dropped.increment();
+				return;
+			case FAIL:
+				throw new IllegalStateException("Shared memory queue " + outbound + " is full, event " + event + " rejected");
+			default:
+				LockSupport.parkNanos(1000L);
+			}
+		}
+		sent.increment();
+	}
+
+	private void consume() {
+		long skipped = 0;
+		while (true) {
+			ByteBuffer payload = inbound.peek();
+			if (inbound.skipped() != skipped) {
+				log.warn("Skipped {} bytes of {} left uncommitted for the stall timeout, by a kernel which died writing them",
+						inbound.skipped() - skipped, inbound);
+				skipped = inbound.skipped();
+			}
+			if (payload == null) {
+				if (!running) {
+					break;
+				}
+				waitStrategy.waitFor(0, barrier);
+				continue;
+			}
+
+			Object event = null;
+			try {
+				event = codec.decode(payload);
+			} catch (RuntimeException e) {
+				log.error("Decoding an event of {} failed with error {}", inbound, e.getMessage());
+			} finally {
+				inbound.release();
+			}
+			if (event != null) {
+				received.increment();
+				try {
+					delegate.post(event);
+				} catch (RuntimeException e) {
+					log.error("Dispatching event {} failed with error {}", event, e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops forwarding, then stops the consumer once the inbound queue is drained
+	 */
+	@Override
+	public void shutdown() {
+		running = false;
+		if (consumer.isAlive()) {
+			try {
+				consumer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (SharedMemoryQueue queue : new SharedMemoryQueue[] { outbound, inbound }) {
+			if (queue != null) {
+				try {
+					queue.close();
+				} catch (IOException e) {
+					e.printStackTrace(System.err);
+				}
+			}
+		}
+		super.shutdown();
+	}
+
+	/**
+	 * @return the events written to the outbound queue
+	 */
+	public long sent() {
+		return sent.sum();
+	}
+
+	/**
+	 * @return the events read from the inbound queue and dispatched here
+	 */
+	public long received() {
+		return received.sum();
+	}
+
+	/**
+	 * @return the events not forwarded for being too large or for the outbound queue being full
+	 */
+	public long dropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "SharedMemoryEventBus{" + identifier() + ", out=" + outbound + ", in=" + inbound + ", codec=" + codec
+				+ ", overflow=" + overflowPolicy + ", wait=" + waitStrategy + " -> " + delegate + "}";
+	}
+}
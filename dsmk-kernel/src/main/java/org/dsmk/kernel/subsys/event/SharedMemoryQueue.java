@@ -0,0 +1,302 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A queue of byte records in a memory mapped file, shared by the processes mapping it: any number of
+ * producers, in as many processes, and a single consumer. The file starts with a header holding the
+ * capacity, the tail producers claim space from and the head the consumer releases space to, each on
+ * a cache line of its own, followed by the ring of records.
+ * <p>
+ * A producer claims the bytes of its record by a compare-and-set of the tail, stores the size claimed
+ * in the record header, writes the record and commits it by storing its length last, so that the
+ * consumer, which reads the length first, never sees a record partly written. A record which would
+ * cross the end of the ring is preceded by a padding record filling the end. The consumer zeroes every
+ * record it is done with before releasing its bytes, a length of zero meaning nothing committed yet.
+ * Past opening the file, neither side makes a system call.
+ * <p>
+ * A producer dying between its claim and its commit would stall the consumer for good, the file
+ * outliving the processes. The consumer thus skips a record left uncommitted for the stall timeout,
+ * by the size claimed, or up to the tail if the producer died before even storing it. A producer
+ * merely paused for longer than the timeout would then write into released bytes, so the timeout has
+ * to exceed any pause of a producer, GC pauses included.
+ */
+final class SharedMemoryQueue implements Closeable {
+
+	private static final int MAGIC = 0x64736d71;
+	private static final int CAPACITY_OFFSET = 8;
+	private static final int TAIL_OFFSET = 64;
+	private static final int HEAD_OFFSET = 128;
+	private static final int HEADER_BYTES = 192;
+
+	/**
+	 * the committed length, header included, and the bytes claimed or PADDING, of every record
+	 */
+	static final int RECORD_HEADER_BYTES = 8;
+	private static final int PADDING = -1;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final long address;
+	private final long data;
+	private final int capacity;
+	private final int mask;
+
+	/**
+	 * the head as last read by a producer of this process, never ahead of the actual one
+	 */
+	private long headCache;
+
+	// owned by the consumer
+	private FileLock consumerLock;
+	private ByteBuffer view;
+	private long head;
+	private int pending;
+	private long stallNanos;
+	private long stalledHead = -1;
+	private long stalledSince;
+	private long skipped;
+
+	/**
+	 * Maps the queue, creating the file with the capacity unless another process did already, in which
+	 * case the capacity of the file is kept
+	 *
+	 * @param path
+	 *            preferably on a memory backed file system such as /dev/shm
+	 * @param capacity
+	 *            bytes of the ring, a power of 2
+	 */
+	SharedMemoryQueue(Path path, int capacity) throws IOException {
+		checkArgument(capacity >= 4096 && Integer.bitCount(capacity) == 1, "Queue capacity %s must be a power of 2 of at least 4096",
+				capacity);
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			MappedByteBuffer mapped;
+			// the processes opening the queue at once wait for the first one to lay it out
+			FileLock initLock = channel.lock(1, 1, false);
+			try {
+				if (channel.size() < HEADER_BYTES) {
+					channel.write(ByteBuffer.allocate(1), HEADER_BYTES + (long) capacity - 1);
+					mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity);
+					UnsafeMemory.putInt(UnsafeMemory.address(mapped) + CAPACITY_OFFSET, capacity);
+					UnsafeMemory.putOrderedInt(UnsafeMemory.address(mapped), MAGIC);
+				} else {
+					mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+				}
+			} finally {
+				initLock.release();
+			}
+			// the header is read and written in the native order, as by UnsafeMemory
+			mapped.order(ByteOrder.nativeOrder());
+			checkArgument(mapped.getInt(0) == MAGIC, "%s is not a shared memory queue", path);
+			this.buffer = mapped;
+			this.address = UnsafeMemory.address(mapped);
+			this.data = address + HEADER_BYTES;
+			this.capacity = mapped.getInt(CAPACITY_OFFSET);
+			this.mask = this.capacity - 1;
+			checkArgument(HEADER_BYTES + (long) this.capacity <= channel.size(), "%s is truncated", path);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static int align(int length) {
+		return (length + 7) & ~7;
+	}
+
+	int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the largest payload a record can hold
+	 */
+	int maxPayload() {
+		return capacity / 2 - RECORD_HEADER_BYTES;
+	}
+
+	/**
+	 * Appends a record, from any thread of any process
+	 *
+	 * @param bytes
+	 * @param length
+	 *            number of bytes of the payload, from the start of the array
+	 * @return false if the queue has not enough room left, nothing being written then
+	 */
+	boolean offer(byte[] bytes, int length) {
+		checkArgument(length <= maxPayload(), "Record of %s bytes larger than %s", length, maxPayload());
+		int recordLength = RECORD_HEADER_BYTES + length;
+		int required = align(recordLength);
+
+		long tail;
+		int index;
+		int padding;
+		do {
+			tail = UnsafeMemory.getLongVolatile(address + TAIL_OFFSET);
+			index = (int) tail & mask;
+			padding = capacity - index < required ? capacity - index : 0;
+			long end = tail + padding + required;
+			if (end - headCache > capacity) {
+				headCache = UnsafeMemory.getLongVolatile(address + HEAD_OFFSET);
+				if (end - headCache > capacity) {
+					return false;
+				}
+			}
+		} while (!UnsafeMemory.compareAndSwapLong(address + TAIL_OFFSET, tail, tail + padding + required));
+
+		if (padding > 0) {
+			UnsafeMemory.putOrderedInt(data + index + 4, PADDING);
+			UnsafeMemory.putOrderedInt(data + index, padding);
+			index = 0;
+		}
+		long record = data + index;
+		UnsafeMemory.putOrderedInt(record + 4, required);
+		UnsafeMemory.copy(bytes, record + RECORD_HEADER_BYTES, length);
+		UnsafeMemory.putOrderedInt(record, recordLength);
+		return true;
+	}
+
+	/**
+	 * Takes the queue as its consumer
+	 *
+	 * @param stallMillis
+	 *            how long a record claimed may stay uncommitted before it is skipped
+	 * @throws IOException
+	 *             if another process consumes it
+	 */
+	void consume(long stallMillis) throws IOException {
+		checkArgument(stallMillis > 0, "Stall timeout %s must be positive", stallMillis);
+		stallNanos = TimeUnit.MILLISECONDS.toNanos(stallMillis);
+		consumerLock = channel.tryLock(0, 1, false);
+		if (consumerLock == null) {
+			throw new IOException("The shared memory queue " + path + " has a consumer already");
+		}
+		// big endian again, as the buffers the codec encodes into
+		view = buffer.duplicate();
+		head = UnsafeMemory.getLongVolatile(address + HEAD_OFFSET);
+	}
+
+	/**
+	 * @return true if a record is committed at the head, for the consumer only
+	 */
+	boolean hasNext() {
+		return UnsafeMemory.getIntVolatile(data + ((int) head & mask)) != 0 || skipStalled();
+	}
+
+	/**
+	 * Returns the payload of the record at the head, which stays there until {@link #release()}, for the
+	 * consumer only
+	 *
+	 * @return a view of the payload, from its position to its limit, or null if no record is committed
+	 */
+	ByteBuffer peek() {
+		while (true) {
+			int index = (int) head & mask;
+			int length = UnsafeMemory.getIntVolatile(data + index);
+			if (length == 0) {
+				if (skipStalled()) {
+					continue;
+				}
+				return null;
+			}
+			if (UnsafeMemory.getInt(data + index + 4) == PADDING) {
+				pending = length;
+				release();
+				continue;
+			}
+			pending = align(length);
+			view.limit(HEADER_BYTES + index + length);
+			view.position(HEADER_BYTES + index + RECORD_HEADER_BYTES);
+			return view;
+		}
+	}
+
+	/**
+	 * Frees the record last peeked for the producers
+	 */
+	void release() {
+		UnsafeMemory.zero(data + ((int) head & mask), pending);
+		head += pending;
+		pending = 0;
+		UnsafeMemory.putOrderedLong(address + HEAD_OFFSET, head);
+	}
+
+	/**
+	 * Skips the record at the head when it was claimed and left uncommitted for the stall timeout
+	 *
+	 * @return true if a record was skipped
+	 */
+	private boolean skipStalled() {
+		long tail = UnsafeMemory.getLongVolatile(address + TAIL_OFFSET);
+		if (tail == head) {
+			return false;
+		}
+		long now = System.nanoTime();
+		if (stalledHead != head) {
+			stalledHead = head;
+			stalledSince = now;
+			return false;
+		}
+		if (now - stalledSince < stallNanos) {
+			return false;
+		}
+		int index = (int) head & mask;
+		int claimed = UnsafeMemory.getIntVolatile(data + index + 4);
+		// the producer died, after storing the size it claimed or even before
+		long skip = claimed == PADDING ? capacity - index : claimed > 0 ? claimed : tail - head;
+		for (long skipping = skip; skipping > 0;) {
+			int bytes = (int) Math.min(skipping, capacity - ((int) head & mask));
+			pending = bytes;
+			release();
+			skipping -= bytes;
+		}
+		skipped += skip;
+		stalledHead = -1;
+		return true;
+	}
+
+	/**
+	 * @return the bytes of the records skipped as stalled, for the consumer only
+	 */
+	long skipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return the bytes claimed by the producers and not yet released by the consumer
+	 */
+	long backlog() {
+		return UnsafeMemory.getLongVolatile(address + TAIL_OFFSET) - UnsafeMemory.getLongVolatile(address + HEAD_OFFSET);
+	}
+
+	/**
+	 * Unmaps the file once nothing references the mapping any more, the queue itself being left for the
+	 * other processes
+	 */
+	@Override
+	public void close() throws IOException {
+		if (consumerLock != null) {
+			consumerLock.release();
+		}
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return path + " (" + capacity + " bytes)";
+	}
+}
@@ -0,0 +1,18 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a subscriber as receiving the events of a type in batches, its only parameter
+ * being an {@link EventBatch} of that type, such as EventBatch&lt;PriceUpdate&gt;. Registering the
+ * subscriber with the bus EventSubsystem registers is enough, the {@link BatchEventBus} under it
+ * subscribing the method. As with Subscribe, calls are serialized unless the method is annotated
+ * with AllowConcurrentEvents.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SubscribeBatch {
+}
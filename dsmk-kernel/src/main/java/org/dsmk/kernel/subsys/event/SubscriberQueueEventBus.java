@@ -0,0 +1,387 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dsmk.api.Log;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Asynchronous EventBus giving every registered subscriber its own bounded queue and dispatching
+ * thread, so that a slow subscriber only delays itself. Each event is queued for the subscribers
+ * having a {@link Subscribe} method accepting it; when a queue is full the {@link OverflowPolicy} of
+ * the subscriber applies. Every subscriber receives its events in the order they were posted.
+ * <p>
+ * Events no subscriber accepts are posted to the delegate, which reports them as DeadEvents to its
+ * own subscribers.
+ */
+public class SubscriberQueueEventBus extends ForwardingEventBus {
+
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * The queue of one subscriber and its counters
+	 */
+	public static final class SubscriberQueue {
+
+		private final Object subscriber;
+		private final Class<?>[] eventTypes;
+		private final BlockingQueue<Object> queue;
+		private final int capacity;
+		private final OverflowPolicy policy;
+		private final EventBus dispatcher;
+		private final Thread thread;
+		private final AtomicLong delivered = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private volatile int maxDepth;
+		private volatile boolean running = true;
+
+		private SubscriberQueue(String identifier, Object subscriber, Class<?>[] eventTypes, int capacity, OverflowPolicy policy,
+				Log log) {
+			this.subscriber = subscriber;
+			this.eventTypes = eventTypes;
+			this.queue = new ArrayBlockingQueue<>(capacity);
+			this.capacity = capacity;
+			this.policy = policy;
+			this.dispatcher = new EventBus((exception, context) -> log.error("Subscriber {} failed on event {} with error {}",
+					context.getSubscriber(), context.getEvent(), exception.getMessage()));
+			this.dispatcher.register(subscriber);
+			this.thread = new Thread(this::dispatch, identifier + "-" + subscriber.getClass().getSimpleName());
+			this.thread.setDaemon(true);
+		}
+
+		private boolean accepts(Object event) {
+			for (Class<?> type : eventTypes) {
+				if (type.isInstance(event)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Queues the event unless the queue is stopped, in which case the event is dropped, as it is when
+		 * the queue stops before its thread takes the event
+		 */
+		private void enqueue(Object event) {
+			if (!running) {
+				dropped.incrementAndGet();
+				return;
+			}
+			switch (policy) {
+			case BLOCK:
+				try {
+					while (!queue.offer(event, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+						if (!running) {
+							dropped.incrementAndGet();
+							return;
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+					return;
+				}
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(event)) {
+					if (queue.poll() != null) {
+						dropped.incrementAndGet();
+					}
+				}
+				break;
+			case DROP_NEWEST:
+				if (!queue.offer(event)) {
+					dropped.incrementAndGet();
+					return;
+				}
+				break;
+			case FAIL:
+				if (!queue.offer(event)) {
+					rejected.incrementAndGet();
+					throw new IllegalStateException("The queue of subscriber " + subscriber + " is full, event " + event + " is rejected");
+				}
+				break;
+			}
+			if (!running && queue.remove(event)) {
+				// stopped meanwhile, the thread may be gone
+				dropped.incrementAndGet();
+				return;
+			}
+			int depth = queue.size();
+			if (depth > maxDepth) {
+				maxDepth = depth;
+			}
+		}
+
+		private void dispatch() {
+			while (running || !queue.isEmpty()) {
+				Object event;
+				try {
+					event = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (event != null) {
+					dispatcher.post(event);
+					delivered.incrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Stops the thread once the queued events are dispatched, without waiting for it when called by
+		 * the subscriber itself
+		 */
+		private void stop() {
+			running = false;
+			if (Thread.currentThread() == thread) {
+				return;
+			}
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		public Object getSubscriber() {
+			return subscriber;
+		}
+
+		public int getCapacity() {
+			return capacity;
+		}
+
+		public OverflowPolicy getPolicy() {
+			return policy;
+		}
+
+		/**
+		 * @return the number of events waiting to be dispatched
+		 */
+		public int getDepth() {
+			return queue.size();
+		}
+
+		/**
+		 * @return the highest depth seen
+		 */
+		public int getMaxDepth() {
+			return maxDepth;
+		}
+
+		public long getDelivered() {
+			return delivered.get();
+		}
+
+		/**
+		 * @return the number of events discarded by DROP_OLDEST or DROP_NEWEST, by BLOCK when the
+		 *         publisher was interrupted, or because the queue stopped
+		 */
+		public long getDropped() {
+			return dropped.get();
+		}
+
+		/**
+		 * @return the number of events rejected by FAIL
+		 */
+		public long getRejected() {
+			return rejected.get();
+		}
+
+		@Override
+		public String toString() {
+			return "SubscriberQueue [" + subscriber.getClass().getName() + ", " + policy + ", depth=" + queue.size() + "/" + capacity
+					+ ", delivered=" + delivered + ", dropped=" + dropped + ", rejected=" + rejected + "]";
+		}
+	}
+
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Map<String, Integer> capacities;
+	private final Map<String, OverflowPolicy> policies;
+	private final Log log;
+
+	private final Map<Object, SubscriberQueue> queuesBySubscriber = new IdentityHashMap<>();
+
+	/**
+	 * copied on write so that posting does not lock
+	 */
+	private volatile SubscriberQueue[] queues = new SubscriberQueue[0];
+
+	private boolean shutdown;
+
+	/**
+	 * @param identifier
+	 * @param delegate
+	 *            receives the events no subscriber accepts
+	 * @param capacity
+	 *            capacity of the queue of a subscriber
+	 * @param policy
+	 *            policy of a subscriber when its queue is full
+	 * @param capacities
+	 *            capacities overriding the default, by subscriber class name
+	 * @param policies
+	 *            policies overriding the default, by subscriber class name
+	 * @param log
+	 */
+	public SubscriberQueueEventBus(String identifier, EventBus delegate, int capacity, OverflowPolicy policy,
+			Map<String, Integer> capacities, Map<String, OverflowPolicy> policies, Log log) {
+		super(identifier, delegate);
+
+		checkArgument(capacity > 0, "Subscriber queue capacity must be positive, got %s", capacity);
+
+		this.capacity = capacity;
+		this.policy = policy;
+		this.capacities = capacities;
+		this.policies = policies;
+		this.log = log;
+	}
+
+	/**
+	 * Registers the subscriber with its own queue, sized and with the policy configured for its class
+	 */
+	@Override
+	public void register(Object object) {
+		String className = object.getClass().getName();
+		register(object, capacities.getOrDefault(className, capacity), policies.getOrDefault(className, policy));
+	}
+
+	/**
+	 * Registers the subscriber with its own queue. Registering a subscriber again, or one without
+	 * {@link Subscribe} methods, does nothing.
+	 *
+	 * @param object
+	 * @param capacity
+	 * @param policy
+	 */
+	public synchronized void register(Object object, int capacity, OverflowPolicy policy) {
+		checkArgument(capacity > 0, "Subscriber queue capacity must be positive, got %s", capacity);
+		Class<?>[] eventTypes = eventTypes(object.getClass());
+		if (shutdown || eventTypes.length == 0 || queuesBySubscriber.containsKey(object)) {
+			return;
+		}
+		SubscriberQueue queue = new SubscriberQueue(identifier(), object, eventTypes, capacity, policy, log);
+		queuesBySubscriber.put(object, queue);
+		queue.thread.start();
+		publish();
+		log.debug("Registered subscriber {} with a queue of {} events, overflow policy {}", object, capacity, policy);
+	}
+
+	/**
+	 * Unregisters the subscriber once its queued events are dispatched. A subscriber unregistering
+	 * itself from one of its methods does not wait, its queued events being dispatched once it returns.
+	 */
+	@Override
+	public void unregister(Object object) {
+		SubscriberQueue queue;
+		synchronized (this) {
+			queue = queuesBySubscriber.remove(object);
+			if (queue == null) {
+				throw new IllegalArgumentException("Missing event subscriber for an annotated method. Is " + object + " registered?");
+			}
+			publish();
+		}
+		queue.stop();
+	}
+
+	private void publish() {
+		queues = queuesBySubscriber.values().toArray(new SubscriberQueue[0]);
+	}
+
+	/**
+	 * Queues the event for every subscriber accepting it
+	 *
+	 * @throws IllegalStateException
+	 *             if the queue of a subscriber with the FAIL policy is full, the other subscribers
+	 *             still receive the event
+	 */
+	@Override
+	public void post(Object event) {
+		boolean accepted = false;
+		IllegalStateException rejection = null;
+		for (SubscriberQueue queue : queues) {
+			if (!queue.accepts(event)) {
+				continue;
+			}
+			accepted = true;
+			try {
+				queue.enqueue(event);
+			} catch (IllegalStateException e) {
+				rejection = e;
+			}
+		}
+		if (!accepted) {
+			delegate.post(event);
+		}
+		if (rejection != null) {
+			throw rejection;
+		}
+	}
+
+	/**
+	 * @return the queues of the registered subscribers
+	 */
+	public List<SubscriberQueue> queues() {
+		List<SubscriberQueue> list = new ArrayList<>();
+		Collections.addAll(list, queues);
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Stops the dispatching threads once every queued event is dispatched
+	 */
+	@Override
+	public void shutdown() {
+		SubscriberQueue[] stopped;
+		synchronized (this) {
+			shutdown = true;
+			stopped = queues;
+			queuesBySubscriber.clear();
+			publish();
+		}
+		for (SubscriberQueue queue : stopped) {
+			queue.stop();
+			log.debug("Stopped {}", queue);
+		}
+		super.shutdown();
+	}
+
+	/**
+	 * @return the event types of the {@link Subscribe} methods of the class and its supertypes
+	 */
+	static Class<?>[] eventTypes(Class<?> clazz) {
+		Set<Class<?>> types = new LinkedHashSet<>();
+		for (Class<?> type : TypeToken.of(clazz).getTypes().rawTypes()) {
+			for (Method method : type.getDeclaredMethods()) {
+				if (method.isAnnotationPresent(Subscribe.class) && !method.isSynthetic() && method.getParameterCount() == 1) {
+					types.add(method.getParameterTypes()[0]);
+				}
+			}
+		}
+		return types.toArray(new Class<?>[0]);
+	}
+
+	@Override
+	public String toString() {
+		return "SubscriberQueueEventBus{" + identifier() + ", capacity=" + capacity + ", policy=" + policy + ", subscribers="
+				+ queues.length + " -> " + delegate + "}";
+	}
+}
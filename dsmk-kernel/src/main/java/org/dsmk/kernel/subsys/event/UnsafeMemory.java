@@ -0,0 +1,168 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+
+/**
+ * Reads and writes native memory through sun.misc.Unsafe, the operations the shared memory queue
+ * needs and only those. Unsafe is reached by name and its methods through method handles, which the
+ * JIT compiles to the same intrinsics as direct calls since they are constants, so that the code does
+ * not depend on the internal API at compile time.
+ */
+final class UnsafeMemory {
+
+	private static final MethodHandle GET_INT;
+	private static final MethodHandle GET_INT_VOLATILE;
+	private static final MethodHandle GET_LONG_VOLATILE;
+	private static final MethodHandle GET_OBJECT_LONG;
+	private static final MethodHandle PUT_INT;
+	private static final MethodHandle PUT_ORDERED_INT;
+	private static final MethodHandle PUT_ORDERED_LONG;
+	private static final MethodHandle COMPARE_AND_SWAP_LONG;
+	private static final MethodHandle COPY_MEMORY;
+	private static final MethodHandle SET_MEMORY;
+	private static final long BUFFER_ADDRESS_OFFSET;
+	private static final long BYTE_ARRAY_OFFSET;
+	static {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+			GET_INT = method(lookup, unsafeClass, unsafe, "getInt", int.class, long.class);
+			GET_INT_VOLATILE = method(lookup, unsafeClass, unsafe, "getIntVolatile", int.class, Object.class, long.class);
+			GET_LONG_VOLATILE = method(lookup, unsafeClass, unsafe, "getLongVolatile", long.class, Object.class, long.class);
+			GET_OBJECT_LONG = method(lookup, unsafeClass, unsafe, "getLong", long.class, Object.class, long.class);
+			PUT_INT = method(lookup, unsafeClass, unsafe, "putInt", void.class, long.class, int.class);
+			PUT_ORDERED_INT = method(lookup, unsafeClass, unsafe, "putOrderedInt", void.class, Object.class, long.class, int.class);
+			PUT_ORDERED_LONG = method(lookup, unsafeClass, unsafe, "putOrderedLong", void.class, Object.class, long.class, long.class);
+			COMPARE_AND_SWAP_LONG = method(lookup, unsafeClass, unsafe, "compareAndSwapLong", boolean.class, Object.class, long.class,
+					long.class, long.class);
+			COPY_MEMORY = method(lookup, unsafeClass, unsafe, "copyMemory", void.class, Object.class, long.class, Object.class,
+					long.class, long.class);
+			SET_MEMORY = method(lookup, unsafeClass, unsafe, "setMemory", void.class, long.class, long.class, byte.class);
+
+			MethodHandle objectFieldOffset = method(lookup, unsafeClass, unsafe, "objectFieldOffset", long.class, Field.class);
+			MethodHandle arrayBaseOffset = method(lookup, unsafeClass, unsafe, "arrayBaseOffset", int.class, Class.class);
+			BUFFER_ADDRESS_OFFSET = (long) objectFieldOffset.invokeExact(Buffer.class.getDeclaredField("address"));
+			BYTE_ARRAY_OFFSET = (int) arrayBaseOffset.invokeExact((Class<?>) byte[].class);
+		} catch (Throwable e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static MethodHandle method(MethodHandles.Lookup lookup, Class<?> unsafeClass, Object unsafe, String name,
+			Class<?> returnType, Class<?>... parameterTypes) throws ReflectiveOperationException {
+		return lookup.findVirtual(unsafeClass, name, MethodType.methodType(returnType, parameterTypes)).bindTo(unsafe);
+	}
+
+	private UnsafeMemory() {
+	}
+
+	/**
+	 * @return the native address of the first byte of a direct buffer
+	 */
+	static long address(Buffer buffer) {
+		try {
+			return (long) GET_OBJECT_LONG.invokeExact((Object) buffer, BUFFER_ADDRESS_OFFSET);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	static int getInt(long address) {
+		try {
+			return (int) GET_INT.invokeExact(address);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	static int getIntVolatile(long address) {
+		try {
+			return (int) GET_INT_VOLATILE.invokeExact((Object) null, address);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	static long getLongVolatile(long address) {
+		try {
+			return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	static void putInt(long address, int value) {
+		try {
+			PUT_INT.invokeExact(address, value);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	/**
+	 * Stores the value after the stores preceding it, without waiting for it to be visible
+	 */
+	static void putOrderedInt(long address, int value) {
+		try {
+			PUT_ORDERED_INT.invokeExact((Object) null, address, value);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	static void putOrderedLong(long address, long value) {
+		try {
+			PUT_ORDERED_LONG.invokeExact((Object) null, address, value);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	static boolean compareAndSwapLong(long address, long expected, long value) {
+		try {
+			return (boolean) COMPARE_AND_SWAP_LONG.invokeExact((Object) null, address, expected, value);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	/**
+	 * Copies the first bytes of the array to the address
+	 */
+	static void copy(byte[] bytes, long address, int length) {
+		try {
+			COPY_MEMORY.invokeExact((Object) bytes, BYTE_ARRAY_OFFSET, (Object) null, address, (long) length);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	static void zero(long address, int length) {
+		try {
+			SET_MEMORY.invokeExact(address, (long) length, (byte) 0);
+		} catch (Throwable e) {
+			throw propagate(e);
+		}
+	}
+
+	/**
+	 * Unsafe throws nothing checked, whatever it throws is rethrown as is
+	 */
+	private static RuntimeException propagate(Throwable e) {
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		}
+		if (e instanceof Error) {
+			throw (Error) e;
+		}
+		throw new IllegalStateException(e);
+	}
+}
@@ -0,0 +1,158 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * How the consumers of a {@link RingBufferEventBus} wait for the next sequence to be published.
+ * BUSY_SPIN gives the lowest latency at the cost of a core per consumer, YIELD spins for a while
+ * before giving up the CPU and BLOCK parks the consumer until the publisher signals it.
+ */
+public abstract class WaitStrategy {
+
+	/**
+	 * The condition a consumer waits on
+	 */
+	interface Barrier {
+
+		boolean isPublished(long sequence);
+
+		boolean isAlerted();
+	}
+
+	/**
+	 * Waits until the sequence is published or the barrier is alerted
+	 *
+	 * @param sequence
+	 * @param barrier
+	 * @return true if the sequence is published
+	 */
+	abstract boolean waitFor(long sequence, Barrier barrier);
+
+	/**
+	 * Called by the publisher after every publication
+	 */
+	abstract void signalAllWhenBlocking();
+
+	/**
+	 * @param name
+	 *            busyspin, yield or block
+	 * @return
+	 */
+	public static WaitStrategy of(String name) {
+		switch (name.trim().toLowerCase()) {
+		case "busyspin":
+			return new BusySpin();
+		case "yield":
+			return new Yielding();
+		case "block":
+			return new Blocking();
+		default:
+			throw new IllegalArgumentException(String.format("Unknown wait strategy %s, expected busyspin, yield or block", name));
+		}
+	}
+
+	static final class BusySpin extends WaitStrategy {
+
+		@Override
+		boolean waitFor(long sequence, Barrier barrier) {
+			while (!barrier.isPublished(sequence)) {
+				if (barrier.isAlerted()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		void signalAllWhenBlocking() {
+		}
+
+		@Override
+		public String toString() {
+			return "busyspin";
+		}
+	}
+
+	static final class Yielding extends WaitStrategy {
+
+		private static final int SPIN_TRIES = 100;
+
+		@Override
+		boolean waitFor(long sequence, Barrier barrier) {
+			int counter = SPIN_TRIES;
+			while (!barrier.isPublished(sequence)) {
+				if (barrier.isAlerted()) {
+					return false;
+				}
+				if (counter > 0) {
+					counter--;
+				} else {
+					Thread.yield();
+				}
+			}
+			return true;
+		}
+
+		@Override
+		void signalAllWhenBlocking() {
+		}
+
+		@Override
+		public String toString() {
+			return "yield";
+		}
+	}
+
+	static final class Blocking extends WaitStrategy {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition published = lock.newCondition();
+		private final AtomicInteger waiters = new AtomicInteger();
+
+		@Override
+		boolean waitFor(long sequence, Barrier barrier) {
+			if (barrier.isPublished(sequence)) {
+				return true;
+			}
+			waiters.incrementAndGet();
+			lock.lock();
+			try {
+				while (!barrier.isPublished(sequence)) {
+					if (barrier.isAlerted()) {
+						return false;
+					}
+					// timed so that a signal racing with the waiter registration is never lost for long
+					published.await(1, TimeUnit.MILLISECONDS);
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} finally {
+				lock.unlock();
+				waiters.decrementAndGet();
+			}
+		}
+
+		@Override
+		void signalAllWhenBlocking() {
+			// publishers only pay for the lock when a consumer is actually parked
+			if (waiters.get() > 0) {
+				lock.lock();
+				try {
+					published.signalAll();
+				} finally {
+					lock.unlock();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "block";
+		}
+	}
+}
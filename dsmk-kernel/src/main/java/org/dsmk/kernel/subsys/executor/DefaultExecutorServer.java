@@ -0,0 +1,456 @@
+package org.dsmk.kernel.subsys.executor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dsmk.api.ExecutorServer;
+import org.dsmk.api.Log;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * ExecutorServer of the {@link ExecutorSubsystem}. The platform threads of all the executors are
+ * taken from one budget, a request for more threads than are left is cut down to what is left, though
+ * every executor gets at least one. The executors are handed out wrapped so that callers cannot
+ * reconfigure them, such as resize a pool past the budget. Virtual threads are looked up by
+ * reflection, the kernel being built for Java 8.
+ */
+public class DefaultExecutorServer implements ExecutorServer {
+
+	static final String FIXED = "fixed";
+	static final String WORK_STEALING = "work-stealing";
+	static final String SCHEDULED = "scheduled";
+	static final String BLOCKING = "blocking";
+
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+	static {
+		Method ofVirtual = null;
+		Method builderName = null;
+		Method builderFactory = null;
+		Method newThreadPerTaskExecutor = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			builderName = builder.getMethod("name", String.class, long.class);
+			builderFactory = builder.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			// preview JDKs only allow virtual threads with --enable-preview
+			ofVirtual.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = builderName;
+		BUILDER_FACTORY = builderFactory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+	}
+
+	/**
+	 * An executor handed out and what is known about it
+	 */
+	private static final class Managed implements ExecutorStats {
+
+		final String name;
+		final String kind;
+		final int threads;
+		final ExecutorService executor;
+		final AtomicLong rejected;
+
+		/**
+		 * the executor as handed out, which cannot be reconfigured
+		 */
+		final ExecutorService unconfigurable;
+
+		Managed(String name, String kind, int threads, ExecutorService executor, AtomicLong rejected) {
+			this.name = name;
+			this.kind = kind;
+			this.threads = threads;
+			this.executor = executor;
+			this.rejected = rejected;
+			this.unconfigurable = executor instanceof ScheduledExecutorService
+					? Executors.unconfigurableScheduledExecutorService((ScheduledExecutorService) executor)
+					: Executors.unconfigurableExecutorService(executor);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getKind() {
+			return kind;
+		}
+
+		@Override
+		public int getThreads() {
+			return threads;
+		}
+
+		@Override
+		public int getActive() {
+			if (executor instanceof ThreadPoolExecutor) {
+				return ((ThreadPoolExecutor) executor).getActiveCount();
+			}
+			return ((CountingExecutor) executor).active.get();
+		}
+
+		@Override
+		public long getQueued() {
+			if (executor instanceof ThreadPoolExecutor) {
+				return ((ThreadPoolExecutor) executor).getQueue().size();
+			}
+			return ((CountingExecutor) executor).queued();
+		}
+
+		@Override
+		public long getCompleted() {
+			if (executor instanceof ThreadPoolExecutor) {
+				return ((ThreadPoolExecutor) executor).getCompletedTaskCount();
+			}
+			return ((CountingExecutor) executor).completed.get();
+		}
+
+		@Override
+		public long getRejected() {
+			return rejected.get();
+		}
+
+		@Override
+		public String toString() {
+			return "Executor [" + name + ", " + kind + ", threads=" + threads + ", active=" + getActive() + ", queued=" + getQueued()
+					+ ", completed=" + getCompleted() + ", rejected=" + getRejected() + "]";
+		}
+	}
+
+	/**
+	 * Counts the tasks of the executors which do not, a work-stealing pool or one virtual thread per
+	 * task. With a permits semaphore at most that many tasks run at once, the others wait for a permit
+	 * in their thread.
+	 */
+	private static final class CountingExecutor extends AbstractExecutorService {
+
+		private final ExecutorService delegate;
+		private final Semaphore permits;
+		private final AtomicLong rejected;
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicLong completed = new AtomicLong();
+		private final AtomicLong submitted = new AtomicLong();
+
+		CountingExecutor(ExecutorService delegate, Semaphore permits, AtomicLong rejected) {
+			this.delegate = delegate;
+			this.permits = permits;
+			this.rejected = rejected;
+		}
+
+		long queued() {
+			if (delegate instanceof ForkJoinPool) {
+				ForkJoinPool pool = (ForkJoinPool) delegate;
+				return pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount();
+			}
+			return Math.max(0, submitted.get() - completed.get() - active.get());
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			submitted.incrementAndGet();
+			try {
+				delegate.execute(() -> run(command));
+			} catch (RejectedExecutionException e) {
+				submitted.decrementAndGet();
+				rejected.incrementAndGet();
+				throw e;
+			}
+		}
+
+		private void run(Runnable command) {
+			if (permits != null) {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					completed.incrementAndGet();
+					return;
+				}
+			}
+			active.incrementAndGet();
+			try {
+				command.run();
+			} finally {
+				active.decrementAndGet();
+				completed.incrementAndGet();
+				if (permits != null) {
+					permits.release();
+				}
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+
+	private final int maxThreads;
+	private final Log log;
+
+	/**
+	 * in creation order, guarded by this
+	 */
+	private final Map<String, Managed> executors = new LinkedHashMap<>();
+
+	private int threadsInUse;
+	private boolean closed;
+
+	/**
+	 * @param maxThreads
+	 *            the number of platform threads all the executors may use together
+	 * @param log
+	 */
+	public DefaultExecutorServer(int maxThreads, Log log) {
+		checkArgument(maxThreads > 0, "The executor thread budget must be positive, got %s", maxThreads);
+		this.maxThreads = maxThreads;
+		this.log = log;
+	}
+
+	@Override
+	public synchronized ExecutorService fixed(String name, int threads, int queueCapacity) {
+		checkArgument(threads > 0 && queueCapacity > 0, "Executor %s needs threads and queue capacity, got %s and %s", name, threads,
+				queueCapacity);
+		Managed managed = existing(name, FIXED);
+		if (managed == null) {
+			int granted = take(name, threads);
+			AtomicLong rejected = new AtomicLong();
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(granted, granted, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<>(queueCapacity), threadFactory(name), counting(rejected));
+			managed = add(new Managed(name, FIXED, granted, executor, rejected));
+		}
+		return managed.unconfigurable;
+	}
+
+	@Override
+	public synchronized ExecutorService workStealing(String name, int parallelism) {
+		checkArgument(parallelism > 0, "Executor %s needs a positive parallelism, got %s", name, parallelism);
+		Managed managed = existing(name, WORK_STEALING);
+		if (managed == null) {
+			int granted = take(name, Math.min(parallelism, Runtime.getRuntime().availableProcessors()));
+			AtomicInteger counter = new AtomicInteger();
+			ForkJoinPool pool = new ForkJoinPool(granted, p -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+				thread.setName("dsmk-" + name + "-" + counter.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}, null, true);
+			AtomicLong rejected = new AtomicLong();
+			managed = add(new Managed(name, WORK_STEALING, granted, new CountingExecutor(pool, null, rejected), rejected));
+		}
+		return managed.unconfigurable;
+	}
+
+	@Override
+	public synchronized ScheduledExecutorService scheduled(String name, int threads) {
+		checkArgument(threads > 0, "Executor %s needs threads, got %s", name, threads);
+		Managed managed = existing(name, SCHEDULED);
+		if (managed == null) {
+			int granted = take(name, threads);
+			AtomicLong rejected = new AtomicLong();
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(granted, threadFactory(name), counting(rejected));
+			executor.setRemoveOnCancelPolicy(true);
+			managed = add(new Managed(name, SCHEDULED, granted, executor, rejected));
+		}
+		return (ScheduledExecutorService) managed.unconfigurable;
+	}
+
+	@Override
+	public synchronized ExecutorService blocking(String name, int maxConcurrency) {
+		checkArgument(maxConcurrency > 0, "Executor %s needs a positive concurrency, got %s", name, maxConcurrency);
+		Managed managed = existing(name, BLOCKING);
+		if (managed == null) {
+			AtomicLong rejected = new AtomicLong();
+			ThreadFactory virtualThreads = virtualThreadFactory(name);
+			if (virtualThreads != null) {
+				managed = add(new Managed(name, BLOCKING, 0,
+						new CountingExecutor(newThreadPerTaskExecutor(virtualThreads), new Semaphore(maxConcurrency), rejected), rejected));
+			} else {
+				int granted = take(name, maxConcurrency);
+				ThreadPoolExecutor executor = new ThreadPoolExecutor(granted, granted, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+						threadFactory(name), counting(rejected));
+				executor.allowCoreThreadTimeOut(true);
+				managed = add(new Managed(name, BLOCKING, granted, executor, rejected));
+			}
+		}
+		return managed.unconfigurable;
+	}
+
+	@Override
+	public boolean isVirtualThreadsSupported() {
+		return OF_VIRTUAL != null;
+	}
+
+	@Override
+	public synchronized List<ExecutorStats> stats() {
+		return Collections.unmodifiableList(new ArrayList<>(executors.values()));
+	}
+
+	/**
+	 * @return the executor already created under the name or null
+	 * @throws IllegalArgumentException
+	 *             if it is of another kind
+	 */
+	private Managed existing(String name, String kind) {
+		if (closed) {
+			throw new RejectedExecutionException("The ExecutorServer is closed, executor " + name + " cannot be created");
+		}
+		Managed managed = executors.get(name);
+		checkArgument(managed == null || managed.kind.equals(kind), "Executor %s is %s, not %s", name,
+				managed == null ? null : managed.kind, kind);
+		return managed;
+	}
+
+	private Managed add(Managed managed) {
+		executors.put(managed.name, managed);
+		log.info("Created executor {}, {} of the {} threads are in use", managed, threadsInUse, maxThreads);
+		return managed;
+	}
+
+	/**
+	 * Takes threads from the budget
+	 *
+	 * @return the number of threads granted, at least one
+	 */
+	private int take(String name, int threads) {
+		int granted = Math.max(1, Math.min(threads, maxThreads - threadsInUse));
+		if (granted < threads) {
+			log.warn("Executor {} asked for {} threads, only {} are left of the budget of {}", name, threads, granted, maxThreads);
+		}
+		threadsInUse += granted;
+		return granted;
+	}
+
+	private static ThreadFactory threadFactory(String name) {
+		return new ThreadFactoryBuilder().setNameFormat("dsmk-" + name.replace("%", "%%") + "-%d").setDaemon(true).build();
+	}
+
+	private static RejectedExecutionHandler counting(AtomicLong rejected) {
+		return (task, executor) -> {
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("Task " + task + " rejected from " + executor);
+		};
+	}
+
+	private static ThreadFactory virtualThreadFactory(String name) {
+		if (OF_VIRTUAL == null) {
+			return null;
+		}
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			builder = BUILDER_NAME.invoke(builder, "dsmk-" + name + "-", 0L);
+			return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			e.printStackTrace(System.err);
+			return null;
+		}
+	}
+
+	private static ExecutorService newThreadPerTaskExecutor(ThreadFactory threadFactory) {
+		try {
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Unable to create a virtual thread executor", e);
+		}
+	}
+
+	/**
+	 * Shuts the executors down in the reverse order of their creation, each one being given the
+	 * timeout to run the tasks already submitted before its remaining tasks are interrupted. The threads
+	 * of every executor closed go back to the budget.
+	 *
+	 * @param timeoutMillis
+	 * @return true if every executor terminated in time
+	 */
+	public boolean close(long timeoutMillis) {
+		List<Managed> closing;
+		synchronized (this) {
+			closed = true;
+			closing = new ArrayList<>(executors.values());
+		}
+		Collections.reverse(closing);
+
+		boolean clean = true;
+		for (Managed managed : closing) {
+			managed.executor.shutdown();
+			try {
+				if (!managed.executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					clean = false;
+					List<Runnable> dropped = managed.executor.shutdownNow();
+					log.warn("Executor {} did not drain within {}ms, interrupted it and dropped {} task(s)", managed.name, timeoutMillis,
+							dropped.size());
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				managed.executor.shutdownNow();
+				clean = false;
+			}
+			synchronized (this) {
+				executors.remove(managed.name);
+				threadsInUse -= managed.threads;
+			}
+			log.debug("Closed {}", managed);
+		}
+		return clean;
+	}
+
+	@Override
+	public String toString() {
+		return "DefaultExecutorServer [executors=" + executors.size() + ", threads=" + threadsInUse + "/" + maxThreads + ", virtual="
+				+ isVirtualThreadsSupported() + "]";
+	}
+}
@@ -0,0 +1,145 @@
+package org.dsmk.kernel.subsys.executor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.Config;
+import org.dsmk.api.ConfigServer;
+import org.dsmk.api.ExecutorServer;
+import org.dsmk.api.Log;
+import org.dsmk.api.LogServer;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.NameServer.NameRegistration;
+import org.dsmk.api.Result;
+import org.dsmk.api.Result.Status;
+import org.dsmk.api.Subsystem;
+import org.dsmk.kernel.ConfigSnapshot;
+
+import com.github.krukow.clj_lang.PersistentHashMap;
+import com.google.common.base.Preconditions;
+
+/**
+ * Provides the {@link ExecutorServer}. Subsystems requiring it are stopped before it, so when it stops
+ * no subsystem uses the executors any more and they are drained and closed, the last created first.
+ */
+public class ExecutorSubsystem implements Subsystem {
+
+	private static UUID uuid = UUID.fromString("bfd3cb84-f723-4faa-916b-2b22be7d86a3");
+	private static String NAME = "dsmk.subsys.executor";
+
+	private static final Map<String, Object> persistentMap;
+	static {
+		Map<String, Object> tempMap = new HashMap<>();
+		tempMap.put("UUID", uuid);
+		tempMap.put("NAME", NAME);
+		tempMap.put(Subsystem.REQUIRES, new String[] { LogServer.class.getName() });
+		tempMap.put(Subsystem.PROVIDES, new String[] { ExecutorServer.class.getName() });
+		persistentMap = PersistentHashMap.create(tempMap);
+	}
+
+	static final String MAX_THREADS_PROPERTY = "dsmk.subsys.executor.max.threads";
+	static final String SHUTDOWN_TIMEOUT_PROPERTY = "dsmk.subsys.executor.shutdown.timeout.ms";
+
+	private NameServer nameServer;
+
+	private NameRegistration executorServerRegistration;
+
+	private DefaultExecutorServer executorServer;
+
+	private Config configuration = ConfigSnapshot.of(new Properties(), 0);
+
+	private Log log;
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public UUID id() {
+		return uuid;
+	}
+
+	@Override
+	public Map<String, Object> attributes() {
+		return persistentMap;
+	}
+
+	@Override
+	public Result configure(Map<String, Object> config) {
+		nameServer = (NameServer) config.get(NameServer.class.getName());
+
+		Preconditions.checkArgument(nameServer != null, "A valid instance of %s is required for configuring ExecutorSubsystem %s",
+				NameServer.class.getName(), name());
+
+		if (config.get("config-server") instanceof ConfigServer) {
+			configuration = ((ConfigServer) config.get("config-server")).current();
+		} else if (config.get("config-properties") instanceof Properties) {
+			configuration = ConfigSnapshot.of((Properties) config.get("config-properties"), 0);
+		}
+
+		try {
+			LogServer logServer = nameServer.lookup1(LogServer.class);
+			log = logServer.getLog(this);
+		} catch (NamingException e) {
+			e.printStackTrace(System.err);
+			return new Result(Status.NOT_OK, "dsmk.executor.notok", "dsmk.executor.err.onConfig");
+		}
+
+		log.debug("{} configuration complete", name());
+		return Result.OK;
+	}
+
+	/**
+	 * Registers the ExecutorServer, its thread budget being dsmk.subsys.executor.max.threads or, when
+	 * 0, four threads per core
+	 */
+	@Override
+	public Result start() {
+		log.info("Starting ExecutorSubsystem - {}", name());
+
+		int maxThreads = configuration.getInt(MAX_THREADS_PROPERTY, 0);
+		if (maxThreads <= 0) {
+			maxThreads = 4 * Runtime.getRuntime().availableProcessors();
+		}
+		executorServer = new DefaultExecutorServer(maxThreads, log);
+
+		try {
+			executorServerRegistration = nameServer.register(ExecutorServer.class.getName(), executorServer);
+		} catch (NamingException e) {
+			e.printStackTrace(System.err);
+			log.error("Failed to register the executor server due to {}", e.getMessage());
+			return new Result(Status.NOT_OK, "dsmk.executor.notok", "dsmk.executor.start.err");
+		}
+
+		log.info("Started ExecutorSubsystem - {} with {}", name(), executorServer);
+		return Result.OK;
+	}
+
+	@Override
+	public Result stop() {
+		log.info("Stopping ExecutorSubsystem - {}", name());
+
+		Result result = Result.OK;
+		try {
+			executorServerRegistration.unRegister();
+		} catch (NamingException e) {
+			e.printStackTrace(System.err);
+			log.error("Failed to unregister the executor server due to {}", e.getMessage());
+			result = new Result(Status.NOT_OK, "dsmk.executor.notok", "dsmk.executor.stop.err");
+		}
+
+		long timeoutMillis = configuration.getLong(SHUTDOWN_TIMEOUT_PROPERTY, 5000);
+		if (!executorServer.close(timeoutMillis)) {
+			log.warn("Some executors had to be interrupted, see above");
+		}
+
+		log.info("Stopped ExecutorSubsystem - {}", name());
+		return result;
+	}
+
+}
@@ -0,0 +1,796 @@
+package org.dsmk.kernel.subsys.federation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.Log;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.NameServer.NameEvent;
+import org.dsmk.api.NameServer.NameRegistration;
+import org.dsmk.api.NameServer.NameWatch;
+
+/**
+ * One kernel of a federation of the kernels of a host. It listens on the first free port of a range on
+ * the loopback interface and finds the other members by gossip: every round it raises its heartbeat,
+ * exchanges the members it knows alive with one of them picked at random and probes one more port of
+ * the range for members not known yet. A member whose heartbeat did not grow within the failure
+ * timeout, or which said it leaves, is dropped. The rounds run on a scheduler and never wait on the
+ * network: exchanges, probes and fetches run on the I/O executor, at most one per port or member at a
+ * time, so a port which accepts but never answers cannot delay the heartbeat. The members known are
+ * gossiped with over the connection their proxies use, so that every pair of members holds at most
+ * two connections and the threads serving them.
+ * <p>
+ * The instances registered locally under the exported name patterns are announced with the interfaces
+ * they implement. Every member fetches the exports of the others when their version changes and
+ * registers, under the same names in its own NameServer, proxies calling the exported instances over
+ * the connection to their member. Lookups thus read the local registry as before, the federation only
+ * changing it when the members or their exports change. Proxies are never exported again.
+ * <p>
+ * Arguments, return values and exceptions cross kernels through Java serialization, which is why the
+ * federation only ever listens on a loopback address, only serves the connections proving they know
+ * the secret of the federation, and only deserializes the classes the exported and proxied interfaces
+ * exchange, see {@link Wire.Protocol}.
+ */
+final class Federation implements Closeable {
+
+	/**
+	 * What is known of another member, its peer and proxies being guarded by the state
+	 */
+	private static final class MemberState {
+
+		volatile Wire.Member member;
+		volatile long seenNanos;
+		volatile boolean alive = true;
+		volatile boolean left;
+
+		volatile long fetchedVersion = -1;
+		final AtomicBoolean fetching = new AtomicBoolean();
+		Peer peer;
+		final Map<Long, NameRegistration> proxies = new HashMap<>();
+
+		MemberState(Wire.Member member, long seenNanos) {
+			this.member = member;
+			this.seenNanos = seenNanos;
+		}
+	}
+
+	/**
+	 * An instance exported by this member
+	 */
+	private static final class Exported {
+
+		final Wire.Export export;
+		final Object instance;
+		final Map<String, Method> methods = new ConcurrentHashMap<>();
+
+		Exported(Wire.Export export, Object instance) {
+			this.export = export;
+			this.instance = instance;
+		}
+
+		/**
+		 * @return the method of one of the exported interfaces with the name and parameter types
+		 */
+		Method method(String name, String[] parameterTypes) throws NoSuchMethodException {
+			String signature = name + Arrays.toString(parameterTypes);
+			Method method = methods.get(signature);
+			if (method == null) {
+				method = find(name, parameterTypes);
+				methods.put(signature, method);
+			}
+			return method;
+		}
+
+		private Method find(String name, String[] parameterTypes) throws NoSuchMethodException {
+			for (Class<?> typ : interfaces(instance.getClass())) {
+				for (Method method : typ.getMethods()) {
+					if (method.getName().equals(name) && matches(method.getParameterTypes(), parameterTypes)) {
+						return method;
+					}
+				}
+			}
+			throw new NoSuchMethodException(export.name + "." + name + Arrays.toString(parameterTypes));
+		}
+
+		private static boolean matches(Class<?>[] types, String[] names) {
+			if (types.length != names.length) {
+				return false;
+			}
+			for (int i = 0; i < types.length; i++) {
+				if (!types[i].getName().equals(names[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private final String id = UUID.randomUUID().toString();
+	private final NameServer nameServer;
+	private final Log log;
+	private final InetAddress host;
+	private final int firstPort;
+	private final int lastPort;
+	private final String[] exportPatterns;
+	private final long intervalMillis;
+	private final long failureNanos;
+	private final int timeoutMillis;
+	private final int gossipTimeoutMillis;
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService io;
+	private final ExecutorService connectionExecutor;
+	private final int maxConnections;
+	private final ClassLoader loader = Federation.class.getClassLoader();
+	private final Wire.Protocol protocol;
+
+	private final AtomicLong heartbeat = new AtomicLong();
+	private final Map<String, MemberState> members = new ConcurrentHashMap<>();
+	private final Map<Long, Exported> exported = new ConcurrentHashMap<>();
+	private final List<NameWatch> watches = new ArrayList<>();
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private final Set<Integer> exchanging = ConcurrentHashMap.newKeySet();
+
+	private volatile Wire.Exports exports = new Wire.Exports(0, Collections.<Wire.Export>emptyList());
+	private long nextObjectId;
+
+	private volatile boolean running;
+	private ServerSocket serverSocket;
+	private int port;
+	private int probed;
+	private Thread acceptor;
+	private ScheduledFuture<?> gossiper;
+
+	/**
+	 * @param scheduler
+	 *            runs the gossip rounds
+	 * @param io
+	 *            runs the exchanges, probes and fetches, at most two per port of the range at once
+	 * @param connectionExecutor
+	 *            serves the connections of the other members, at most maxConnections at once
+	 */
+	Federation(NameServer nameServer, Log log, InetAddress host, int firstPort, int lastPort, String[] exportPatterns,
+			long intervalMillis, long failureMillis, int timeoutMillis, byte[] secret, ScheduledExecutorService scheduler,
+			ExecutorService io, ExecutorService connectionExecutor, int maxConnections) {
+		this.nameServer = nameServer;
+		this.log = log;
+		this.host = host;
+		this.firstPort = firstPort;
+		this.lastPort = lastPort;
+		this.exportPatterns = exportPatterns;
+		this.intervalMillis = intervalMillis;
+		this.failureNanos = TimeUnit.MILLISECONDS.toNanos(failureMillis);
+		this.timeoutMillis = timeoutMillis;
+		// a member not answering a round is found out before the failure timeout of the others
+		this.gossipTimeoutMillis = (int) Math.max(1, Math.min(timeoutMillis, failureMillis / 2));
+		this.scheduler = scheduler;
+		this.io = io;
+		this.connectionExecutor = connectionExecutor;
+		this.maxConnections = maxConnections;
+		this.protocol = new Wire.Protocol(secret, loader);
+	}
+
+	/**
+	 * Listens on the first free port of the range, watches the exported names and starts gossiping
+	 *
+	 * @throws IOException
+	 *             if no port of the range is free
+	 */
+	void start() throws IOException {
+		for (int candidate = firstPort; candidate <= lastPort && serverSocket == null; candidate++) {
+			ServerSocket socket = new ServerSocket();
+			try {
+				socket.bind(new InetSocketAddress(host, candidate), 50);
+				serverSocket = socket;
+				port = candidate;
+			} catch (IOException e) {
+				socket.close();
+			}
+		}
+		if (serverSocket == null) {
+			throw new IOException("No free port between " + firstPort + " and " + lastPort + " on " + host);
+		}
+		probed = port;
+		running = true;
+
+		for (String pattern : exportPatterns) {
+			watches.add(nameServer.watch(pattern, this::exportChanged, false));
+		}
+
+		acceptor = new Thread(this::accept, "dsmk-federation-accept");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		gossiper = scheduler.scheduleWithFixedDelay(this::gossip, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	String id() {
+		return id;
+	}
+
+	int port() {
+		return port;
+	}
+
+	/**
+	 * @return the members known alive, this one excepted
+	 */
+	List<String> members() {
+		List<String> alive = new ArrayList<>();
+		for (MemberState state : members.values()) {
+			if (state.alive) {
+				alive.add(state.member.toString());
+			}
+		}
+		return alive;
+	}
+
+	/**
+	 * @return the public interfaces a class implements, markers excepted
+	 */
+	static Set<Class<?>> interfaces(Class<?> clz) {
+		Set<Class<?>> interfaces = new LinkedHashSet<>();
+		for (Class<?> c = clz; c != null; c = c.getSuperclass()) {
+			addInterfaces(c, interfaces);
+		}
+		interfaces.remove(Serializable.class);
+		interfaces.remove(Cloneable.class);
+		return interfaces;
+	}
+
+	private static void addInterfaces(Class<?> clz, Set<Class<?>> interfaces) {
+		for (Class<?> i : clz.getInterfaces()) {
+			if (Modifier.isPublic(i.getModifiers()) && interfaces.add(i)) {
+				addInterfaces(i, interfaces);
+			}
+		}
+	}
+
+	// exports
+
+	private synchronized void exportChanged(NameEvent event) {
+		Object instance = event.getInstance();
+		if (RemoteInvoker.isRemote(instance)) {
+			return;
+		}
+		if (event.getKind() == NameEvent.Kind.REGISTERED) {
+			for (Exported each : exported.values()) {
+				if (each.instance == instance && each.export.name.equals(event.getName())) {
+					// matched by more than one pattern
+					return;
+				}
+			}
+			Set<Class<?>> interfaces = interfaces(instance.getClass());
+			if (interfaces.isEmpty()) {
+				log.warn("{} registered under {} implements no public interface, it is not exported", instance, event.getName());
+				return;
+			}
+			String[] names = new String[interfaces.size()];
+			int i = 0;
+			for (Class<?> typ : interfaces) {
+				names[i++] = typ.getName();
+				protocol.allowInterface(typ);
+			}
+			long objectId = ++nextObjectId;
+			exported.put(objectId, new Exported(new Wire.Export(event.getName(), objectId, names), instance));
+			log.debug("Exporting {} under {}", instance, event.getName());
+		} else {
+			Iterator<Exported> iterator = exported.values().iterator();
+			while (iterator.hasNext()) {
+				Exported each = iterator.next();
+				if (each.instance == instance && each.export.name.equals(event.getName())) {
+					iterator.remove();
+					log.debug("Withdrawing {} exported under {}", instance, event.getName());
+					break;
+				}
+			}
+		}
+		List<Wire.Export> list = new ArrayList<>(exported.size());
+		for (Exported each : exported.values()) {
+			list.add(each.export);
+		}
+		exports = new Wire.Exports(exports.version + 1, Collections.unmodifiableList(list));
+	}
+
+	private Wire.Reply call(Wire.Call call) {
+		Exported target = exported.get(call.objectId);
+		if (target == null) {
+			return new Wire.Reply(null, new IllegalStateException("The instance called is no longer exported by " + id));
+		}
+		try {
+			return new Wire.Reply(target.method(call.method, call.parameterTypes).invoke(target.instance, call.args), null);
+		} catch (InvocationTargetException e) {
+			return new Wire.Reply(null, protocol.sendable(e.getCause()));
+		} catch (ReflectiveOperationException | IllegalArgumentException e) {
+			return new Wire.Reply(null, protocol.sendable(e));
+		}
+	}
+
+	// serving the other members
+
+	private void accept() {
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				if (connections.size() >= maxConnections) {
+					log.warn("Refused federation connection from port {}, {} connections served already", socket.getPort(),
+							connections.size());
+					socket.close();
+					continue;
+				}
+				socket.setTcpNoDelay(true);
+				connections.add(socket);
+				try {
+					connectionExecutor.execute(() -> serve(socket));
+				} catch (RejectedExecutionException e) {
+					connections.remove(socket);
+					socket.close();
+				}
+			} catch (IOException e) {
+				if (running) {
+					log.warn("Accepting a federation connection failed with {}", e.getMessage());
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			socket.setSoTimeout(timeoutMillis);
+			try {
+				protocol.accept(in, out);
+			} catch (EOFException | SocketException e) {
+				// a probe giving up
+				return;
+			} catch (IOException e) {
+				log.warn("Refused federation connection from port {}: {}", socket.getPort(), e.getMessage());
+				return;
+			}
+			socket.setSoTimeout(0);
+			while (running) {
+				Object reply;
+				try {
+					reply = handle(protocol.read(in));
+				} catch (InvalidObjectException e) {
+					// the frame was read whole, the connection is still in step
+					reply = new Wire.Reply(null, e);
+				}
+				try {
+					Wire.write(out, reply);
+				} catch (NotSerializableException e) {
+					Wire.write(out, new Wire.Reply(null, new NotSerializableException(e.getMessage())));
+				}
+			}
+		} catch (EOFException | SocketException e) {
+			// closed by the other member or on stop
+		} catch (IOException e) {
+			if (running) {
+				log.debug("Federation connection {} failed with {}", socket, e.getMessage());
+			}
+		} finally {
+			connections.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+	}
+
+	private Object handle(Object request) {
+		if (request instanceof Wire.Call) {
+			return call((Wire.Call) request);
+		} else if (request instanceof Wire.Gossip) {
+			merge(((Wire.Gossip) request).members);
+			return new Wire.Gossip(view());
+		} else if (request instanceof Wire.ExportsRequest) {
+			return exports;
+		} else if (request instanceof Wire.Leave) {
+			leave(((Wire.Leave) request).id);
+			return Wire.Reply.EMPTY;
+		}
+		return new Wire.Reply(null, new IllegalArgumentException("Unknown federation request " + request));
+	}
+
+	// membership
+
+	/**
+	 * @return this member and the ones known alive
+	 */
+	private List<Wire.Member> view() {
+		List<Wire.Member> view = new ArrayList<>();
+		view.add(new Wire.Member(id, port, heartbeat.get(), exports.version));
+		for (MemberState state : members.values()) {
+			if (state.alive) {
+				view.add(state.member);
+			}
+		}
+		return view;
+	}
+
+	private synchronized void merge(List<Wire.Member> gossiped) {
+		long now = System.nanoTime();
+		for (Wire.Member member : gossiped) {
+			if (member.id.equals(id)) {
+				continue;
+			}
+			MemberState state = members.get(member.id);
+			if (state == null) {
+				members.put(member.id, new MemberState(member, now));
+				log.info("Member {} joined the federation", member);
+			} else if (member.heartbeat > state.member.heartbeat && !state.left) {
+				state.member = member;
+				state.seenNanos = now;
+				if (!state.alive) {
+					state.alive = true;
+					log.info("Member {} is back in the federation", member);
+				}
+			}
+		}
+	}
+
+	private synchronized void leave(String memberId) {
+		MemberState state = members.get(memberId);
+		if (state != null && !state.left) {
+			state.left = true;
+			state.alive = false;
+			log.info("Member {} left the federation", state.member);
+		}
+	}
+
+	/**
+	 * A round of gossip, handing the exchanges and fetches over to the I/O executor
+	 */
+	private void gossip() {
+		if (!running) {
+			return;
+		}
+		try {
+			heartbeat.incrementAndGet();
+
+			List<MemberState> alive = new ArrayList<>();
+			Set<Integer> known = new HashSet<>();
+			for (MemberState state : members.values()) {
+				if (state.alive) {
+					alive.add(state);
+					known.add(state.member.port);
+				}
+			}
+			if (!alive.isEmpty()) {
+				MemberState picked = alive.get(ThreadLocalRandom.current().nextInt(alive.size()));
+				exchangeAsync(picked.member.port, picked);
+			}
+			int unknown = nextProbe(known);
+			if (unknown > 0) {
+				exchangeAsync(unknown, null);
+			}
+
+			detectFailures();
+			synchronizeProxies();
+		} catch (RuntimeException e) {
+			// the next round must run anyway
+			e.printStackTrace(System.err);
+		}
+	}
+
+	/**
+	 * @return the next port of the range neither this member nor a known one listens on, 0 if none
+	 */
+	private int nextProbe(Set<Integer> known) {
+		int ports = lastPort - firstPort + 1;
+		for (int i = 0; i < ports; i++) {
+			probed = probed >= lastPort ? firstPort : probed + 1;
+			if (probed != port && !known.contains(probed)) {
+				return probed;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Exchanges with the port on the I/O executor, unless an exchange with it is running already
+	 *
+	 * @param state
+	 *            of the member known on the port, null for a probe
+	 */
+	private void exchangeAsync(int memberPort, MemberState state) {
+		if (!exchanging.add(memberPort)) {
+			return;
+		}
+		try {
+			io.execute(() -> {
+				try {
+					exchange(memberPort, state);
+				} finally {
+					exchanging.remove(memberPort);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			exchanging.remove(memberPort);
+		}
+	}
+
+	private void exchange(int memberPort, MemberState state) {
+		try {
+			Wire.Gossip gossip = new Wire.Gossip(view());
+			Peer peer = state != null ? peer(state) : null;
+			Object reply = peer != null ? peer.request(gossip)
+					: Peer.request(new InetSocketAddress(host, memberPort), gossipTimeoutMillis, protocol, gossip);
+			if (reply instanceof Wire.Gossip) {
+				merge(((Wire.Gossip) reply).members);
+			}
+		} catch (IOException e) {
+			// nobody there, or a member the failure detection will drop
+		}
+	}
+
+	private synchronized void detectFailures() {
+		long now = System.nanoTime();
+		for (MemberState state : members.values()) {
+			if (state.alive && now - state.seenNanos > failureNanos) {
+				state.alive = false;
+				log.warn("Member {} failed, no heartbeat for {}ms", state.member, TimeUnit.NANOSECONDS.toMillis(now - state.seenNanos));
+			} else if (!state.alive && now - state.seenNanos > 10 * failureNanos) {
+				synchronized (state) {
+					if (state.proxies.isEmpty()) {
+						// no longer gossiped by anyone
+						members.remove(state.member.id);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Withdraws the proxies of the members gone and fetches, on the I/O executor, the exports which
+	 * changed
+	 */
+	private void synchronizeProxies() {
+		for (MemberState state : members.values()) {
+			if (!state.alive) {
+				synchronized (state) {
+					if (state.peer != null) {
+						withdraw(state, Collections.<Long>emptySet());
+						// aborts a fetch waiting for the member
+						state.peer.close();
+						state.peer = null;
+						state.fetchedVersion = -1;
+					}
+				}
+			} else if (state.member.exportsVersion != state.fetchedVersion && state.fetching.compareAndSet(false, true)) {
+				try {
+					io.execute(() -> {
+						try {
+							fetch(state);
+						} finally {
+							state.fetching.set(false);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					state.fetching.set(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the connection to the member, null if it failed or this member stops
+	 */
+	private Peer peer(MemberState state) {
+		synchronized (state) {
+			if (!running || !state.alive) {
+				return null;
+			}
+			if (state.peer == null) {
+				state.peer = new Peer(new InetSocketAddress(host, state.member.port), timeoutMillis, protocol);
+			}
+			return state.peer;
+		}
+	}
+
+	/**
+	 * Fetches the exports of a member and synchronizes its proxies, unless the member failed meanwhile
+	 */
+	private void fetch(MemberState state) {
+		Wire.Member member = state.member;
+		Peer peer = peer(state);
+		if (peer == null) {
+			return;
+		}
+		Object reply;
+		try {
+			reply = peer.request(new Wire.ExportsRequest());
+		} catch (IOException e) {
+			log.debug("Fetching the exports of {} failed with {}", member, e.getMessage());
+			return;
+		}
+		if (!(reply instanceof Wire.Exports)) {
+			log.debug("Fetching the exports of {} failed with {}", member, reply);
+			return;
+		}
+		Wire.Exports fetched = (Wire.Exports) reply;
+
+		synchronized (state) {
+			if (!running || state.peer != peer) {
+				// failed or stopped meanwhile, its proxies were withdrawn
+				return;
+			}
+			Set<Long> current = new HashSet<>();
+			for (Wire.Export export : fetched.exports) {
+				current.add(export.objectId);
+				if (!state.proxies.containsKey(export.objectId)) {
+					Object proxy = proxy(peer, member, export);
+					if (proxy != null) {
+						try {
+							state.proxies.put(export.objectId, nameServer.register(export.name, proxy));
+						} catch (NamingException e) {
+							e.printStackTrace(System.err);
+						}
+					}
+				}
+			}
+			withdraw(state, current);
+			state.fetchedVersion = fetched.version;
+		}
+		log.debug("Synchronized {} exports of {}", fetched.exports.size(), member);
+	}
+
+	/**
+	 * @return a proxy with the exported interfaces this kernel knows, null if it knows none
+	 */
+	private Object proxy(Peer peer, Wire.Member member, Wire.Export export) {
+		List<Class<?>> interfaces = new ArrayList<>(export.interfaces.length);
+		for (String name : export.interfaces) {
+			try {
+				Class<?> typ = Class.forName(name, false, loader);
+				protocol.allowInterface(typ);
+				interfaces.add(typ);
+			} catch (ClassNotFoundException e) {
+				// not usable here
+			}
+		}
+		if (interfaces.isEmpty()) {
+			log.debug("None of the interfaces of {} exported by {} is known, it is not proxied", export.name, member);
+			return null;
+		}
+		return Proxy.newProxyInstance(loader, interfaces.toArray(new Class<?>[interfaces.size()]),
+				new RemoteInvoker(peer, member.id, export));
+	}
+
+	/**
+	 * Unregisters the proxies of a member but the ones of the objects kept
+	 */
+	private void withdraw(MemberState state, Set<Long> kept) {
+		Iterator<Map.Entry<Long, NameRegistration>> iterator = state.proxies.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Long, NameRegistration> entry = iterator.next();
+			if (!kept.contains(entry.getKey())) {
+				try {
+					entry.getValue().unRegister();
+				} catch (NamingException e) {
+					e.printStackTrace(System.err);
+				}
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Tells the members alive this one leaves, waiting for them at most the gossip timeout, then stops
+	 * serving them and withdraws their proxies
+	 */
+	@Override
+	public void close() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		for (NameWatch watch : watches) {
+			watch.cancel();
+		}
+		gossiper.cancel(false);
+
+		List<CompletableFuture<Void>> leaving = new ArrayList<>();
+		for (MemberState state : members.values()) {
+			if (state.alive) {
+				Peer peer;
+				synchronized (state) {
+					peer = state.peer;
+				}
+				try {
+					leaving.add(CompletableFuture.runAsync(() -> {
+						try {
+							Wire.Leave leave = new Wire.Leave(id);
+							if (peer != null) {
+								peer.request(leave);
+							} else {
+								Peer.request(new InetSocketAddress(host, state.member.port), gossipTimeoutMillis, protocol, leave);
+							}
+						} catch (IOException e) {
+							// it will find out by itself
+						}
+					}, io));
+				} catch (RejectedExecutionException e) {
+					// it will find out by itself
+				}
+			}
+		}
+		try {
+			CompletableFuture.allOf(leaving.toArray(new CompletableFuture<?>[leaving.size()])).get(gossipTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException | TimeoutException e) {
+			// the others will find out by themselves
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace(System.err);
+		}
+		for (Socket socket : connections) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+
+		for (MemberState state : members.values()) {
+			synchronized (state) {
+				withdraw(state, Collections.<Long>emptySet());
+				if (state.peer != null) {
+					state.peer.close();
+				}
+			}
+		}
+		members.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "Federation [" + id + "@" + host.getHostAddress() + ":" + port + "]";
+	}
+}
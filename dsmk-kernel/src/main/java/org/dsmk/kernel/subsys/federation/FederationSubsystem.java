@@ -0,0 +1,255 @@
+package org.dsmk.kernel.subsys.federation;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.Config;
+import org.dsmk.api.ConfigServer;
+import org.dsmk.api.ExecutorServer;
+import org.dsmk.api.ExecutorServer.ExecutorStats;
+import org.dsmk.api.Log;
+import org.dsmk.api.LogServer;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.Result;
+import org.dsmk.api.Result.Status;
+import org.dsmk.api.Subsystem;
+import org.dsmk.kernel.ConfigSnapshot;
+
+import com.github.krukow.clj_lang.PersistentHashMap;
+import com.google.common.base.Preconditions;
+
+/**
+ * Federates the NameServer of this kernel with the ones of the other kernels of the host when
+ * dsmk.subsys.federation.enabled is true, see {@link Federation}. The names matching the patterns of
+ * dsmk.subsys.federation.export are exported and the names the other kernels export are registered
+ * here as proxies, so that they are looked up like the local ones. Gossip runs on the
+ * dsmk.subsys.federation executors of the {@link ExecutorServer}, and at most
+ * dsmk.subsys.federation.max.connections connections of other kernels are served at once.
+ * <p>
+ * Only the kernels knowing the secret of dsmk.subsys.federation.secret.file, by default
+ * ~/.dsmk/federation.secret, join the federation. The first kernel started creates it readable by its
+ * owner only, and a kernel refuses to start on a secret the group or others may read.
+ */
+public class FederationSubsystem implements Subsystem {
+
+	private static UUID uuid = UUID.fromString("0f6c2b7e-5d41-4c8a-9e35-7a1d2f9b6c40");
+	private static String NAME = "dsmk.subsys.federation";
+
+	private static final Map<String, Object> persistentMap;
+	static {
+		Map<String, Object> tempMap = new HashMap<>();
+		tempMap.put("UUID", uuid);
+		tempMap.put("NAME", NAME);
+		tempMap.put(Subsystem.REQUIRES, new String[] { LogServer.class.getName(), ExecutorServer.class.getName() });
+		persistentMap = PersistentHashMap.create(tempMap);
+	}
+
+	static final String PREFIX = "dsmk.subsys.federation";
+
+	private static final int SECRET_MIN_BYTES = 16;
+
+	private NameServer nameServer;
+
+	private Federation federation;
+
+	private Config configuration = ConfigSnapshot.of(new Properties(), 0);
+
+	private Log log;
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public UUID id() {
+		return uuid;
+	}
+
+	@Override
+	public Map<String, Object> attributes() {
+		return persistentMap;
+	}
+
+	@Override
+	public Result configure(Map<String, Object> config) {
+		nameServer = (NameServer) config.get(NameServer.class.getName());
+
+		Preconditions.checkArgument(nameServer != null, "A valid instance of %s is required for configuring FederationSubsystem %s",
+				NameServer.class.getName(), name());
+
+		if (config.get("config-server") instanceof ConfigServer) {
+			configuration = ((ConfigServer) config.get("config-server")).current();
+		} else if (config.get("config-properties") instanceof Properties) {
+			configuration = ConfigSnapshot.of((Properties) config.get("config-properties"), 0);
+		}
+
+		try {
+			LogServer logServer = nameServer.lookup1(LogServer.class);
+			log = logServer.getLog(this);
+		} catch (NamingException e) {
+			e.printStackTrace(System.err);
+			return new Result(Status.NOT_OK, "dsmk.federation.notok", "dsmk.federation.err.onConfig");
+		}
+
+		log.debug("{} configuration complete", name());
+		return Result.OK;
+	}
+
+	/**
+	 * Joins the federation on the first free port of dsmk.subsys.federation.ports, a range such as
+	 * 7700-7707 shared by the kernels of the host, on dsmk.subsys.federation.host which has to be a
+	 * loopback address
+	 */
+	@Override
+	public Result start() {
+		Config settings = configuration.scope(PREFIX);
+		if (!settings.getBoolean("enabled", false)) {
+			log.info("Federation disabled, {} not started", name());
+			return Result.OK;
+		}
+		log.info("Starting FederationSubsystem - {}", name());
+
+		try {
+			InetAddress host = InetAddress.getByName(settings.getString("host", "127.0.0.1"));
+			Preconditions.checkArgument(host.isLoopbackAddress(), "%s.host has to be a loopback address, got %s", PREFIX, host);
+
+			String[] ports = settings.getString("ports", "7700-7707").split("-");
+			int firstPort = Integer.parseInt(ports[0].trim());
+			int lastPort = ports.length > 1 ? Integer.parseInt(ports[1].trim()) : firstPort;
+			Preconditions.checkArgument(firstPort > 0 && firstPort <= lastPort, "Invalid %s.ports %s", PREFIX,
+					settings.getString("ports"));
+
+			String secretFile = settings.getString("secret.file", "").trim();
+			byte[] secret = secret(secretFile.isEmpty() ? Paths.get(System.getProperty("user.home"), ".dsmk", "federation.secret")
+					: Paths.get(secretFile));
+
+			int maxConnections = settings.getInt("max.connections", 16);
+			Preconditions.checkArgument(maxConnections > 0, "Invalid %s.max.connections %s", PREFIX, maxConnections);
+			ExecutorServer executorServer = nameServer.lookup1(ExecutorServer.class);
+			ExecutorService connections = executorServer.blocking(PREFIX + ".connections", maxConnections);
+			for (ExecutorStats stats : executorServer.stats()) {
+				if (stats.getName().equals(PREFIX + ".connections") && stats.getThreads() > 0) {
+					// platform threads, as many as the budget had left
+					maxConnections = Math.min(maxConnections, stats.getThreads());
+				}
+			}
+
+			List<String> exports = settings.getList("export");
+			federation = new Federation(nameServer, log, host, firstPort, lastPort, exports.toArray(new String[exports.size()]),
+					settings.getLong("gossip.interval.ms", 500), settings.getLong("failure.ms", 3000),
+					settings.getInt("call.timeout.ms", 5000), secret, executorServer.scheduled(PREFIX + ".gossip", 1),
+					executorServer.blocking(PREFIX + ".io", Math.min(4, lastPort - firstPort + 1)), connections, maxConnections);
+			federation.start();
+		} catch (UnknownHostException | IllegalArgumentException e) {
+			e.printStackTrace(System.err);
+			log.error("Invalid federation settings due to {}", e.getMessage());
+			return new Result(Status.NOT_OK, "dsmk.federation.notok", "dsmk.federation.start.err");
+		} catch (IOException | NamingException e) {
+			e.printStackTrace(System.err);
+			log.error("Failed to join the federation due to {}", e.getMessage());
+			return new Result(Status.NOT_OK, "dsmk.federation.notok", "dsmk.federation.start.err");
+		}
+
+		log.info("Started FederationSubsystem - {} as {} exporting {}", name(), federation, settings.getList("export"));
+		return Result.OK;
+	}
+
+	/**
+	 * @return the secret of the file, created with a random one readable by its owner only when missing
+	 * @throws IOException
+	 *             if the file cannot be read or created, is too short, or the group or others may read it
+	 */
+	private byte[] secret(Path file) throws IOException {
+		boolean posix = Files.getFileStore(existing(file)).supportsFileAttributeView(PosixFileAttributeView.class);
+		if (!Files.exists(file)) {
+			Path dir = file.toAbsolutePath().getParent();
+			if (posix) {
+				Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+			} else {
+				Files.createDirectories(dir);
+			}
+			byte[] random = new byte[32];
+			new SecureRandom().nextBytes(random);
+			StringBuilder hex = new StringBuilder();
+			for (byte b : random) {
+				hex.append(String.format("%02x", b));
+			}
+			Path temp = posix
+					? Files.createTempFile(dir, "federation", ".tmp", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+					: Files.createTempFile(dir, "federation", ".tmp");
+			try {
+				Files.write(temp, hex.append('\n').toString().getBytes(StandardCharsets.US_ASCII));
+				// the kernels starting together agree on the first secret linked
+				Files.createLink(file, temp);
+				log.info("Created the federation secret {}", file);
+			} catch (FileAlreadyExistsException e) {
+				// created by another kernel meanwhile
+			} catch (UnsupportedOperationException | IOException e) {
+				if (!Files.exists(file)) {
+					Files.move(temp, file);
+				}
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+		if (posix) {
+			Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+			permissions.retainAll(EnumSet.of(PosixFilePermission.GROUP_READ, PosixFilePermission.GROUP_WRITE,
+					PosixFilePermission.OTHERS_READ, PosixFilePermission.OTHERS_WRITE));
+			if (!permissions.isEmpty()) {
+				throw new IOException("The federation secret " + file + " has to be readable by its owner only, it is "
+						+ PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+			}
+		}
+		byte[] secret = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().getBytes(StandardCharsets.UTF_8);
+		if (secret.length < SECRET_MIN_BYTES) {
+			throw new IOException("The federation secret " + file + " is shorter than " + SECRET_MIN_BYTES + " bytes");
+		}
+		return secret;
+	}
+
+	/**
+	 * @return the file or its closest ancestor which exists
+	 */
+	private static Path existing(Path file) {
+		Path path = file.toAbsolutePath();
+		while (!Files.exists(path)) {
+			path = path.getParent();
+		}
+		return path;
+	}
+
+	@Override
+	public Result stop() {
+		if (federation == null) {
+			return Result.OK;
+		}
+		log.info("Stopping FederationSubsystem - {}", name());
+		federation.close();
+		federation = null;
+		log.info("Stopped FederationSubsystem - {}", name());
+		return Result.OK;
+	}
+
+}
@@ -0,0 +1,125 @@
+package org.dsmk.kernel.subsys.federation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * The connection to another member, opened on the first request and again after a failure, then
+ * authenticated by the handshake of the protocol. Requests are made one at a time, the replies being
+ * read on the calling thread within the call timeout.
+ */
+final class Peer implements Closeable {
+
+	private final InetSocketAddress address;
+	private final int timeoutMillis;
+	private final Wire.Protocol protocol;
+
+	private volatile Socket socket;
+	private DataInputStream in;
+	private DataOutputStream out;
+	private volatile boolean closed;
+
+	Peer(InetSocketAddress address, int timeoutMillis, Wire.Protocol protocol) {
+		this.address = address;
+		this.timeoutMillis = timeoutMillis;
+		this.protocol = protocol;
+	}
+
+	/**
+	 * Sends a request over a connection of its own, for the members not known yet
+	 */
+	static Object request(InetSocketAddress address, int timeoutMillis, Wire.Protocol protocol, Object message) throws IOException {
+		try (Socket socket = connect(address, timeoutMillis)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			protocol.connect(in, out);
+			Wire.write(out, message);
+			return protocol.read(in);
+		}
+	}
+
+	private static Socket connect(InetSocketAddress address, int timeoutMillis) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.connect(address, timeoutMillis);
+			socket.setSoTimeout(timeoutMillis);
+			return socket;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the member could not be reached or did not answer in time, the connection being
+	 *             closed then
+	 */
+	synchronized Object request(Object message) throws IOException {
+		if (closed) {
+			throw new IOException("Connection to " + address + " closed");
+		}
+		try {
+			if (socket == null) {
+				socket = connect(address, timeoutMillis);
+				in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				protocol.connect(in, out);
+			}
+			Wire.write(out, message);
+			return protocol.read(in);
+		} catch (NotSerializableException | InvalidObjectException e) {
+			// nothing was written, or the reply was read whole, the connection is still in step
+			throw e;
+		} catch (IOException e) {
+			disconnect();
+			throw e;
+		}
+	}
+
+	private void disconnect() {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+			socket = null;
+			in = null;
+			out = null;
+		}
+	}
+
+	/**
+	 * Closes the connection, failing the request waiting for its reply if any
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Socket current = socket;
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+		synchronized (this) {
+			disconnect();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Peer [" + address + "]";
+	}
+}
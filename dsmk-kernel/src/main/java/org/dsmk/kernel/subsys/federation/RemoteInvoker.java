@@ -0,0 +1,69 @@
+package org.dsmk.kernel.subsys.federation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Behind the proxy of an instance exported by another member: calls are sent to the member with their
+ * arguments serialized, and return what the instance returned or throw what it threw. equals, hashCode
+ * and toString are answered locally.
+ */
+final class RemoteInvoker implements InvocationHandler {
+
+	private final Peer peer;
+	private final String member;
+	private final Wire.Export export;
+
+	RemoteInvoker(Peer peer, String member, Wire.Export export) {
+		this.peer = peer;
+		this.member = member;
+		this.export = export;
+	}
+
+	/**
+	 * @return true if the instance is a proxy of a remote instance, which is never exported again
+	 */
+	static boolean isRemote(Object instance) {
+		return Proxy.isProxyClass(instance.getClass()) && Proxy.getInvocationHandler(instance) instanceof RemoteInvoker;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			switch (method.getName()) {
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			default:
+				return toString();
+			}
+		}
+
+		Class<?>[] types = method.getParameterTypes();
+		String[] parameterTypes = new String[types.length];
+		for (int i = 0; i < types.length; i++) {
+			parameterTypes[i] = types[i].getName();
+		}
+
+		Object reply;
+		try {
+			reply = peer.request(new Wire.Call(export.objectId, method.getName(), parameterTypes, args));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Calling " + method.getName() + " on " + this + " failed", e);
+		}
+		Wire.Reply result = (Wire.Reply) reply;
+		if (result.failure != null) {
+			throw result.failure;
+		}
+		return result.value;
+	}
+
+	@Override
+	public String toString() {
+		return "RemoteProxy [" + export.name + "@" + member + "]";
+	}
+}
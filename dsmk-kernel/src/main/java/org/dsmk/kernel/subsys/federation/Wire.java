@@ -0,0 +1,412 @@
+package org.dsmk.kernel.subsys.federation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The messages the kernels of a federation exchange. Every message is a request answered by one
+ * message, written as its length followed by its Java serialization so that a message which cannot
+ * be serialized fails alone instead of breaking the connection.
+ * <p>
+ * A connection carries messages only once both ends proved they know the secret of the federation,
+ * see {@link Protocol}, and a message is only deserialized into the classes the protocol allows.
+ */
+final class Wire {
+
+	/**
+	 * Frames larger than this are refused as the sign of a broken stream
+	 */
+	static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * A kernel as gossiped: its heartbeat grows as long as it is alive, its exports version with every
+	 * change to the names it exports
+	 */
+	static final class Member implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String id;
+		final int port;
+		final long heartbeat;
+		final long exportsVersion;
+
+		Member(String id, int port, long heartbeat, long exportsVersion) {
+			this.id = id;
+			this.port = port;
+			this.heartbeat = heartbeat;
+			this.exportsVersion = exportsVersion;
+		}
+
+		@Override
+		public String toString() {
+			return id + "@" + port;
+		}
+	}
+
+	/**
+	 * The members the sender knows alive, itself included, answered with the ones the receiver knows
+	 */
+	static final class Gossip implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final List<Member> members;
+
+		Gossip(List<Member> members) {
+			this.members = members;
+		}
+	}
+
+	/**
+	 * Sent by a kernel stopping, answered with an empty {@link Reply}
+	 */
+	static final class Leave implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String id;
+
+		Leave(String id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Asks a member for the names it exports, answered with {@link Exports}
+	 */
+	static final class ExportsRequest implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * An instance exported under a name, proxied by the other members with the interfaces it implements
+	 */
+	static final class Export implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String name;
+		final long objectId;
+		final String[] interfaces;
+
+		Export(String name, long objectId, String[] interfaces) {
+			this.name = name;
+			this.objectId = objectId;
+			this.interfaces = interfaces;
+		}
+	}
+
+	static final class Exports implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final long version;
+		final List<Export> exports;
+
+		Exports(long version, List<Export> exports) {
+			this.version = version;
+			this.exports = exports;
+		}
+	}
+
+	/**
+	 * A method called on a proxy, answered with a {@link Reply}
+	 */
+	static final class Call implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final long objectId;
+		final String method;
+		final String[] parameterTypes;
+		final Object[] args;
+
+		Call(long objectId, String method, String[] parameterTypes, Object[] args) {
+			this.objectId = objectId;
+			this.method = method;
+			this.parameterTypes = parameterTypes;
+			this.args = args;
+		}
+	}
+
+	/**
+	 * The value returned or the exception thrown
+	 */
+	static final class Reply implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		static final Reply EMPTY = new Reply(null, null);
+
+		final Object value;
+		final Throwable failure;
+
+		Reply(Object value, Throwable failure) {
+			this.value = value;
+			this.failure = failure;
+		}
+	}
+
+	private Wire() {
+	}
+
+	/**
+	 * @throws java.io.NotSerializableException
+	 *             if the message holds something not serializable, nothing being written then
+	 */
+	static void write(DataOutputStream out, Object message) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+			objects.writeObject(message);
+		}
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		out.flush();
+	}
+
+	/**
+	 * What the members of a federation share: the secret a connection proves it knows before it carries
+	 * any message, and the classes a message may hold. These are the messages themselves, strings,
+	 * boxed primitives, the arrays and lists the messages use, the common exceptions, and the
+	 * parameter, return and exception types of the interfaces exported or proxied.
+	 * <p>
+	 * The handshake is a challenge-response over HMAC-SHA256, so the secret never crosses the
+	 * connection and a process listening on a port of the range learns nothing from being probed. The
+	 * accepting side sends a nonce, the connecting side answers with its own nonce and the MAC of both,
+	 * and the accepting side proves the secret back the same way.
+	 */
+	static final class Protocol {
+
+		private static final int HANDSHAKE_MAGIC = 0x64736d66;
+		private static final int NONCE_BYTES = 16;
+		private static final int MAC_BYTES = 32;
+		private static final String MAC_ALGORITHM = "HmacSHA256";
+
+		private static final Class<?>[] ALLOWED = { Member.class, Gossip.class, Leave.class, ExportsRequest.class, Export.class,
+				Exports.class, Call.class, Reply.class, String.class, Boolean.class, Byte.class, Character.class, Short.class,
+				Integer.class, Long.class, Float.class, Double.class, boolean[].class, byte[].class, char[].class, short[].class,
+				int[].class, long[].class, float[].class, double[].class, Object[].class, String[].class, ArrayList.class,
+				Collections.unmodifiableList(new ArrayList<>()).getClass(), Collections.unmodifiableList(Collections.emptyList()).getClass(),
+				Collections.emptyList().getClass(), StackTraceElement.class, StackTraceElement[].class, IllegalStateException.class,
+				IllegalArgumentException.class, UnsupportedOperationException.class, NullPointerException.class,
+				NoSuchElementException.class, ClassCastException.class, IndexOutOfBoundsException.class, ArithmeticException.class,
+				UncheckedIOException.class, InvalidObjectException.class, InvalidClassException.class, NotSerializableException.class,
+				ObjectStreamException.class, NoSuchMethodException.class, TimeoutException.class };
+
+		private final byte[] secret;
+		private final ClassLoader loader;
+		private final Set<String> allowed = ConcurrentHashMap.newKeySet();
+		private final SecureRandom random = new SecureRandom();
+
+		/**
+		 * @param secret
+		 *            shared by the members of the federation
+		 * @param loader
+		 *            resolves the classes of the messages
+		 */
+		Protocol(byte[] secret, ClassLoader loader) {
+			this.secret = secret.clone();
+			this.loader = loader;
+			for (Class<?> type : ALLOWED) {
+				allow(type);
+			}
+		}
+
+		/**
+		 * Allows the class in messages, with its superclasses and, for an array, its component type
+		 */
+		void allow(Class<?> type) {
+			while (type.isArray()) {
+				allowed.add(type.getName());
+				type = type.getComponentType();
+			}
+			for (Class<?> c = type; c != null && !c.isPrimitive(); c = c.getSuperclass()) {
+				allowed.add(c.getName());
+			}
+		}
+
+		/**
+		 * Allows the parameter, return and exception types of the methods of an interface exported or
+		 * proxied, the classes its calls exchange
+		 */
+		void allowInterface(Class<?> typ) {
+			for (Method method : typ.getMethods()) {
+				for (Class<?> parameter : method.getParameterTypes()) {
+					allow(parameter);
+				}
+				allow(method.getReturnType());
+				for (Class<?> exception : method.getExceptionTypes()) {
+					allow(exception);
+				}
+			}
+		}
+
+		boolean isAllowed(String className) {
+			return allowed.contains(className);
+		}
+
+		/**
+		 * @return the failure as it can be sent, turned into an IllegalStateException holding its class
+		 *         name and message when it or one of its causes is of a class not allowed
+		 */
+		Throwable sendable(Throwable failure) {
+			if (failure == null || isSendable(failure)) {
+				return failure;
+			}
+			IllegalStateException sendable = new IllegalStateException(failure.toString(), sendable(failure.getCause()));
+			sendable.setStackTrace(failure.getStackTrace());
+			return sendable;
+		}
+
+		private boolean isSendable(Throwable failure) {
+			for (Throwable t = failure; t != null; t = t.getCause()) {
+				if (!isAllowed(t.getClass().getName()) || t.getSuppressed().length > 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		Object read(DataInputStream in) throws IOException {
+			int length = in.readInt();
+			if (length < 0 || length > MAX_FRAME_BYTES) {
+				throw new InvalidObjectException("Invalid frame length " + length);
+			}
+			byte[] frame = new byte[length];
+			in.readFully(frame);
+			// the frame was read whole, failing to deserialize it leaves the connection in step
+			try (ObjectInputStream objects = new AllowedObjectInputStream(new ByteArrayInputStream(frame))) {
+				return objects.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new InvalidObjectException("Class of the message not found: " + e.getMessage());
+			} catch (InvalidObjectException e) {
+				throw e;
+			} catch (IOException e) {
+				throw new InvalidObjectException("Invalid message: " + e);
+			}
+		}
+
+		/**
+		 * The handshake of the side accepting the connection
+		 *
+		 * @throws IOException
+		 *             if the other side does not prove it knows the secret
+		 */
+		void accept(DataInputStream in, DataOutputStream out) throws IOException {
+			byte[] challenge = nonce();
+			out.writeInt(HANDSHAKE_MAGIC);
+			out.write(challenge);
+			out.flush();
+
+			byte[] nonce = new byte[NONCE_BYTES];
+			byte[] proof = new byte[MAC_BYTES];
+			in.readFully(nonce);
+			in.readFully(proof);
+			if (!MessageDigest.isEqual(proof, mac("connect", challenge, nonce))) {
+				throw new IOException("The connection did not prove it knows the federation secret");
+			}
+			out.write(mac("accept", challenge, nonce));
+			out.flush();
+		}
+
+		/**
+		 * The handshake of the side opening the connection
+		 *
+		 * @throws IOException
+		 *             if the other side is not a member or does not prove it knows the secret
+		 */
+		void connect(DataInputStream in, DataOutputStream out) throws IOException {
+			if (in.readInt() != HANDSHAKE_MAGIC) {
+				throw new IOException("Not a federation member");
+			}
+			byte[] challenge = new byte[NONCE_BYTES];
+			in.readFully(challenge);
+			byte[] nonce = nonce();
+			out.write(nonce);
+			out.write(mac("connect", challenge, nonce));
+			out.flush();
+
+			byte[] proof = new byte[MAC_BYTES];
+			in.readFully(proof);
+			if (!MessageDigest.isEqual(proof, mac("accept", challenge, nonce))) {
+				throw new IOException("The member did not prove it knows the federation secret");
+			}
+		}
+
+		private byte[] nonce() {
+			byte[] nonce = new byte[NONCE_BYTES];
+			random.nextBytes(nonce);
+			return nonce;
+		}
+
+		private byte[] mac(String side, byte[] challenge, byte[] nonce) throws IOException {
+			try {
+				Mac mac = Mac.getInstance(MAC_ALGORITHM);
+				mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+				mac.update(side.getBytes(StandardCharsets.UTF_8));
+				mac.update(challenge);
+				mac.update(nonce);
+				return mac.doFinal();
+			} catch (GeneralSecurityException e) {
+				throw new IOException("Unable to authenticate the connection", e);
+			}
+		}
+
+		/**
+		 * Resolves the classes of the messages with the loader of the subsystem rather than the one of
+		 * the caller's caller, refusing the classes not allowed and proxies
+		 */
+		private final class AllowedObjectInputStream extends ObjectInputStream {
+
+			AllowedObjectInputStream(ByteArrayInputStream in) throws IOException {
+				super(in);
+			}
+
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+				if (!isAllowed(desc.getName())) {
+					throw new InvalidClassException(desc.getName(), "not allowed in federation messages");
+				}
+				try {
+					return Class.forName(desc.getName(), false, loader);
+				} catch (ClassNotFoundException e) {
+					return super.resolveClass(desc);
+				}
+			}
+
+			@Override
+			protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+				throw new InvalidClassException("Proxies are not allowed in federation messages");
+			}
+		}
+	}
+}
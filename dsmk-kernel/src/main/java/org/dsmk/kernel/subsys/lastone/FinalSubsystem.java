@@ -24,9 +24,10 @@ public class FinalSubsystem implements Subsystem {
 	
 	private static final Map<String, Object> persistentMap;
 	static {
-		Map<String, Object> tempMap = new HashMap();
+		Map<String, Object> tempMap = new HashMap<>();
 		tempMap.put("UUID", uuid);
 		tempMap.put("NAME", NAME);
+		tempMap.put(Subsystem.REQUIRES, new String[] { LogServer.class.getName() });
 		persistentMap = PersistentHashMap.create(tempMap);
 	}
 	
@@ -57,7 +58,7 @@ public class FinalSubsystem implements Subsystem {
 		Preconditions.checkArgument(nameServer != null, "A valid instance of %s is required for configuring FinalSubsystem %s",NameServer.class.getName(),name());
 		
 		try {
-			LogServer logServer = nameServer.lookup1(LogServer.class.getName(),LogServer.class);
+			LogServer logServer = nameServer.lookup1(LogServer.class);
 			log = logServer.getLog(this);
 		} catch (NamingException e) {
 			e.printStackTrace(System.err);
@@ -0,0 +1,112 @@
+package org.dsmk.kernel.subsys.messaging;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.MapMaker;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Direct ByteBuffers in power of two sizes, from 256 bytes to the largest pooled size. Released
+ * buffers are kept for the next allocation of their size, as long as the free buffers hold less than
+ * the pool's budget; larger buffers are allocated each time and left to the GC.
+ * <p>
+ * The pool knows the buffers it handed out, by identity and weakly, and takes back only those and
+ * only once: a view of a pooled buffer, a buffer from elsewhere or one released already is left
+ * alone, so that no buffer is handed out twice.
+ */
+final class BufferPool {
+
+	private static final int MIN_SHIFT = 8;
+
+	private final int maxShift;
+	private final long maxPooledBytes;
+	private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+	private final AtomicLong pooledBytes = new AtomicLong();
+	private final Set<ByteBuffer> allocated = Collections.newSetFromMap(new MapMaker().weakKeys().<ByteBuffer, Boolean>makeMap());
+
+	/**
+	 * @param maxBufferBytes
+	 *            the largest size pooled, rounded up to a power of two
+	 * @param maxPooledBytes
+	 *            the bytes the free buffers may hold
+	 */
+	@SuppressWarnings("unchecked")
+	BufferPool(int maxBufferBytes, long maxPooledBytes) {
+		checkArgument(maxBufferBytes > 0 && maxBufferBytes <= 1 << 30, "Largest pooled buffer %s out of range", maxBufferBytes);
+		this.maxShift = Math.max(shiftOf(maxBufferBytes), MIN_SHIFT);
+		this.maxPooledBytes = maxPooledBytes;
+		this.free = new ConcurrentLinkedQueue[maxShift - MIN_SHIFT + 1];
+		for (int i = 0; i < free.length; i++) {
+			free[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	/**
+	 * @return the smallest shift whose power of two holds the capacity
+	 */
+	private static int shiftOf(int capacity) {
+		return capacity <= 1 << MIN_SHIFT ? MIN_SHIFT : 32 - Integer.numberOfLeadingZeros(capacity - 1);
+	}
+
+	/**
+	 * @return a cleared big-endian direct buffer of at least the capacity
+	 */
+	ByteBuffer allocate(int capacity) {
+		checkArgument(capacity >= 0, "Negative buffer capacity %s", capacity);
+		int shift = shiftOf(capacity);
+		if (shift > maxShift) {
+			return ByteBuffer.allocateDirect(capacity);
+		}
+		ByteBuffer buffer = free[shift - MIN_SHIFT].poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(1 << shift);
+		} else {
+			pooledBytes.addAndGet(-buffer.capacity());
+			buffer.clear();
+			buffer.order(ByteOrder.BIG_ENDIAN);
+		}
+		allocated.add(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Keeps the buffer for a later allocation if the pool handed it out and the budget allows, the
+	 * caller must not use it any more
+	 */
+	void release(ByteBuffer buffer) {
+		if (!allocated.remove(buffer)) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+			pooledBytes.addAndGet(-capacity);
+			return;
+		}
+		free[shiftOf(capacity) - MIN_SHIFT].offer(buffer);
+	}
+
+	/**
+	 * @return the bytes of the free buffers
+	 */
+	long pooledBytes() {
+		return pooledBytes.get();
+	}
+
+	/**
+	 * Drops the free buffers
+	 */
+	void clear() {
+		for (ConcurrentLinkedQueue<ByteBuffer> buffers : free) {
+			ByteBuffer buffer;
+			while ((buffer = buffers.poll()) != null) {
+				pooledBytes.addAndGet(-buffer.capacity());
+			}
+		}
+	}
+}
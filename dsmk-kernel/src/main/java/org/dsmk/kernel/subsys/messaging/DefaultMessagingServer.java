@@ -0,0 +1,298 @@
+package org.dsmk.kernel.subsys.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dsmk.api.Log;
+import org.dsmk.api.MessagingServer;
+
+/**
+ * MessagingServer within the kernel. Requests are handled on the executor given, the payloads going
+ * from sender to handler and back as the same buffers. Every request waits for its response in a
+ * table of pending requests under its correlation id, which a sweep of the scheduler times out every
+ * tick, so a request costs no timer of its own.
+ */
+public class DefaultMessagingServer implements MessagingServer {
+
+	private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0).asReadOnlyBuffer();
+
+	/**
+	 * A message whose payload goes back to the pool once released, along with the payload of the
+	 * request of a response
+	 */
+	private final class PooledMessage implements Message {
+
+		private final long correlationId;
+		private final String address;
+		private final ByteBuffer payload;
+		private final PooledMessage request;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		PooledMessage(long correlationId, String address, ByteBuffer payload) {
+			this(correlationId, address, payload, null);
+		}
+
+		/**
+		 * @param request
+		 *            the request of the response, whose payload the response's may be a view of
+		 */
+		PooledMessage(long correlationId, String address, ByteBuffer payload, PooledMessage request) {
+			this.correlationId = correlationId;
+			this.address = address;
+			this.payload = payload;
+			this.request = request;
+		}
+
+		@Override
+		public long getCorrelationId() {
+			return correlationId;
+		}
+
+		@Override
+		public String getAddress() {
+			return address;
+		}
+
+		@Override
+		public ByteBuffer getPayload() {
+			return payload;
+		}
+
+		@Override
+		public void release() {
+			if (released.compareAndSet(false, true)) {
+				pool.release(payload);
+				if (request != null) {
+					request.release();
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Message [" + correlationId + ", " + address + ", " + payload.remaining() + " bytes]";
+		}
+	}
+
+	/**
+	 * A request waiting for its response
+	 */
+	private static final class Pending {
+
+		final CompletableFuture<Message> future = new CompletableFuture<>();
+		final long deadline;
+
+		Pending(long deadline) {
+			this.deadline = deadline;
+		}
+	}
+
+	private final class DefaultBinding implements Binding {
+
+		private final String address;
+		private final Handler handler;
+
+		DefaultBinding(String address, Handler handler) {
+			this.address = address;
+			this.handler = handler;
+		}
+
+		@Override
+		public String getAddress() {
+			return address;
+		}
+
+		@Override
+		public boolean isBound() {
+			return bindings.get(address) == this;
+		}
+
+		@Override
+		public void unbind() {
+			if (bindings.remove(address, this)) {
+				log.debug("Unbound {}", address);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Binding [" + address + ", " + handler + "]";
+		}
+	}
+
+	private final BufferPool pool;
+	private final ExecutorService executor;
+	private final long defaultTimeoutMillis;
+	private final Log log;
+
+	private final ConcurrentHashMap<String, DefaultBinding> bindings = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+	private final AtomicLong correlationIds = new AtomicLong();
+	private final ScheduledFuture<?> sweep;
+	private volatile boolean closed;
+
+	/**
+	 * @param pool
+	 *            the buffers of the payloads
+	 * @param executor
+	 *            runs the handlers
+	 * @param scheduler
+	 *            runs the sweep of the requests timed out
+	 * @param tickMillis
+	 *            the period of the sweep, by which a timeout may be late
+	 * @param defaultTimeoutMillis
+	 * @param log
+	 */
+	DefaultMessagingServer(BufferPool pool, ExecutorService executor, ScheduledExecutorService scheduler, long tickMillis,
+			long defaultTimeoutMillis, Log log) {
+		this.pool = pool;
+		this.executor = executor;
+		this.defaultTimeoutMillis = defaultTimeoutMillis;
+		this.log = log;
+		this.sweep = scheduler.scheduleWithFixedDelay(this::expire, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public ByteBuffer allocate(int capacity) {
+		return pool.allocate(capacity);
+	}
+
+	@Override
+	public Binding bind(String address, Handler handler) {
+		DefaultBinding binding = new DefaultBinding(address, handler);
+		DefaultBinding bound = bindings.putIfAbsent(address, binding);
+		if (bound != null) {
+			throw new IllegalStateException("A handler is bound to " + address + " already, " + bound.handler);
+		}
+		log.debug("Bound {} to {}", address, handler);
+		return binding;
+	}
+
+	@Override
+	public CompletableFuture<Message> request(String address, ByteBuffer payload) {
+		return request(address, payload, defaultTimeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public CompletableFuture<Message> request(String address, ByteBuffer payload, long timeout, TimeUnit unit) {
+		PooledMessage request = new PooledMessage(correlationIds.incrementAndGet(), address, payload);
+		DefaultBinding binding = bindings.get(address);
+		if (closed || binding == null) {
+			request.release();
+			CompletableFuture<Message> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new IllegalStateException(closed ? "The messaging server is stopped" : "No handler bound to " + address));
+			return failed;
+		}
+
+		Pending waiting = new Pending(System.nanoTime() + unit.toNanos(timeout));
+		pending.put(request.correlationId, waiting);
+		try {
+			executor.execute(() -> handle(binding, request));
+		} catch (RejectedExecutionException e) {
+			pending.remove(request.correlationId);
+			request.release();
+			waiting.future.completeExceptionally(e);
+		}
+		return waiting.future;
+	}
+
+	private void handle(DefaultBinding binding, PooledMessage request) {
+		Pending waiting = pending.get(request.correlationId);
+		if (waiting == null || waiting.future.isDone()) {
+			// timed out or cancelled while queued
+			pending.remove(request.correlationId);
+			request.release();
+			return;
+		}
+		CompletionStage<ByteBuffer> response;
+		try {
+			response = binding.handler.handle(request);
+		} catch (RuntimeException e) {
+			respond(request, null, e);
+			return;
+		}
+		response.whenComplete((payload, error) -> respond(request, payload, error));
+	}
+
+	/**
+	 * Completes the request of the response, releasing the response when the request has timed out or
+	 * was cancelled. The request is released with the response, which may be the request's payload or a
+	 * view of it, the pool taking back only the buffers it handed out.
+	 */
+	private void respond(PooledMessage request, ByteBuffer payload, Throwable error) {
+		Pending waiting = pending.remove(request.correlationId);
+		if (error != null) {
+			if (waiting != null) {
+				waiting.future.completeExceptionally(error);
+			}
+			request.release();
+			if (payload != null) {
+				pool.release(payload);
+			}
+			log.debug("Request {} to {} failed with error {}", request.correlationId, request.address, error);
+			return;
+		}
+		PooledMessage response = new PooledMessage(request.correlationId, request.address, payload != null ? payload : EMPTY, request);
+		if (waiting == null || !waiting.future.complete(response)) {
+			response.release();
+		}
+	}
+
+	/**
+	 * Fails the requests past their deadline and drops the ones cancelled
+	 */
+	private void expire() {
+		long now = System.nanoTime();
+		for (Iterator<Map.Entry<Long, Pending>> it = pending.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Long, Pending> entry = it.next();
+			Pending waiting = entry.getValue();
+			if (waiting.future.isDone()) {
+				it.remove();
+			} else if (now - waiting.deadline >= 0) {
+				it.remove();
+				waiting.future.completeExceptionally(new TimeoutException("No response to request " + entry.getKey()));
+			}
+		}
+	}
+
+	/**
+	 * @return the number of requests waiting for their response
+	 */
+	int pendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Unbinds every handler and fails the requests waiting for their response, then drops the free
+	 * buffers of the pool
+	 */
+	void close() {
+		closed = true;
+		sweep.cancel(false);
+		bindings.clear();
+		for (Iterator<Pending> it = pending.values().iterator(); it.hasNext();) {
+			Pending waiting = it.next();
+			it.remove();
+			waiting.future.completeExceptionally(new IllegalStateException("The messaging server is stopped"));
+		}
+		pool.clear();
+	}
+
+	@Override
+	public String toString() {
+		return "DefaultMessagingServer [bindings=" + bindings.size() + ", pending=" + pending.size() + ", pooled=" + pool.pooledBytes()
+				+ " bytes]";
+	}
+}
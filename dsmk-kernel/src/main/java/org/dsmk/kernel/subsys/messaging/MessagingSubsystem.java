@@ -0,0 +1,151 @@
+package org.dsmk.kernel.subsys.messaging;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.Config;
+import org.dsmk.api.ConfigServer;
+import org.dsmk.api.ExecutorServer;
+import org.dsmk.api.Log;
+import org.dsmk.api.LogServer;
+import org.dsmk.api.MessagingServer;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.NameServer.NameRegistration;
+import org.dsmk.api.Result;
+import org.dsmk.api.Result.Status;
+import org.dsmk.api.Subsystem;
+import org.dsmk.kernel.ConfigSnapshot;
+
+import com.github.krukow.clj_lang.PersistentHashMap;
+import com.google.common.base.Preconditions;
+
+/**
+ * Provides the {@link MessagingServer}, its handlers running on the dsmk.subsys.messaging executor of
+ * the {@link ExecutorServer}. When it stops the requests still waiting for their response fail.
+ */
+public class MessagingSubsystem implements Subsystem {
+
+	private static UUID uuid = UUID.fromString("3c8e51a7-0d94-4f2b-b6e3-91a4d7c25f60");
+	private static String NAME = "dsmk.subsys.messaging";
+
+	private static final Map<String, Object> persistentMap;
+	static {
+		Map<String, Object> tempMap = new HashMap<>();
+		tempMap.put("UUID", uuid);
+		tempMap.put("NAME", NAME);
+		tempMap.put(Subsystem.REQUIRES, new String[] { LogServer.class.getName(), ExecutorServer.class.getName() });
+		tempMap.put(Subsystem.PROVIDES, new String[] { MessagingServer.class.getName() });
+		persistentMap = PersistentHashMap.create(tempMap);
+	}
+
+	private NameServer nameServer;
+
+	private NameRegistration messagingServerRegistration;
+
+	private DefaultMessagingServer messagingServer;
+
+	private Config configuration = ConfigSnapshot.of(new Properties(), 0);
+
+	private Log log;
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public UUID id() {
+		return uuid;
+	}
+
+	@Override
+	public Map<String, Object> attributes() {
+		return persistentMap;
+	}
+
+	@Override
+	public Result configure(Map<String, Object> config) {
+		nameServer = (NameServer) config.get(NameServer.class.getName());
+
+		Preconditions.checkArgument(nameServer != null, "A valid instance of %s is required for configuring MessagingSubsystem %s",
+				NameServer.class.getName(), name());
+
+		if (config.get("config-server") instanceof ConfigServer) {
+			configuration = ((ConfigServer) config.get("config-server")).current();
+		} else if (config.get("config-properties") instanceof Properties) {
+			configuration = ConfigSnapshot.of((Properties) config.get("config-properties"), 0);
+		}
+
+		try {
+			LogServer logServer = nameServer.lookup1(LogServer.class);
+			log = logServer.getLog(this);
+		} catch (NamingException e) {
+			e.printStackTrace(System.err);
+			return new Result(Status.NOT_OK, "dsmk.messaging.notok", "dsmk.messaging.err.onConfig");
+		}
+
+		log.debug("{} configuration complete", name());
+		return Result.OK;
+	}
+
+	/**
+	 * Registers the MessagingServer from the keys under dsmk.subsys.messaging: threads (0 for one per
+	 * core), queue.capacity, timeout.ms, timeout.tick.ms, pool.max.buffer.bytes and pool.max.bytes
+	 */
+	@Override
+	public Result start() {
+		log.info("Starting MessagingSubsystem - {}", name());
+
+		Config settings = configuration.scope(NAME);
+		int threads = settings.getInt("threads", 0);
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		try {
+			ExecutorServer executorServer = nameServer.lookup1(ExecutorServer.class);
+			BufferPool pool = new BufferPool(settings.getInt("pool.max.buffer.bytes", 1 << 20), settings.getLong("pool.max.bytes", 64L << 20));
+			messagingServer = new DefaultMessagingServer(pool, executorServer.fixed(NAME, threads, settings.getInt("queue.capacity", 4096)),
+					executorServer.scheduled(NAME + ".timeouts", 1), settings.getLong("timeout.tick.ms", 10),
+					settings.getLong("timeout.ms", 5000), log);
+			messagingServerRegistration = nameServer.register(MessagingServer.class.getName(), messagingServer);
+		} catch (NamingException | RuntimeException e) {
+			e.printStackTrace(System.err);
+			log.error("Failed to start the messaging server due to {}", e.getMessage());
+			if (messagingServer != null) {
+				messagingServer.close();
+			}
+			return new Result(Status.NOT_OK, "dsmk.messaging.notok", "dsmk.messaging.start.err");
+		}
+
+		log.info("Started MessagingSubsystem - {} with {}", name(), messagingServer);
+		return Result.OK;
+	}
+
+	@Override
+	public Result stop() {
+		log.info("Stopping MessagingSubsystem - {}", name());
+
+		Result result = Result.OK;
+		try {
+			messagingServerRegistration.unRegister();
+		} catch (NamingException e) {
+			e.printStackTrace(System.err);
+			log.error("Failed to unregister the messaging server due to {}", e.getMessage());
+			result = new Result(Status.NOT_OK, "dsmk.messaging.notok", "dsmk.messaging.stop.err");
+		}
+
+		int pending = messagingServer.pendingCount();
+		messagingServer.close();
+		if (pending > 0) {
+			log.warn("Failed {} requests waiting for their response", pending);
+		}
+
+		log.info("Stopped MessagingSubsystem - {}", name());
+		return result;
+	}
+
+}
@@ -1,46 +1,372 @@
 package org.dsmk.subsys;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import javax.naming.NamingException;
+
+import org.apache.felix.framework.FrameworkFactory;
+import org.dsmk.api.Config;
+import org.dsmk.api.ConfigServer;
+import org.dsmk.api.ExecutorServer;
+import org.dsmk.api.Log;
+import org.dsmk.api.LogServer;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.NameServer.NameRegistration;
 import org.dsmk.api.Result;
+import org.dsmk.api.Result.Status;
 import org.dsmk.api.Subsystem;
+import org.dsmk.kernel.ConfigSnapshot;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+import com.github.krukow.clj_lang.PersistentHashMap;
+import com.google.common.base.Preconditions;
 
+/**
+ * Embeds an Apache Felix OSGi framework when dsmk.subsys.felix.enabled is true. The bundles of
+ * dsmk.subsys.felix.bundles.dir are installed in parallel, resolved together by the resolver running
+ * dsmk.subsys.felix.resolver.parallelism threads, and started. The services the bundles register are
+ * registered in the NameServer, see {@link ServiceBridge}, and the NameServer is registered in the
+ * framework for the bundles, which import org.dsmk.api from the kernel.
+ * <p>
+ * The framework keeps the installed bundles in dsmk.subsys.felix.cache.dir across restarts, so a
+ * restart only installs, updates or uninstalls the bundles which changed in the directory since, the
+ * others being loaded from the cache and started again by the framework.
+ */
 public class FelixSubsystem implements Subsystem {
 
+	private static UUID uuid = UUID.fromString("6a1f0d3e-8c27-4b95-a4e2-3d5c9b71f084");
+	private static String NAME = "dsmk.subsys.felix";
+
+	private static final Map<String, Object> persistentMap;
+	static {
+		Map<String, Object> tempMap = new HashMap<>();
+		tempMap.put("UUID", uuid);
+		tempMap.put("NAME", NAME);
+		tempMap.put(Subsystem.REQUIRES, new String[] { LogServer.class.getName(), ExecutorServer.class.getName() });
+		tempMap.put(Subsystem.PROVIDES, new String[] { BundleContext.class.getName() });
+		persistentMap = PersistentHashMap.create(tempMap);
+	}
+
+	static final String PREFIX = "dsmk.subsys.felix";
+
+	/**
+	 * the framework properties set under it, such as dsmk.subsys.felix.framework.felix.log.level, are
+	 * passed to Felix
+	 */
+	static final String FRAMEWORK_PREFIX = PREFIX + ".framework";
+
+	private NameServer nameServer;
+
+	private Framework framework;
+
+	private ServiceBridge serviceBridge;
+
+	private NameRegistration contextRegistration;
+
+	private Config configuration = ConfigSnapshot.of(new Properties(), 0);
+
+	private Log log;
+
 	@Override
 	public String name() {
-		return "FelixSubsystem";
+		return NAME;
 	}
 
 	@Override
 	public UUID id() {
-		// TODO Auto-generated method stub
-		return null;
+		return uuid;
 	}
 
 	@Override
 	public Map<String, Object> attributes() {
-		// TODO Auto-generated method stub
-		return null;
+		return persistentMap;
 	}
 
 	@Override
 	public Result configure(Map<String, Object> config) {
-		// TODO Auto-generated method stub
-		return null;
+		nameServer = (NameServer) config.get(NameServer.class.getName());
+
+		Preconditions.checkArgument(nameServer != null, "A valid instance of %s is required for configuring FelixSubsystem %s",
+				NameServer.class.getName(), name());
+
+		if (config.get("config-server") instanceof ConfigServer) {
+			configuration = ((ConfigServer) config.get("config-server")).current();
+		} else if (config.get("config-properties") instanceof Properties) {
+			configuration = ConfigSnapshot.of((Properties) config.get("config-properties"), 0);
+		}
+
+		try {
+			LogServer logServer = nameServer.lookup1(LogServer.class);
+			log = logServer.getLog(this);
+		} catch (NamingException e) {
+			e.printStackTrace(System.err);
+			return new Result(Status.NOT_OK, "dsmk.felix.notok", "dsmk.felix.err.onConfig");
+		}
+
+		log.debug("{} configuration complete", name());
+		return Result.OK;
 	}
 
 	@Override
 	public Result start() {
-		// TODO Auto-generated method stub
-		return null;
+		Config settings = configuration.scope(PREFIX);
+		if (!settings.getBoolean("enabled", false)) {
+			log.info("Felix disabled, {} not started", name());
+			return Result.OK;
+		}
+		log.info("Starting FelixSubsystem - {}", name());
+		long started = System.nanoTime();
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		int resolverParallelism = settings.getInt("resolver.parallelism", 0);
+		int installParallelism = settings.getInt("install.parallelism", 0);
+
+		Map<String, String> frameworkProperties = new HashMap<>();
+		frameworkProperties.put(Constants.FRAMEWORK_STORAGE, settings.getString("cache.dir", "felix-cache").trim());
+		// the cache is what makes a restart fast, it is never cleaned on init
+		frameworkProperties.put(Constants.FRAMEWORK_STORAGE_CLEAN, "none");
+		List<String> systemPackages = settings.getList("system.packages.extra");
+		if (!systemPackages.isEmpty()) {
+			frameworkProperties.put(Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, String.join(",", systemPackages));
+		}
+		frameworkProperties.put("felix.resolver.parallelism", String.valueOf(resolverParallelism > 0 ? resolverParallelism : processors));
+		Config overrides = configuration.scope(FRAMEWORK_PREFIX);
+		for (String key : overrides.keys()) {
+			frameworkProperties.put(key, overrides.getString(key));
+		}
+
+		Path bundlesDir = Paths.get(settings.getString("bundles.dir", "bundles").trim());
+		BundleSync sync;
+		try {
+			framework = new FrameworkFactory().newFramework(frameworkProperties);
+			framework.init();
+			BundleContext context = framework.getBundleContext();
+			context.registerService(NameServer.class, nameServer, null);
+
+			sync = synchronize(context, bundlesDir, installParallelism > 0 ? installParallelism : processors);
+
+			framework.start();
+			FrameworkWiring wiring = framework.adapt(FrameworkWiring.class);
+			if (sync.changed()) {
+				// the bundles updated or uninstalled leave their former revisions wired until refreshed
+				refresh(wiring, settings.getLong("stop.timeout.ms", 10000));
+			}
+			wiring.resolveBundles(null);
+			for (Bundle bundle : sync.installed) {
+				start(bundle);
+			}
+
+			serviceBridge = new ServiceBridge(context, nameServer, emptyToNull(settings.getString("service.filter", "")), log);
+			serviceBridge.open();
+			contextRegistration = nameServer.register(BundleContext.class.getName(), context);
+		} catch (BundleException | IOException | NamingException | InvalidSyntaxException | RuntimeException e) {
+			e.printStackTrace(System.err);
+			log.error("Failed to start the OSGi framework due to {}", e.getMessage());
+			stopFramework(settings.getLong("stop.timeout.ms", 10000));
+			return new Result(Status.NOT_OK, "dsmk.felix.notok", "dsmk.felix.start.err");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			stopFramework(settings.getLong("stop.timeout.ms", 10000));
+			return new Result(Status.NOT_OK, "dsmk.felix.notok", "dsmk.felix.start.err");
+		}
+
+		log.info("Started FelixSubsystem - {} in {} ms, {} bundles from the cache, {} installed, {} updated, {} uninstalled, {} services bridged",
+				name(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), sync.cached, sync.installed.size(), sync.updated,
+				sync.uninstalled, serviceBridge.size());
+		return Result.OK;
+	}
+
+	/**
+	 * What synchronizing the bundles of the cache with the bundles directory did
+	 */
+	private static final class BundleSync {
+		private final List<Bundle> installed = new ArrayList<>();
+		private int updated;
+		private int uninstalled;
+		private int cached;
+
+		private boolean changed() {
+			return updated > 0 || uninstalled > 0;
+		}
+	}
+
+	/**
+	 * Installs the jars of the directory which are not in the cache, in parallel, updates the ones
+	 * modified since they were cached and uninstalls the bundles whose jar was removed
+	 */
+	private BundleSync synchronize(BundleContext context, Path bundlesDir, int installParallelism)
+			throws IOException, InterruptedException, NamingException {
+		BundleSync sync = new BundleSync();
+		Map<String, Bundle> cachedBundles = new HashMap<>();
+		for (Bundle bundle : context.getBundles()) {
+			if (bundle.getBundleId() != 0) {
+				cachedBundles.put(bundle.getLocation(), bundle);
+			}
+		}
+
+		Map<String, File> toInstall = new LinkedHashMap<>();
+		if (Files.isDirectory(bundlesDir)) {
+			try (DirectoryStream<Path> jars = Files.newDirectoryStream(bundlesDir, "*.jar")) {
+				for (Path jar : jars) {
+					File file = jar.toAbsolutePath().toFile();
+					String location = file.toURI().toString();
+					Bundle cached = cachedBundles.remove(location);
+					if (cached == null) {
+						toInstall.put(location, file);
+					} else if (file.lastModified() > cached.getLastModified()) {
+						try (InputStream in = Files.newInputStream(jar)) {
+							cached.update(in);
+							sync.updated++;
+						} catch (BundleException e) {
+							log.error("Failed to update bundle {} due to {}", location, e.getMessage());
+						}
+					} else {
+						sync.cached++;
+					}
+				}
+			}
+		} else {
+			log.warn("Bundles directory {} not found, no bundle installed", bundlesDir.toAbsolutePath());
+		}
+
+		for (Bundle removed : cachedBundles.values()) {
+			try {
+				removed.uninstall();
+				sync.uninstalled++;
+			} catch (BundleException e) {
+				log.error("Failed to uninstall bundle {} due to {}", removed.getLocation(), e.getMessage());
+			}
+		}
+
+		if (toInstall.isEmpty()) {
+			return sync;
+		}
+		// a warm restart usually has nothing to install, and no use for an executor
+		ExecutorService installer = nameServer.lookup1(ExecutorServer.class).blocking(PREFIX + ".install", installParallelism);
+		Map<String, Future<Bundle>> installs = new LinkedHashMap<>();
+		for (Map.Entry<String, File> jar : toInstall.entrySet()) {
+			installs.put(jar.getKey(), installer.submit(() -> install(context, jar.getKey(), jar.getValue())));
+		}
+		for (Map.Entry<String, Future<Bundle>> install : installs.entrySet()) {
+			try {
+				sync.installed.add(install.getValue().get());
+			} catch (ExecutionException e) {
+				log.error("Failed to install bundle {} due to {}", install.getKey(), e.getCause().getMessage());
+			}
+		}
+		return sync;
+	}
+
+	private static Bundle install(BundleContext context, String location, File file) throws IOException, BundleException {
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			return context.installBundle(location, in);
+		}
+	}
+
+	private void refresh(FrameworkWiring wiring, long timeoutMillis) throws InterruptedException {
+		Object refreshed = new Object();
+		synchronized (refreshed) {
+			wiring.refreshBundles(null, event -> {
+				synchronized (refreshed) {
+					refreshed.notifyAll();
+				}
+			});
+			refreshed.wait(timeoutMillis);
+		}
+	}
+
+	private void start(Bundle bundle) {
+		if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) != null) {
+			return;
+		}
+		try {
+			bundle.start();
+		} catch (BundleException | RuntimeException e) {
+			log.error("Failed to start bundle {} due to {}", bundle.getSymbolicName(), e.getMessage());
+		}
+	}
+
+	private static String emptyToNull(String value) {
+		return value == null || value.trim().isEmpty() ? null : value.trim();
 	}
 
 	@Override
 	public Result stop() {
-		// TODO Auto-generated method stub
-		return null;
+		if (framework == null) {
+			return Result.OK;
+		}
+		log.info("Stopping FelixSubsystem - {}", name());
+		if (contextRegistration != null) {
+			try {
+				contextRegistration.unRegister();
+			} catch (NamingException e) {
+				e.printStackTrace(System.err);
+				log.error("Failed to unregister the bundle context due to {}", e.getMessage());
+			}
+			contextRegistration = null;
+		}
+		Result result = stopFramework(configuration.getLong(PREFIX + ".stop.timeout.ms", 10000)) ? Result.OK
+				: new Result(Status.NOT_OK, "dsmk.felix.notok", "dsmk.felix.stop.err");
+		log.info("Stopped FelixSubsystem - {}", name());
+		return result;
+	}
+
+	/**
+	 * Stops the bundles, the bridge and the framework, the bundles started staying marked as such in the
+	 * cache for the next start
+	 *
+	 * @return false if the framework did not stop within the timeout
+	 */
+	private boolean stopFramework(long timeoutMillis) {
+		if (serviceBridge != null) {
+			serviceBridge.close();
+			serviceBridge = null;
+		}
+		if (framework == null) {
+			return true;
+		}
+		try {
+			framework.stop();
+			FrameworkEvent event = framework.waitForStop(timeoutMillis);
+			if (event.getType() == FrameworkEvent.WAIT_TIMEDOUT) {
+				log.error("The OSGi framework did not stop within {} ms", timeoutMillis);
+				return false;
+			}
+			return true;
+		} catch (BundleException e) {
+			e.printStackTrace(System.err);
+			log.error("Failed to stop the OSGi framework due to {}", e.getMessage());
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			framework = null;
+		}
 	}
 
 }
@@ -0,0 +1,152 @@
+package org.dsmk.subsys;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.Log;
+import org.dsmk.api.NameServer;
+import org.dsmk.api.NameServer.NameRegistration;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Registers the services of the OSGi framework in the NameServer, under each of their objectClass
+ * names, for as long as they are registered in the framework. Services of the system bundle, those of
+ * the framework and the ones the kernel registers itself, are left out, as are the services the filter
+ * does not match.
+ */
+final class ServiceBridge implements ServiceListener {
+
+	private final BundleContext context;
+	private final NameServer nameServer;
+	private final String filter;
+	private final Log log;
+
+	private final Map<ServiceReference<?>, List<NameRegistration>> registrations = new ConcurrentHashMap<>();
+
+	/**
+	 * @param context
+	 *            the context of the system bundle
+	 * @param nameServer
+	 * @param filter
+	 *            an LDAP filter on the service properties, null for every service
+	 * @param log
+	 */
+	ServiceBridge(BundleContext context, NameServer nameServer, String filter, Log log) {
+		this.context = context;
+		this.nameServer = nameServer;
+		this.filter = filter;
+		this.log = log;
+	}
+
+	/**
+	 * Bridges the services registered from now on, then the ones registered already
+	 *
+	 * @throws InvalidSyntaxException
+	 *             if the filter is not a valid LDAP filter
+	 */
+	void open() throws InvalidSyntaxException {
+		context.addServiceListener(this, filter);
+		ServiceReference<?>[] references = context.getAllServiceReferences(null, filter);
+		if (references != null) {
+			for (ServiceReference<?> reference : references) {
+				bridge(reference);
+			}
+		}
+	}
+
+	@Override
+	public void serviceChanged(ServiceEvent event) {
+		switch (event.getType()) {
+		case ServiceEvent.REGISTERED:
+			bridge(event.getServiceReference());
+			break;
+		case ServiceEvent.UNREGISTERING:
+		case ServiceEvent.MODIFIED_ENDMATCH:
+			unbridge(event.getServiceReference());
+			break;
+		default:
+		}
+	}
+
+	private void bridge(ServiceReference<?> reference) {
+		if (reference.getBundle() == null || reference.getBundle().getBundleId() == 0 || registrations.containsKey(reference)) {
+			return;
+		}
+		Object service = context.getService(reference);
+		if (service == null) {
+			return;
+		}
+
+		List<NameRegistration> names = new ArrayList<>();
+		for (String objectClass : (String[]) reference.getProperty(Constants.OBJECTCLASS)) {
+			try {
+				names.add(nameServer.register(objectClass, service));
+			} catch (NamingException e) {
+				e.printStackTrace(System.err);
+				log.error("Failed to register service {} of bundle {} as {} due to {}", service,
+						reference.getBundle().getSymbolicName(), objectClass, e.getMessage());
+			}
+		}
+		if (registrations.putIfAbsent(reference, names) != null) {
+			unregister(names);
+			context.ungetService(reference);
+			return;
+		}
+		log.debug("Bridged service {} of bundle {}", reference, reference.getBundle().getSymbolicName());
+	}
+
+	private void unbridge(ServiceReference<?> reference) {
+		List<NameRegistration> names = registrations.remove(reference);
+		if (names == null) {
+			return;
+		}
+		unregister(names);
+		try {
+			context.ungetService(reference);
+		} catch (IllegalStateException e) {
+			// the framework is stopping and releases the service itself
+		}
+		log.debug("Unbridged service {}", reference);
+	}
+
+	private void unregister(List<NameRegistration> names) {
+		for (NameRegistration name : names) {
+			try {
+				name.unRegister();
+			} catch (NamingException e) {
+				e.printStackTrace(System.err);
+				log.error("Failed to unregister {} due to {}", name.getRegistrationName(), e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return the number of services bridged
+	 */
+	int size() {
+		return registrations.size();
+	}
+
+	/**
+	 * Stops bridging and unregisters the names of the services bridged
+	 */
+	void close() {
+		try {
+			context.removeServiceListener(this);
+		} catch (IllegalStateException e) {
+			// the framework stopped already
+		}
+		for (ServiceReference<?> reference : new ArrayList<>(registrations.keySet())) {
+			unbridge(reference);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package org.dsmk.kernel;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dsmk.api.Log;
+
+import junit.framework.TestCase;
+
+public class BinaryLogServerTest extends TestCase {
+
+	private Path directory;
+	private BinaryLogServer server;
+	private Log log;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("blog");
+		LogLevels levels = new LogLevels("debug");
+		server = new BinaryLogServer(directory, 1 << 20, 0, levels);
+		log = new BinaryLog(server, server.id("test.logger"), levels.level("test.logger"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+		for (Path file : BinaryLogServer.segmentFiles(directory)) {
+			Files.delete(file);
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * @return the messages of every segment, one per line
+	 */
+	private List<String> decode() throws Exception {
+		server.close();
+		BinaryLogDecoder decoder = new BinaryLogDecoder();
+		StringWriter out = new StringWriter();
+		for (Path segment : BinaryLogServer.segmentFiles(directory)) {
+			decoder.decode(segment, out);
+		}
+		return Arrays.asList(out.toString().split(System.lineSeparator()));
+	}
+
+	private static String message(String line) {
+		return line.substring(line.indexOf(']') + 2);
+	}
+
+	public void testRoundTrip() throws Exception {
+		log.info("{} of {} done", 3L, 4L);
+		log.warn("ratio {}", 0.5);
+		log.error("{} {} {} {}", true, null, "chars", new StringBuilder("built"));
+		log.debug("no arguments");
+
+		List<String> lines = decode();
+		assertEquals(4, lines.size());
+		assertEquals("INFO  test.logger - 3 of 4 done", message(lines.get(0)));
+		assertEquals("WARN  test.logger - ratio 0.5", message(lines.get(1)));
+		assertEquals("ERROR test.logger - true null chars built", message(lines.get(2)));
+		assertEquals("DEBUG test.logger - no arguments", message(lines.get(3)));
+		assertTrue(lines.get(0), lines.get(0).contains("[" + Thread.currentThread().getName() + "]"));
+	}
+
+	/**
+	 * Past the interned formats, the formats are written inline and still decoded, across the segments
+	 * the definitions fill
+	 */
+	public void testFormatsPastTheInternedOnes() throws Exception {
+		int count = BinaryLogServer.MAX_INTERNED + 100;
+		for (int i = 0; i < count; i++) {
+			log.info("format " + i + " {}", (long) i);
+		}
+
+		List<String> lines = decode();
+		assertTrue(BinaryLogServer.segmentFiles(directory).size() > 1);
+		assertEquals(count, lines.size());
+		for (int i : new int[] { 0, BinaryLogServer.MAX_INTERNED - 1, BinaryLogServer.MAX_INTERNED, count - 1 }) {
+			assertEquals("INFO  test.logger - format " + i + " " + i, message(lines.get(i)));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package org.dsmk.kernel;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+
+import org.dsmk.api.NameServer;
+import org.dsmk.api.Result;
+import org.dsmk.api.Subsystem;
+
+import junit.framework.TestCase;
+
+public class LazySubsystemTest extends TestCase {
+
+	/**
+	 * Registers itself under its name and, once every subsystem of the barrier is starting, looks up
+	 * the other name
+	 */
+	static final class Mutual implements Subsystem {
+
+		private final String name;
+		private final String other;
+		private final NameServer nameServer;
+		private final CyclicBarrier starting;
+
+		volatile Object found;
+		volatile NamingException failure;
+
+		Mutual(String name, String other, NameServer nameServer, CyclicBarrier starting) {
+			this.name = name;
+			this.other = other;
+			this.nameServer = nameServer;
+			this.starting = starting;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public UUID id() {
+			return UUID.nameUUIDFromBytes(name.getBytes());
+		}
+
+		@Override
+		public Map<String, Object> attributes() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Result configure(Map<String, Object> config) {
+			return Result.OK;
+		}
+
+		@Override
+		public Result start() {
+			try {
+				nameServer.register(name, this);
+				starting.await(10, TimeUnit.SECONDS);
+				found = nameServer.lookup1(other);
+			} catch (NamingException e) {
+				failure = e;
+			} catch (Exception e) {
+				return Result.NOT_OK;
+			}
+			return Result.OK;
+		}
+
+		@Override
+		public Result stop() {
+			return Result.OK;
+		}
+	}
+
+	private static LazySubsystem lazy(Mutual subsystem, NameServer nameServer) throws NamingException {
+		LazySubsystem lazy = new LazySubsystem("ext", "dsmk.ext.subsystem.0", Mutual.class.getName(),
+				new String[] { subsystem.name() }, subsystem);
+		lazy.register(nameServer, Collections.<String, Object>emptyMap(), new LifecycleReport(), TestLogs.SILENT);
+		return lazy;
+	}
+
+	private static Thread lookup(NameServer nameServer, String name, Object[] found) {
+		Thread thread = new Thread(() -> {
+			try {
+				found[0] = nameServer.lookup1(name);
+			} catch (NamingException e) {
+				found[0] = e;
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Two subsystems activated by different threads, each looking the other up while starting, end
+	 * their activation instead of waiting for each other for good
+	 */
+	public void testMutualLookupFromTwoThreads() throws Exception {
+		DefaultNameServer nameServer = new DefaultNameServer(TestLogs.SILENT);
+		CyclicBarrier starting = new CyclicBarrier(2);
+		Mutual a = new Mutual("test.a", "test.b", nameServer, starting);
+		Mutual b = new Mutual("test.b", "test.a", nameServer, starting);
+		LazySubsystem lazyA = lazy(a, nameServer);
+		LazySubsystem lazyB = lazy(b, nameServer);
+
+		Object[] foundA = new Object[1];
+		Object[] foundB = new Object[1];
+		Thread first = lookup(nameServer, "test.a", foundA);
+		Thread second = lookup(nameServer, "test.b", foundB);
+		first.join(10000);
+		second.join(10000);
+		assertFalse("activations deadlocked", first.isAlive() || second.isAlive());
+
+		assertSame(a, foundA[0]);
+		assertSame(b, foundB[0]);
+		assertTrue(lazyA.isActive());
+		assertTrue(lazyB.isActive());
+		// the lookup closing the cycle failed, the other one waited for the activation it needed
+		assertTrue((a.failure == null) != (b.failure == null));
+		NamingException failure = a.failure != null ? a.failure : b.failure;
+		assertTrue(failure.getMessage(), failure.getMessage().contains("wait for each other"));
+		assertSame(a.failure == null ? b : a, a.failure == null ? a.found : b.found);
+		nameServer.close();
+	}
+
+	/**
+	 * Threads looking up a subsystem being activated wait for that activation, without running another
+	 */
+	public void testConcurrentLookupsShareActivation() throws Exception {
+		DefaultNameServer nameServer = new DefaultNameServer(TestLogs.SILENT);
+		CyclicBarrier starting = new CyclicBarrier(1);
+		Mutual a = new Mutual("test.a", "test.a", nameServer, starting);
+		LazySubsystem lazyA = lazy(a, nameServer);
+
+		Object[][] found = new Object[4][1];
+		Thread[] threads = new Thread[found.length];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = lookup(nameServer, "test.a", found[i]);
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+			assertFalse(thread.isAlive());
+		}
+		for (Object[] instance : found) {
+			assertSame(a, instance[0]);
+		}
+		assertTrue(lazyA.isActive());
+		nameServer.close();
+	}
+}
@@ -0,0 +1,54 @@
+package org.dsmk.kernel;
+
+import org.dsmk.api.Log;
+
+/**
+ * Logs for the tests
+ */
+public final class TestLogs {
+
+	/**
+	 * logs nothing, every level disabled
+	 */
+	public static final Log SILENT = new Log() {
+
+		@Override
+		public boolean isDebugEnabled() {
+			return false;
+		}
+
+		@Override
+		public boolean isInfoEnabled() {
+			return false;
+		}
+
+		@Override
+		public boolean isWarnEnabled() {
+			return false;
+		}
+
+		@Override
+		public boolean isErrorEnabled() {
+			return false;
+		}
+
+		@Override
+		public void debug(String msg, Object... args) {
+		}
+
+		@Override
+		public void info(String msg, Object... args) {
+		}
+
+		@Override
+		public void warn(String msg, Object... args) {
+		}
+
+		@Override
+		public void error(String msg, Object... args) {
+		}
+	};
+
+	private TestLogs() {
+	}
+}
@@ -0,0 +1,141 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dsmk.kernel.TestLogs;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import junit.framework.TestCase;
+
+public class BatchEventBusTest extends TestCase {
+
+	public static final class Quote {
+
+		final String symbol;
+		final int price;
+
+		Quote(String symbol, int price) {
+			this.symbol = symbol;
+			this.price = price;
+		}
+
+		String symbol() {
+			return symbol;
+		}
+
+		@Override
+		public String toString() {
+			return symbol + "=" + price;
+		}
+	}
+
+	/**
+	 * Receives the quotes in batches and the strings one by one
+	 */
+	public static class Subscriber {
+
+		final List<List<Quote>> batches = new ArrayList<>();
+		final List<String> strings = new ArrayList<>();
+
+		@SubscribeBatch
+		public void onQuotes(EventBatch<Quote> batch) {
+			batches.add(new ArrayList<>(batch.events()));
+		}
+
+		@Subscribe
+		public void onString(String event) {
+			strings.add(event);
+		}
+	}
+
+	private static Quote quote(String symbol, int price) {
+		return new Quote(symbol, price);
+	}
+
+	public void testBatchesAreGroupedByClass() {
+		BatchEventBus bus = new BatchEventBus("test", new EventBus(), 0, TestLogs.SILENT);
+		Subscriber subscriber = new Subscriber();
+		bus.register(subscriber);
+
+		Quote a = quote("a", 1);
+		Quote b = quote("b", 1);
+		bus.postAll(Arrays.asList(a, "x", b, "y"));
+		assertEquals(Collections.singletonList(Arrays.asList(a, b)), subscriber.batches);
+		assertEquals(Arrays.asList("x", "y"), subscriber.strings);
+
+		Quote c = quote("c", 1);
+		bus.post(c);
+		assertEquals(Arrays.asList(Arrays.asList(a, b), Collections.singletonList(c)), subscriber.batches);
+		bus.shutdown();
+	}
+
+	public void testConflationWithinBatch() {
+		BatchEventBus bus = new BatchEventBus("test", new EventBus(), 0, TestLogs.SILENT);
+		Subscriber subscriber = new Subscriber();
+		bus.register(subscriber);
+		bus.conflate(Quote.class, Quote::symbol);
+
+		Quote a1 = quote("a", 1);
+		Quote b1 = quote("b", 1);
+		Quote a2 = quote("a", 2);
+		bus.postAll(Arrays.asList(a1, b1, a2));
+		// the latest of a key takes the place of its latest update
+		assertEquals(Collections.singletonList(Arrays.asList(b1, a2)), subscriber.batches);
+
+		bus.post(a1);
+		assertEquals(Collections.singletonList(a1), subscriber.batches.get(1));
+		bus.shutdown();
+	}
+
+	/**
+	 * Within a window longer than the test, the quotes are held until the shutdown dispatches the
+	 * latest ones
+	 */
+	public void testConflationWithinWindow() {
+		BatchEventBus bus = new BatchEventBus("test", new EventBus(), 60000, TestLogs.SILENT);
+		Subscriber subscriber = new Subscriber();
+		bus.register(subscriber);
+		bus.conflate(Quote.class, Quote::symbol);
+
+		Quote b2 = quote("b", 2);
+		Quote a3 = quote("a", 3);
+		bus.post(quote("a", 1));
+		bus.post(quote("b", 1));
+		bus.postAll(Arrays.asList(quote("a", 2), b2));
+		bus.post(a3);
+		assertEquals(2, bus.pending());
+		assertTrue(subscriber.batches.isEmpty());
+
+		bus.shutdown();
+		assertEquals(0, bus.pending());
+		assertEquals(Collections.singletonList(Arrays.asList(b2, a3)), subscriber.batches);
+	}
+
+	public void testPassesThroughUntilBatched() {
+		EventBus engine = new EventBus();
+		List<String> received = new ArrayList<>();
+		engine.register(new Object() {
+
+			@Subscribe
+			public void on(String event) {
+				received.add(event);
+			}
+		});
+		BatchEventBus bus = new BatchEventBus("test", engine, 0, TestLogs.SILENT);
+		assertTrue(bus.toString(), bus.toString().contains("passing through"));
+		bus.postAll(Arrays.asList("x", "y"));
+		assertEquals(Arrays.asList("x", "y"), received);
+
+		Subscriber subscriber = new Subscriber();
+		bus.register(subscriber);
+		assertFalse(bus.toString(), bus.toString().contains("passing through"));
+		bus.unregister(subscriber);
+		assertTrue(bus.toString(), bus.toString().contains("passing through"));
+		bus.shutdown();
+	}
+}
@@ -0,0 +1,172 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.dsmk.kernel.TestLogs;
+
+import com.google.common.eventbus.DeadEvent;
+import com.google.common.eventbus.Subscribe;
+
+import junit.framework.TestCase;
+
+public class CompiledEventBusTest extends TestCase {
+
+	public interface Named {
+
+		String name();
+	}
+
+	public static class Base {
+	}
+
+	public static final class Event extends Base implements Named {
+
+		@Override
+		public String name() {
+			return "event";
+		}
+	}
+
+	/**
+	 * Subscribes to an event through its class, superclass, interface and Object
+	 */
+	public static class Hierarchy {
+
+		final List<String> received = new ArrayList<>();
+
+		@Subscribe
+		public void onEvent(Event event) {
+			received.add("event");
+		}
+
+		@Subscribe
+		public void onBase(Base event) {
+			received.add("base");
+		}
+
+		@Subscribe
+		public void onNamed(Named event) {
+			received.add("named " + event.name());
+		}
+
+		@Subscribe
+		public void onObject(Object event) {
+			received.add("object");
+		}
+	}
+
+	public static class Dead {
+
+		final List<Object> events = new ArrayList<>();
+
+		@Subscribe
+		public void onDead(DeadEvent event) {
+			events.add(event.getEvent());
+		}
+	}
+
+	/**
+	 * Not accessible to the generated invokers, called through a MethodHandle
+	 */
+	static class Hidden {
+
+		final List<String> received = new ArrayList<>();
+
+		@Subscribe
+		void on(String event) {
+			received.add(event);
+		}
+	}
+
+	/**
+	 * Fails on every event, reposts the strings it receives as their length
+	 */
+	public static class Failing {
+
+		final CompiledEventBus bus;
+		final List<Object> received = new ArrayList<>();
+
+		Failing(CompiledEventBus bus) {
+			this.bus = bus;
+		}
+
+		@Subscribe
+		public void on(String event) {
+			received.add(event);
+			bus.post(event.length());
+			throw new IllegalStateException("failing on " + event);
+		}
+
+		@Subscribe
+		public void on(Integer event) {
+			received.add(event);
+		}
+	}
+
+	public void testSupertypeAndInterfaceSubscribers() {
+		CompiledEventBus bus = new CompiledEventBus("test", TestLogs.SILENT);
+		Hierarchy subscriber = new Hierarchy();
+		bus.register(subscriber);
+
+		bus.post(new Event());
+		Collections.sort(subscriber.received);
+		assertEquals(Arrays.asList("base", "event", "named event", "object"), subscriber.received);
+
+		subscriber.received.clear();
+		bus.post("string");
+		assertEquals(Collections.singletonList("object"), subscriber.received);
+
+		bus.unregister(subscriber);
+		subscriber.received.clear();
+		bus.post(new Event());
+		assertTrue(subscriber.received.isEmpty());
+	}
+
+	public void testUnacceptedEventsAreDead() {
+		CompiledEventBus bus = new CompiledEventBus("test", TestLogs.SILENT);
+		Dead dead = new Dead();
+		bus.register(dead);
+		Hidden hidden = new Hidden();
+		bus.register(hidden);
+
+		bus.post(42);
+		bus.post("accepted");
+		assertEquals(Collections.<Object>singletonList(42), dead.events);
+		assertEquals(Collections.singletonList("accepted"), hidden.received);
+	}
+
+	/**
+	 * A method of a class the generated invokers cannot link to falls back to a MethodHandle, a public
+	 * one is called by a generated invoker
+	 */
+	public void testNonPublicSubscriberFallsBack() throws Throwable {
+		Hidden hidden = new Hidden();
+		CompiledEventBus.Invoker invoker = CompiledEventBus.compile(hidden, Hidden.class.getDeclaredMethod("on", String.class));
+		invoker.invoke("direct");
+		assertEquals(Collections.singletonList("direct"), hidden.received);
+
+		Hierarchy subscriber = new Hierarchy();
+		CompiledEventBus.Invoker generated = CompiledEventBus.compile(subscriber, Hierarchy.class.getMethod("onNamed", Named.class));
+		generated.invoke(new Event());
+		assertEquals(Collections.singletonList("named event"), subscriber.received);
+	}
+
+	/**
+	 * A failing subscriber does not keep the others from the event, and the events it posts are
+	 * dispatched once the one it received has been
+	 */
+	public void testFailureAndNestedPosts() {
+		CompiledEventBus bus = new CompiledEventBus("test", TestLogs.SILENT);
+		Failing failing = new Failing(bus);
+		Hidden hidden = new Hidden();
+		bus.register(failing);
+		bus.register(hidden);
+
+		bus.post("abc");
+		assertEquals(Arrays.<Object>asList("abc", 3), failing.received);
+		assertEquals(Collections.singletonList("abc"), hidden.received);
+	}
+}
@@ -0,0 +1,169 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dsmk.kernel.TestLogs;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import junit.framework.TestCase;
+
+public class JournalEventBusTest extends TestCase {
+
+	public static class Recorder {
+
+		final List<String> received = new ArrayList<>();
+
+		@Subscribe
+		public void on(String event) {
+			received.add(event);
+		}
+	}
+
+	/**
+	 * Keys the events name=value by their name
+	 */
+	static final class KeyedCodec extends CharSequenceEventCodec {
+
+		@Override
+		public Object key(Object event) {
+			String chars = event.toString();
+			return chars.substring(0, chars.indexOf('='));
+		}
+	}
+
+	private Path directory;
+	private Recorder recorder;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("journal");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (Path file : segmentFiles()) {
+			Files.deleteIfExists(file);
+		}
+		Files.deleteIfExists(directory);
+	}
+
+	private JournalEventBus open(int segmentBytes, EventCodec codec, int retentionSegments, boolean compaction) throws IOException {
+		EventBus delegate = new EventBus();
+		recorder = new Recorder();
+		delegate.register(recorder);
+		return new JournalEventBus("test", delegate, directory, segmentBytes, codec, 0, 0, retentionSegments, 0, compaction,
+				TestLogs.SILENT);
+	}
+
+	private List<String> replay(JournalEventBus bus, long fromOffset) {
+		recorder.received.clear();
+		bus.replay(fromOffset);
+		return new ArrayList<>(recorder.received);
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		}
+		files.sort(null);
+		return files;
+	}
+
+	public void testReplayAfterReopen() throws Exception {
+		JournalEventBus bus = open(4096, new CharSequenceEventCodec(), 0, false);
+		for (int i = 0; i < 10; i++) {
+			bus.post("e" + i);
+		}
+		bus.shutdown();
+
+		bus = open(4096, new CharSequenceEventCodec(), 0, false);
+		assertEquals(10, bus.nextOffset());
+		assertEquals(Arrays.asList("e0", "e1", "e2", "e3", "e4", "e5", "e6", "e7", "e8", "e9"), replay(bus, 0));
+		assertEquals(Arrays.asList("e5", "e6", "e7", "e8", "e9"), replay(bus, 5));
+
+		bus.post("e10");
+		assertEquals(Arrays.asList("e9", "e10"), replay(bus, 9));
+		bus.shutdown();
+	}
+
+	/**
+	 * A last record failing its checksum, as left by a crash, ends the journal and its offset is reused
+	 */
+	public void testDamagedLastRecordIsDiscarded() throws Exception {
+		JournalEventBus bus = open(4096, new CharSequenceEventCodec(), 0, false);
+		bus.post("e0");
+		bus.post("e1");
+		bus.post("e2");
+		bus.shutdown();
+
+		// records of "eN" take 20 bytes, flip the first payload byte of the third one
+		try (FileChannel channel = FileChannel.open(segmentFiles().get(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			int position = 2 * 20 + JournalEventBus.HEADER_BYTES;
+			ByteBuffer payload = ByteBuffer.allocate(1);
+			channel.read(payload, position);
+			payload.put(0, (byte) ~payload.get(0)).rewind();
+			channel.write(payload, position);
+		}
+
+		bus = open(4096, new CharSequenceEventCodec(), 0, false);
+		assertEquals(2, bus.nextOffset());
+		assertEquals(Arrays.asList("e0", "e1"), replay(bus, 0));
+		bus.post("e2");
+		assertEquals(Arrays.asList("e0", "e1", "e2"), replay(bus, 0));
+		bus.shutdown();
+	}
+
+	/**
+	 * Segments of 64 bytes hold 3 records of 20 bytes, only the 2 latest segments are kept
+	 */
+	public void testRollingWithRetention() throws Exception {
+		JournalEventBus bus = open(64, new CharSequenceEventCodec(), 2, false);
+		for (int i = 0; i < 10; i++) {
+			bus.post("e" + i);
+		}
+		assertEquals(10, bus.nextOffset());
+		assertEquals(2, segmentFiles().size());
+		assertEquals(Arrays.asList("e6", "e7", "e8", "e9"), replay(bus, 0));
+		assertEquals(Arrays.asList("e8", "e9"), replay(bus, 8));
+		bus.shutdown();
+
+		bus = open(64, new CharSequenceEventCodec(), 2, false);
+		assertEquals(10, bus.nextOffset());
+		assertEquals(Arrays.asList("e6", "e7", "e8", "e9"), replay(bus, 0));
+		bus.shutdown();
+	}
+
+	/**
+	 * Segments of 64 bytes hold 2 records of 22 bytes, the full ones keep the latest event of every key
+	 * at its offset
+	 */
+	public void testCompactionKeepsLatestByKey() throws Exception {
+		JournalEventBus bus = open(64, new KeyedCodec(), 0, true);
+		for (String event : new String[] { "a=1", "b=1", "a=2", "b=2", "a=3", "c=1" }) {
+			bus.post(event);
+		}
+		// lets the compaction finish
+		bus.shutdown();
+
+		bus = open(64, new KeyedCodec(), 0, true);
+		assertEquals(6, bus.nextOffset());
+		assertEquals(Arrays.asList("a=2", "b=2", "a=3", "c=1"), replay(bus, 0));
+		assertEquals(Arrays.asList("b=2", "a=3", "c=1"), replay(bus, 3));
+		assertEquals(Arrays.asList("a=3", "c=1"), replay(bus, 4));
+		bus.shutdown();
+	}
+}
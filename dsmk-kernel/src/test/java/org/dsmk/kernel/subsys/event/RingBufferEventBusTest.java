@@ -0,0 +1,90 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dsmk.kernel.TestLogs;
+
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import junit.framework.TestCase;
+
+public class RingBufferEventBusTest extends TestCase {
+
+	public static class Counter {
+
+		final AtomicLong received = new AtomicLong();
+
+		@Subscribe
+		@AllowConcurrentEvents
+		public void on(Long event) {
+			received.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Events posted while the bus shuts down are dispatched, by the consumers or on the caller
+	 */
+	public void testNoEventLostOnShutdown() throws Exception {
+		for (int round = 0; round < 200; round++) {
+			EventBus delegate = new EventBus();
+			Counter counter = new Counter();
+			delegate.register(counter);
+			RingBufferEventBus bus = new RingBufferEventBus("test", delegate, 64, 2, WaitStrategy.of("yield"), TestLogs.SILENT);
+			bus.start();
+
+			AtomicBoolean posting = new AtomicBoolean(true);
+			AtomicLong posted = new AtomicLong();
+			Thread[] publishers = new Thread[4];
+			for (int i = 0; i < publishers.length; i++) {
+				publishers[i] = new Thread(() -> {
+					for (long n = 0; posting.get() || n < 1000; n++) {
+						bus.post(n);
+						posted.incrementAndGet();
+					}
+				});
+				publishers[i].start();
+			}
+			Thread.sleep(0, 1000 * (round % 100));
+			bus.shutdown();
+			posting.set(false);
+			for (Thread publisher : publishers) {
+				publisher.join();
+			}
+			assertEquals("round " + round, posted.get(), counter.received.get());
+		}
+	}
+
+	public static class Rendezvous {
+
+		final CountDownLatch inside = new CountDownLatch(2);
+		final AtomicBoolean concurrent = new AtomicBoolean();
+
+		@Subscribe
+		@AllowConcurrentEvents
+		public void on(String event) throws InterruptedException {
+			inside.countDown();
+			concurrent.compareAndSet(false, inside.await(5, TimeUnit.SECONDS));
+		}
+	}
+
+	/**
+	 * With more than one consumer consecutive events are dispatched concurrently, which is why posting
+	 * order is only kept with a single consumer
+	 */
+	public void testConsumersDispatchConcurrently() throws Exception {
+		EventBus delegate = new EventBus();
+		Rendezvous rendezvous = new Rendezvous();
+		delegate.register(rendezvous);
+		RingBufferEventBus bus = new RingBufferEventBus("test", delegate, 64, 2, WaitStrategy.of("block"), TestLogs.SILENT);
+		bus.start();
+		bus.post("first");
+		bus.post("second");
+		bus.shutdown();
+		assertTrue(rendezvous.concurrent.get());
+	}
+}
@@ -0,0 +1,151 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class SharedMemoryQueueTest extends TestCase {
+
+	/**
+	 * where the header keeps the tail producers claim from
+	 */
+	private static final int TAIL_OFFSET = 64;
+
+	/**
+	 * where the ring of records begins, after the header
+	 */
+	private static final int DATA_OFFSET = 192;
+
+	private Path file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = Files.createTempFile("queue", ".shm");
+		Files.delete(file);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	private static byte[] record(int length, int seed) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (seed + i);
+		}
+		return bytes;
+	}
+
+	private static byte[] take(SharedMemoryQueue queue) {
+		ByteBuffer payload = queue.peek();
+		if (payload == null) {
+			return null;
+		}
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		queue.release();
+		return bytes;
+	}
+
+	/**
+	 * Records of 1512 bytes do not divide the ring of 4096, so every few records one is preceded by a
+	 * padding record filling the end of the ring
+	 */
+	public void testRoundTripAcrossWrapAround() throws Exception {
+		try (SharedMemoryQueue producer = new SharedMemoryQueue(file, 4096); SharedMemoryQueue consumer = new SharedMemoryQueue(file, 8192)) {
+			assertEquals("the capacity of the file is kept", 4096, consumer.capacity());
+			consumer.consume(1000);
+
+			for (int i = 0; i < 20; i++) {
+				byte[] bytes = record(1500, i);
+				assertTrue(producer.offer(bytes, bytes.length));
+				assertTrue(consumer.hasNext());
+				assertTrue(Arrays.equals(bytes, take(consumer)));
+				assertFalse(consumer.hasNext());
+				assertEquals(0, consumer.backlog());
+			}
+			assertEquals(0, consumer.skipped());
+		}
+	}
+
+	public void testFullQueueRefusesRecords() throws Exception {
+		try (SharedMemoryQueue queue = new SharedMemoryQueue(file, 4096)) {
+			queue.consume(1000);
+			byte[] bytes = record(1000, 0);
+			int offered = 0;
+			while (queue.offer(bytes, bytes.length)) {
+				offered++;
+			}
+			assertEquals(4, offered);
+
+			assertTrue(Arrays.equals(bytes, take(queue)));
+			assertTrue(queue.offer(bytes, bytes.length));
+			for (int i = 0; i < offered; i++) {
+				assertTrue(Arrays.equals(bytes, take(queue)));
+			}
+			assertNull(queue.peek());
+		}
+	}
+
+	/**
+	 * Claims the next bytes of the ring as a producer dying before committing them would, storing the
+	 * size claimed or not
+	 */
+	private void claimAndDie(int bytes, boolean storeSize) throws Exception {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET + 4096);
+			mapped.order(ByteOrder.nativeOrder());
+			long tail = mapped.getLong(TAIL_OFFSET);
+			mapped.putLong(TAIL_OFFSET, tail + bytes);
+			if (storeSize) {
+				mapped.putInt(DATA_OFFSET + ((int) tail & 4095) + 4, bytes);
+			}
+		}
+	}
+
+	private static void awaitNext(SharedMemoryQueue queue) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!queue.hasNext() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * A producer dying between its claim and its commit stalls the consumer for the stall timeout
+	 * only: the record is skipped by the size claimed, or up to the tail when the size was not stored,
+	 * the records committed after it being skipped too then
+	 */
+	public void testStalledRecordIsSkipped() throws Exception {
+		try (SharedMemoryQueue queue = new SharedMemoryQueue(file, 4096)) {
+			queue.consume(50);
+			byte[] bytes = record(100, 7);
+
+			claimAndDie(64, true);
+			assertTrue(queue.offer(bytes, bytes.length));
+			assertFalse(queue.hasNext());
+			assertNull(queue.peek());
+			awaitNext(queue);
+			assertTrue(Arrays.equals(bytes, take(queue)));
+			assertEquals(64, queue.skipped());
+
+			claimAndDie(64, false);
+			assertTrue(queue.offer(bytes, bytes.length));
+			assertFalse(queue.hasNext());
+			awaitNext(queue);
+			assertNull(queue.peek());
+			assertEquals(64 + 64 + 112, queue.skipped());
+			assertEquals(0, queue.backlog());
+
+			assertTrue(queue.offer(bytes, bytes.length));
+			assertTrue(Arrays.equals(bytes, take(queue)));
+		}
+	}
+}
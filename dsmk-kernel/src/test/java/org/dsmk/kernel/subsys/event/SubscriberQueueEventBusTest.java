@@ -0,0 +1,111 @@
+package org.dsmk.kernel.subsys.event;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.dsmk.kernel.TestLogs;
+
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import junit.framework.TestCase;
+
+public class SubscriberQueueEventBusTest extends TestCase {
+
+	/**
+	 * Waits for the gate on every event, unregistering itself on "unregister"
+	 */
+	public static class Gated {
+
+		final SubscriberQueueEventBus bus;
+		final CountDownLatch gate;
+		final List<String> received = new CopyOnWriteArrayList<>();
+
+		Gated(SubscriberQueueEventBus bus, CountDownLatch gate) {
+			this.bus = bus;
+			this.gate = gate;
+		}
+
+		@Subscribe
+		public void on(String event) throws InterruptedException {
+			gate.await(10, TimeUnit.SECONDS);
+			received.add(event);
+			if ("unregister".equals(event)) {
+				bus.unregister(this);
+			}
+		}
+	}
+
+	private static SubscriberQueueEventBus bus(int capacity) {
+		return new SubscriberQueueEventBus("test", new EventBus(), capacity, OverflowPolicy.BLOCK,
+				Collections.<String, Integer>emptyMap(), Collections.<String, OverflowPolicy>emptyMap(), TestLogs.SILENT);
+	}
+
+	private static void awaitDelivered(SubscriberQueueEventBus.SubscriberQueue queue, long delivered) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (queue.getDelivered() < delivered && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * A subscriber unregistering itself from its method does not wait for its own thread, and still
+	 * receives the events queued before
+	 */
+	public void testUnregisterFromOwnSubscriber() throws Exception {
+		SubscriberQueueEventBus bus = bus(16);
+		CountDownLatch gate = new CountDownLatch(1);
+		Gated subscriber = new Gated(bus, gate);
+		bus.register(subscriber);
+		SubscriberQueueEventBus.SubscriberQueue queue = bus.queues().get(0);
+
+		bus.post("unregister");
+		bus.post("queued");
+		gate.countDown();
+		awaitDelivered(queue, 2);
+
+		assertEquals(Collections.emptyList(), bus.queues());
+		assertEquals(2, queue.getDelivered());
+		assertEquals(Arrays.asList("unregister", "queued"), subscriber.received);
+		bus.shutdown();
+	}
+
+	/**
+	 * A publisher waiting for room in a full queue gives up once the queue stops, instead of waiting
+	 * for a thread which is done
+	 */
+	public void testBlockedPublisherDropsOnceStopped() throws Exception {
+		SubscriberQueueEventBus bus = bus(1);
+		CountDownLatch gate = new CountDownLatch(1);
+		Gated subscriber = new Gated(bus, gate);
+		bus.register(subscriber);
+		SubscriberQueueEventBus.SubscriberQueue queue = bus.queues().get(0);
+
+		bus.post("taken");
+		while (queue.getDepth() > 0) {
+			Thread.sleep(1);
+		}
+		bus.post("queued");
+		Thread publisher = new Thread(() -> bus.post("blocked"));
+		publisher.start();
+		while (publisher.getState() != Thread.State.TIMED_WAITING) {
+			Thread.sleep(1);
+		}
+
+		Thread unregistering = new Thread(() -> bus.unregister(subscriber));
+		unregistering.start();
+		publisher.join(10000);
+		assertFalse("publisher blocked on a stopped queue", publisher.isAlive());
+
+		gate.countDown();
+		unregistering.join(10000);
+		assertFalse(unregistering.isAlive());
+		assertEquals(Arrays.asList("taken", "queued"), subscriber.received);
+		assertEquals(1, queue.getDropped());
+		bus.shutdown();
+	}
+}
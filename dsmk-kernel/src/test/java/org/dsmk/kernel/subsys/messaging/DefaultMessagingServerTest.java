@@ -0,0 +1,166 @@
+package org.dsmk.kernel.subsys.messaging;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.dsmk.api.MessagingServer.Message;
+import org.dsmk.kernel.TestLogs;
+
+import junit.framework.TestCase;
+
+public class DefaultMessagingServerTest extends TestCase {
+
+	private BufferPool pool;
+	private ExecutorService executor;
+	private ScheduledExecutorService scheduler;
+	private DefaultMessagingServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		pool = new BufferPool(4096, 1 << 20);
+		executor = Executors.newSingleThreadExecutor();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		server = new DefaultMessagingServer(pool, executor, scheduler, 5, 5000, TestLogs.SILENT);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+		executor.shutdownNow();
+		scheduler.shutdownNow();
+	}
+
+	private ByteBuffer payload(long value) {
+		ByteBuffer buffer = server.allocate(8);
+		buffer.putLong(value).flip();
+		return buffer;
+	}
+
+	/**
+	 * Waits for the pool to hold the bytes, the payloads of a failed request being released after its
+	 * failure
+	 */
+	private void awaitPooled(long bytes) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (pool.pooledBytes() != bytes && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(bytes, pool.pooledBytes());
+	}
+
+	/**
+	 * The handler rewrites the request's payload as the response, which once released goes back to the
+	 * pool for the next allocation
+	 */
+	public void testResponseReleasesPayloadForReuse() throws Exception {
+		server.bind("increment", request -> {
+			ByteBuffer buffer = request.getPayload();
+			long value = buffer.getLong(buffer.position());
+			buffer.clear();
+			buffer.putLong(value + 1).flip();
+			return CompletableFuture.completedFuture(buffer);
+		});
+
+		ByteBuffer sent = payload(41);
+		Message response = server.request("increment", sent).get(5, TimeUnit.SECONDS);
+		assertSame(sent, response.getPayload());
+		assertEquals(42, response.getPayload().getLong());
+		assertEquals(0, pool.pooledBytes());
+
+		response.release();
+		assertEquals(256, pool.pooledBytes());
+		response.release();
+		assertEquals("releasing again does nothing", 256, pool.pooledBytes());
+
+		ByteBuffer reused = server.allocate(100);
+		assertSame(sent, reused);
+		assertEquals(0, reused.position());
+		assertEquals(reused.capacity(), reused.limit());
+		assertEquals(0, pool.pooledBytes());
+	}
+
+	/**
+	 * A request without response fails with a TimeoutException, and the response completing later is
+	 * released along with its request
+	 */
+	public void testTimeoutReleasesLateResponse() throws Exception {
+		CompletableFuture<ByteBuffer> late = new CompletableFuture<>();
+		CountDownLatch handled = new CountDownLatch(1);
+		server.bind("late", request -> {
+			handled.countDown();
+			return late;
+		});
+
+		CompletableFuture<Message> response = server.request("late", payload(1), 200, TimeUnit.MILLISECONDS);
+		assertTrue(handled.await(5, TimeUnit.SECONDS));
+		try {
+			response.get(5, TimeUnit.SECONDS);
+			fail("Not timed out");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().toString(), e.getCause() instanceof TimeoutException);
+		}
+		assertEquals(0, server.pendingCount());
+
+		late.complete(server.allocate(1000));
+		awaitPooled(256 + 1024);
+	}
+
+	public void testFailuresReleaseRequest() throws Exception {
+		server.bind("failing", request -> {
+			throw new IllegalArgumentException("failing");
+		});
+
+		try {
+			server.request("failing", payload(1)).get(5, TimeUnit.SECONDS);
+			fail("Not failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().toString(), e.getCause() instanceof IllegalArgumentException);
+		}
+		awaitPooled(256);
+
+		try {
+			server.request("unbound", payload(2)).get(5, TimeUnit.SECONDS);
+			fail("Not failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause().toString(), e.getCause() instanceof IllegalStateException);
+		}
+		// the buffer was reused then released again
+		awaitPooled(256);
+	}
+
+	/**
+	 * Only the buffers the pool handed out go back to it, once, within its budget
+	 */
+	public void testPoolTakesBackItsOwnBuffersOnly() {
+		BufferPool pool = new BufferPool(1024, 2048);
+		ByteBuffer buffer = pool.allocate(300);
+		assertEquals(512, buffer.capacity());
+
+		pool.release(buffer.duplicate());
+		pool.release(ByteBuffer.allocateDirect(512));
+		assertEquals(0, pool.pooledBytes());
+		pool.release(buffer);
+		pool.release(buffer);
+		assertEquals(512, pool.pooledBytes());
+
+		ByteBuffer[] buffers = { pool.allocate(1024), pool.allocate(1024), pool.allocate(1024) };
+		for (ByteBuffer each : buffers) {
+			pool.release(each);
+		}
+		assertEquals("within the budget", 512 + 1024, pool.pooledBytes());
+
+		ByteBuffer large = pool.allocate(4096);
+		pool.release(large);
+		assertEquals("larger than the largest pooled size", 512 + 1024, pool.pooledBytes());
+
+		pool.clear();
+		assertEquals(0, pool.pooledBytes());
+	}
+}